@@ -88,6 +88,8 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsFilter;
 import org.elasticsearch.common.util.BigArrays;
 import org.elasticsearch.common.util.PageCacheRecycler;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.util.concurrent.ThreadContext;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.env.Environment;
@@ -125,11 +127,16 @@ import org.elasticsearch.transport.TransportResponseHandler;
 import org.elasticsearch.transport.TransportService;
 import org.elasticsearch.watcher.ResourceWatcherService;
 
+import com.amazon.opendistroforelasticsearch.security.action.auditstats.AuditStatsAction;
+import com.amazon.opendistroforelasticsearch.security.action.auditstats.TransportAuditStatsAction;
+import com.amazon.opendistroforelasticsearch.security.action.authcachestats.AuthCacheStatsAction;
+import com.amazon.opendistroforelasticsearch.security.action.authcachestats.TransportAuthCacheStatsAction;
 import com.amazon.opendistroforelasticsearch.security.action.configupdate.ConfigUpdateAction;
 import com.amazon.opendistroforelasticsearch.security.action.configupdate.TransportConfigUpdateAction;
 import com.amazon.opendistroforelasticsearch.security.action.whoami.TransportWhoAmIAction;
 import com.amazon.opendistroforelasticsearch.security.action.whoami.WhoAmIAction;
 import com.amazon.opendistroforelasticsearch.security.auditlog.AuditLog;
+import com.amazon.opendistroforelasticsearch.security.auditlog.AuditStatsProvider;
 import com.amazon.opendistroforelasticsearch.security.auditlog.AuditLogSslExceptionHandler;
 import com.amazon.opendistroforelasticsearch.security.auditlog.NullAuditLog;
 import com.amazon.opendistroforelasticsearch.security.auditlog.AuditLog.Origin;
@@ -142,6 +149,8 @@ import com.amazon.opendistroforelasticsearch.security.configuration.AdminDNs;
 import com.amazon.opendistroforelasticsearch.security.configuration.ClusterInfoHolder;
 import com.amazon.opendistroforelasticsearch.security.configuration.CompatConfig;
 import com.amazon.opendistroforelasticsearch.security.configuration.ConfigurationChangeListener;
+import com.amazon.opendistroforelasticsearch.security.configuration.DlsFlsCacheHelper;
+import com.amazon.opendistroforelasticsearch.security.configuration.DlsFlsRestrictionsSearchExt;
 import com.amazon.opendistroforelasticsearch.security.configuration.DlsFlsRequestValve;
 import com.amazon.opendistroforelasticsearch.security.configuration.IndexBaseConfigurationRepository;
 import com.amazon.opendistroforelasticsearch.security.configuration.OpenDistroSecurityIndexSearcherWrapper;
@@ -162,7 +171,9 @@ import com.amazon.opendistroforelasticsearch.security.ssl.SslExceptionHandler;
 import com.amazon.opendistroforelasticsearch.security.ssl.http.netty.ValidatingDispatcher;
 import com.amazon.opendistroforelasticsearch.security.ssl.transport.OpenDistroSecuritySSLNettyTransport;
 import com.amazon.opendistroforelasticsearch.security.ssl.util.SSLConfigConstants;
+import com.amazon.opendistroforelasticsearch.security.support.Base64Helper;
 import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+import com.amazon.opendistroforelasticsearch.security.support.DlsFlsPolicyCache;
 import com.amazon.opendistroforelasticsearch.security.support.HeaderHelper;
 import com.amazon.opendistroforelasticsearch.security.support.ModuleInfo;
 import com.amazon.opendistroforelasticsearch.security.support.OpenDistroSecurityUtils;
@@ -203,6 +214,9 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
     @Override
     public void close() throws IOException {
         //TODO implement close
+        if (backendRegistry != null) {
+            backendRegistry.close();
+        }
         super.close();
     }
 
@@ -499,6 +513,8 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
         if(!tribeNodeClient && !disabled && !sslOnly) {
             actions.add(new ActionHandler<>(ConfigUpdateAction.INSTANCE, TransportConfigUpdateAction.class));
             actions.add(new ActionHandler<>(WhoAmIAction.INSTANCE, TransportWhoAmIAction.class));
+            actions.add(new ActionHandler<>(AuditStatsAction.INSTANCE, TransportAuditStatsAction.class));
+            actions.add(new ActionHandler<>(AuthCacheStatsAction.INSTANCE, TransportAuthCacheStatsAction.class));
         }
         return actions;
     }
@@ -563,21 +579,20 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
                     public Weight doCache(Weight weight, QueryCachingPolicy policy) {
                         final Map<String, Set<String>> allowedFlsFields = (Map<String, Set<String>>) HeaderHelper.deserializeSafeFromHeader(threadPool.getThreadContext(),
                                 ConfigConstants.OPENDISTRO_SECURITY_FLS_FIELDS_HEADER);
-                        
-                        if(OpenDistroSecurityUtils.evalMap(allowedFlsFields, index().getName()) != null) {
-                            return weight;
-                        } else {
-                            
-                            final Map<String, Set<String>> maskedFieldsMap = (Map<String, Set<String>>) HeaderHelper.deserializeSafeFromHeader(threadPool.getThreadContext(),
-                                    ConfigConstants.OPENDISTRO_SECURITY_MASKED_FIELD_HEADER);
-                            
-                            if(OpenDistroSecurityUtils.evalMap(maskedFieldsMap, index().getName()) != null) {
-                                return weight;
-                            } else {
-                                return nodeCache.doCache(weight, policy);
-                            }
+                        final Map<String, Set<String>> maskedFieldsMap = (Map<String, Set<String>>) HeaderHelper.deserializeSafeFromHeader(threadPool.getThreadContext(),
+                                ConfigConstants.OPENDISTRO_SECURITY_MASKED_FIELD_HEADER);
+
+                        final String flsEval = OpenDistroSecurityUtils.evalMap(allowedFlsFields, index().getName());
+                        final String maskedEval = OpenDistroSecurityUtils.evalMap(maskedFieldsMap, index().getName());
+
+                        if(flsEval == null && maskedEval == null) {
+                            return nodeCache.doCache(weight, policy);
                         }
-                        
+
+                        //FLS/masked readers share the core cache key of the unrestricted reader, so their restrictions become part of the cached query
+                        final String restrictionsKey = DlsFlsCacheHelper.restrictionsKey(flsEval == null ? null : allowedFlsFields.get(flsEval),
+                                maskedEval == null ? null : maskedFieldsMap.get(maskedEval));
+                        return nodeCache.doCache(DlsFlsCacheHelper.restrict(weight, restrictionsKey), DlsFlsCacheHelper.restrict(policy));
                     }
                 });
             } else {
@@ -590,6 +605,14 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
 
             indexModule.addSearchOperationListener(new SearchOperationListener() {
 
+                @Override
+                public void onPreQueryPhase(SearchContext context) {
+                    if(dlsFlsAvailable) {
+                        //restricted readers share the reader cache key of the unrestricted reader, so the restrictions become part of the cached request
+                        DlsFlsRestrictionsSearchExt.addRestrictions(context.request(), threadPool.getThreadContext(), indexModule.getIndex().getName());
+                    }
+                }
+
                 @Override
                 public void onNewScrollContext(SearchContext context) {
 
@@ -661,12 +684,12 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
 
                         @Override
                         public void messageReceived(T request, TransportChannel channel, Task task) throws Exception {
-                            odsi.getHandler(action, actualHandler).messageReceived(request, channel, task);
+                            odsi.getHandler(action, executor, forceExecution, actualHandler).messageReceived(request, channel, task);
                         }
 
                         @Override
                         public void messageReceived(T request, TransportChannel channel) throws Exception {
-                            odsi.getHandler(action, actualHandler).messageReceived(request, channel);
+                            odsi.getHandler(action, executor, forceExecution, actualHandler).messageReceived(request, channel);
                         }
                     };
 
@@ -761,7 +784,7 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
         final ClusterInfoHolder cih = new ClusterInfoHolder();
         this.cs.addListener(cih);
 
-        DlsFlsRequestValve dlsFlsValve = ReflectionHelper.instantiateDlsFlsValve();
+        DlsFlsRequestValve dlsFlsValve = ReflectionHelper.instantiateDlsFlsValve(settings, clusterService);
 
         final IndexNameExpressionResolver resolver = new IndexNameExpressionResolver(settings);
         irr = new IndexResolverReplacer(resolver, clusterService, cih);
@@ -769,6 +792,10 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
         complianceConfig = (dlsFlsAvailable && (auditLog.getClass() != NullAuditLog.class))?new ComplianceConfig(environment, Objects.requireNonNull(irr), auditLog):null;
         log.debug("Compliance config is "+complianceConfig+" because of dlsFlsAvailable: "+dlsFlsAvailable+" and auditLog="+auditLog.getClass());
         auditLog.setComplianceConfig(complianceConfig);
+
+        if(complianceConfig != null) {
+            this.cs.addListener(complianceConfig);
+        }
         
         sslExceptionHandler = new AuditLogSslExceptionHandler(auditLog);
 
@@ -794,8 +821,10 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
         cr.subscribeOnChange(ConfigConstants.CONFIGNAME_CONFIG, xffResolver);
         backendRegistry = new BackendRegistry(settings, configPath, adminDns, xffResolver, iab, auditLog, threadPool);
         cr.subscribeOnChange(ConfigConstants.CONFIGNAME_CONFIG, backendRegistry);
+        cr.subscribeOnChange(ConfigConstants.CONFIGNAME_INTERNAL_USERS, backendRegistry.getInternalUsersChangeListener());
         final ActionGroupHolder ah = new ActionGroupHolder(cr);
-        evaluator = new PrivilegesEvaluator(clusterService, threadPool, cr, ah, resolver, auditLog, settings, privilegesInterceptor, cih, irr, advancedModulesEnabled);
+        final DlsFlsPolicyCache dlsFlsPolicyCache = new DlsFlsPolicyCache();
+        evaluator = new PrivilegesEvaluator(clusterService, threadPool, cr, ah, resolver, auditLog, settings, privilegesInterceptor, cih, irr, dlsFlsPolicyCache, advancedModulesEnabled);
         
         final CompatConfig compatConfig = new CompatConfig(environment);
         cr.subscribeOnChange(ConfigConstants.CONFIGNAME_CONFIG, compatConfig);
@@ -812,7 +841,7 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
         }
 
         odsi = new OpenDistroSecurityInterceptor(settings, threadPool, backendRegistry, auditLog, principalExtractor,
-                interClusterRequestEvaluator, cs, Objects.requireNonNull(sslExceptionHandler), Objects.requireNonNull(cih));
+                interClusterRequestEvaluator, cs, Objects.requireNonNull(sslExceptionHandler), Objects.requireNonNull(cih), dlsFlsPolicyCache);
         components.add(principalExtractor);
 
         cr.subscribeOnChange(ConfigConstants.CONFIGNAME_CONFIG, new ConfigurationChangeListener() {
@@ -825,6 +854,7 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
 
         components.add(adminDns);
         //components.add(auditLog);
+        components.add(new AuditStatsProvider(auditLog));
         components.add(cr);
         components.add(iab);
         components.add(xffResolver);
@@ -832,6 +862,7 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
         components.add(ah);
         components.add(evaluator);
         components.add(odsi);
+        components.add(dlsFlsPolicyCache);
 
         securityRestHandler = new OpenDistroSecurityRestFilter(backendRegistry, auditLog, threadPool, principalExtractor, settings, configPath, compatConfig);
 
@@ -853,6 +884,7 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
         if(!sslOnly){
           builder.put(NetworkModule.TRANSPORT_TYPE_KEY, "com.amazon.opendistroforelasticsearch.security.ssl.http.netty.OpenDistroSecuritySSLNettyTransport");
           builder.put(NetworkModule.HTTP_TYPE_KEY, "com.amazon.opendistroforelasticsearch.security.http.OpenDistroSecurityHttpServerTransport");
+          builder.put("node.attr." + ConfigConstants.OPENDISTRO_SECURITY_HEADER_FORMAT_NODE_ATTR, Base64Helper.HEADER_FORMAT_VERSION);
         }
         return builder.build();
     }
@@ -887,6 +919,15 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
             settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_DISABLED, false, Property.NodeScope, Property.Filtered));
     
             settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_CACHE_TTL_MINUTES, 60, 0, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_CACHE_SOFT_TTL_MINUTES, -1, -1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_CACHE_REFRESH_THREADS, 2, 1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_CACHE_REFRESH_QUEUE_SIZE, 1000, 1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.simpleString(ConfigConstants.OPENDISTRO_SECURITY_CACHE_SHARED_TYPE, Property.NodeScope, Property.Filtered));
+            settings.add(BackendRegistry.SHARED_CACHE_CREDENTIALS_KEY);
+            settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_AUTHC_PARALLEL_DOMAINS_ENABLED, false, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.longSetting(ConfigConstants.OPENDISTRO_SECURITY_AUTHC_PARALLEL_DOMAINS_TIMEOUT_MS, 10000, 1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUTHC_PARALLEL_DOMAINS_THREADS, 8, 1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUTHC_PARALLEL_DOMAINS_QUEUE_SIZE, 1000, 1, Property.NodeScope, Property.Filtered));
     
             //Security
             settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_ADVANCED_MODULES_ENABLED, true, Property.NodeScope, Property.Filtered));
@@ -911,6 +952,13 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
             settings.add(Setting.groupSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_ENDPOINTS + ".",  Property.NodeScope));
             settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_SIZE, 10, Property.NodeScope, Property.Filtered));
             settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_MAX_QUEUE_LEN, 100*1000, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.simpleString(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_BACKPRESSURE, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.longSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_BLOCK_TIMEOUT_MS, 1000, 0, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_COUNT, 0, 0, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.longSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_DELAY_MS, 1000, 0, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.longSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_MAX_DELAY_MS, 60000, 0, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_MAX_PENDING, 10000, 1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_THREADPOOL_SIZE, 4, 1, Property.NodeScope, Property.Filtered));
             settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_LOG_REQUEST_BODY, true, Property.NodeScope, Property.Filtered));
             settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RESOLVE_INDICES, true, Property.NodeScope, Property.Filtered));
             settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_ENABLE_REST, true, Property.NodeScope, Property.Filtered));
@@ -926,11 +974,26 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
             settings.add(Setting.listSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_IGNORE_REQUESTS, Collections.emptyList(), Function.identity(), Property.NodeScope)); //not filtered here
             settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RESOLVE_BULK_REQUESTS, false, Property.NodeScope, Property.Filtered));
             settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_EXCLUDE_SENSITIVE_HEADERS, true, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.groupSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_SAMPLING + ".", Property.NodeScope));
+            settings.add(Setting.listSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_AGGREGATION_CATEGORIES, Collections.emptyList(), Function.identity(), Property.NodeScope)); //not filtered here
+            settings.add(Setting.longSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_AGGREGATION_WINDOW_MS, 60000, 1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_AGGREGATION_MAX_KEYS, 10000, 1, Property.NodeScope, Property.Filtered));
     
             
             // Security - Audit - Sink
             settings.add(Setting.simpleString(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_ES_INDEX, Property.NodeScope, Property.Filtered));
             settings.add(Setting.simpleString(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_ES_TYPE, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_ENABLED, false, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_MAX_ACTIONS, 500, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.byteSizeSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_MAX_BYTES, new ByteSizeValue(5, ByteSizeUnit.MB), Property.NodeScope, Property.Filtered));
+            settings.add(Setting.longSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_LINGER_MS, 1000, 1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_MAX_IN_FLIGHT, 2, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_QUEUE_SIZE, 100*1000, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.simpleString(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_SPOOL_PATH, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.byteSizeSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_SPOOL_SIZE, new ByteSizeValue(64, ByteSizeUnit.MB), Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_RETRY_MAX_RETRIES, 5, 0, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.longSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_RETRY_BACKOFF_MS, 100, 1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.longSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_RETRY_MAX_BACKOFF_MS, 30000, 1, Property.NodeScope, Property.Filtered));
     
             // External ES
             settings.add(Setting.listSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_EXTERNAL_ES_HTTP_ENDPOINTS, Lists.newArrayList("localhost:9200"), Function.identity(), Property.NodeScope)); //not filtered here
@@ -956,6 +1019,17 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
             settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_SSL_VERIFY, true, Property.NodeScope, Property.Filtered));
             settings.add(Setting.simpleString(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_PEMTRUSTEDCAS_FILEPATH, Property.NodeScope, Property.Filtered));
             settings.add(Setting.simpleString(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_PEMTRUSTEDCAS_CONTENT, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_ENABLED, false, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.simpleString(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_FORMAT, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_MAX_ACTIONS, 500, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.byteSizeSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_MAX_BYTES, new ByteSizeValue(1, ByteSizeUnit.MB), Property.NodeScope, Property.Filtered));
+            settings.add(Setting.longSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_LINGER_MS, 1000, 1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_QUEUE_SIZE, 100*1000, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_MAX_IN_FLIGHT, 4, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_RETRY_MAX_RETRIES, 5, 0, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.longSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_RETRY_BACKOFF_MS, 100, 1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.longSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_RETRY_MAX_BACKOFF_MS, 30000, 1, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_GZIP, false, Property.NodeScope, Property.Filtered));
             
             // Log4j
             settings.add(Setting.simpleString(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX + ConfigConstants.OPENDISTRO_SECURITY_AUDIT_LOG4J_LOGGER_NAME, Property.NodeScope, Property.Filtered));
@@ -982,6 +1056,8 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
             settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_METADATA_ONLY, false, Property.NodeScope, Property.Filtered));
             settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_READ_METADATA_ONLY, false, Property.NodeScope, Property.Filtered));
             settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_LOG_DIFFS, false, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_DIFF_THREADPOOL_SIZE, 1, 0, Property.NodeScope, Property.Filtered));
+            settings.add(Setting.intSetting(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_DIFF_THREADPOOL_MAX_QUEUE_LEN, 10000, 1, Property.NodeScope, Property.Filtered));
             settings.add(Setting.boolSetting(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_EXTERNAL_CONFIG_ENABLED, false, Property.NodeScope, Property.Filtered));
             settings.add(Setting.listSetting(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_READ_IGNORE_USERS, Collections.emptyList(), Function.identity(), Property.NodeScope)); //not filtered here
             settings.add(Setting.listSetting(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_IGNORE_USERS, Collections.emptyList(), Function.identity(), Property.NodeScope)); //not filtered here
@@ -1099,9 +1175,10 @@ public final class OpenDistroSecurityPlugin extends OpenDistroSecuritySSLPlugin
 
         @Inject
         public GuiceHolder(final RepositoriesService repositoriesService,
-                final TransportService remoteClusterService) {
+                final TransportService remoteClusterService, final ClusterService clusterService, final DlsFlsPolicyCache dlsFlsPolicyCache) {
             GuiceHolder.repositoriesService = repositoriesService;
             GuiceHolder.remoteClusterService = remoteClusterService.getRemoteClusterService();
+            dlsFlsPolicyCache.init(remoteClusterService, clusterService);
         }
 
         public static RepositoriesService getRepositoriesService() {
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015-2018 _floragunn_ GmbH
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.action.auditstats;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+public class AuditStatsAction extends Action<AuditStatsRequest, AuditStatsResponse, AuditStatsRequestBuilder> {
+
+    public static final AuditStatsAction INSTANCE = new AuditStatsAction();
+    public static final String NAME = "cluster:admin/opendistro_security/auditlog/stats";
+
+    protected AuditStatsAction() {
+        super(NAME);
+    }
+
+    @Override
+    public AuditStatsRequestBuilder newRequestBuilder(final ElasticsearchClient client) {
+        return new AuditStatsRequestBuilder(client, this);
+    }
+
+    @Override
+    public AuditStatsResponse newResponse() {
+        return new AuditStatsResponse();
+    }
+
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2015-2018 _floragunn_ GmbH
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.action.auditstats;
+
+import org.elasticsearch.action.support.nodes.BaseNodesRequest;
+
+public class AuditStatsRequest extends BaseNodesRequest<AuditStatsRequest> {
+
+    public AuditStatsRequest() {
+        super();
+    }
+
+    public AuditStatsRequest(final String... nodesIds) {
+        super(nodesIds);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015-2018 _floragunn_ GmbH
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.action.auditstats;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.nodes.BaseNodesResponse;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+public class AuditStatsResponse extends BaseNodesResponse<AuditStatsNodeResponse> implements ToXContentObject {
+
+    public AuditStatsResponse() {
+    }
+
+    public AuditStatsResponse(final ClusterName clusterName, List<AuditStatsNodeResponse> nodes, List<FailedNodeException> failures) {
+        super(clusterName, nodes, failures);
+    }
+
+    @Override
+    public List<AuditStatsNodeResponse> readNodesFrom(final StreamInput in) throws IOException {
+        return in.readList(AuditStatsNodeResponse::readNodeResponse);
+    }
+
+    @Override
+    public void writeNodesTo(final StreamOutput out, List<AuditStatsNodeResponse> nodes) throws IOException {
+        out.writeStreamableList(nodes);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        builder.field("cluster_name", getClusterName().value());
+        builder.startObject("nodes");
+        for (AuditStatsNodeResponse node : getNodes()) {
+            builder.startObject(node.getNode().getId());
+            builder.field("name", node.getNode().getName());
+            builder.field("auditlog", node.getStats());
+            builder.endObject();
+        }
+        builder.endObject();
+        if (hasFailures()) {
+            builder.startArray("failures");
+            for (FailedNodeException failure : failures()) {
+                builder.startObject();
+                builder.field("node_id", failure.nodeId());
+                builder.field("reason", failure.getDetailedMessage());
+                builder.endObject();
+            }
+            builder.endArray();
+        }
+        builder.endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015-2018 _floragunn_ GmbH
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.action.auditstats;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import com.amazon.opendistroforelasticsearch.security.auditlog.AuditStatsProvider;
+
+public class TransportAuditStatsAction
+extends
+TransportNodesAction<AuditStatsRequest, AuditStatsResponse, TransportAuditStatsAction.NodeAuditStatsRequest, AuditStatsNodeResponse> {
+
+    private final AuditStatsProvider auditStatsProvider;
+
+    @Inject
+    public TransportAuditStatsAction(final Settings settings,
+            final ThreadPool threadPool, final ClusterService clusterService, final TransportService transportService,
+            final AuditStatsProvider auditStatsProvider, final ActionFilters actionFilters, final IndexNameExpressionResolver indexNameExpressionResolver) {
+
+        super(settings, AuditStatsAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                indexNameExpressionResolver, AuditStatsRequest::new, TransportAuditStatsAction.NodeAuditStatsRequest::new,
+                ThreadPool.Names.MANAGEMENT, AuditStatsNodeResponse.class);
+
+        this.auditStatsProvider = auditStatsProvider;
+    }
+
+    public static class NodeAuditStatsRequest extends BaseNodeRequest {
+
+        AuditStatsRequest request;
+
+        public NodeAuditStatsRequest() {
+        }
+
+        public NodeAuditStatsRequest(final String nodeId, final AuditStatsRequest request) {
+            super(nodeId);
+            this.request = request;
+        }
+
+        @Override
+        public void readFrom(final StreamInput in) throws IOException {
+            super.readFrom(in);
+            request = new AuditStatsRequest();
+            request.readFrom(in);
+        }
+
+        @Override
+        public void writeTo(final StreamOutput out) throws IOException {
+            super.writeTo(out);
+            request.writeTo(out);
+        }
+    }
+
+    @Override
+    protected NodeAuditStatsRequest newNodeRequest(final String nodeId, final AuditStatsRequest request) {
+        return new NodeAuditStatsRequest(nodeId, request);
+    }
+
+    @Override
+    protected AuditStatsNodeResponse newNodeResponse() {
+        return new AuditStatsNodeResponse();
+    }
+
+    @Override
+    protected AuditStatsResponse newResponse(AuditStatsRequest request, List<AuditStatsNodeResponse> responses,
+            List<FailedNodeException> failures) {
+        return new AuditStatsResponse(this.clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected AuditStatsNodeResponse nodeOperation(final NodeAuditStatsRequest request) {
+        return new AuditStatsNodeResponse(clusterService.localNode(), auditStatsProvider.getStats());
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015-2018 _floragunn_ GmbH
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.action.authcachestats;
+
+import org.elasticsearch.action.Action;
+import org.elasticsearch.client.ElasticsearchClient;
+
+public class AuthCacheStatsAction extends Action<AuthCacheStatsRequest, AuthCacheStatsResponse, AuthCacheStatsRequestBuilder> {
+
+    public static final AuthCacheStatsAction INSTANCE = new AuthCacheStatsAction();
+    public static final String NAME = "cluster:admin/opendistro_security/authcache/stats";
+
+    protected AuthCacheStatsAction() {
+        super(NAME);
+    }
+
+    @Override
+    public AuthCacheStatsRequestBuilder newRequestBuilder(final ElasticsearchClient client) {
+        return new AuthCacheStatsRequestBuilder(client, this);
+    }
+
+    @Override
+    public AuthCacheStatsResponse newResponse() {
+        return new AuthCacheStatsResponse();
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015-2018 _floragunn_ GmbH
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.action.authcachestats;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.elasticsearch.action.support.nodes.BaseNodeResponse;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+public class AuthCacheStatsNodeResponse extends BaseNodeResponse {
+
+    private Map<String, Object> stats;
+
+    AuthCacheStatsNodeResponse() {
+    }
+
+    public AuthCacheStatsNodeResponse(final DiscoveryNode node, final Map<String, Object> stats) {
+        super(node);
+        this.stats = stats;
+    }
+
+    public static AuthCacheStatsNodeResponse readNodeResponse(StreamInput in) throws IOException {
+        AuthCacheStatsNodeResponse nodeResponse = new AuthCacheStatsNodeResponse();
+        nodeResponse.readFrom(in);
+        return nodeResponse;
+    }
+
+    public Map<String, Object> getStats() {
+        return stats == null ? Collections.emptyMap() : Collections.unmodifiableMap(stats);
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeMap(stats);
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        stats = in.readMap();
+    }
+
+    @Override
+    public String toString() {
+        return "AuthCacheStatsNodeResponse [stats=" + stats + "]";
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015-2018 _floragunn_ GmbH
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.action.authcachestats;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.FailedNodeException;
+import org.elasticsearch.action.support.ActionFilters;
+import org.elasticsearch.action.support.nodes.BaseNodeRequest;
+import org.elasticsearch.action.support.nodes.TransportNodesAction;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Provider;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+
+import com.amazon.opendistroforelasticsearch.security.auth.BackendRegistry;
+
+public class TransportAuthCacheStatsAction
+extends
+TransportNodesAction<AuthCacheStatsRequest, AuthCacheStatsResponse, TransportAuthCacheStatsAction.NodeAuthCacheStatsRequest, AuthCacheStatsNodeResponse> {
+
+    private final Provider<BackendRegistry> backendRegistry;
+
+    @Inject
+    public TransportAuthCacheStatsAction(final Settings settings,
+            final ThreadPool threadPool, final ClusterService clusterService, final TransportService transportService,
+            final Provider<BackendRegistry> backendRegistry, final ActionFilters actionFilters, final IndexNameExpressionResolver indexNameExpressionResolver) {
+
+        super(settings, AuthCacheStatsAction.NAME, threadPool, clusterService, transportService, actionFilters,
+                indexNameExpressionResolver, AuthCacheStatsRequest::new, TransportAuthCacheStatsAction.NodeAuthCacheStatsRequest::new,
+                ThreadPool.Names.MANAGEMENT, AuthCacheStatsNodeResponse.class);
+
+        this.backendRegistry = backendRegistry;
+    }
+
+    public static class NodeAuthCacheStatsRequest extends BaseNodeRequest {
+
+        AuthCacheStatsRequest request;
+
+        public NodeAuthCacheStatsRequest() {
+        }
+
+        public NodeAuthCacheStatsRequest(final String nodeId, final AuthCacheStatsRequest request) {
+            super(nodeId);
+            this.request = request;
+        }
+
+        @Override
+        public void readFrom(final StreamInput in) throws IOException {
+            super.readFrom(in);
+            request = new AuthCacheStatsRequest();
+            request.readFrom(in);
+        }
+
+        @Override
+        public void writeTo(final StreamOutput out) throws IOException {
+            super.writeTo(out);
+            request.writeTo(out);
+        }
+    }
+
+    @Override
+    protected NodeAuthCacheStatsRequest newNodeRequest(final String nodeId, final AuthCacheStatsRequest request) {
+        return new NodeAuthCacheStatsRequest(nodeId, request);
+    }
+
+    @Override
+    protected AuthCacheStatsNodeResponse newNodeResponse() {
+        return new AuthCacheStatsNodeResponse();
+    }
+
+    @Override
+    protected AuthCacheStatsResponse newResponse(AuthCacheStatsRequest request, List<AuthCacheStatsNodeResponse> responses,
+            List<FailedNodeException> failures) {
+        return new AuthCacheStatsResponse(this.clusterService.getClusterName(), responses, failures);
+    }
+
+    @Override
+    protected AuthCacheStatsNodeResponse nodeOperation(final NodeAuthCacheStatsRequest request) {
+        return new AuthCacheStatsNodeResponse(clusterService.localNode(), backendRegistry.get().getCacheStats());
+    }
+}
@@ -54,6 +54,7 @@ import org.elasticsearch.transport.TransportService;
 import com.amazon.opendistroforelasticsearch.security.auth.BackendRegistry;
 import com.amazon.opendistroforelasticsearch.security.configuration.ConfigurationRepository;
 import com.amazon.opendistroforelasticsearch.security.configuration.IndexBaseConfigurationRepository;
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
 
 public class TransportConfigUpdateAction
 extends
@@ -122,7 +123,10 @@ TransportNodesAction<ConfigUpdateRequest, ConfigUpdateResponse, TransportConfigU
     @Override
     protected ConfigUpdateNodeResponse nodeOperation(final NodeConfigUpdateRequest request) {
         final Map<String, Settings> setn = configurationRepository.reloadConfiguration(Arrays.asList(request.request.getConfigTypes()));
-        backendRegistry.get().invalidateCache();
+        //changed users are invalidated by the backend registry itself, a reload of all configs flushes the caches
+        if (Arrays.asList(request.request.getConfigTypes()).containsAll(ConfigConstants.CONFIG_NAMES)) {
+            backendRegistry.get().invalidateCache();
+        }
         return new ConfigUpdateNodeResponse(clusterService.localNode(), setn.keySet().toArray(new String[0]), null); 
     }
 }
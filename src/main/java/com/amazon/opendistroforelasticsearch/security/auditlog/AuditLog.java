@@ -76,6 +76,9 @@ public interface AuditLog extends Closeable {
     
     // compliance config
     void setComplianceConfig(ComplianceConfig complianceConfig);
+
+    // health of the audit pipeline on this node
+    Map<String, Object> getStats();
     
     public enum Origin {
         REST, TRANSPORT, LOCAL
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015-2018 _floragunn_ GmbH
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog;
+
+import java.util.Map;
+
+/**
+ * Makes the stats of the node local audit log available to transport actions.
+ * The audit log itself is not bound for injection.
+ */
+public final class AuditStatsProvider {
+
+    private final AuditLog auditLog;
+
+    public AuditStatsProvider(final AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    public Map<String, Object> getStats() {
+        return auditLog.getStats();
+    }
+}
@@ -31,6 +31,7 @@
 package com.amazon.opendistroforelasticsearch.security.auditlog;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
 
 import org.elasticsearch.common.settings.Settings;
@@ -139,4 +140,9 @@ public class NullAuditLog implements AuditLog {
     	//noop, intentionally left empty
     }
     
+    @Override
+    public Map<String, Object> getStats() {
+        return Collections.emptyMap();
+    }
+
 }
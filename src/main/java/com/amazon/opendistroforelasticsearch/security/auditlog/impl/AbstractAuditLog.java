@@ -25,10 +25,12 @@ import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.commons.codec.digest.DigestUtils;
@@ -43,6 +45,7 @@ import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.settings.Settings;
@@ -71,12 +74,15 @@ import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage
 import com.amazon.opendistroforelasticsearch.security.compliance.ComplianceConfig;
 import com.amazon.opendistroforelasticsearch.security.dlic.rest.support.Utils;
 import com.amazon.opendistroforelasticsearch.security.support.Base64Helper;
+import com.amazon.opendistroforelasticsearch.security.support.CompiledWildcardMatcher;
 import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
 import com.amazon.opendistroforelasticsearch.security.support.OpenDistroSecurityDeprecationHandler;
-import com.amazon.opendistroforelasticsearch.security.support.WildcardMatcher;
 import com.amazon.opendistroforelasticsearch.security.user.User;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.flipkart.zjsonpatch.JsonDiff;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.BaseEncoding;
 
 public abstract class AbstractAuditLog implements AuditLog {
@@ -104,15 +110,27 @@ public abstract class AbstractAuditLog implements AuditLog {
     private final boolean excludeSensitiveHeaders;
 
     private final String opendistrosecurityIndex;
-    private static final List<String> writeClasses = new ArrayList<>();
-
-    {
-        writeClasses.add(IndexRequest.class.getSimpleName());
-        writeClasses.add(UpdateRequest.class.getSimpleName());
-        writeClasses.add(BulkRequest.class.getSimpleName());
-        writeClasses.add(BulkShardRequest.class.getSimpleName());
-        writeClasses.add(DeleteRequest.class.getSimpleName());
-    }
+    private static final Set<String> writeClasses = ImmutableSet.of(
+            IndexRequest.class.getSimpleName(),
+            UpdateRequest.class.getSimpleName(),
+            BulkRequest.class.getSimpleName(),
+            BulkShardRequest.class.getSimpleName(),
+            DeleteRequest.class.getSimpleName());
+
+    //categories which are logged even if auditing is disabled for a layer
+    private static final Set<Category> alwaysEnabledCategories = Collections.unmodifiableSet(EnumSet.of(Category.FAILED_LOGIN,
+            Category.MISSING_PRIVILEGES, Category.OPENDISTRO_SECURITY_INDEX_ATTEMPT));
+
+    //compiled form of the settings above, checked for every event
+    private final Set<Category> enabledRestCategories;
+    private final Set<Category> enabledTransportCategories;
+    private final CachedMatcher ignoredAuditUsersMatcher;
+    private final CachedMatcher ignoredComplianceUsersForReadMatcher;
+    private final CachedMatcher ignoredComplianceUsersForWriteMatcher;
+    private final CachedMatcher ignoreAuditRequestsMatcher;
+
+    //null if write diffs are computed on the indexing thread
+    private final ComplianceDiffExecutor diffExecutor;
 
     protected AbstractAuditLog(Settings settings, final ThreadPool threadPool, final IndexNameExpressionResolver resolver, final ClusterService clusterService) {
         super();
@@ -210,6 +228,58 @@ public abstract class AbstractAuditLog implements AuditLog {
         }
 
         this.excludeSensitiveHeaders = settings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_EXCLUDE_SENSITIVE_HEADERS, true);
+
+        this.enabledRestCategories = enabledCategories(restAuditingEnabled, disabledRestCategories);
+        this.enabledTransportCategories = enabledCategories(transportAuditingEnabled, disabledTransportCategories);
+        this.ignoredAuditUsersMatcher = new CachedMatcher(ignoredAuditUsers);
+        this.ignoredComplianceUsersForReadMatcher = new CachedMatcher(ignoredComplianceUsersForRead);
+        this.ignoredComplianceUsersForWriteMatcher = new CachedMatcher(ignoredComplianceUsersForWrite);
+        this.ignoreAuditRequestsMatcher = new CachedMatcher(ignoreAuditRequests);
+
+        final int diffThreadPoolSize = settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_DIFF_THREADPOOL_SIZE, 1);
+
+        if (settings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_LOG_DIFFS, false) && diffThreadPoolSize > 0) {
+            this.diffExecutor = new ComplianceDiffExecutor(diffThreadPoolSize,
+                    settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_DIFF_THREADPOOL_MAX_QUEUE_LEN, 10000));
+        } else {
+            this.diffExecutor = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (diffExecutor != null) {
+            diffExecutor.close();
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        if (diffExecutor != null) {
+            final Map<String, Long> diffStats = new HashMap<>();
+            diffStats.put("submitted", diffExecutor.submitted.sum());
+            diffStats.put("caller_runs", diffExecutor.callerRuns.sum());
+            diffStats.put("queued", (long) diffExecutor.queued());
+            stats.put("compliance_diff", diffStats);
+        }
+        return stats;
+    }
+
+    private static Set<Category> enabledCategories(final boolean auditingEnabled, final List<String> disabledCategories) {
+        final Set<Category> enabled = EnumSet.allOf(Category.class);
+
+        if (!auditingEnabled) {
+            enabled.retainAll(alwaysEnabledCategories);
+        }
+
+        for (Category category : Category.values()) {
+            if (disabledCategories.contains(category.toString())) {
+                enabled.remove(category);
+            }
+        }
+
+        return Collections.unmodifiableSet(enabled);
     }
 
     @Override
@@ -539,53 +609,55 @@ public abstract class AbstractAuditLog implements AuditLog {
         msg.addComplianceDocVersion(result.getVersion());
         msg.addComplianceOperation(result.isCreated()?Operation.CREATE:Operation.UPDATE);
 
-        if(complianceConfig.logDiffsForWrite() && originalResult != null && originalResult.isExists() && originalResult.internalSourceRef() != null) {
-            try {
-                String originalSource = null;
-                String currentSource = null;
-                if (opendistrosecurityIndex.equals(shardId.getIndexName())) {
-                    try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY, OpenDistroSecurityDeprecationHandler.INSTANCE, originalResult.internalSourceRef(), XContentType.JSON)) {
-                        Object base64 = parser.map().values().iterator().next();
-                        if(base64 instanceof String) {
-                            originalSource = (new String(BaseEncoding.base64().decode((String) base64)));
-                         } else {
-                             originalSource = XContentHelper.convertToJson(originalResult.internalSourceRef(), false, XContentType.JSON);
-                        }
-                     } catch (Exception e) {
-                         log.error(e);
-                     }
+        final boolean securityIndex = opendistrosecurityIndex.equals(shardId.getIndexName());
+        final boolean logDiff = complianceConfig.logDiffsForWrite() && originalResult != null && originalResult.isExists() && originalResult.internalSourceRef() != null;
+        final boolean logSource = !complianceConfig.logWriteMetadataOnly();
 
-                    try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY, OpenDistroSecurityDeprecationHandler.INSTANCE, currentIndex.source(), XContentType.JSON)) {
-                        Object base64 = parser.map().values().iterator().next();
-                        if(base64 instanceof String) {
-                            currentSource = (new String(BaseEncoding.base64().decode((String) base64)));
-                         } else {
-                            currentSource = XContentHelper.convertToJson(currentIndex.source(), false, XContentType.JSON);
-                        }
-                     } catch (Exception e) {
-                         log.error(e);
-                     }
+        if (logDiff && diffExecutor != null) {
+            //the sources might be backed by pooled buffers which are released after the indexing operation
+            final BytesReference originalSource = new BytesArray(BytesReference.toBytes(originalResult.internalSourceRef()));
+            final BytesReference currentSource = new BytesArray(BytesReference.toBytes(currentIndex.source()));
+            diffExecutor.submit(() -> completeDocumentWritten(msg, securityIndex, originalSource, currentSource, logSource));
+        } else {
+            completeDocumentWritten(msg, securityIndex, logDiff ? originalResult.internalSourceRef() : null, currentIndex.source(), logSource);
+        }
+    }
+
+    /**
+     * Adds diff and source of a written document and saves the message, might be called off the indexing thread
+     *
+     * @param originalSource source before the write, null if no diff should be logged
+     */
+    private void completeDocumentWritten(final AuditMessage msg, final boolean securityIndex, final BytesReference originalSource,
+            final BytesReference currentSource, final boolean logSource) {
+
+        if (originalSource != null) {
+            try {
+                final String original;
+                final String current;
+                if (securityIndex) {
+                    original = decodeSecurityIndexSource(originalSource);
+                    current = decodeSecurityIndexSource(currentSource);
                 } else {
-                    originalSource = XContentHelper.convertToJson(originalResult.internalSourceRef(), false, XContentType.JSON);
-                    currentSource = XContentHelper.convertToJson(currentIndex.source(), false, XContentType.JSON);
+                    original = XContentHelper.convertToJson(originalSource, false, XContentType.JSON);
+                    current = XContentHelper.convertToJson(currentSource, false, XContentType.JSON);
                 }
-                final JsonNode diffnode = JsonDiff.asJson(DefaultObjectMapper.objectMapper.readTree(originalSource), DefaultObjectMapper.objectMapper.readTree(currentSource));
+                final JsonNode diffnode = JsonDiff.asJson(DefaultObjectMapper.objectMapper.readTree(original), DefaultObjectMapper.objectMapper.readTree(current));
                 msg.addComplianceWriteDiffSource(diffnode.size() == 0?"":diffnode.toString());
             } catch (Exception e) {
                 log.error("Unable to generate diff for {}",msg.toPrettyString(),e);
             }
-         }
-
+        }
 
-         if (!complianceConfig.logWriteMetadataOnly()){
-            if(opendistrosecurityIndex.equals(shardId.getIndexName())) {
+        if (logSource) {
+            if(securityIndex) {
                 //current source, normally not null or empty
-                try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY, OpenDistroSecurityDeprecationHandler.INSTANCE, currentIndex.source(), XContentType.JSON)) {
+                try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY, OpenDistroSecurityDeprecationHandler.INSTANCE, currentSource, XContentType.JSON)) {
                    Object base64 = parser.map().values().iterator().next();
                    if(base64 instanceof String) {
                        msg.addUnescapedJsonToRequestBody(new String(BaseEncoding.base64().decode((String) base64)));
                     } else {
-                       msg.addTupleToRequestBody(new Tuple<XContentType, BytesReference>(XContentType.JSON, currentIndex.source()));
+                       msg.addTupleToRequestBody(new Tuple<XContentType, BytesReference>(XContentType.JSON, currentSource));
                    }
                 } catch (Exception e) {
                     log.error(e);
@@ -599,15 +671,27 @@ public abstract class AbstractAuditLog implements AuditLog {
                 //msg.ComplianceWritePreviousSource(new Tuple<XContentType, BytesReference>(XContentType.JSON, originalResult.internalSourceRef()));
 
                 //current source, normally not null or empty
-                msg.addTupleToRequestBody(new Tuple<XContentType, BytesReference>(XContentType.JSON, currentIndex.source()));
+                msg.addTupleToRequestBody(new Tuple<XContentType, BytesReference>(XContentType.JSON, currentSource));
             }
-
-         }
-
+        }
 
         save(msg);
     }
 
+    private String decodeSecurityIndexSource(final BytesReference source) {
+        try (XContentParser parser = XContentHelper.createParser(NamedXContentRegistry.EMPTY, OpenDistroSecurityDeprecationHandler.INSTANCE, source, XContentType.JSON)) {
+            Object base64 = parser.map().values().iterator().next();
+            if(base64 instanceof String) {
+                return new String(BaseEncoding.base64().decode((String) base64));
+            } else {
+                return XContentHelper.convertToJson(source, false, XContentType.JSON);
+            }
+        } catch (Exception e) {
+            log.error(e);
+            return null;
+        }
+    }
+
     @Override
     public void logDocumentDeleted(ShardId shardId, Delete delete, DeleteResult result) {
 
@@ -731,16 +815,12 @@ public abstract class AbstractAuditLog implements AuditLog {
             log.trace("Check category:{}, action:{}, effectiveUser:{}, request:{}", category, action, effectiveUser, request==null?null:request.getClass().getSimpleName());
         }
 
-
-        if(!transportAuditingEnabled) {
-            //ignore for certain categories
-            if(category != Category.FAILED_LOGIN
-                    && category != Category.MISSING_PRIVILEGES
-                    && category != Category.OPENDISTRO_SECURITY_INDEX_ATTEMPT) {
-
-                return false;
+        //transport auditing disabled or category not enabled
+        if (!enabledTransportCategories.contains(category)) {
+            if(log.isTraceEnabled()) {
+                log.trace("Skipped audit log message because category {} not enabled", category);
             }
-
+            return false;
         }
 
         //skip internals
@@ -751,16 +831,10 @@ public abstract class AbstractAuditLog implements AuditLog {
                   || action.startsWith("indices:monitor")
                 )
                 ) {
-
-
-            //if(log.isTraceEnabled()) {
-            //    log.trace("Skipped audit log message due to category ({}) or action ({}) does not match", category, action);
-            //}
-
             return false;
         }
 
-        if (ignoredAuditUsers.size() > 0 && WildcardMatcher.matchAny(ignoredAuditUsers, effectiveUser)) {
+        if (ignoredAuditUsersMatcher.test(effectiveUser)) {
 
             if(log.isTraceEnabled()) {
                 log.trace("Skipped audit log message because of user {} is ignored", effectiveUser);
@@ -769,8 +843,8 @@ public abstract class AbstractAuditLog implements AuditLog {
             return false;
         }
 
-        if (request != null && ignoreAuditRequests.size() > 0
-                && (WildcardMatcher.matchAny(ignoreAuditRequests, action) || WildcardMatcher.matchAny(ignoreAuditRequests, request.getClass().getSimpleName()))) {
+        if (request != null
+                && (ignoreAuditRequestsMatcher.test(action) || ignoreAuditRequestsMatcher.test(request.getClass().getSimpleName()))) {
 
             if(log.isTraceEnabled()) {
                 log.trace("Skipped audit log message because request {} is ignored", action+"#"+request.getClass().getSimpleName());
@@ -779,22 +853,7 @@ public abstract class AbstractAuditLog implements AuditLog {
             return false;
         }
 
-        if (!disabledTransportCategories.contains(category.toString())) {
-            return true;
-        } else {
-            if(log.isTraceEnabled()) {
-                log.trace("Skipped audit log message because category {} not enabled", category);
-            }
-            return false;
-        }
-
-
-        //skip cluster:monitor, index:monitor, internal:*
-        //check transport audit enabled
-        //check category enabled
-        //check action
-        //check ignoreAuditUsers
-
+        return true;
     }
 
     private boolean checkComplianceFilter(final Category category, final String effectiveUser, Origin origin) {
@@ -810,8 +869,7 @@ public abstract class AbstractAuditLog implements AuditLog {
         }
 
         if(category == Category.COMPLIANCE_DOC_READ || category == Category.COMPLIANCE_INTERNAL_CONFIG_READ) {
-            if (ignoredComplianceUsersForRead.size() > 0 && effectiveUser != null
-                    && WildcardMatcher.matchAny(ignoredComplianceUsersForRead, effectiveUser)) {
+            if (ignoredComplianceUsersForReadMatcher.test(effectiveUser)) {
 
                 if(log.isTraceEnabled()) {
                     log.trace("Skipped compliance log message because of user {} is ignored", effectiveUser);
@@ -821,8 +879,7 @@ public abstract class AbstractAuditLog implements AuditLog {
         }
 
         if(category == Category.COMPLIANCE_DOC_WRITE || category == Category.COMPLIANCE_INTERNAL_CONFIG_WRITE) {
-            if (ignoredComplianceUsersForWrite.size() > 0 && effectiveUser != null
-                    && WildcardMatcher.matchAny(ignoredComplianceUsersForWrite, effectiveUser)) {
+            if (ignoredComplianceUsersForWriteMatcher.test(effectiveUser)) {
 
                 if(log.isTraceEnabled()) {
                     log.trace("Skipped compliance log message because of user {} is ignored", effectiveUser);
@@ -840,18 +897,15 @@ public abstract class AbstractAuditLog implements AuditLog {
             log.trace("Check for REST category:{}, effectiveUser:{}, request:{}", category, effectiveUser, request==null?null:request.path());
         }
 
-        if(!restAuditingEnabled) {
-            //ignore for certain categories
-            if(category != Category.FAILED_LOGIN
-                    && category != Category.MISSING_PRIVILEGES
-                    && category != Category.OPENDISTRO_SECURITY_INDEX_ATTEMPT) {
-
-                return false;
+        //rest auditing disabled or category not enabled
+        if (!enabledRestCategories.contains(category)) {
+            if(log.isTraceEnabled()) {
+                log.trace("Skipped audit log message because category {} not enabled", category);
             }
-
+            return false;
         }
 
-        if (ignoredAuditUsers.size() > 0 && WildcardMatcher.matchAny(ignoredAuditUsers, effectiveUser)) {
+        if (ignoredAuditUsersMatcher.test(effectiveUser)) {
 
             if(log.isTraceEnabled()) {
                 log.trace("Skipped audit log message because of user {} is ignored", effectiveUser);
@@ -860,8 +914,7 @@ public abstract class AbstractAuditLog implements AuditLog {
             return false;
         }
 
-        if (request != null && ignoreAuditRequests.size() > 0
-                && (WildcardMatcher.matchAny(ignoreAuditRequests, request.path()))) {
+        if (request != null && ignoreAuditRequestsMatcher.test(request.path())) {
 
             if(log.isTraceEnabled()) {
                 log.trace("Skipped audit log message because request {} is ignored", request.path());
@@ -870,20 +923,39 @@ public abstract class AbstractAuditLog implements AuditLog {
             return false;
         }
 
-        if (!disabledRestCategories.contains(category.toString())) {
-            return true;
-        } else {
-            if(log.isTraceEnabled()) {
-                log.trace("Skipped audit log message because category {} not enabled", category);
-            }
-            return false;
+        return true;
+    }
+
+    /**
+     * Compiled patterns with a bounded cache of the decisions for the candidates seen so far
+     */
+    private static final class CachedMatcher {
+
+        private static final int MAX_CACHED_DECISIONS = 10000;
+
+        private final CompiledWildcardMatcher matcher;
+        private final Cache<String, Boolean> decisions;
+
+        private CachedMatcher(final List<String> patterns) {
+            this.matcher = CompiledWildcardMatcher.of(patterns);
+            this.decisions = matcher.isEmpty() ? null : CacheBuilder.newBuilder().maximumSize(MAX_CACHED_DECISIONS).build();
         }
 
+        private boolean test(final String candidate) {
+
+            if (decisions == null || candidate == null) {
+                return false;
+            }
+
+            Boolean decision = decisions.getIfPresent(candidate);
 
-        //check rest audit enabled
-        //check category enabled
-        //check action
-        //check ignoreAuditUsers
+            if (decision == null) {
+                decision = matcher.test(candidate);
+                decisions.put(candidate, decision);
+            }
+
+            return decision;
+        }
     }
 
 
@@ -90,9 +90,21 @@ public final class AuditLogImpl extends AbstractAuditLog {
 
 	@Override
 	public void close() throws IOException {
+		// pending diffs are saved through the router
+		super.close();
 		messageRouter.close();
 	}
 
+	@Override
+	public Map<String, Object> getStats() {
+		final Map<String, Object> stats = super.getStats();
+		stats.put("enabled", enabled);
+		if (enabled) {
+			stats.putAll(messageRouter.stats());
+		}
+		return stats;
+	}
+
 	@Override
 	protected void save(final AuditMessage msg) {
 		if (enabled) {
@@ -33,9 +33,12 @@ import org.apache.http.client.utils.URIBuilder;
 import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.collect.Tuple;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.common.xcontent.json.JsonXContent;
@@ -107,137 +110,168 @@ public final class AuditMessage {
     public static final String COMPLIANCE_OPERATION = "audit_compliance_operation";
     public static final String COMPLIANCE_DOC_VERSION = "audit_compliance_doc_version";
 
+    public static final String ROLLUP_COUNT = "audit_rollup_count";
+    public static final String ROLLUP_FIRST_TIMESTAMP = "audit_rollup_first_timestamp";
+    public static final String ROLLUP_LAST_TIMESTAMP = "audit_rollup_last_timestamp";
+    public static final String SAMPLING_RATE = "audit_sampling_rate";
+
     private static final DateTimeFormatter DEFAULT_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZZ");
+    private static final ThreadLocal<BytesStreamOutput> BUFFER = ThreadLocal.withInitial(BytesStreamOutput::new);
+    private static volatile FormattedTime lastTime = new FormattedTime(Long.MIN_VALUE, null);
     private final Map<String, Object> auditInfo = new HashMap<String, Object>(50);
     private final Category msgCategory;
+    //json encoding of auditInfo, reset on every modification
+    private volatile BytesReference encoded;
 
     public AuditMessage(final Category msgCategory, final ClusterService clusterService, final Origin origin, final Origin layer) {
         this.msgCategory = Objects.requireNonNull(msgCategory);
         final String currentTime = currentTime();
-        auditInfo.put(FORMAT_VERSION, 3);
-        auditInfo.put(CATEGORY, Objects.requireNonNull(msgCategory));
-        auditInfo.put(UTC_TIMESTAMP, currentTime);
-        auditInfo.put(UTC_TIMESTAMP_DEPRECATED, currentTime);
-        auditInfo.put(NODE_HOST_ADDRESS, Objects.requireNonNull(clusterService).localNode().getHostAddress());
-        auditInfo.put(NODE_ID, Objects.requireNonNull(clusterService).localNode().getId());
-        auditInfo.put(NODE_HOST_NAME, Objects.requireNonNull(clusterService).localNode().getHostName());
-        auditInfo.put(NODE_NAME, Objects.requireNonNull(clusterService).localNode().getName());
-        auditInfo.put(CLUSTER_NAME, Objects.requireNonNull(clusterService).getClusterName().value());
+        put(FORMAT_VERSION, 3);
+        put(CATEGORY, Objects.requireNonNull(msgCategory));
+        put(UTC_TIMESTAMP, currentTime);
+        put(UTC_TIMESTAMP_DEPRECATED, currentTime);
+        put(NODE_HOST_ADDRESS, Objects.requireNonNull(clusterService).localNode().getHostAddress());
+        put(NODE_ID, Objects.requireNonNull(clusterService).localNode().getId());
+        put(NODE_HOST_NAME, Objects.requireNonNull(clusterService).localNode().getHostName());
+        put(NODE_NAME, Objects.requireNonNull(clusterService).localNode().getName());
+        put(CLUSTER_NAME, Objects.requireNonNull(clusterService).getClusterName().value());
 
         if(origin != null) {
-            auditInfo.put(ORIGIN, origin);
+            put(ORIGIN, origin);
         }
 
         if(layer != null) {
-            auditInfo.put(REQUEST_LAYER, layer);
+            put(REQUEST_LAYER, layer);
         }
     }
 
+    private AuditMessage(final Category msgCategory) {
+        this.msgCategory = msgCategory;
+    }
+
+    /**
+     * Restores a message from its JSON encoding, e.g. one which was spooled to disk
+     */
+    public static AuditMessage fromBytes(final BytesReference source) {
+        final Map<String, Object> map = XContentHelper.convertToMap(source, false, XContentType.JSON).v2();
+        final AuditMessage msg = new AuditMessage(Category.valueOf(String.valueOf(map.get(CATEGORY))));
+        for (Entry<String, Object> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            //restore the arrays the getters expect
+            if (value instanceof List && (INDICES.equals(entry.getKey()) || RESOLVED_INDICES.equals(entry.getKey()) || TYPES.equals(entry.getKey()))) {
+                value = ((List<?>) value).stream().map(String::valueOf).toArray(String[]::new);
+            }
+            msg.auditInfo.put(entry.getKey(), value);
+        }
+        msg.encoded = source;
+        return msg;
+    }
+
     public void addRemoteAddress(TransportAddress remoteAddress) {
         if (remoteAddress != null && remoteAddress.getAddress() != null) {
-            auditInfo.put(REMOTE_ADDRESS, remoteAddress.getAddress());
+            put(REMOTE_ADDRESS, remoteAddress.getAddress());
         }
     }
 
     public void addIsAdminDn(boolean isAdminDn) {
-        auditInfo.put(IS_ADMIN_DN, isAdminDn);
+        put(IS_ADMIN_DN, isAdminDn);
     }
 
     public void addException(Throwable t) {
         if (t != null) {
-            auditInfo.put(EXCEPTION, ExceptionsHelper.stackTrace(t));
+            put(EXCEPTION, ExceptionsHelper.stackTrace(t));
         }
     }
 
     public void addPrivilege(String priv) {
         if (priv != null) {
-            auditInfo.put(PRIVILEGE, priv);
+            put(PRIVILEGE, priv);
         }
     }
 
     public void addInitiatingUser(String user) {
         if (user != null) {
-            auditInfo.put(REQUEST_INITIATING_USER, user);
+            put(REQUEST_INITIATING_USER, user);
         }
     }
 
     public void addEffectiveUser(String user) {
         if (user != null) {
-            auditInfo.put(REQUEST_EFFECTIVE_USER, user);
+            put(REQUEST_EFFECTIVE_USER, user);
         }
     }
 
     public void addPath(String path) {
         if (path != null) {
-            auditInfo.put(REST_REQUEST_PATH, path);
+            put(REST_REQUEST_PATH, path);
         }
     }
 
     public void addComplianceWriteDiffSource(String diff) {
         if (diff != null && !diff.isEmpty()) {
-            auditInfo.put(COMPLIANCE_DIFF_CONTENT, diff);
-            auditInfo.put(COMPLIANCE_DIFF_IS_NOOP, false);
+            put(COMPLIANCE_DIFF_CONTENT, diff);
+            put(COMPLIANCE_DIFF_IS_NOOP, false);
         } else if (diff != null && diff.isEmpty()) {
-            auditInfo.put(COMPLIANCE_DIFF_IS_NOOP, true);
+            put(COMPLIANCE_DIFF_IS_NOOP, true);
         }
     }
 
 //    public void addComplianceWriteStoredFields0(String diff) {
 //        if (diff != null && !diff.isEmpty()) {
-//            auditInfo.put(COMPLIANCE_STORED_FIELDS_CONTENT, diff);
-//            //auditInfo.put(COMPLIANCE_DIFF_STORED_IS_NOOP, false);
+//            put(COMPLIANCE_STORED_FIELDS_CONTENT, diff);
+//            //put(COMPLIANCE_DIFF_STORED_IS_NOOP, false);
 //        }
 //    }
 
     public void addTupleToRequestBody(Tuple<XContentType, BytesReference> xContentTuple) {
         if (xContentTuple != null) {
             try {
-                auditInfo.put(REQUEST_BODY, XContentHelper.convertToJson(xContentTuple.v2(), false, xContentTuple.v1()));
+                put(REQUEST_BODY, XContentHelper.convertToJson(xContentTuple.v2(), false, xContentTuple.v1()));
             } catch (Exception e) {
-                auditInfo.put(REQUEST_BODY, "ERROR: Unable to convert to json because of "+e.toString());
+                put(REQUEST_BODY, "ERROR: Unable to convert to json because of "+e.toString());
             }
         }
     }
 
     public void addMapToRequestBody(Map<String, Object> map) {
         if(map != null) {
-            auditInfo.put(REQUEST_BODY, Utils.convertStructuredMapToJson(map));
+            put(REQUEST_BODY, Utils.convertStructuredMapToJson(map));
         }
     }
 
     public void addUnescapedJsonToRequestBody(String source) {
         if (source != null) {
-            auditInfo.put(REQUEST_BODY, source);
+            put(REQUEST_BODY, source);
         }
     }
 
     public void addRequestType(String requestType) {
         if (requestType != null) {
-            auditInfo.put(TRANSPORT_REQUEST_TYPE, requestType);
+            put(TRANSPORT_REQUEST_TYPE, requestType);
         }
     }
 
     public void addAction(String action) {
         if (action != null) {
-            auditInfo.put(TRANSPORT_ACTION, action);
+            put(TRANSPORT_ACTION, action);
         }
     }
 
     public void addId(String id) {
         if (id != null) {
-            auditInfo.put(ID, id);
+            put(ID, id);
         }
     }
 
     public void addTypes(String[] types) {
         if (types != null && types.length > 0) {
-            auditInfo.put(TYPES, types);
+            put(TYPES, types);
         }
     }
 
     public void addType(String type) {
         if (type != null) {
-            auditInfo.put(TYPES, new String[] { type });
+            put(TYPES, new String[] { type });
         }
     }
 
@@ -261,48 +295,48 @@ public final class AuditMessage {
                     //ignore non readable files
                 }
             }
-            auditInfo.put(COMPLIANCE_FILE_INFOS, infos);
+            put(COMPLIANCE_FILE_INFOS, infos);
         }
     }
 
     /*public void addSource(Map<String, String> source) {
         if (source != null && !source.isEmpty()) {
-            auditInfo.put(REQUEST_BODY, source);
+            put(REQUEST_BODY, source);
         }
     }*/
 
     public void addIndices(String[] indices) {
         if (indices != null && indices.length > 0) {
-            auditInfo.put(INDICES, indices);
+            put(INDICES, indices);
         }
 
     }
 
     public void addResolvedIndices(String[] resolvedIndices) {
         if (resolvedIndices != null && resolvedIndices.length > 0) {
-            auditInfo.put(RESOLVED_INDICES, resolvedIndices);
+            put(RESOLVED_INDICES, resolvedIndices);
         }
     }
 
     public void addTaskId(long id) {
-         auditInfo.put(TASK_ID, auditInfo.get(NODE_ID)+":"+id);
+         put(TASK_ID, auditInfo.get(NODE_ID)+":"+id);
     }
 
     public void addShardId(ShardId id) {
         if(id != null) {
-            auditInfo.put(SHARD_ID, id.getId());
+            put(SHARD_ID, id.getId());
         }
    }
 
     public void addTaskParentId(String id) {
         if(id != null) {
-            auditInfo.put(TASK_PARENT_ID, id);
+            put(TASK_PARENT_ID, id);
         }
     }
 
     public void addRestParams(Map<String,String> params) {
         if(params != null && !params.isEmpty()) {
-            auditInfo.put(REST_REQUEST_PARAMS, new HashMap<>(params));
+            put(REST_REQUEST_PARAMS, new HashMap<>(params));
         }
     }
 
@@ -313,9 +347,9 @@ public final class AuditMessage {
                         .entrySet().stream()
                         .filter(map -> !map.getKey().equalsIgnoreCase(AUTHORIZATION_HEADER))
                         .collect(Collectors.toMap(p -> p.getKey(), p -> p.getValue()));
-                auditInfo.put(REST_REQUEST_HEADERS, headersClone);
+                put(REST_REQUEST_HEADERS, headersClone);
             } else {
-                auditInfo.put(REST_REQUEST_HEADERS, new HashMap<String, List<String>>(headers));
+                put(REST_REQUEST_HEADERS, new HashMap<String, List<String>>(headers));
             }
         }
     }
@@ -327,27 +361,75 @@ public final class AuditMessage {
                         .entrySet().stream()
                         .filter(map -> !map.getKey().equalsIgnoreCase(AUTHORIZATION_HEADER))
                         .collect(Collectors.toMap(p -> p.getKey(), p -> p.getValue()));
-                auditInfo.put(TRANSPORT_REQUEST_HEADERS, headersClone);
+                put(TRANSPORT_REQUEST_HEADERS, headersClone);
             } else {
-                auditInfo.put(TRANSPORT_REQUEST_HEADERS, new HashMap<String,String>(headers));
+                put(TRANSPORT_REQUEST_HEADERS, new HashMap<String,String>(headers));
             }
         }
     }
 
     public void addComplianceOperation(Operation op) {
         if(op != null) {
-            auditInfo.put(COMPLIANCE_OPERATION, op);
+            put(COMPLIANCE_OPERATION, op);
         }
     }
 
     public void addComplianceDocVersion(long version) {
-        auditInfo.put(COMPLIANCE_DOC_VERSION, version);
+        put(COMPLIANCE_DOC_VERSION, version);
+    }
+
+    private void put(String key, Object value) {
+        auditInfo.put(key, value);
+        encoded = null;
+    }
+
+    /**
+     * Marks this message as the representative of count messages with the same user, action and indices
+     */
+    public void addRollup(long count, String firstTimestamp, String lastTimestamp) {
+        put(ROLLUP_COUNT, count);
+        put(ROLLUP_FIRST_TIMESTAMP, firstTimestamp);
+        put(ROLLUP_LAST_TIMESTAMP, lastTimestamp);
+    }
+
+    public void addSamplingRate(double rate) {
+        put(SAMPLING_RATE, rate);
     }
 
     public Map<String, Object> getAsMap() {
       return new HashMap<>(this.auditInfo);
     }
 
+    /**
+     * The message encoded as JSON. The encoding is done only once and shared by all sinks
+     * as long as the message is not modified afterwards.
+     */
+    public BytesReference toBytes() {
+        BytesReference bytes = encoded;
+        if (bytes == null) {
+            encoded = bytes = encode(false);
+        }
+        return bytes;
+    }
+
+    private BytesReference encode(boolean pretty) {
+        final BytesStreamOutput out = BUFFER.get();
+        out.reset();
+        try (XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out)) {
+            if (pretty) {
+                builder.prettyPrint();
+            }
+            builder.startObject();
+            for (Entry<String, Object> entry : auditInfo.entrySet()) {
+                builder.field(entry.getKey(), entry.getValue());
+            }
+            builder.endObject();
+        } catch (final IOException e) {
+            throw ExceptionsHelper.convertToElastic(e);
+        }
+        return new BytesArray(BytesReference.toBytes(out.bytes()));
+    }
+
     public String getInitiatingUser() {
         return (String) this.auditInfo.get(REQUEST_INITIATING_USER);
     }
@@ -360,30 +442,42 @@ public final class AuditMessage {
         return (String) this.auditInfo.get(TRANSPORT_REQUEST_TYPE);
     }
 
+    public String getAction() {
+        return (String) this.auditInfo.get(TRANSPORT_ACTION);
+    }
+
+    public String getPrivilege() {
+        return (String) this.auditInfo.get(PRIVILEGE);
+    }
+
+    public String getRestPath() {
+        return (String) this.auditInfo.get(REST_REQUEST_PATH);
+    }
+
+    public String[] getIndices() {
+        return (String[]) this.auditInfo.get(INDICES);
+    }
+
+    public String getTimestamp() {
+        return (String) this.auditInfo.get(UTC_TIMESTAMP);
+    }
+
 	public Category getCategory() {
 		return msgCategory;
 	}
 
 	@Override
 	public String toString() {
-		try {
-			return Strings.toString(JsonXContent.contentBuilder().map(getAsMap()));
-		} catch (final IOException e) {
-		    throw ExceptionsHelper.convertToElastic(e);
-		}
+		return toBytes().utf8ToString();
 	}
 
     public String toPrettyString() {
-        try {
-            return Strings.toString(JsonXContent.contentBuilder().prettyPrint().map(getAsMap()));
-        } catch (final IOException e) {
-            throw ExceptionsHelper.convertToElastic(e);
-        }
+        return encode(true).utf8ToString();
     }
 
 	public String toText() {
 		StringBuilder builder = new StringBuilder();
-		for (Entry<String, Object> entry : getAsMap().entrySet()) {
+		for (Entry<String, Object> entry : auditInfo.entrySet()) {
 			addIfNonEmpty(builder, entry.getKey(), stringOrNull(entry.getValue()));
 		}
 		return builder.toString();
@@ -395,7 +489,7 @@ public final class AuditMessage {
 
 	public String toUrlParameters() {
 		URIBuilder builder = new URIBuilder();
-		for (Entry<String, Object> entry : getAsMap().entrySet()) {
+		for (Entry<String, Object> entry : auditInfo.entrySet()) {
 			builder.addParameter(entry.getKey(), stringOrNull(entry.getValue()));
 		}
 		return builder.toString();
@@ -411,8 +505,13 @@ public final class AuditMessage {
 	}
 
     private String currentTime() {
-        DateTime dt = new DateTime(DateTimeZone.UTC);
-        return DEFAULT_FORMAT.print(dt);
+        //many messages are created within the same millisecond, so reuse the last formatted time
+        final long now = System.currentTimeMillis();
+        FormattedTime time = lastTime;
+        if (time.millis != now) {
+            lastTime = time = new FormattedTime(now, formatTime(now));
+        }
+        return time.formatted;
     }
 
     private String formatTime(long epoch) {
@@ -428,6 +527,16 @@ public final class AuditMessage {
         return String.valueOf(object);
     }
 
+    private static final class FormattedTime {
+        private final long millis;
+        private final String formatted;
+
+        private FormattedTime(long millis, String formatted) {
+            this.millis = millis;
+            this.formatted = formatted;
+        }
+    }
+
 	public static enum Category {
         BAD_HEADERS,
         FAILED_LOGIN,
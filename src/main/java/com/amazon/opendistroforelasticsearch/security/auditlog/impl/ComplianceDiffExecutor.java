@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+/**
+ * Bounded executor which computes compliance write diffs off the indexing thread.
+ * <p>
+ * Workers take all pending tasks at once so that many small documents are diffed in one go
+ * without a hand-off per document. If the queue is full the task runs on the calling thread,
+ * so write history is slowed down but never lost.
+ */
+final class ComplianceDiffExecutor {
+
+    private static final int BATCH_SIZE = 64;
+
+    private final Logger log = LogManager.getLogger(this.getClass());
+    private final BlockingQueue<Runnable> queue;
+    private final Thread[] workers;
+    private volatile boolean closed;
+    // package private for unit tests
+    final LongAdder submitted = new LongAdder();
+    final LongAdder callerRuns = new LongAdder();
+
+    ComplianceDiffExecutor(final int threadPoolSize, final int maxQueueLen) {
+
+        if (threadPoolSize <= 0) {
+            throw new IllegalArgumentException("Incorrect thread pool size " + threadPoolSize + " configured for compliance diffs");
+        }
+
+        if (maxQueueLen <= 0) {
+            throw new IllegalArgumentException("Incorrect queue length " + maxQueueLen + " configured for compliance diffs");
+        }
+
+        this.queue = new ArrayBlockingQueue<>(maxQueueLen);
+        this.workers = new Thread[threadPoolSize];
+
+        final ThreadFactory threadFactory = EsExecutors.daemonThreadFactory("opendistro_security_compliance_diff");
+
+        for (int i = 0; i < threadPoolSize; i++) {
+            workers[i] = threadFactory.newThread(this::work);
+            workers[i].start();
+        }
+
+        log.info("Compute compliance write diffs with {} threads and a queue of {}", threadPoolSize, maxQueueLen);
+    }
+
+    void submit(final Runnable task) {
+        submitted.increment();
+
+        if (closed || !queue.offer(task)) {
+            callerRuns.increment();
+            run(task);
+        }
+    }
+
+    private void work() {
+        final List<Runnable> batch = new ArrayList<>(BATCH_SIZE);
+
+        for (;;) {
+            final Runnable first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (first == null) {
+                if (closed) {
+                    return;
+                }
+                continue;
+            }
+
+            batch.add(first);
+            queue.drainTo(batch, BATCH_SIZE - 1);
+
+            for (Runnable task : batch) {
+                run(task);
+            }
+            batch.clear();
+        }
+    }
+
+    private void run(final Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            log.error("Unable to compute compliance diff", e);
+        }
+    }
+
+    int queued() {
+        return queue.size();
+    }
+
+    /**
+     * Computes all pending diffs and stops the workers
+     */
+    void close() {
+        closed = true;
+
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(60));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // tasks which raced with close
+        Runnable task;
+        while ((task = queue.poll()) != null) {
+            run(task);
+        }
+    }
+}
@@ -15,33 +15,78 @@
 
 package com.amazon.opendistroforelasticsearch.security.auditlog.routing;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 
 import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage;
 import com.amazon.opendistroforelasticsearch.security.auditlog.sink.AuditLogSink;
 import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
 
+/**
+ * Stores audit messages asynchronously on sinks which do not handle backpressure themselves.
+ * <p>
+ * Every sink gets its own {@link AuditRingBuffer} which is drained in batches by at most {@value #MAX_CONSUMERS_PER_SINK}
+ * consumer threads (but not more than threadPoolSize), so submitting a message neither takes a lock nor allocates.
+ * Idle consumers are parked and woken up by the next submitted message. What happens if the buffer of a sink is full
+ * is configured by {@link Backpressure}.
+ * <p>
+ * threadPoolMaxQueueLen is the budget for all buffers together, it is split evenly between the sinks.
+ */
 public class AsyncStoragePool {
 
 	protected final Logger log = LogManager.getLogger(this.getClass());
 
 	private static final int DEFAULT_THREAD_POOL_SIZE = 10;
 	private static final int DEFAULT_THREAD_POOL_MAX_QUEUE_LEN = 100 * 1000;
+	private static final long DEFAULT_BLOCK_TIMEOUT_MS = 1000;
+	private static final int BATCH_SIZE = 128;
+	// more than one, so that a sink which blocks on a single message does not stall its buffer
+	static final int MAX_CONSUMERS_PER_SINK = 2;
+
+	public enum Backpressure {
+		/** Drop the oldest buffered message to make room */
+		DROP_OLDEST,
+		/** Wait up to block_timeout_ms for room, then store on the fallback sink */
+		BLOCK,
+		/** Store on the fallback sink right away */
+		FALLBACK
+	}
 
 	// package private for unit tests
-	final ExecutorService pool;
+	final ConcurrentMap<AuditLogSink, SinkQueue> queues = new ConcurrentHashMap<>();
 
 	int threadPoolSize;
 	int threadPoolMaxQueueLen;
+	final int queueLenPerSink;
+	final Backpressure backpressure;
+	final long blockTimeoutNanos;
+	private volatile boolean closed;
 
 	public AsyncStoragePool(final Settings settings) {
+		this(settings, 1);
+	}
+
+	/**
+	 * @param sinkCount number of sinks which store asynchronously and share the queue budget
+	 */
+	public AsyncStoragePool(final Settings settings, final int sinkCount) {
 		this.threadPoolSize = settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_SIZE, DEFAULT_THREAD_POOL_SIZE).intValue();
 		this.threadPoolMaxQueueLen = settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_MAX_QUEUE_LEN, DEFAULT_THREAD_POOL_MAX_QUEUE_LEN).intValue();
 
@@ -53,51 +98,277 @@ public class AsyncStoragePool {
 			threadPoolMaxQueueLen = DEFAULT_THREAD_POOL_MAX_QUEUE_LEN;
 		}
 
-		this.pool = createExecutor(threadPoolSize, threadPoolMaxQueueLen);
+		// round down, buffers are a power of two in size and must stay within the budget
+		this.queueLenPerSink = Integer.highestOneBit(Math.max(1, threadPoolMaxQueueLen / Math.max(1, sinkCount)));
+
+		final String backpressure = settings.get(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_BACKPRESSURE, Backpressure.FALLBACK.name());
+		Backpressure policy;
+		try {
+			policy = Backpressure.valueOf(backpressure.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			log.error("Invalid backpressure policy '{}', must be one of {}. Will use {}", backpressure, Backpressure.values(), Backpressure.FALLBACK);
+			policy = Backpressure.FALLBACK;
+		}
+		this.backpressure = policy;
+		this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, settings.getAsLong(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_BLOCK_TIMEOUT_MS, DEFAULT_BLOCK_TIMEOUT_MS)));
+
+		if (log.isDebugEnabled()) {
+			log.debug("Create storage pool with threadPoolSize: {}, maxQueueLen: {} ({} per sink) and backpressure {}", threadPoolSize, threadPoolMaxQueueLen, queueLenPerSink, this.backpressure);
+		}
 	}
 
 	public void submit(AuditMessage message, AuditLogSink sink) {
-		try {
-			pool.submit(() -> {
-				sink.store(message);
-				if (log.isTraceEnabled()) {
-					log.trace("stored on delegate {} asynchronously", sink.getClass().getSimpleName());
+
+		if (closed) {
+			log.error("Could not submit audit message {} for delegate '{}' because storage pool is closed", message, sink.getClass().getSimpleName());
+			storeOnFallback(message, sink);
+			return;
+		}
+
+		SinkQueue queue = queues.get(sink);
+		if (queue == null) {
+			// create under the lock of close(), so that every queue with running consumers gets closed
+			synchronized (queues) {
+				if (closed) {
+					log.error("Could not submit audit message {} for delegate '{}' because storage pool is closed", message, sink.getClass().getSimpleName());
+					storeOnFallback(message, sink);
+					return;
 				}
-			});
-		} catch (Exception ex) {
-			log.error("Could not submit audit message {} to thread pool for delegate '{}' due to '{}'", message, sink.getClass().getSimpleName(), ex.getMessage());
-			if (sink.getFallbackSink() != null) {
-				sink.getFallbackSink().store(message);
+				queue = queues.computeIfAbsent(sink, SinkQueue::new);
 			}
 		}
+
+		queue.submit(message);
 	}
 
-	private ThreadPoolExecutor createExecutor(final int threadPoolSize, final int maxQueueLen) {
-		if (log.isDebugEnabled()) {
-			log.debug("Create new executor with threadPoolSize: {} and maxQueueLen: {}", threadPoolSize, maxQueueLen);
+	/**
+	 * @return depth, capacity and counters of the buffer of each sink, keyed by sink name
+	 */
+	public Map<String, Map<String, Long>> stats() {
+		final Map<String, Map<String, Long>> stats = new HashMap<>(queues.size());
+		for (SinkQueue queue : queues.values()) {
+			stats.put(queue.sink.getName(), queue.stats());
+		}
+		return Collections.unmodifiableMap(stats);
+	}
+
+	private void storeOnFallback(AuditMessage message, AuditLogSink sink) {
+		if (sink.getFallbackSink() != null) {
+			sink.getFallbackSink().store(message);
 		}
-		return new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(maxQueueLen));
 	}
 
 	public void close() {
 
-		if (pool != null) {
-			pool.shutdown(); // Disable new tasks from being submitted
+		synchronized (queues) {
+			closed = true;
+		}
+
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+		for (SinkQueue queue : queues.values()) {
+			queue.close(deadline);
+		}
+	}
+
+	final class SinkQueue {
+
+		final AuditLogSink sink;
+		final AuditRingBuffer<AuditMessage> buffer;
+		final LongAdder submitted = new LongAdder();
+		final LongAdder stored = new LongAdder();
+		final LongAdder dropped = new LongAdder();
+		final LongAdder diverted = new LongAdder();
+		final LongAdder batches = new LongAdder();
+		final LongAdder drainNanos = new LongAdder();
+		final AtomicLong maxDrainNanos = new AtomicLong();
+		private final List<Consumer> consumers = new ArrayList<>();
+		// producers waiting for room with backpressure BLOCK
+		private final Object room = new Object();
+		private final AtomicInteger blockedProducers = new AtomicInteger();
+		private volatile boolean running = true;
+
+		SinkQueue(AuditLogSink sink) {
+			this.sink = sink;
+			this.buffer = new AuditRingBuffer<>(queueLenPerSink);
+
+			final ThreadFactory threadFactory = EsExecutors.daemonThreadFactory("opendistro_security_audit_" + sink.getName());
+			final int consumerCount = Math.min(threadPoolSize, MAX_CONSUMERS_PER_SINK);
+			for (int i = 0; i < consumerCount; i++) {
+				consumers.add(new Consumer(threadFactory));
+			}
+			for (Consumer consumer : consumers) {
+				consumer.thread.start();
+			}
+		}
+
+		void submit(AuditMessage message) {
+
+			submitted.increment();
+
+			if (buffer.offer(message)) {
+				wakeUpConsumer();
+				return;
+			}
+
+			switch (backpressure) {
+			case DROP_OLDEST:
+				do {
+					if (buffer.poll() != null) {
+						dropped.increment();
+					}
+				} while (!buffer.offer(message));
+				wakeUpConsumer();
+				return;
+			case BLOCK:
+				if (awaitRoom(message)) {
+					wakeUpConsumer();
+					return;
+				}
+				break;
+			default:
+				break;
+			}
+
+			log.error("Could not submit audit message {} for delegate '{}' because its queue is full", message, sink.getClass().getSimpleName());
+			diverted.increment();
+			storeOnFallback(message, sink);
+		}
+
+		/**
+		 * Waits until the consumers made room for the message or the block timeout elapsed
+		 */
+		private boolean awaitRoom(AuditMessage message) {
+			final long deadline = System.nanoTime() + blockTimeoutNanos;
+
+			synchronized (room) {
+				blockedProducers.incrementAndGet();
+				try {
+					for (;;) {
+						if (buffer.offer(message)) {
+							return true;
+						}
+
+						final long remainingNanos = deadline - System.nanoTime();
+						if (remainingNanos <= 0) {
+							return false;
+						}
+
+						TimeUnit.NANOSECONDS.timedWait(room, remainingNanos);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				} finally {
+					blockedProducers.decrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * Unparks an idle consumer, if any. A consumer announces that it is idle before it checks the
+		 * buffer a last time, so a message offered meanwhile is either seen by that check or wakes it up.
+		 */
+		private void wakeUpConsumer() {
+			for (Consumer consumer : consumers) {
+				if (consumer.idle) {
+					LockSupport.unpark(consumer.thread);
+					return;
+				}
+			}
+		}
+
+		private void consume(Consumer consumer) {
+
+			final AuditMessage[] batch = new AuditMessage[BATCH_SIZE];
+
+			for (;;) {
+				final int n = buffer.drain(batch);
+
+				if (n == 0) {
+					if (!running) {
+						return;
+					}
+					consumer.idle = true;
+					if (buffer.size() == 0 && running) {
+						LockSupport.park(this);
+					}
+					consumer.idle = false;
+					continue;
+				}
+
+				if (blockedProducers.get() > 0) {
+					synchronized (room) {
+						room.notifyAll();
+					}
+				}
+
+				final long start = System.nanoTime();
+
+				for (int i = 0; i < n; i++) {
+					try {
+						sink.store(batch[i]);
+					} catch (Exception e) {
+						log.error("Unable to store audit message on delegate '{}' due to {}", sink.getClass().getSimpleName(), e, e);
+					}
+					batch[i] = null;
+				}
+
+				final long took = System.nanoTime() - start;
+				stored.add(n);
+				batches.increment();
+				drainNanos.add(took);
+				maxDrainNanos.accumulateAndGet(took, Math::max);
+
+				if (log.isTraceEnabled()) {
+					log.trace("stored {} messages on delegate {} asynchronously", n, sink.getClass().getSimpleName());
+				}
+			}
+		}
+
+		Map<String, Long> stats() {
+			final Map<String, Long> stats = new HashMap<>();
+			stats.put("depth", (long) buffer.size());
+			stats.put("capacity", (long) buffer.capacity());
+			stats.put("submitted", submitted.sum());
+			stats.put("stored", stored.sum());
+			stats.put("dropped", dropped.sum());
+			stats.put("diverted_to_fallback", diverted.sum());
+			stats.put("batches", batches.sum());
+			stats.put("drain_time_millis", TimeUnit.NANOSECONDS.toMillis(drainNanos.sum()));
+			stats.put("max_drain_time_millis", TimeUnit.NANOSECONDS.toMillis(maxDrainNanos.get()));
+			return stats;
+		}
+
+		void close(final long deadline) {
+			// consumers drain what is left before they terminate
+			running = false;
+
+			for (Consumer consumer : consumers) {
+				LockSupport.unpark(consumer.thread);
+			}
 
 			try {
-				// Wait a while for existing tasks to terminate
-				if (!pool.awaitTermination(60, TimeUnit.SECONDS)) {
-					pool.shutdownNow(); // Cancel currently executing tasks
-					// Wait a while for tasks to respond to being cancelled
-					if (!pool.awaitTermination(60, TimeUnit.SECONDS))
-						log.error("Pool did not terminate");
+				for (Consumer consumer : consumers) {
+					consumer.thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+					if (consumer.thread.isAlive()) {
+						consumer.thread.interrupt();
+						log.error("Consumer {} did not terminate, {} audit messages left", consumer.thread.getName(), buffer.size());
+					}
 				}
 			} catch (InterruptedException ie) {
-				// (Re-)Cancel if current thread also interrupted
-				pool.shutdownNow();
 				// Preserve interrupt status
 				Thread.currentThread().interrupt();
 			}
 		}
+
+		private final class Consumer {
+
+			final Thread thread;
+			volatile boolean idle;
+
+			Consumer(ThreadFactory threadFactory) {
+				this.thread = threadFactory.newThread(() -> consume(this));
+			}
+		}
 	}
 }
@@ -23,6 +23,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -45,13 +46,16 @@ public class AuditMessageRouter {
 	final Map<Category, List<AuditLogSink>> categorySinks = new EnumMap<>(Category.class);
 	final SinkProvider sinkProvider;
 	final AsyncStoragePool storagePool;
+	final AuditRollup rollup;
 	final boolean enabled;
 	boolean hasMultipleEndpoints;
 	private ComplianceConfig complianceConfig;
 
 	public AuditMessageRouter(final Settings settings, final Client clientProvider, ThreadPool threadPool, final Path configPath) {
 		this.sinkProvider = new SinkProvider(settings, clientProvider, threadPool, configPath);
-		this.storagePool = new AsyncStoragePool(settings);
+		this.storagePool = new AsyncStoragePool(settings, (int) sinkProvider.getSinks().values().stream()
+				.filter(sink -> sink != null && !sink.isHandlingBackpressure()).count());
+		this.rollup = new AuditRollup(settings, this::dispatch);
 
 		// get the default sink
 		this.defaultSink = sinkProvider.getDefaultSink();
@@ -79,6 +83,14 @@ public class AuditMessageRouter {
 			log.error("#route(AuditMessage) called but message router is disabled");
 			return;
 		}
+		// sampled out or aggregated, aggregates are dispatched at the end of the window
+		if (rollup.isEnabled() && rollup.offer(msg)) {
+			return;
+		}
+		dispatch(msg);
+	}
+
+	private void dispatch(final AuditMessage msg) {
 		// if we do not run the compliance features or no extended configuration is present, only log to default.
 		if (!hasMultipleEndpoints || complianceConfig == null || !complianceConfig.isEnabled()) {
 			store(defaultSink, msg);
@@ -89,7 +101,31 @@ public class AuditMessageRouter {
 		}
 	}
 
+	/**
+	 * @return per sink counters, store latency and queue state as well as the sampling and aggregation counters
+	 */
+	public Map<String, Object> stats() {
+		final Map<String, Map<String, Long>> queues = storagePool.stats();
+		final Map<String, Object> sinks = new TreeMap<>();
+		for (AuditLogSink sink : sinkProvider.getSinks().values()) {
+			final Map<String, Object> sinkStats = sink.getStatsAsMap();
+			final Map<String, Long> queue = queues.get(sink.getName());
+			if (queue != null) {
+				sinkStats.put("queue", queue);
+			}
+			sinks.put(sink.getName(), sinkStats);
+		}
+
+		final Map<String, Object> stats = new HashMap<>();
+		stats.put("sinks", sinks);
+		stats.put("sampled_out", rollup.sampledOut.sum());
+		stats.put("aggregated", rollup.aggregated.sum());
+		return stats;
+	}
+
 	public final void close() {
+		// emit pending aggregates
+		rollup.close();
 		// shutdown storage pool
 		storagePool.close();
 		// close default
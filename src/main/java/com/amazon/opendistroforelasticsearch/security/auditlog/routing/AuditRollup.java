@@ -0,0 +1,304 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.routing;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage;
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage.Category;
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+
+/**
+ * Reduces the volume of high frequency categories before messages reach the sinks.
+ * <p>
+ * Messages of aggregated categories are rolled up per user, action and indices over a time window, at the end of the
+ * window the first message of each group is emitted with the number of messages and their first and last timestamp.
+ * Messages of sampled categories are passed on with the configured probability. FAILED_LOGIN and MISSING_PRIVILEGES
+ * are always passed on unchanged.
+ */
+final class AuditRollup {
+
+	private static final Set<Category> EXACT_CATEGORIES = EnumSet.of(Category.FAILED_LOGIN, Category.MISSING_PRIVILEGES);
+
+	private final Logger log = LogManager.getLogger(this.getClass());
+	private final Consumer<AuditMessage> downstream;
+	private final Set<Category> aggregatedCategories = EnumSet.noneOf(Category.class);
+	private final Map<Category, Double> samplingRates = new EnumMap<>(Category.class);
+	private final int maxKeys;
+	private final ScheduledExecutorService scheduler;
+	private final AtomicInteger keys = new AtomicInteger();
+	private volatile ConcurrentMap<Key, Group> groups = new ConcurrentHashMap<>();
+	// package private for unit tests
+	final LongAdder aggregated = new LongAdder();
+	final LongAdder sampledOut = new LongAdder();
+
+	AuditRollup(final Settings settings, final Consumer<AuditMessage> downstream) {
+		this.downstream = downstream;
+
+		for (String category : settings.getAsList(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_AGGREGATION_CATEGORIES)) {
+			final Category c = category(category);
+			if (c != null) {
+				aggregatedCategories.add(c);
+			}
+		}
+
+		final Settings sampling = settings.getAsSettings(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_SAMPLING);
+		for (String category : sampling.keySet()) {
+			final Category c = category(category);
+			if (c == null) {
+				continue;
+			}
+			if (aggregatedCategories.contains(c)) {
+				log.warn("Category {} is aggregated, sampling rate will be ignored", c);
+				continue;
+			}
+			try {
+				final double rate = Double.parseDouble(sampling.get(category));
+				if (rate < 0 || rate > 1) {
+					throw new NumberFormatException();
+				}
+				if (rate < 1) {
+					samplingRates.put(c, rate);
+				}
+			} catch (NumberFormatException e) {
+				log.error("Invalid sampling rate '{}' for category {}, must be between 0 and 1", sampling.get(category), c);
+			}
+		}
+
+		this.maxKeys = settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_AGGREGATION_MAX_KEYS, 10000);
+
+		if (!aggregatedCategories.isEmpty()) {
+			final long windowMs = Math.max(1, settings.getAsLong(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_AGGREGATION_WINDOW_MS, 60000L));
+			log.info("Aggregate audit messages of categories {} over {} ms", aggregatedCategories, windowMs);
+			this.scheduler = Executors.newSingleThreadScheduledExecutor(EsExecutors.daemonThreadFactory("opendistro_security_audit_rollup"));
+			this.scheduler.scheduleWithFixedDelay(this::flush, windowMs, windowMs, TimeUnit.MILLISECONDS);
+		} else {
+			this.scheduler = null;
+		}
+
+		if (!samplingRates.isEmpty()) {
+			log.info("Sample audit messages with rates {}", samplingRates);
+		}
+	}
+
+	private Category category(final String name) {
+		final Category category;
+		try {
+			category = Category.valueOf(name.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			log.error("Unknown category {} in audit sampling or aggregation settings", name);
+			return null;
+		}
+		if (EXACT_CATEGORIES.contains(category)) {
+			log.warn("Category {} can not be sampled or aggregated", category);
+			return null;
+		}
+		return category;
+	}
+
+	boolean isEnabled() {
+		return !aggregatedCategories.isEmpty() || !samplingRates.isEmpty();
+	}
+
+	/**
+	 * @return true if the message was consumed, false if it should be passed on as is
+	 */
+	boolean offer(final AuditMessage msg) {
+
+		final Category category = msg.getCategory();
+
+		if (aggregatedCategories.contains(category)) {
+			return aggregate(msg);
+		}
+
+		final Double rate = samplingRates.get(category);
+
+		if (rate != null) {
+			if (ThreadLocalRandom.current().nextDouble() < rate) {
+				msg.addSamplingRate(rate);
+				return false;
+			}
+			sampledOut.increment();
+			return true;
+		}
+
+		return false;
+	}
+
+	private boolean aggregate(final AuditMessage msg) {
+
+		final Key key = new Key(msg);
+
+		for (;;) {
+			final ConcurrentMap<Key, Group> current = groups;
+			Group group = current.get(key);
+
+			if (group == null) {
+				if (keys.get() >= maxKeys) {
+					// too many distinct groups in this window, do not risk memory but log exactly
+					return false;
+				}
+				group = new Group(msg);
+				final Group existing = current.putIfAbsent(key, group);
+				if (existing == null) {
+					keys.incrementAndGet();
+					aggregated.increment();
+					if (groups != current) {
+						// the window was flushed meanwhile and might have missed the new group
+						emit(group);
+					}
+					return true;
+				}
+				group = existing;
+			}
+
+			if (group.add(msg)) {
+				aggregated.increment();
+				return true;
+			}
+			// group was flushed concurrently, retry with the next window
+		}
+	}
+
+	/**
+	 * Emits all groups of the current window
+	 */
+	void flush() {
+		try {
+			final ConcurrentMap<Key, Group> flushed = groups;
+			groups = new ConcurrentHashMap<>();
+			keys.set(0);
+
+			for (Group group : flushed.values()) {
+				emit(group);
+			}
+		} catch (Exception e) {
+			log.error("Unable to flush aggregated audit messages", e);
+		}
+	}
+
+	private void emit(final Group group) {
+		final AuditMessage msg = group.close();
+		if (msg != null) {
+			downstream.accept(msg);
+		}
+	}
+
+	void close() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+			try {
+				scheduler.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			flush();
+		}
+	}
+
+	private static final class Group {
+
+		private final AuditMessage first;
+		private long count = 1;
+		private String lastTimestamp;
+		private boolean closed;
+
+		private Group(final AuditMessage first) {
+			this.first = first;
+			this.lastTimestamp = first.getTimestamp();
+		}
+
+		private synchronized boolean add(final AuditMessage msg) {
+			if (closed) {
+				return false;
+			}
+			count++;
+			lastTimestamp = msg.getTimestamp();
+			return true;
+		}
+
+		/**
+		 * @return the rolled up message, null if the group was already closed
+		 */
+		private synchronized AuditMessage close() {
+			if (closed) {
+				return null;
+			}
+			closed = true;
+			first.addRollup(count, first.getTimestamp(), lastTimestamp);
+			return first;
+		}
+	}
+
+	private static final class Key {
+
+		private final Category category;
+		private final String user;
+		private final String action;
+		private final String[] indices;
+		private final int hashCode;
+
+		private Key(final AuditMessage msg) {
+			this.category = msg.getCategory();
+			this.user = msg.getEffectiveUser();
+			// privilege and action are the same for transport messages, rest messages only have a path
+			final String action = msg.getPrivilege() != null ? msg.getPrivilege() : msg.getAction();
+			this.action = action != null ? action : msg.getRestPath();
+			this.indices = msg.getIndices();
+			this.hashCode = Objects.hash(category, user, this.action) * 31 + Arrays.hashCode(indices);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return category == other.category
+					&& Objects.equals(user, other.user)
+					&& Objects.equals(action, other.action)
+					&& Arrays.equals(indices, other.indices);
+		}
+	}
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.Scheduler;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage;
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+
+/**
+ * Collects audit messages of a sink into <code>_bulk</code> requests.
+ * <p>
+ * A bulk request is sent when {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_BULK_MAX_ACTIONS} messages or
+ * {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_BULK_MAX_BYTES} are collected or when the oldest message waited
+ * {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_BULK_LINGER_MS}. At most
+ * {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_BULK_MAX_IN_FLIGHT} bulk requests are sent concurrently, messages
+ * which arrive meanwhile are queued in memory up to {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_BULK_QUEUE_SIZE}
+ * and then in the optional spool file ({@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_BULK_SPOOL_PATH}).
+ * Messages which can not be queued anymore are rejected, so that the sink can use its fallback.
+ * <p>
+ * Messages of failed requests and items which failed with a retryable status are sent again, before any other
+ * message, after an exponential backoff starting with {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_BULK_RETRY_BACKOFF_MS}
+ * and capped at {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_BULK_RETRY_MAX_BACKOFF_MS}. Messages which failed
+ * more than {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_BULK_RETRY_MAX_RETRIES} times and all other failed items
+ * are passed to the fallback sink.
+ * <p>
+ * Flushes run on the generic pool of the node's {@link ThreadPool}.
+ */
+final class AuditBulkProcessor implements Closeable {
+
+    /**
+     * Sends a bulk request asynchronously
+     */
+    interface BulkSender {
+        void send(BulkRequest request, ActionListener<BulkResponse> listener);
+    }
+
+    private static final Logger log = LogManager.getLogger(AuditBulkProcessor.class);
+
+    private final String sinkName;
+    private final String type;
+    private final BulkSender sender;
+    private final Consumer<AuditMessage> fallback;
+    private final int maxActions;
+    private final long maxBytes;
+    private final long lingerMs;
+    private final int queueSize;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+    private final long retryMaxBackoffMs;
+    private final Semaphore inFlight;
+    private final AuditSpool spool;
+    private final ThreadPool threadPool;
+    private final Scheduler.Cancellable lingerTask;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Deque<Entry> queue = new ArrayDeque<>();
+    //messages of failed requests, ordered by the time they were sent first
+    private final PriorityQueue<Entry> retries = new PriorityQueue<>(Comparator.comparingLong((Entry e) -> e.seq));
+    private long queuedBytes;
+    private long nextSeq;
+    private int consecutiveFailures;
+    private long retryAtNanos;
+    private volatile boolean closed;
+
+    /**
+     * @param settings settings of the sink
+     * @param nodeSettings node settings, needed to resolve a relative spool path against the data path
+     */
+    AuditBulkProcessor(final String sinkName, final Settings settings, final Settings nodeSettings, final Path configPath,
+                       final ThreadPool threadPool, final String type, final BulkSender sender, final Consumer<AuditMessage> fallback) {
+        this.sinkName = sinkName;
+        this.type = type;
+        this.sender = sender;
+        this.fallback = fallback;
+        this.maxActions = Math.max(1, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_MAX_ACTIONS, 500));
+        this.maxBytes = settings.getAsBytesSize(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_MAX_BYTES, new ByteSizeValue(5, ByteSizeUnit.MB)).getBytes();
+        this.lingerMs = Math.max(1, settings.getAsLong(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_LINGER_MS, 1000L));
+        this.queueSize = Math.max(maxActions, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_QUEUE_SIZE, 100 * 1000));
+        this.inFlight = new Semaphore(Math.max(1, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_MAX_IN_FLIGHT, 2)));
+        this.maxRetries = Math.max(0, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_RETRY_MAX_RETRIES, 5));
+        this.retryBackoffMs = Math.max(1, settings.getAsLong(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_RETRY_BACKOFF_MS, 100L));
+        this.retryMaxBackoffMs = Math.max(retryBackoffMs, settings.getAsLong(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_RETRY_MAX_BACKOFF_MS, 30000L));
+
+        final String spoolPath = settings.get(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_SPOOL_PATH);
+
+        AuditSpool spool = null;
+
+        if (spoolPath != null && !spoolPath.isEmpty()) {
+            final long spoolSize = settings.getAsBytesSize(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_SPOOL_SIZE, new ByteSizeValue(64, ByteSizeUnit.MB)).getBytes();
+            final Path path = new Environment(nodeSettings, configPath).dataFiles()[0].resolve(spoolPath);
+            try {
+                spool = new AuditSpool(path, spoolSize);
+                log.info("Audit messages of {} will be spooled to {} if they can not be sent in time", sinkName, path);
+            } catch (Exception e) {
+                log.error("Unable to open audit spool {} for {}, messages will only be queued in memory", path, sinkName, e);
+            }
+        }
+
+        this.spool = spool;
+
+        this.threadPool = threadPool;
+        this.lingerTask = threadPool.scheduleWithFixedDelay(this::flushIfOpen, TimeValue.timeValueMillis(lingerMs), ThreadPool.Names.GENERIC);
+    }
+
+    /**
+     * @return false if the message can not be queued because the queue and the spool are full
+     */
+    boolean add(final AuditMessage msg, final String index) {
+
+        if (closed) {
+            return false;
+        }
+
+        final Entry entry = new Entry(index, msg.toBytes(), msg);
+        final boolean full;
+
+        synchronized (this) {
+            //once messages are spooled, new ones are spooled too to keep the order
+            if (queue.size() < queueSize && (spool == null || spool.size() == 0)) {
+                queue.add(entry);
+                queuedBytes += entry.bytes();
+                full = queue.size() >= maxActions || queuedBytes >= maxBytes;
+            } else if (spool != null && spool.offer(entry.toRecord())) {
+                full = true;
+            } else {
+                return false;
+            }
+        }
+
+        if (full) {
+            scheduleFlush();
+        }
+
+        return true;
+    }
+
+    private void scheduleFlush() {
+        if (!closed && flushScheduled.compareAndSet(false, true)) {
+            try {
+                threadPool.generic().execute(() -> {
+                    flushScheduled.set(false);
+                    flushIfOpen();
+                });
+            } catch (Exception e) {
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    //close() flushes on its own
+    private void flushIfOpen() {
+        if (!closed) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends queued messages as long as there are free in flight slots
+     */
+    void flush() {
+        try {
+            while (inFlight.tryAcquire()) {
+                final List<Entry> batch = nextBatch();
+
+                if (batch.isEmpty()) {
+                    inFlight.release();
+                    return;
+                }
+
+                send(batch);
+            }
+        } catch (Exception e) {
+            log.error("Unable to flush audit messages of {}", sinkName, e);
+        }
+    }
+
+    private synchronized List<Entry> nextBatch() {
+
+        //nothing is sent while failed messages wait for their retry, they are older than all queued messages
+        if (!retries.isEmpty() && System.nanoTime() - retryAtNanos < 0) {
+            return new ArrayList<>(0);
+        }
+
+        final List<Entry> batch = new ArrayList<>(Math.min(maxActions, retries.size() + queue.size() + 1));
+        long bytes = 0;
+
+        while (batch.size() < maxActions && bytes < maxBytes) {
+            Entry entry = retries.poll();
+
+            if (entry != null) {
+                batch.add(entry);
+                bytes += entry.bytes();
+                continue;
+            }
+
+            entry = queue.poll();
+
+            if (entry != null) {
+                queuedBytes -= entry.bytes();
+            } else if (spool != null) {
+                final byte[] record = spool.poll();
+                entry = record == null ? null : Entry.fromRecord(record);
+            }
+
+            if (entry == null) {
+                break;
+            }
+
+            entry.seq = nextSeq++;
+            batch.add(entry);
+            bytes += entry.bytes();
+        }
+
+        return batch;
+    }
+
+    private void send(final List<Entry> batch) {
+
+        final BulkRequest request = new BulkRequest();
+        for (Entry entry : batch) {
+            request.add(new IndexRequest(entry.index, type).source(entry.source, XContentType.JSON));
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Send {} audit messages to {}", batch.size(), sinkName);
+        }
+
+        try {
+            sender.send(request, new ActionListener<BulkResponse>() {
+
+                @Override
+                public void onResponse(final BulkResponse response) {
+
+                    if (response.hasFailures()) {
+                        final List<Entry> retry = new ArrayList<>();
+                        final List<Entry> rejected = new ArrayList<>();
+                        String reason = null;
+                        for (BulkItemResponse item : response.getItems()) {
+                            if (item.isFailed()) {
+                                final Entry entry = batch.get(item.getItemId());
+                                if (isRetryable(item.status())) {
+                                    retry.add(entry);
+                                } else {
+                                    rejected.add(entry);
+                                    reason = item.getFailureMessage();
+                                }
+                            }
+                        }
+                        if (!rejected.isEmpty()) {
+                            reject(rejected, reason);
+                        }
+                        if (!retry.isEmpty()) {
+                            //the slot is released after the retries are kept, so that no newer message is sent before them
+                            requeue(retry);
+                            inFlight.release();
+                            return;
+                        }
+                    }
+
+                    synchronized (AuditBulkProcessor.this) {
+                        consecutiveFailures = 0;
+                    }
+                    inFlight.release();
+                    scheduleFlushIfFull();
+                }
+
+                @Override
+                public void onFailure(final Exception e) {
+                    log.error("Unable to send {} audit messages to {} due to {}", batch.size(), sinkName, e.toString(), e);
+                    requeue(batch);
+                    inFlight.release();
+                }
+            });
+        } catch (Exception e) {
+            log.error("Unable to send {} audit messages to {} due to {}", batch.size(), sinkName, e.toString(), e);
+            requeue(batch);
+            inFlight.release();
+        }
+    }
+
+    private static boolean isRetryable(final RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+    }
+
+    private void scheduleFlushIfFull() {
+        final boolean full;
+        synchronized (this) {
+            full = queue.size() >= maxActions || queuedBytes >= maxBytes || (spool != null && spool.size() > 0);
+        }
+        if (full) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Keeps messages of a failed request for a retry after the backoff, messages which were retried
+     * too often are rejected
+     */
+    private void requeue(final List<Entry> entries) {
+
+        if (closed) {
+            spoolOrReject(entries);
+            return;
+        }
+
+        final List<Entry> rejected = new ArrayList<>();
+        final long backoffMs;
+
+        synchronized (this) {
+            for (Entry entry : entries) {
+                if (++entry.failures > maxRetries) {
+                    rejected.add(entry);
+                } else {
+                    retries.add(entry);
+                }
+            }
+
+            consecutiveFailures++;
+            backoffMs = Math.min(retryMaxBackoffMs, retryBackoffMs << Math.min(consecutiveFailures - 1, 20));
+            retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs);
+        }
+
+        if (!rejected.isEmpty()) {
+            reject(rejected, "failed after " + maxRetries + " retries");
+        }
+
+        try {
+            threadPool.schedule(TimeValue.timeValueMillis(backoffMs), ThreadPool.Names.GENERIC, this::flushIfOpen);
+        } catch (Exception e) {
+            //node shuts down, the messages are spooled by close()
+        }
+    }
+
+    private void spoolOrReject(final List<Entry> entries) {
+        final List<Entry> rejected = new ArrayList<>();
+
+        synchronized (this) {
+            for (Entry entry : entries) {
+                if (spool == null || !spool.offer(entry.toRecord())) {
+                    rejected.add(entry);
+                }
+            }
+        }
+
+        if (!rejected.isEmpty()) {
+            reject(rejected, spool == null ? "sink closed" : "sink closed and spool full");
+        }
+    }
+
+    /**
+     * Passes the messages to the fallback sink, messages read from the spool are restored first
+     */
+    private void reject(final List<Entry> entries, final String reason) {
+        log.error("Unable to store {} audit messages on {} due to {}, will pass them to the fallback sink", entries.size(), sinkName, reason);
+
+        for (Entry entry : entries) {
+            try {
+                fallback.accept(entry.msg != null ? entry.msg : AuditMessage.fromBytes(entry.source));
+            } catch (Exception e) {
+                log.error("Unable to pass audit message of {} to the fallback sink due to {}", sinkName, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Tries to send queued messages for a few seconds, messages which are still queued
+     * afterwards are spooled if possible
+     */
+    @Override
+    public void close() throws IOException {
+
+        closed = true;
+        lingerTask.cancel();
+
+        final long deadline = System.currentTimeMillis() + 10 * 1000;
+
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (this) {
+                //messages are spooled right away if failed messages are not retried before the deadline
+                if (retries.isEmpty() ? queue.isEmpty()
+                        : retryAtNanos - System.nanoTime() > TimeUnit.MILLISECONDS.toNanos(deadline - System.currentTimeMillis())) {
+                    break;
+                }
+            }
+            flush();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        final List<Entry> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(retries.size() + queue.size());
+            while (!retries.isEmpty()) {
+                remaining.add(retries.poll());
+            }
+            remaining.addAll(queue);
+            queue.clear();
+            queuedBytes = 0;
+        }
+        spoolOrReject(remaining);
+
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    synchronized int queued() {
+        return queue.size() + retries.size() + (spool == null ? 0 : spool.size());
+    }
+
+    private static final class Entry {
+
+        private final String index;
+        private final BytesReference source;
+        //null for messages read from the spool
+        private final AuditMessage msg;
+        //order in which the message was sent first
+        private long seq;
+        private int failures;
+
+        private Entry(final String index, final BytesReference source, final AuditMessage msg) {
+            this.index = index;
+            this.source = source;
+            this.msg = msg;
+        }
+
+        private long bytes() {
+            return index.length() + source.length();
+        }
+
+        private byte[] toRecord() {
+            final byte[] indexBytes = index.getBytes(StandardCharsets.UTF_8);
+            final byte[] record = new byte[indexBytes.length + 1 + source.length()];
+            System.arraycopy(indexBytes, 0, record, 0, indexBytes.length);
+            record[indexBytes.length] = '\n';
+            System.arraycopy(BytesReference.toBytes(source), 0, record, indexBytes.length + 1, source.length());
+            return record;
+        }
+
+        private static Entry fromRecord(final byte[] record) {
+            int separator = 0;
+            while (record[separator] != '\n') {
+                separator++;
+            }
+            return new Entry(new String(record, 0, separator, StandardCharsets.UTF_8),
+                    new BytesArray(record, separator + 1, record.length - separator - 1), null);
+        }
+    }
+}
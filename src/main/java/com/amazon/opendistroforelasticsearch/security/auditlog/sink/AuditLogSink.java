@@ -16,8 +16,10 @@
 package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -28,7 +30,6 @@ import org.joda.time.format.DateTimeFormatter;
 
 import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage;
 import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
-import com.google.common.util.concurrent.Uninterruptibles;
 
 public abstract class AuditLogSink {
 
@@ -39,6 +40,12 @@ public abstract class AuditLogSink {
     protected final AuditLogSink fallbackSink;
     private final int retryCount;
     private final long delayMs;
+    private final long maxDelayMs;
+    private final int maxPendingRetries;
+    private final Semaphore retryBudget;
+    private final AuditSinkStats stats = new AuditSinkStats();
+    private volatile AuditRetryScheduler retryScheduler;
+    private Semaphore retryAttempts;
 
     protected AuditLogSink(String name, Settings settings, String settingsPrefix, AuditLogSink fallbackSink) {
         this.name = name.toLowerCase();
@@ -47,7 +54,10 @@ public abstract class AuditLogSink {
         this.fallbackSink = fallbackSink;
 
         retryCount = settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_COUNT, 0);
-        delayMs = settings.getAsLong(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_DELAY_MS, 1000L);
+        delayMs = Math.max(0, settings.getAsLong(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_DELAY_MS, 1000L));
+        maxDelayMs = Math.max(delayMs, settings.getAsLong(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_MAX_DELAY_MS, 60000L));
+        maxPendingRetries = Math.max(1, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_MAX_PENDING, 10000));
+        retryBudget = new Semaphore(maxPendingRetries);
     }
 
     public boolean isHandlingBackpressure() {
@@ -63,37 +73,132 @@ public abstract class AuditLogSink {
     }
 
     public final void store(AuditMessage msg) {
-		if (!doStoreWithRetry(msg) && !fallbackSink.doStoreWithRetry(msg)) {
-			System.err.println(msg.toPrettyString());
-		}
-    }
+        if (timedStore(msg)) {
+            return;
+        }
 
-    private boolean doStoreWithRetry(AuditMessage msg) {
         //retryCount of 0 means no retry (which is: try exactly once) - delayMs is ignored
         //retryCount of 1 means: try and if this fails wait delayMs and try once again
+        final AuditRetryScheduler scheduler = this.retryScheduler;
+        if (retryCount > 0 && scheduler != null && retryBudget.tryAcquire()) {
+            scheduler.schedule(new Retry(msg), backoffMs(1));
+        } else {
+            storeOnFallback(msg);
+        }
+    }
 
-        if(doStore(msg)) {
-            return true;
+    /**
+     * For messages which were accepted by {@link #doStore(AuditMessage)} but could not be stored later on
+     */
+    protected void storeOnFallback(AuditMessage msg) {
+        // the fallback is the last resort, it gets one attempt and does not wait for retries
+        if (fallbackSink != null && fallbackSink.timedStore(msg)) {
+            stats.onFallback();
+        } else {
+            stats.onLost();
+            System.err.println(msg.toPrettyString());
         }
+    }
 
+    /**
+     * Retries are run by the scheduler of the {@link SinkProvider} which created this sink,
+     * without a scheduler failed messages go to the fallback sink right away
+     */
+    void setRetryScheduler(AuditRetryScheduler retryScheduler) {
+        this.retryAttempts = new Semaphore(retryScheduler.maxConcurrentAttemptsPerSink());
+        this.retryScheduler = retryScheduler;
+    }
+
+    /**
+     * Exponential backoff starting at delayMs and capped at maxDelayMs, the actual delay is
+     * randomized between the half and the full value so that failed messages do not retry in lockstep
+     */
+    long backoffMs(int attempt) {
+        long delay = delayMs;
+        for (int i = 1; i < attempt && delay < maxDelayMs; i++) {
+            delay <<= 1;
+        }
+        delay = Math.min(delay, maxDelayMs);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay - delay / 2 + 1);
+    }
+
+    private final class Retry implements Runnable {
+
+        private final AuditMessage msg;
+        private int attempt = 1;
+
+        Retry(AuditMessage msg) {
+            this.msg = msg;
+        }
+
+        @Override
+        public void run() {
+            final AuditRetryScheduler scheduler = retryScheduler;
+            final boolean closing = scheduler.isClosed();
+
+            // keep a slow endpoint from occupying all retry workers
+            if (!closing && !retryAttempts.tryAcquire()) {
+                scheduler.schedule(this, AuditRetryScheduler.TICK_MS);
+                return;
+            }
 
-        for(int i=0; i<retryCount; i++) {
             if(log.isDebugEnabled()) {
-                log.debug("Retry attempt {}/{} for {} ({})", i+1, retryCount, this.getName(), this.getClass());
+                log.debug("Retry attempt {}/{} for {} ({})", attempt, retryCount, getName(), AuditLogSink.this.getClass());
+            }
+
+            final boolean stored;
+            try {
+                stats.onRetry();
+                stored = timedStore(msg);
+            } finally {
+                if (!closing) {
+                    retryAttempts.release();
+                }
             }
-            Uninterruptibles.sleepUninterruptibly(delayMs, TimeUnit.MILLISECONDS);
-            if(!doStore(msg)) {
-                continue;
-            } else {
-                return true;
+
+            if (!stored && attempt < retryCount && !scheduler.isClosed()) {
+                attempt++;
+                scheduler.schedule(this, backoffMs(attempt));
+                return;
+            }
+
+            retryBudget.release();
+            if (!stored) {
+                storeOnFallback(msg);
             }
         }
+    }
 
-        return false;
+    private boolean timedStore(AuditMessage msg) {
+        final long start = System.nanoTime();
+        final boolean stored = doStore(msg);
+        stats.onStore(stored, System.nanoTime() - start);
+        return stored;
     }
 
     protected abstract boolean doStore(AuditMessage msg);
 
+    public AuditSinkStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the counters of {@link #getStats()} plus sink specific values
+     */
+    public Map<String, Object> getStatsAsMap() {
+        final Map<String, Object> result = stats.toMap();
+        result.put("retries_pending", (long) (maxPendingRetries - retryBudget.availablePermits()));
+        addStats(result);
+        return result;
+    }
+
+    /**
+     * Sinks which buffer messages themselves add their queue state here
+     */
+    protected void addStats(Map<String, Object> stats) {
+        // to be implemented by subclasses
+    }
+
     public void close() throws IOException {
     	// to be implemented by subclasses
     }
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+/**
+ * Hashed timer wheel which runs delayed store attempts of failed audit messages.
+ * <p>
+ * Scheduling only enqueues, a single timer thread moves due attempts to a small pool of retry workers,
+ * so no thread ever sleeps on behalf of a sink. The timer thread parks until the earliest deadline, or until
+ * an attempt is scheduled if there is none, instead of waking up every tick.
+ * Once closed, every pending attempt is run right away.
+ */
+final class AuditRetryScheduler {
+
+    static final long TICK_MS = 10;
+    private static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    private final Logger log = LogManager.getLogger(this.getClass());
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final List<ArrayDeque<Timeout>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private final long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MS);
+    private final long startNanos = System.nanoTime();
+    private final ThreadPoolExecutor workers;
+    // package private for unit tests
+    final Thread timer;
+    private final int threadPoolSize;
+    private volatile boolean closed;
+    // what the timer thread parks for, schedule() wakes it up only if the new deadline is earlier
+    private volatile boolean parkedIndefinitely;
+    private volatile long parkedUntilNanos;
+    // only accessed by the timer thread: the last tick which was expired and the number of timeouts in the wheel
+    private long tick;
+    private int scheduled;
+
+    AuditRetryScheduler(final int threadPoolSize) {
+
+        if (threadPoolSize <= 0) {
+            throw new IllegalArgumentException("Incorrect thread pool size " + threadPoolSize + " configured for audit retries");
+        }
+
+        this.threadPoolSize = threadPoolSize;
+
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayDeque<>());
+        }
+
+        this.workers = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                EsExecutors.daemonThreadFactory("opendistro_security_audit_retry"));
+        this.timer = EsExecutors.daemonThreadFactory("opendistro_security_audit_retry_timer").newThread(this::run);
+        this.timer.start();
+    }
+
+    /**
+     * @return how many attempts of a single sink may run at the same time, so that one
+     *         slow endpoint can occupy at most half of the retry workers
+     */
+    int maxConcurrentAttemptsPerSink() {
+        return Math.max(1, threadPoolSize / 2);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void schedule(final Runnable task, final long delayMs) {
+        if (closed) {
+            dispatch(task);
+            return;
+        }
+        final Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs)));
+        pending.add(timeout);
+
+        // the timer publishes what it parks for before it checks pending a last time, so it either sees
+        // the timeout or is woken up here
+        if (parkedIndefinitely || timeout.deadlineNanos - parkedUntilNanos < 0) {
+            LockSupport.unpark(timer);
+        }
+
+        // raced with close
+        if (closed && pending.remove(timeout)) {
+            dispatch(task);
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            transferPending();
+            advance((System.nanoTime() - startNanos) / tickNanos);
+
+            if (scheduled == 0) {
+                parkedIndefinitely = true;
+                if (pending.isEmpty() && !closed) {
+                    LockSupport.park(this);
+                }
+                parkedIndefinitely = false;
+            } else {
+                final long wakeUpNanos = startNanos + nextTick() * tickNanos;
+                parkedUntilNanos = wakeUpNanos;
+                final long parkNanos = wakeUpNanos - System.nanoTime();
+                if (parkNanos > 0 && pending.isEmpty() && !closed) {
+                    LockSupport.parkNanos(this, parkNanos);
+                }
+            }
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            // round up, a task never fires early
+            final long deadlineTick = (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+            if (deadlineTick <= tick) {
+                dispatch(timeout.task);
+            } else {
+                timeout.tick = deadlineTick;
+                wheel.get((int) (deadlineTick & MASK)).add(timeout);
+                scheduled++;
+            }
+        }
+    }
+
+    /**
+     * Expires the buckets of all ticks up to the given one. Every bucket is visited at most once,
+     * also if the timer was parked for more than a turn of the wheel.
+     */
+    private void advance(final long currentTick) {
+        if (currentTick <= tick) {
+            return;
+        }
+
+        if (scheduled > 0) {
+            final long last = Math.min(currentTick, tick + WHEEL_SIZE);
+            for (long t = tick + 1; t <= last; t++) {
+                expire(wheel.get((int) (t & MASK)), currentTick);
+            }
+        }
+
+        tick = currentTick;
+    }
+
+    private void expire(final ArrayDeque<Timeout> bucket, final long currentTick) {
+        final Iterator<Timeout> it = bucket.iterator();
+        while (it.hasNext()) {
+            final Timeout timeout = it.next();
+            if (timeout.tick <= currentTick) {
+                it.remove();
+                scheduled--;
+                dispatch(timeout.task);
+            }
+        }
+    }
+
+    private long nextTick() {
+        long next = Long.MAX_VALUE;
+        for (ArrayDeque<Timeout> bucket : wheel) {
+            for (Timeout timeout : bucket) {
+                next = Math.min(next, timeout.tick);
+            }
+        }
+        return next;
+    }
+
+    private void dispatch(final Runnable task) {
+        try {
+            workers.execute(() -> runSafely(task));
+        } catch (RejectedExecutionException e) {
+            runSafely(task);
+        }
+    }
+
+    private void runSafely(final Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            log.error("Unable to retry audit message", e);
+        }
+    }
+
+    /**
+     * Runs all pending attempts, callers give up after this attempt
+     */
+    void close() {
+        closed = true;
+        LockSupport.unpark(timer);
+
+        try {
+            timer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // the timer thread has terminated, the wheel can be read safely
+        for (ArrayDeque<Timeout> bucket : wheel) {
+            Timeout timeout;
+            while ((timeout = bucket.poll()) != null) {
+                dispatch(timeout.task);
+            }
+        }
+
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            dispatch(timeout.task);
+        }
+
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(60, TimeUnit.SECONDS)) {
+                log.error("Audit retries did not finish within 60 seconds, {} attempts left", workers.getQueue().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Timeout {
+        final Runnable task;
+        final long deadlineNanos;
+        // tick of the deadline, rounded up
+        long tick;
+
+        Timeout(final Runnable task, final long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and store latency of a single sink. All counters are cumulative since node start,
+ * throughput is the difference of two snapshots.
+ */
+public final class AuditSinkStats {
+
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder fallback = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    void onStore(final boolean success, final long nanos) {
+        if (success) {
+            stored.increment();
+        } else {
+            failed.increment();
+        }
+        latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void onRetry() {
+        retries.increment();
+    }
+
+    void onFallback() {
+        fallback.increment();
+    }
+
+    void onLost() {
+        lost.increment();
+    }
+
+    public long getStored() {
+        return stored.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getFallback() {
+        return fallback.sum();
+    }
+
+    public long getLost() {
+        return lost.sum();
+    }
+
+    /**
+     * @return stored, failed (attempts), retries, stored_on_fallback, lost (neither sink nor fallback could store)
+     *         and the store latency in microseconds
+     */
+    public Map<String, Object> toMap() {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put("stored", getStored());
+        result.put("failed", getFailed());
+        result.put("retries", getRetries());
+        result.put("stored_on_fallback", getFallback());
+        result.put("lost", getLost());
+        result.put("store_latency_micros", latency.snapshot());
+        return result;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded FIFO of byte records in a memory mapped file.
+ * <p>
+ * The file is a ring buffer with a small header holding read and write positions, so records which were
+ * not yet polled survive a restart of the node. A record which does not fit until the end of the ring is
+ * written at its start, the unused tail is marked as skipped.
+ */
+final class AuditSpool implements Closeable {
+
+    private static final Logger log = LogManager.getLogger(AuditSpool.class);
+    private static final int MAGIC = 0x4F445350;
+    private static final int SKIP = -1;
+    //magic, capacity, head, tail, used, count
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 8 + 8 + 4;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long capacity;
+    private long head;
+    private long tail;
+    private long used;
+    private int count;
+
+    AuditSpool(final Path path, final long capacity) throws IOException {
+
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid spool size " + capacity);
+        }
+
+        final Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        this.capacity = capacity;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+
+        if (buffer.getInt(0) == MAGIC && buffer.getLong(4) == capacity) {
+            head = buffer.getLong(12);
+            tail = buffer.getLong(20);
+            used = buffer.getLong(28);
+            count = buffer.getInt(36);
+            if (count > 0) {
+                log.info("{} spooled audit messages found in {}", count, path);
+            }
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putLong(4, capacity);
+            writeHeader();
+        }
+    }
+
+    /**
+     * @return false if the record does not fit into the remaining space
+     */
+    synchronized boolean offer(final byte[] record) {
+
+        final long needed = 4 + record.length;
+        //also wrap if the previous record ended exactly at the end of the file
+        final boolean wrap = tail + needed > capacity || tail == capacity;
+        final long skipped = wrap ? capacity - tail : 0;
+
+        if (needed + skipped > capacity - used) {
+            return false;
+        }
+
+        if (wrap) {
+            if (skipped >= 4) {
+                buffer.putInt(position(tail), SKIP);
+            }
+            used += skipped;
+            tail = 0;
+        }
+
+        buffer.putInt(position(tail), record.length);
+        final ByteBuffer view = buffer.duplicate();
+        view.position(position(tail + 4));
+        view.put(record);
+
+        tail += needed;
+        used += needed;
+        count++;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * @return the oldest record or null if the spool is empty
+     */
+    synchronized byte[] poll() {
+
+        if (count == 0) {
+            return null;
+        }
+
+        if (capacity - head < 4 || buffer.getInt(position(head)) == SKIP) {
+            used -= capacity - head;
+            head = 0;
+        }
+
+        final int length = buffer.getInt(position(head));
+        final byte[] record = new byte[length];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(position(head + 4));
+        view.get(record);
+
+        head += 4 + length;
+        used -= 4 + length;
+        count--;
+
+        if (count == 0) {
+            head = tail = used = 0;
+        }
+
+        writeHeader();
+        return record;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private int position(final long offset) {
+        return (int) (HEADER_SIZE + offset);
+    }
+
+    private void writeHeader() {
+        buffer.putLong(12, head);
+        buffer.putLong(20, tail);
+        buffer.putLong(28, used);
+        buffer.putInt(36, count);
+    }
+}
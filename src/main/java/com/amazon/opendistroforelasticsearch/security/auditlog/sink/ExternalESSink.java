@@ -23,8 +23,10 @@ import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
@@ -44,10 +46,11 @@ public final class ExternalESSink extends AuditLogSink {
 	private final HttpClient client;
 	private List<String> servers;
 	private DateTimeFormatter indexPattern;
+	private final AuditBulkProcessor bulkProcessor;
 
     static final String PKCS12 = "PKCS12";
 
-	public ExternalESSink(final String name, final Settings settings, final String settingPrefix, final Path configPath, AuditLogSink fallbackSink) throws Exception {
+	public ExternalESSink(final String name, final Settings settings, final String settingPrefix, final Path configPath, final ThreadPool threadPool, AuditLogSink fallbackSink) throws Exception {
 
 		super(name, settings, settingPrefix, fallbackSink);
 		Settings sinkSettings = settings.getAsSettings(settingPrefix);
@@ -162,18 +165,43 @@ public final class ExternalESSink extends AuditLogSink {
 		}
 
 		client = builder.build();
+
+		if (sinkSettings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_ENABLED, false)) {
+			bulkProcessor = new AuditBulkProcessor(name, sinkSettings, settings, configPath, threadPool, type, client::bulk, this::storeOnFallback);
+		} else {
+			bulkProcessor = null;
+		}
+	}
+
+	@Override
+	public boolean isHandlingBackpressure() {
+		return bulkProcessor != null;
+	}
+
+	@Override
+	protected void addStats(Map<String, Object> stats) {
+		if (bulkProcessor != null) {
+			stats.put("bulk_queued", bulkProcessor.queued());
+		}
 	}
 
 	@Override
 	public void close() throws IOException {
+		if (bulkProcessor != null) {
+			bulkProcessor.close();
+		}
 		if (client != null) {
 			client.close();
 		}
 	}
 
 	public boolean doStore(final AuditMessage msg) {
+		if (bulkProcessor != null) {
+			return bulkProcessor.add(msg, getExpandedIndexName(indexPattern, index));
+		}
+
 		try {
-			boolean successful = client.index(msg.toString(), getExpandedIndexName(indexPattern, index), type, true);
+			boolean successful = client.index(msg.toBytes(), getExpandedIndexName(indexPattern, index), type, true);
 			if (!successful) {
 				log.error("Unable to send audit log {} to one of these servers: {}", msg, servers);
 			}
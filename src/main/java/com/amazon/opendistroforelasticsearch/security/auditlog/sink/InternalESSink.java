@@ -17,13 +17,18 @@ package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Map;
 
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.concurrent.ThreadContext.StoredContext;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
@@ -39,6 +44,7 @@ public final class InternalESSink extends AuditLogSink {
 	final String type;
 	private DateTimeFormatter indexPattern;
 	private final ThreadPool threadPool;
+	private final AuditBulkProcessor bulkProcessor;
 
 	public InternalESSink(final String name, final Settings settings, final String settingsPrefix, final Path configPath, final Client clientProvider, ThreadPool threadPool, AuditLogSink fallbackSink) {
 		super(name, settings, settingsPrefix, fallbackSink);
@@ -54,11 +60,31 @@ public final class InternalESSink extends AuditLogSink {
 		} catch (IllegalArgumentException e) {
 			log.debug("Unable to parse index pattern due to {}. " + "If you have no date pattern configured you can safely ignore this message", e.getMessage());
 		}
+
+		if (sinkSettings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_BULK_ENABLED, false)) {
+			this.bulkProcessor = new AuditBulkProcessor(name, sinkSettings, settings, configPath, threadPool, type, this::sendBulk, this::storeOnFallback);
+		} else {
+			this.bulkProcessor = null;
+		}
 	}
 
 	@Override
-	public void close() throws IOException {
+	public boolean isHandlingBackpressure() {
+		return bulkProcessor != null;
+	}
 
+	@Override
+	protected void addStats(Map<String, Object> stats) {
+		if (bulkProcessor != null) {
+			stats.put("bulk_queued", bulkProcessor.queued());
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (bulkProcessor != null) {
+			bulkProcessor.close();
+		}
 	}
 
 	public boolean doStore(final AuditMessage msg) {
@@ -70,9 +96,13 @@ public final class InternalESSink extends AuditLogSink {
 			return true;
 		}
 
+		if (bulkProcessor != null) {
+			return bulkProcessor.add(msg, getExpandedIndexName(indexPattern, index));
+		}
+
 		try (StoredContext ctx = threadPool.getThreadContext().stashContext()) {
 			try {
-				final IndexRequestBuilder irb = clientProvider.prepareIndex(getExpandedIndexName(indexPattern, index), type).setRefreshPolicy(RefreshPolicy.IMMEDIATE).setSource(msg.getAsMap());
+				final IndexRequestBuilder irb = clientProvider.prepareIndex(getExpandedIndexName(indexPattern, index), type).setRefreshPolicy(RefreshPolicy.IMMEDIATE).setSource(msg.toBytes(), XContentType.JSON);
 				threadPool.getThreadContext().putHeader(ConfigConstants.OPENDISTRO_SECURITY_CONF_REQUEST_HEADER, "true");
 				irb.setTimeout(TimeValue.timeValueMinutes(1));
 				irb.execute().actionGet();
@@ -83,4 +113,12 @@ public final class InternalESSink extends AuditLogSink {
 			}
 		}
 	}
+
+	private void sendBulk(final BulkRequest request, final ActionListener<BulkResponse> listener) {
+		try (StoredContext ctx = threadPool.getThreadContext().stashContext()) {
+			threadPool.getThreadContext().putHeader(ConfigConstants.OPENDISTRO_SECURITY_CONF_REQUEST_HEADER, "true");
+			request.timeout(TimeValue.timeValueMinutes(1));
+			clientProvider.bulk(request, listener);
+		}
+	}
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of non negative values with log-linear buckets.
+ * <p>
+ * Values below 8 are counted exactly, above every power of two is split into 4 buckets,
+ * so reported percentiles are at most 25% above the real value.
+ */
+final class LatencyHistogram {
+
+    private static final int LINEAR = 8;
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = LINEAR + (63 - 3) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucket(value));
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    private static int bucket(final long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 3) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the largest value which falls into the bucket
+     */
+    private static long upperBound(final int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        final int exponent = (bucket - LINEAR) / SUB_BUCKETS + 3;
+        final int sub = (bucket - LINEAR) % SUB_BUCKETS;
+        final long lower = (long) (SUB_BUCKETS + sub) << (exponent - 2);
+        return lower + (1L << (exponent - 2)) - 1;
+    }
+
+    /**
+     * @return count, max and the 50th, 99th and 99.9th percentile
+     */
+    Map<String, Long> snapshot() {
+        final long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+
+        final long max = this.max.get();
+        final Map<String, Long> result = new LinkedHashMap<>();
+        result.put("count", count);
+        result.put("p50", percentile(snapshot, count, 0.5, max));
+        result.put("p99", percentile(snapshot, count, 0.99, max));
+        result.put("p999", percentile(snapshot, count, 0.999, max));
+        result.put("max", max);
+        return result;
+    }
+
+    private static long percentile(final long[] snapshot, final long count, final double quantile, final long max) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+}
@@ -16,6 +16,7 @@
 package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
 
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -41,6 +42,7 @@ public class SinkProvider {
 	final Map<String, AuditLogSink> allSinks = new HashMap<>();
 	AuditLogSink defaultSink;
 	AuditLogSink fallbackSink;
+	final AuditRetryScheduler retryScheduler;
 
 	public SinkProvider(final Settings settings, final Client clientProvider, ThreadPool threadPool, final Path configPath) {
 		this.settings = settings;
@@ -48,6 +50,13 @@ public class SinkProvider {
 		this.threadPool = threadPool;
 		this.configPath = configPath;
 
+		// retries are shared by all sinks, they are only needed if a sink may retry at all
+		if (settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_COUNT, 0) > 0) {
+			this.retryScheduler = new AuditRetryScheduler(settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_THREADPOOL_SIZE, 4));
+		} else {
+			this.retryScheduler = null;
+		}
+
 		// fall back sink, make sure we don't lose messages
 		String fallbackConfigPrefix = ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_ENDPOINTS + "." + FALLBACKSINK_NAME;
 		Settings fallbackSinkSettings = settings.getAsSettings(fallbackConfigPrefix);
@@ -105,7 +114,15 @@ public class SinkProvider {
 		return defaultSink;
 	}
 
+	public Map<String, AuditLogSink> getSinks() {
+		return Collections.unmodifiableMap(allSinks);
+	}
+
 	public void close() {
+		// pending retries may still end up on the sinks or the fallback
+		if (retryScheduler != null) {
+			retryScheduler.close();
+		}
 		for (AuditLogSink sink : allSinks.values()) {
 			close(sink);
 		}
@@ -129,7 +146,7 @@ public class SinkProvider {
 				break;
 			case "external_elasticsearch":
 				try {
-					sink = new ExternalESSink(name, settings, settingsPrefix, configPath, fallbackSink);
+					sink = new ExternalESSink(name, settings, settingsPrefix, configPath, threadPool, fallbackSink);
 				} catch (Exception e) {
 					log.error("Audit logging unavailable: Unable to setup HttpESAuditLog due to", e);
 				}
@@ -171,6 +188,9 @@ public class SinkProvider {
 				}
 			}
 		}
+		if (sink != null && retryScheduler != null) {
+			sink.setRetryScheduler(retryScheduler);
+		}
 		return sink;
 	}
 
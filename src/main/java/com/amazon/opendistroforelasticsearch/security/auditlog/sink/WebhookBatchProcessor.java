@@ -0,0 +1,375 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage;
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+
+/**
+ * Collects formatted audit messages of a webhook sink into batches which are sent with one request.
+ * <p>
+ * A batch is sent when {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_MAX_ACTIONS} messages or
+ * {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_MAX_BYTES} are collected or when the oldest message waited
+ * {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_LINGER_MS}. At most
+ * {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_WEBHOOK_MAX_IN_FLIGHT} requests are sent concurrently, messages
+ * which arrive meanwhile are queued in memory up to {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_QUEUE_SIZE}.
+ * Messages which can not be queued anymore are rejected, so that the sink can use its fallback.
+ * <p>
+ * Batches which failed with an I/O error or a retryable status are queued again and sent, before any other
+ * message, after an exponential backoff starting with {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_WEBHOOK_RETRY_BACKOFF_MS}
+ * up to {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_WEBHOOK_RETRY_MAX_BACKOFF_MS}. Batches which failed more than
+ * {@link ConfigConstants#OPENDISTRO_SECURITY_AUDIT_WEBHOOK_RETRY_MAX_RETRIES} times are dropped and counted, their messages
+ * and those of batches which were refused with any other status are passed to the fallback sink.
+ */
+final class WebhookBatchProcessor implements Closeable {
+
+    /**
+     * Sends the payloads of a batch asynchronously and reports the HTTP status of the response
+     */
+    interface BatchSender {
+        void send(List<byte[]> payloads, ActionListener<Integer> listener);
+    }
+
+    private static final Logger log = LogManager.getLogger(WebhookBatchProcessor.class);
+
+    private final String sinkName;
+    private final BatchSender sender;
+    private final Consumer<AuditMessage> fallback;
+    private final int maxActions;
+    private final long maxBytes;
+    private final int queueSize;
+    private final int maxInFlight;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+    private final long retryMaxBackoffMs;
+    private final Semaphore inFlight;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicLong droppedBatches = new AtomicLong();
+    private final Deque<Entry> queue = new ArrayDeque<>();
+    private long queuedBytes;
+    private int consecutiveFailures;
+    private long retryAtNanos;
+    private volatile boolean closed;
+
+    /**
+     * @param settings settings of the sink
+     * @param maxActions upper bound for the configured number of messages per batch
+     */
+    WebhookBatchProcessor(final String sinkName, final Settings settings, final int maxActions,
+                          final BatchSender sender, final Consumer<AuditMessage> fallback) {
+        this.sinkName = sinkName;
+        this.sender = sender;
+        this.fallback = fallback;
+        this.maxActions = Math.max(1, Math.min(maxActions, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_MAX_ACTIONS, 500)));
+        this.maxBytes = settings.getAsBytesSize(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_MAX_BYTES, new ByteSizeValue(1, ByteSizeUnit.MB)).getBytes();
+        final long lingerMs = Math.max(1, settings.getAsLong(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_LINGER_MS, 1000L));
+        this.queueSize = Math.max(this.maxActions, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_QUEUE_SIZE, 100 * 1000));
+        this.maxInFlight = Math.max(1, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_MAX_IN_FLIGHT, 4));
+        this.maxRetries = Math.max(0, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_RETRY_MAX_RETRIES, 5));
+        this.retryBackoffMs = Math.max(1, settings.getAsLong(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_RETRY_BACKOFF_MS, 100L));
+        this.retryMaxBackoffMs = Math.max(retryBackoffMs, settings.getAsLong(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_RETRY_MAX_BACKOFF_MS, 30000L));
+        this.inFlight = new Semaphore(maxInFlight);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(EsExecutors.daemonThreadFactory("opendistro_security_audit_webhook_" + sinkName));
+        this.scheduler.scheduleWithFixedDelay(this::flush, lingerMs, lingerMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return false if the message can not be queued because the queue is full
+     */
+    boolean add(final AuditMessage msg, final byte[] payload) {
+
+        if (closed) {
+            return false;
+        }
+
+        final boolean full;
+
+        synchronized (this) {
+            if (queue.size() >= queueSize) {
+                return false;
+            }
+            queue.add(new Entry(payload, msg));
+            queuedBytes += payload.length;
+            full = queue.size() >= maxActions || queuedBytes >= maxBytes;
+        }
+
+        if (full) {
+            scheduleFlush();
+        }
+
+        return true;
+    }
+
+    private void scheduleFlush() {
+        if (!closed && flushScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(() -> {
+                    flushScheduled.set(false);
+                    flush();
+                });
+            } catch (Exception e) {
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Sends queued messages as long as there are free in flight slots
+     */
+    void flush() {
+        try {
+            while (inFlight.tryAcquire()) {
+                final List<Entry> batch = nextBatch();
+
+                if (batch.isEmpty()) {
+                    inFlight.release();
+                    return;
+                }
+
+                send(batch);
+            }
+        } catch (Exception e) {
+            log.error("Unable to flush audit messages of {}", sinkName, e);
+        }
+    }
+
+    private synchronized List<Entry> nextBatch() {
+
+        //nothing is sent while a failed batch waits for its retry, it is in front of the queue
+        if (consecutiveFailures > 0 && System.nanoTime() - retryAtNanos < 0) {
+            return new ArrayList<>(0);
+        }
+
+        final List<Entry> batch = new ArrayList<>(Math.min(maxActions, queue.size() + 1));
+        long bytes = 0;
+
+        while (batch.size() < maxActions && bytes < maxBytes) {
+            final Entry entry = queue.poll();
+
+            if (entry == null) {
+                break;
+            }
+
+            queuedBytes -= entry.payload.length;
+            batch.add(entry);
+            bytes += entry.payload.length;
+        }
+
+        return batch;
+    }
+
+    private void send(final List<Entry> batch) {
+
+        final List<byte[]> payloads = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            payloads.add(entry.payload);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Send {} audit messages to {}", batch.size(), sinkName);
+        }
+
+        try {
+            sender.send(payloads, new ActionListener<Integer>() {
+
+                @Override
+                public void onResponse(final Integer status) {
+                    if (status >= 200 && status < 300) {
+                        synchronized (WebhookBatchProcessor.this) {
+                            consecutiveFailures = 0;
+                        }
+                        inFlight.release();
+                        scheduleFlushIfFull();
+                    } else if (isRetryable(status)) {
+                        log.warn("Webhook {} returned status {} for {} audit messages", sinkName, status, batch.size());
+                        //the slot is released after the backoff is set, so that no flush overtakes the failed messages
+                        requeue(batch);
+                        inFlight.release();
+                    } else {
+                        inFlight.release();
+                        log.error("Unable to store {} audit messages on {}, server returned status {}", batch.size(), sinkName, status);
+                        reject(batch);
+                    }
+                }
+
+                @Override
+                public void onFailure(final Exception e) {
+                    log.error("Unable to send {} audit messages to {} due to {}", batch.size(), sinkName, e.toString(), e);
+                    requeue(batch);
+                    inFlight.release();
+                }
+            });
+        } catch (Exception e) {
+            log.error("Unable to send {} audit messages to {} due to {}", batch.size(), sinkName, e.toString(), e);
+            requeue(batch);
+            inFlight.release();
+        }
+    }
+
+    private static boolean isRetryable(final int status) {
+        return status == 429 || status >= 500;
+    }
+
+    private void scheduleFlushIfFull() {
+        final boolean full;
+        synchronized (this) {
+            full = queue.size() >= maxActions || queuedBytes >= maxBytes;
+        }
+        if (full) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Puts messages of a failed request back in front of the queue, they are sent again after the backoff.
+     * A batch which failed too often is dropped.
+     */
+    private void requeue(final List<Entry> entries) {
+
+        if (closed) {
+            reject(entries);
+            return;
+        }
+
+        final List<Entry> rejected = new ArrayList<>();
+        final long backoffMs;
+        boolean dropped = false;
+
+        synchronized (this) {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                final Entry entry = entries.get(i);
+                if (++entry.failures > maxRetries) {
+                    dropped = true;
+                    rejected.add(entry);
+                } else if (queue.size() < queueSize) {
+                    queue.addFirst(entry);
+                    queuedBytes += entry.payload.length;
+                } else {
+                    rejected.add(entry);
+                }
+            }
+
+            consecutiveFailures++;
+            backoffMs = Math.min(retryMaxBackoffMs, retryBackoffMs << Math.min(consecutiveFailures - 1, 20));
+            retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs);
+        }
+
+        if (dropped) {
+            droppedBatches.incrementAndGet();
+            log.error("Unable to store {} audit messages on {} after {} retries", rejected.size(), sinkName, maxRetries);
+        } else {
+            log.warn("{} audit messages will be sent again to {} in {} ms", entries.size() - rejected.size(), sinkName, backoffMs);
+        }
+
+        reject(rejected);
+
+        try {
+            scheduler.schedule(this::flush, backoffMs, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            //closed meanwhile, the messages are passed to the fallback by close()
+        }
+    }
+
+    private void reject(final List<Entry> entries) {
+        for (Entry entry : entries) {
+            fallback.accept(entry.msg);
+        }
+    }
+
+    /**
+     * Tries to send queued messages for a few seconds, messages which are still queued
+     * afterwards are passed to the fallback sink
+     */
+    @Override
+    public void close() {
+
+        closed = true;
+        scheduler.shutdown();
+
+        final long deadline = System.currentTimeMillis() + 10 * 1000;
+
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (this) {
+                if (queue.isEmpty() && inFlight.availablePermits() == maxInFlight) {
+                    break;
+                }
+                //messages are passed to the fallback right away if the failed batch is not retried before the deadline
+                if (consecutiveFailures > 0 && inFlight.availablePermits() == maxInFlight
+                        && retryAtNanos - System.nanoTime() > TimeUnit.MILLISECONDS.toNanos(deadline - System.currentTimeMillis())) {
+                    break;
+                }
+            }
+            flush();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        final List<Entry> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(queue);
+            queue.clear();
+            queuedBytes = 0;
+        }
+        reject(remaining);
+    }
+
+    synchronized int queued() {
+        return queue.size();
+    }
+
+    long droppedBatches() {
+        return droppedBatches.get();
+    }
+
+    private static final class Entry {
+
+        private final byte[] payload;
+        private final AuditMessage msg;
+        private int failures;
+
+        private Entry(final byte[] payload, final AuditMessage msg) {
+            this.payload = payload;
+            this.msg = msg;
+        }
+    }
+}
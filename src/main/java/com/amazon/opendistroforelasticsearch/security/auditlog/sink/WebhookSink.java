@@ -15,6 +15,7 @@
 
 package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -24,21 +25,35 @@ import java.security.AccessController;
 import java.security.KeyStore;
 import java.security.PrivilegedAction;
 import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.conn.ssl.DefaultHostnameVerifier;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
 import org.apache.http.ssl.SSLContextBuilder;
 import org.apache.http.ssl.TrustStrategy;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.settings.Settings;
 
@@ -57,6 +72,12 @@ public class WebhookSink extends AuditLogSink {
 	final boolean verifySSL;
 	final KeyStore effectiveTruststore;
 
+	/* only used in batch mode */
+	private CloseableHttpAsyncClient asyncHttpClient;
+	private WebhookBatchProcessor batchProcessor;
+	private boolean jsonArray;
+	private boolean gzip;
+
     public WebhookSink(final String name, final Settings settings, final String settingsPrefix, final Path configPath, AuditLogSink fallbackSink) throws Exception {
 	    super(name, settings, settingsPrefix, fallbackSink);
 
@@ -99,6 +120,36 @@ public class WebhookSink extends AuditLogSink {
 				webhookFormat = WebhookFormat.TEXT;
 			}
 		}
+
+		if (this.webhookUrl != null && sinkSettings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_ENABLED, false)) {
+			final int maxInFlight = Math.max(1, sinkSettings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_MAX_IN_FLIGHT, 4));
+			asyncHttpClient = getAsyncHttpClient(maxInFlight);
+
+			if (asyncHttpClient == null) {
+				log.error("Could not create async HttpClient, audit messages will be sent one by one.");
+				return;
+			}
+
+			asyncHttpClient.start();
+			jsonArray = "json_array".equalsIgnoreCase(sinkSettings.get(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_FORMAT, "ndjson"));
+			gzip = sinkSettings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_WEBHOOK_GZIP, false);
+			// only json and text payloads can be concatenated
+			final int maxActions = webhookFormat == WebhookFormat.JSON || webhookFormat == WebhookFormat.TEXT ? Integer.MAX_VALUE : 1;
+			batchProcessor = new WebhookBatchProcessor(name, sinkSettings, maxActions, this::sendBatch, this::storeOnFallback);
+		}
+	}
+
+	@Override
+	public boolean isHandlingBackpressure() {
+		return batchProcessor != null;
+	}
+
+	@Override
+	protected void addStats(Map<String, Object> stats) {
+		if (batchProcessor != null) {
+			stats.put("webhook_queued", batchProcessor.queued());
+			stats.put("webhook_dropped_batches", batchProcessor.droppedBatches());
+		}
 	}
 
 	@Override
@@ -112,6 +163,10 @@ public class WebhookSink extends AuditLogSink {
 			return true;
 		}
 
+		if (batchProcessor != null) {
+			return batchProcessor.add(msg, format(msg).getBytes(StandardCharsets.UTF_8));
+		}
+
 		return AccessController.doPrivileged(new PrivilegedAction<Boolean>() {
 
 			@Override
@@ -145,11 +200,123 @@ public class WebhookSink extends AuditLogSink {
 
     @Override
     public void close() throws IOException {
+        if(batchProcessor != null) {
+            batchProcessor.close();
+        }
+        if(asyncHttpClient != null) {
+            asyncHttpClient.close();
+        }
         if(httpClient != null) {
         	httpClient.close();
         }
     }
 
+	private String format(AuditMessage msg) {
+		switch (webhookFormat) {
+		case JSON:
+			return formatJson(msg);
+		case TEXT:
+			return formatText(msg);
+		case SLACK:
+			return formatSlack(msg);
+		default:
+			return formatUrlParameters(msg);
+		}
+	}
+
+	/**
+	 * Sends a batch of formatted messages with one request. JSON messages are sent as
+	 * newline delimited JSON or as JSON array, text messages are separated by newlines.
+	 * Slack and URL parameter formats are never batched.
+	 */
+	void sendBatch(final List<byte[]> payloads, final ActionListener<Integer> listener) {
+
+		final HttpRequestBase request;
+
+		if (webhookFormat == WebhookFormat.URL_PARAMETER_GET || webhookFormat == WebhookFormat.URL_PARAMETER_POST) {
+			final String url = webhookUrl + new String(payloads.get(0), StandardCharsets.UTF_8);
+			request = webhookFormat == WebhookFormat.URL_PARAMETER_GET ? new HttpGet(url) : new HttpPost(url);
+		} else {
+			final HttpPost post = new HttpPost(webhookUrl);
+			ContentType contentType = webhookFormat.contentType;
+			if (webhookFormat == WebhookFormat.JSON && !jsonArray) {
+				contentType = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+			}
+			byte[] body = joinPayloads(payloads);
+			if (gzip) {
+				try {
+					body = gzip(body);
+				} catch (IOException e) {
+					listener.onFailure(e);
+					return;
+				}
+				post.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+			}
+			post.setEntity(new ByteArrayEntity(body, contentType));
+			request = post;
+		}
+
+		AccessController.doPrivileged(new PrivilegedAction<Void>() {
+
+			@Override
+			public Void run() {
+				asyncHttpClient.execute(request, new FutureCallback<HttpResponse>() {
+
+					@Override
+					public void completed(HttpResponse response) {
+						listener.onResponse(response.getStatusLine().getStatusCode());
+					}
+
+					@Override
+					public void failed(Exception ex) {
+						listener.onFailure(ex);
+					}
+
+					@Override
+					public void cancelled() {
+						listener.onFailure(new CancellationException("Request to webhook URL '" + webhookUrl + "' was cancelled"));
+					}
+				});
+				return null;
+			}
+		});
+	}
+
+	private byte[] joinPayloads(final List<byte[]> payloads) {
+
+		if (webhookFormat == WebhookFormat.SLACK) {
+			return payloads.get(0);
+		}
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		if (webhookFormat == WebhookFormat.JSON && jsonArray) {
+			out.write('[');
+		}
+
+		for (int i = 0; i < payloads.size(); i++) {
+			if (i > 0) {
+				out.write(webhookFormat == WebhookFormat.JSON && jsonArray ? ',' : '\n');
+			}
+			final byte[] payload = payloads.get(i);
+			out.write(payload, 0, payload.length);
+		}
+
+		if (webhookFormat == WebhookFormat.JSON) {
+			out.write(jsonArray ? ']' : '\n');
+		}
+
+		return out.toByteArray();
+	}
+
+	private static byte[] gzip(final byte[] body) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 16);
+		try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+			gzipOut.write(body);
+		}
+		return out.toByteArray();
+	}
+
 
 	/**
 	 * Transforms an {@link AuditMessage} to JSON. By default, all fields are
@@ -389,6 +556,53 @@ public class WebhookSink extends AuditLogSink {
 	    }
 	}
 
+	/**
+	 * Creates the client for batch mode. Connections are pooled and kept alive, up to
+	 * maxInFlight requests are sent concurrently.
+	 */
+	CloseableHttpAsyncClient getAsyncHttpClient(final int maxInFlight) {
+
+		return AccessController.doPrivileged(new PrivilegedAction<CloseableHttpAsyncClient>() {
+
+			@Override
+			public CloseableHttpAsyncClient run() {
+
+				int timeout = 5;
+
+				RequestConfig config = RequestConfig.custom()
+						.setConnectTimeout(timeout * 1000)
+						.setConnectionRequestTimeout(timeout * 1000)
+						.setSocketTimeout(timeout * 1000).build();
+
+				try {
+					final HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+							.setMaxConnPerRoute(maxInFlight)
+							.setMaxConnTotal(maxInFlight)
+							.setDefaultRequestConfig(config);
+
+					if(!verifySSL) {
+						builder.setSSLStrategy(new SSLIOSessionStrategy(
+								new SSLContextBuilder()
+								.loadTrustMaterial((TrustStrategy) (chain, authType) -> true)
+								.build(),
+								NoopHostnameVerifier.INSTANCE));
+					} else if(effectiveTruststore != null) {
+						builder.setSSLStrategy(new SSLIOSessionStrategy(
+								new SSLContextBuilder()
+								.loadTrustMaterial(effectiveTruststore, null)
+								.build(),
+								new DefaultHostnameVerifier()));
+					}
+
+					return builder.build();
+				} catch(Exception ex) {
+					log.error("Could not create async HTTPClient due to {}.", ex.getMessage(), ex);
+					return null;
+				}
+			}
+		});
+	}
+
 	public static enum WebhookFormat {
 		URL_PARAMETER_GET(HttpMethod.GET, ContentType.TEXT_PLAIN),
 		URL_PARAMETER_POST(HttpMethod.POST, ContentType.TEXT_PLAIN),
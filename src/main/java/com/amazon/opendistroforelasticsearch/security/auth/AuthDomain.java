@@ -34,17 +34,41 @@ import java.util.Objects;
 
 public class AuthDomain implements Comparable<AuthDomain> {
 
+    private final String name;
     private final AuthenticationBackend backend;
     private final HTTPAuthenticator httpAuthenticator;
     private final int order;
     private final boolean challenge;
+    private final long timeoutMillis;
 
     public AuthDomain(final AuthenticationBackend backend, final HTTPAuthenticator httpAuthenticator, boolean challenge, final int order) {
+        this(null, backend, httpAuthenticator, challenge, order);
+    }
+
+    /**
+     * @param name name of the domain in the authc section of the configuration
+     */
+    public AuthDomain(final String name, final AuthenticationBackend backend, final HTTPAuthenticator httpAuthenticator, boolean challenge,
+                      final int order) {
+        this(name, backend, httpAuthenticator, challenge, order, -1);
+    }
+
+    /**
+     * @param timeoutMillis time to wait for the domain if auth domains are tried concurrently, a value &lt;= 0 uses the default
+     */
+    public AuthDomain(final String name, final AuthenticationBackend backend, final HTTPAuthenticator httpAuthenticator, boolean challenge,
+                      final int order, final long timeoutMillis) {
         super();
+        this.name = name;
         this.backend = Objects.requireNonNull(backend);
         this.httpAuthenticator = httpAuthenticator;
         this.order = order;
         this.challenge = challenge;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public String getName() {
+        return name;
     }
 
     public boolean isChallenge() {
@@ -63,9 +87,13 @@ public class AuthDomain implements Comparable<AuthDomain> {
         return order;
     }
 
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
     @Override
     public String toString() {
-        return "AuthDomain [backend=" + backend + ", httpAuthenticator=" + httpAuthenticator + ", order=" + order + ", challenge="
+        return "AuthDomain [name=" + name + ", backend=" + backend + ", httpAuthenticator=" + httpAuthenticator + ", order=" + order + ", challenge="
                 + challenge + "]";
     }
 
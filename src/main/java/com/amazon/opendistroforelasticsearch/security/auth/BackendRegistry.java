@@ -32,8 +32,10 @@ package com.amazon.opendistroforelasticsearch.security.auth;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -41,21 +43,36 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import javax.naming.InvalidNameException;
 import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.common.settings.SecureSetting;
+import org.elasticsearch.common.settings.SecureString;
+import org.elasticsearch.common.settings.Setting;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.common.util.concurrent.ThreadContext;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestChannel;
@@ -86,16 +103,19 @@ import com.amazon.opendistroforelasticsearch.security.support.ReflectionHelper;
 import com.amazon.opendistroforelasticsearch.security.user.AuthCredentials;
 import com.amazon.opendistroforelasticsearch.security.user.User;
 import com.google.common.base.Strings;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
+import com.google.common.io.BaseEncoding;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
+import com.google.common.collect.Sets;
 
 public class BackendRegistry implements ConfigurationChangeListener {
 
+    private static final String AUTHC_DOMAINS = "opendistro_security.dynamic.authc";
+
+    public static final Setting<SecureString> SHARED_CACHE_CREDENTIALS_KEY = SecureSetting.secureString(
+            ConfigConstants.OPENDISTRO_SECURITY_CACHE_SHARED_CREDENTIALS_KEY, null);
+
     protected final Logger log = LogManager.getLogger(this.getClass());
     private final Map<String, String> authImplMap = new HashMap<>();
     private SortedSet<AuthDomain> restAuthDomains;
@@ -119,74 +139,81 @@ public class BackendRegistry implements ConfigurationChangeListener {
     private final ThreadPool threadPool;
     private final UserInjector userInjector;
     private final int ttlInMin;
-    private Cache<AuthCredentials, User> userCache; //rest standard
-    private Cache<String, User> restImpersonationCache; //used for rest impersonation
-    private Cache<String, User> userCacheTransport; //transport no creds, possibly impersonated
-    private Cache<AuthCredentials, User> authenticatedUserCacheTransport; //transport creds, no impersonation
-
-    private Cache<User, Set<String>> transportRoleCache; //
-    private Cache<User, Set<String>> restRoleCache; //
-    private Cache<String, User> transportImpersonationCache; //used for transport impersonation
+    private final int softTtlInMin;
+    private final ExecutorService cacheRefreshExecutor;
+    private final SharedAuthCache sharedAuthCache;
+    private final SecretKeySpec sharedCredentialsKey;
+    private final ExecutorService restAuthExecutor; //null if rest auth domains are tried one after another
+    private final long restAuthTimeoutMillis;
+    private RefreshAheadCache<AuthCredentials, User> userCache; //rest standard
+    private RefreshAheadCache<String, User> restImpersonationCache; //used for rest impersonation
+    private RefreshAheadCache<String, User> userCacheTransport; //transport no creds, possibly impersonated
+    private RefreshAheadCache<AuthCredentials, User> authenticatedUserCacheTransport; //transport creds, no impersonation
+
+    private RefreshAheadCache<User, Set<String>> transportRoleCache; //
+    private RefreshAheadCache<User, Set<String>> restRoleCache; //
+    private RefreshAheadCache<String, User> transportImpersonationCache; //used for transport impersonation
+    private Settings lastConfig; //to find out which cache entries are affected by a config change
+    private Settings lastInternalUsers;
 
     private volatile String transportUsernameAttribute = null;
     
     private void createCaches() {
-        userCache = CacheBuilder.newBuilder().expireAfterWrite(ttlInMin, TimeUnit.MINUTES)
-                .removalListener(new RemovalListener<AuthCredentials, User>() {
-                    @Override
-                    public void onRemoval(RemovalNotification<AuthCredentials, User> notification) {
-                        log.debug("Clear user cache for {} due to {}", notification.getKey().getUsername(), notification.getCause());
-                    }
-                }).build();
-
-        userCacheTransport = CacheBuilder.newBuilder().expireAfterWrite(ttlInMin, TimeUnit.MINUTES)
-                .removalListener(new RemovalListener<String, User>() {
-                    @Override
-                    public void onRemoval(RemovalNotification<String, User> notification) {
-                        log.debug("Clear user cache for {} due to {}", notification.getKey(), notification.getCause());
-                    }
-                }).build();
+        userCache = createCache("user cache", AuthCredentials::getUsername,
+                this::getSharedCredentialsKey, AuthCredentials::getUsername, (k, v) -> v, u -> u);
+        userCacheTransport = createCache("transport user cache", k -> k, k -> k, k -> k, (k, v) -> v, u -> u);
+        authenticatedUserCacheTransport = createCache("authenticated transport user cache", AuthCredentials::getUsername,
+                this::getSharedCredentialsKey, AuthCredentials::getUsername, (k, v) -> v, u -> u);
+        restImpersonationCache = createCache("rest impersonation cache", k -> k, k -> k, k -> k, (k, v) -> v, u -> u);
+        transportRoleCache = createCache("transport role cache", k -> k,
+                User::getName, User::getName, (k, v) -> new User(k.getName(), v, null), u -> new HashSet<>(u.getRoles()));
+        restRoleCache = createCache("rest role cache", k -> k,
+                User::getName, User::getName, (k, v) -> new User(k.getName(), v, null), u -> new HashSet<>(u.getRoles()));
+        transportImpersonationCache = createCache("transport impersonation cache", k -> k, k -> k, k -> k, (k, v) -> v, u -> u);
+    }
 
-        authenticatedUserCacheTransport = CacheBuilder.newBuilder().expireAfterWrite(ttlInMin, TimeUnit.MINUTES)
-                .removalListener(new RemovalListener<AuthCredentials, User>() {
-                    @Override
-                    public void onRemoval(RemovalNotification<AuthCredentials, User> notification) {
-                        log.debug("Clear user cache for {} due to {}", notification.getKey().getUsername(), notification.getCause());
-                    }
-                }).build();
+    /**
+     * @param sharedKey key in the shared cache, null if the entry must not be shared
+     * @param toUser converts an entry into the principal in the shared cache
+     * @param fromUser converts a principal of the shared cache back
+     */
+    private <K, V> RefreshAheadCache<K, V> createCache(final String name, final Function<K, Object> logKey, final Function<K, String> sharedKey,
+                                                       final Function<K, String> username, final BiFunction<K, V, User> toUser,
+                                                       final Function<User, V> fromUser) {
+        final SharedCacheTier<K, V> sharedTier = sharedAuthCache == null ? null
+                : new SharedCacheTier<>(sharedAuthCache, name, sharedKey, username, toUser, fromUser);
+        return new RefreshAheadCache<>(name, ttlInMin, softTtlInMin, TimeUnit.MINUTES, cacheRefreshExecutor, logKey, sharedTier);
+    }
 
-        restImpersonationCache = CacheBuilder.newBuilder().expireAfterWrite(ttlInMin, TimeUnit.MINUTES)
-                .removalListener(new RemovalListener<String, User>() {
-                    @Override
-                    public void onRemoval(RemovalNotification<String, User> notification) {
-                        log.debug("Clear user cache for {} due to {}", notification.getKey(), notification.getCause());
-                    }
-                }).build();
+    /**
+     * Credentials are shared with a keyed hash, so that the shared cache does not contain anything
+     * which can be used to authenticate. Credentials without password, like tokens, are not shared.
+     */
+    private String getSharedCredentialsKey(final AuthCredentials credentials) {
 
-        transportRoleCache = CacheBuilder.newBuilder().expireAfterWrite(ttlInMin, TimeUnit.MINUTES)
-                .removalListener(new RemovalListener<User, Set<String>>() {
-                    @Override
-                    public void onRemoval(RemovalNotification<User, Set<String>> notification) {
-                        log.debug("Clear user cache for {} due to {}", notification.getKey(), notification.getCause());
-                    }
-                }).build();
+        if (sharedCredentialsKey == null) {
+            return null;
+        }
 
-        restRoleCache = CacheBuilder.newBuilder().expireAfterWrite(ttlInMin, TimeUnit.MINUTES)
-                .removalListener(new RemovalListener<User, Set<String>>() {
-                    @Override
-                    public void onRemoval(RemovalNotification<User, Set<String>> notification) {
-                        log.debug("Clear user cache for {} due to {}", notification.getKey(), notification.getCause());
-                    }
-                }).build();
+        final byte[] password = credentials.getPassword();
 
-        transportImpersonationCache = CacheBuilder.newBuilder().expireAfterWrite(ttlInMin, TimeUnit.MINUTES)
-                .removalListener(new RemovalListener<String, User>() {
-                    @Override
-                    public void onRemoval(RemovalNotification<String, User> notification) {
-                        log.debug("Clear user cache for {} due to {}", notification.getKey(), notification.getCause());
-                    }
-                }).build();
+        if (password == null) {
+            return null;
+        }
 
+        try {
+            final Mac mac = Mac.getInstance(sharedCredentialsKey.getAlgorithm());
+            mac.init(sharedCredentialsKey);
+            mac.update(credentials.getUsername().getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(password);
+            return BaseEncoding.base64().encode(mac.doFinal());
+        } catch (Exception e) {
+            log.warn("Unable to compute shared cache key for {} due to {}", credentials.getUsername(), e.toString(), e);
+            return null;
+        } finally {
+            Arrays.fill(password, (byte) 0);
+        }
     }
 
     public BackendRegistry(final Settings settings, final Path configPath, final AdminDNs adminDns, final XFFResolver xffResolver,
@@ -225,15 +252,96 @@ public class BackendRegistry implements ConfigurationChangeListener {
         authImplMap.put("username_authFailureListener", UserNameBasedRateLimiter.class.getName());
 
         this.ttlInMin = settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_CACHE_TTL_MINUTES, 60);
-                
+        this.softTtlInMin = settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_CACHE_SOFT_TTL_MINUTES, -1);
+
+        if (softTtlInMin > 0 && softTtlInMin < ttlInMin) {
+            final int refreshThreads = Math.max(1, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_CACHE_REFRESH_THREADS, 2));
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(Math.max(1, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_CACHE_REFRESH_QUEUE_SIZE, 1000))),
+                    EsExecutors.daemonThreadFactory("opendistro_security_auth_cache_refresh"));
+            executor.allowCoreThreadTimeOut(true);
+            this.cacheRefreshExecutor = executor;
+        } else {
+            this.cacheRefreshExecutor = null;
+        }
+
+        final String sharedCacheType = settings.get(ConfigConstants.OPENDISTRO_SECURITY_CACHE_SHARED_TYPE);
+
+        if (sharedCacheType != null) {
+            //there is no built-in implementation, the type is the class name of a SharedAuthCache
+            this.sharedAuthCache = ReflectionHelper.instantiateAAA(sharedCacheType, settings, configPath, false);
+
+            //the key must be the same on all nodes, so it is read from the keystore instead of a random one per node
+            try (SecureString credentialsKey = SHARED_CACHE_CREDENTIALS_KEY.get(settings)) {
+                if (credentialsKey.length() < 32) {
+                    throw new ElasticsearchException(ConfigConstants.OPENDISTRO_SECURITY_CACHE_SHARED_CREDENTIALS_KEY
+                            + " with at least 32 characters must be added to the keystore if " + ConfigConstants.OPENDISTRO_SECURITY_CACHE_SHARED_TYPE + " is set");
+                }
+                this.sharedCredentialsKey = new SecretKeySpec(credentialsKey.toString().getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+            }
+        } else {
+            this.sharedAuthCache = null;
+            this.sharedCredentialsKey = null;
+        }
+
+        if (settings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_AUTHC_PARALLEL_DOMAINS_ENABLED, false)) {
+            final int threads = Math.max(1, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUTHC_PARALLEL_DOMAINS_THREADS, 8));
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(Math.max(1, settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_AUTHC_PARALLEL_DOMAINS_QUEUE_SIZE, 1000))),
+                    EsExecutors.daemonThreadFactory("opendistro_security_rest_authc"));
+            executor.allowCoreThreadTimeOut(true);
+            this.restAuthExecutor = executor;
+            this.restAuthTimeoutMillis = Math.max(1, settings.getAsLong(ConfigConstants.OPENDISTRO_SECURITY_AUTHC_PARALLEL_DOMAINS_TIMEOUT_MS, 10000L));
+        } else {
+            this.restAuthExecutor = null;
+            this.restAuthTimeoutMillis = -1;
+        }
+
         createCaches();
     }
 
+    /**
+     * @return hits, misses, refreshes and load latencies of the user and role caches
+     */
+    public Map<String, Object> getCacheStats() {
+        final Map<String, Object> stats = new TreeMap<>();
+        for (RefreshAheadCache<?, ?> cache : getCaches()) {
+            stats.put(cache.getName().replace(' ', '_'), cache.getStats());
+        }
+        return stats;
+    }
+
+    List<RefreshAheadCache<?, ?>> getCaches() {
+        return Arrays.asList(userCache, userCacheTransport, authenticatedUserCacheTransport,
+                restImpersonationCache, restRoleCache, transportRoleCache, transportImpersonationCache);
+    }
+
     public boolean isInitialized() {
         return initialized;
     }
 
+    /**
+     * Stops the threads which refresh cache entries and authenticate against several auth domains concurrently
+     */
+    public void close() {
+        if (cacheRefreshExecutor != null) {
+            cacheRefreshExecutor.shutdownNow();
+        }
+
+        if (restAuthExecutor != null) {
+            restAuthExecutor.shutdownNow();
+        }
+    }
+
     public void invalidateCache() {
+        invalidateLocalCaches();
+
+        final BiPredicate<String, String> all = (username, domain) -> true;
+        invalidateSharedCache(all, userCache, userCacheTransport, authenticatedUserCacheTransport, restImpersonationCache,
+                restRoleCache, transportRoleCache, transportImpersonationCache);
+    }
+
+    private void invalidateLocalCaches() {
         userCache.invalidateAll();
         userCacheTransport.invalidateAll();
         authenticatedUserCacheTransport.invalidateAll();
@@ -243,6 +351,190 @@ public class BackendRegistry implements ConfigurationChangeListener {
         transportImpersonationCache.invalidateAll();
     }
 
+    private void invalidate(final BiPredicate<String, String> usernameAndDomain, final RefreshAheadCache<?, ?>... caches) {
+        for (final RefreshAheadCache<?, ?> cache : caches) {
+            cache.invalidateIf((key, domain) -> usernameAndDomain.test(getCachedUsername(key), (String) domain));
+        }
+        invalidateSharedCache(usernameAndDomain, caches);
+    }
+
+    private void invalidateSharedCache(final BiPredicate<String, String> usernameAndDomain, final RefreshAheadCache<?, ?>... caches) {
+
+        if (sharedAuthCache == null) {
+            return;
+        }
+
+        for (final RefreshAheadCache<?, ?> cache : caches) {
+            try {
+                sharedAuthCache.invalidate(cache.getName(), usernameAndDomain);
+            } catch (Exception e) {
+                log.warn("Unable to invalidate {} in shared cache due to {}", cache.getName(), e.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * Invalidates only the users which were loaded from auth domains affected by the change. Everything else in the config,
+     * like the authz domains, is used for all cached users and roles, so a change there invalidates all caches.
+     */
+    void invalidateCache(final Settings previous, final Settings current) {
+
+        if (previous == null) {
+            //initial load on this node, the shared cache was not loaded from a different config
+            invalidateLocalCaches();
+            return;
+        }
+
+        final Set<String> affectedDomains = getAffectedAuthDomains(previous, current);
+
+        if (affectedDomains == null) {
+            invalidateCache();
+            return;
+        }
+
+        if (affectedDomains.isEmpty()) {
+            return;
+        }
+
+        log.info("Auth domains {} changed, invalidate their cached users", affectedDomains);
+
+        invalidate((username, domain) -> domain == null || affectedDomains.contains(domain),
+                userCache, userCacheTransport, authenticatedUserCacheTransport, restImpersonationCache, transportImpersonationCache);
+    }
+
+    /**
+     * @return the names of the changed auth domains and of all domains with the same or a higher order,
+     * or null if something else than the auth domains changed
+     */
+    static Set<String> getAffectedAuthDomains(final Settings previous, final Settings current) {
+
+        if (!withoutAuthcDomains(previous).equals(withoutAuthcDomains(current))) {
+            return null;
+        }
+
+        final Map<String, Settings> previousDomains = previous.getGroups(AUTHC_DOMAINS);
+        final Map<String, Settings> currentDomains = current.getGroups(AUTHC_DOMAINS);
+        final Set<String> affectedDomains = new HashSet<>();
+        int minOrder = Integer.MAX_VALUE;
+
+        for (final String ad : Sets.union(previousDomains.keySet(), currentDomains.keySet())) {
+            final Settings previousDomain = previousDomains.get(ad);
+            final Settings currentDomain = currentDomains.get(ad);
+
+            if (!Objects.equals(withoutTimeout(previousDomain), withoutTimeout(currentDomain))) {
+                affectedDomains.add(ad);
+                minOrder = Math.min(minOrder, Math.min(getOrder(previousDomain), getOrder(currentDomain)));
+            }
+        }
+
+        if (affectedDomains.isEmpty()) {
+            return affectedDomains;
+        }
+
+        //domains are tried in order, so a changed domain may now authenticate users which were loaded from a later one
+        for (final Map.Entry<String, Settings> ad : currentDomains.entrySet()) {
+            if (getOrder(ad.getValue()) >= minOrder) {
+                affectedDomains.add(ad.getKey());
+            }
+        }
+
+        return affectedDomains;
+    }
+
+    private static Settings withoutAuthcDomains(final Settings settings) {
+        return settings.filter(key -> !key.startsWith(AUTHC_DOMAINS + "."));
+    }
+
+    //the timeout does not change which users a domain authenticates
+    private static Settings withoutTimeout(final Settings authDomain) {
+        return authDomain == null ? null : authDomain.filter(key -> !"timeout_ms".equals(key));
+    }
+
+    private static int getOrder(final Settings authDomain) {
+        return authDomain == null ? Integer.MAX_VALUE : authDomain.getAsInt("order", 0);
+    }
+
+    /**
+     * The internal users are used by the internal authentication and authorization backend,
+     * a change invalidates the cached users and roles with the changed usernames.
+     *
+     * @return listener for the internalusers configuration
+     */
+    public ConfigurationChangeListener getInternalUsersChangeListener() {
+        return internalUsers -> {
+            synchronized (BackendRegistry.this) {
+                final Settings previous = lastInternalUsers;
+                lastInternalUsers = internalUsers;
+
+                if (previous == null) {
+                    return;
+                }
+
+                final Set<String> changedUsers = getChangedInternalUsers(previous, internalUsers);
+
+                if (changedUsers.isEmpty()) {
+                    return;
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Internal users {} changed, invalidate their cached users and roles", changedUsers);
+                }
+
+                invalidate((username, domain) -> isChangedUser(changedUsers, username), userCache, userCacheTransport,
+                        authenticatedUserCacheTransport, restImpersonationCache, transportImpersonationCache, restRoleCache, transportRoleCache);
+            }
+        };
+    }
+
+    /**
+     * @return the names and username attributes of all added, removed or changed internal users
+     */
+    static Set<String> getChangedInternalUsers(final Settings previous, final Settings current) {
+        final Set<String> changedUsers = new HashSet<>();
+
+        for (final String username : Sets.union(previous.names(), current.names())) {
+            final Settings previousUser = previous.getAsSettings(username);
+            final Settings currentUser = current.getAsSettings(username);
+
+            if (!previousUser.equals(currentUser)) {
+                changedUsers.add(username);
+                //users can also be looked up by their username attribute
+                addIfNotNull(changedUsers, previousUser.get("username"));
+                addIfNotNull(changedUsers, currentUser.get("username"));
+            }
+        }
+
+        return changedUsers;
+    }
+
+    private static void addIfNotNull(final Set<String> set, final String value) {
+        if (value != null) {
+            set.add(value);
+        }
+    }
+
+    static boolean isChangedUser(final Set<String> changedUsers, final String username) {
+        if (changedUsers.contains(username)) {
+            return true;
+        }
+
+        //settings names end at the first dot, so usernames with dots appear by their first part only
+        final int dot = username.indexOf('.');
+        return dot > 0 && changedUsers.contains(username.substring(0, dot));
+    }
+
+    private static String getCachedUsername(final Object key) {
+        if (key instanceof AuthCredentials) {
+            return ((AuthCredentials) key).getUsername();
+        }
+
+        if (key instanceof User) {
+            return ((User) key).getName();
+        }
+
+        return String.valueOf(key);
+    }
+
     @Override
     public void onChange(final Settings settings) {
 
@@ -295,7 +587,7 @@ public class BackendRegistry implements ConfigurationChangeListener {
             }
         }
 
-        final Map<String, Settings> dyn = settings.getGroups("opendistro_security.dynamic.authc");
+        final Map<String, Settings> dyn = settings.getGroups(AUTHC_DOMAINS);
 
         for (final String ad : dyn.keySet()) {
             final Settings ads = dyn.get(ad);
@@ -322,8 +614,8 @@ public class BackendRegistry implements ConfigurationChangeListener {
                             : (HTTPAuthenticator) newInstance(httpAuthenticatorType, "h",
                             Settings.builder().put(esSettings).put(ads.getAsSettings("http_authenticator.config")).build(), configPath);
 
-                    final AuthDomain _ad = new AuthDomain(authenticationBackend, httpAuthenticator,
-                            ads.getAsBoolean("http_authenticator.challenge", true), ads.getAsInt("order", 0));
+                    final AuthDomain _ad = new AuthDomain(ad, authenticationBackend, httpAuthenticator,
+                            ads.getAsBoolean("http_authenticator.challenge", true), ads.getAsInt("order", 0), ads.getAsLong("timeout_ms", -1L));
 
                     if (httpEnabled && _ad.getHttpAuthenticator() != null) {
                         restAuthDomains0.add(_ad);
@@ -351,8 +643,6 @@ public class BackendRegistry implements ConfigurationChangeListener {
         createAuthFailureListeners(settings.getGroups("opendistro_security.dynamic.auth_failure_listeners"), ipAuthFailureListeners0,
                 authBackendFailureListeners0, ipClientBlockRegistries0, authBackendClientBlockRegistries0, destroyableComponents0);
 
-        invalidateCache();
-
         transportUsernameAttribute = settings.get("opendistro_security.dynamic.transport_userrname_attribute", null);
         anonymousAuthEnabled = settings.getAsBoolean("opendistro_security.dynamic.http.anonymous_auth_enabled", false)
                 && !esSettings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_DISABLE_ANONYMOUS_AUTHENTICATION, false);
@@ -371,6 +661,9 @@ public class BackendRegistry implements ConfigurationChangeListener {
         authBackendClientBlockRegistries = Multimaps.unmodifiableMultimap(authBackendClientBlockRegistries0);
         authBackendFailureListeners = Multimaps.unmodifiableMultimap(authBackendFailureListeners0);
 
+        invalidateCache(lastConfig, settings);
+        lastConfig = settings;
+
         //Open Distro Security no default authc
         initialized = !restAuthDomains.isEmpty() || anonymousAuthEnabled || injectedUserEnabled;
 
@@ -483,11 +776,11 @@ public class BackendRegistry implements ConfigurationChangeListener {
                 impersonatedTransportUser = impersonate(request, origPKIUser);
                 origPKIUser = resolveTransportUsernameAttribute(origPKIUser);
                 authenticatedUser = checkExistsAndAuthz(userCacheTransport,
-                        impersonatedTransportUser == null ? origPKIUser : impersonatedTransportUser, authDomain.getBackend(), transportAuthorizers);
+                        impersonatedTransportUser == null ? origPKIUser : impersonatedTransportUser, authDomain, transportAuthorizers);
             } else {
                  //auth credentials submitted
                 //impersonation not possible, if requested it will be ignored
-                authenticatedUser = authcz(authenticatedUserCacheTransport, transportRoleCache, creds, authDomain.getBackend(), transportAuthorizers);
+                authenticatedUser = authcz(authenticatedUserCacheTransport, transportRoleCache, creds, authDomain, transportAuthorizers);
             }
 
             if (authenticatedUser == null) {
@@ -590,6 +883,10 @@ public class BackendRegistry implements ConfigurationChangeListener {
 
         HTTPAuthenticator firstChallengingHttpAuthenticator = null;
 
+        //credentials which are authenticated concurrently, only used if parallel domains are enabled
+        final ParallelAuthentication pending = restAuthExecutor == null ? null
+                : new ParallelAuthentication(r -> restAuthExecutor.execute(threadContext.preserveContext(r)), restAuthTimeoutMillis, userCache);
+
         //loop over all http/rest auth domains
         for (final AuthDomain authDomain : restAuthDomains) {
 
@@ -622,6 +919,15 @@ public class BackendRegistry implements ConfigurationChangeListener {
 
             authCredenetials = ac;
 
+            if (pending != null && !pending.isEmpty() && (ac == null || !ac.isComplete())) {
+                //this domain may answer the request, so the previous domains must have failed before
+                authenticatedUser = authczParallel(pending, request);
+
+                if (authenticatedUser != null) {
+                    break;
+                }
+            }
+
             if (ac == null) {
                 //no credentials found in request
                 if (anonymousAuthEnabled) {
@@ -652,24 +958,28 @@ public class BackendRegistry implements ConfigurationChangeListener {
                 }
             }
 
-            //http completed       
-            authenticatedUser = authcz(userCache, restRoleCache, ac, authDomain.getBackend(), restAuthorizers);
+            //http completed
+            if (pending != null) {
+                pending.add(authDomain, ac, c -> authczLoader(restRoleCache, c, authDomain, restAuthorizers), !isUncached(authDomain, restAuthorizers));
+                continue;
+            }
 
-            if (authenticatedUser == null) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Cannot authenticate user {} (or add roles) with authdomain {}/{}, try next", ac.getUsername(),
-                            authDomain.getBackend().getType(), authDomain.getOrder());
-                }
+            authenticatedUser = authcz(userCache, restRoleCache, ac, authDomain, restAuthorizers);
 
-                for (AuthFailureListener authFailureListener : this.authBackendFailureListeners.get(authDomain.getBackend().getClass().getName())) {
-                    authFailureListener.onAuthFailure(
-                            (request.getRemoteAddress() instanceof InetSocketAddress) ? ((InetSocketAddress) request.getRemoteAddress()).getAddress()
-                                    : null,
-                            ac, request);
-                }
+            if (authenticatedUser == null) {
+                notifyAuthBackendFailureListeners(authDomain, ac, request);
                 continue;
             }
 
+            break;
+        } //end looping auth domains
+
+        if (authenticatedUser == null && pending != null && !pending.isEmpty()) {
+            authenticatedUser = authczParallel(pending, request);
+        }
+
+        if (authenticatedUser != null) {
+
             if (adminDns.isAdmin(authenticatedUser)) {
                 log.error("Cannot authenticate user because admin user is not permitted to login via HTTP");
                 auditLog.logFailedLogin(authenticatedUser.getName(), true, null, request);
@@ -687,8 +997,7 @@ public class BackendRegistry implements ConfigurationChangeListener {
 
             authenticatedUser.setRequestedTenant(tenant);
             authenticated = true;
-            break;
-        } //end looping auth domains
+        }
 
         if (authenticated) {
             final User impersonatedUser = impersonate(request, authenticatedUser);
@@ -742,6 +1051,24 @@ public class BackendRegistry implements ConfigurationChangeListener {
         return authenticated;
     }
 
+    private void notifyAuthBackendFailureListeners(final AuthDomain authDomain, final AuthCredentials ac, final RestRequest request) {
+        if (log.isDebugEnabled()) {
+            log.debug("Cannot authenticate user {} (or add roles) with authdomain {}/{}, try next", ac.getUsername(),
+                    authDomain.getBackend().getType(), authDomain.getOrder());
+        }
+
+        for (AuthFailureListener authFailureListener : this.authBackendFailureListeners.get(authDomain.getBackend().getClass().getName())) {
+            authFailureListener.onAuthFailure(
+                    (request.getRemoteAddress() instanceof InetSocketAddress) ? ((InetSocketAddress) request.getRemoteAddress()).getAddress()
+                            : null,
+                    ac, request);
+        }
+    }
+
+    private User authczParallel(final ParallelAuthentication pending, final RestRequest request) {
+        return pending.authenticate((authDomain, ac) -> notifyAuthBackendFailureListeners(authDomain, ac, request));
+    }
+
     private void notifyIpAuthFailureListeners(RestRequest request, AuthCredentials authCredentials) {
         notifyIpAuthFailureListeners(
                 (request.getRemoteAddress() instanceof InetSocketAddress) ? ((InetSocketAddress) request.getRemoteAddress()).getAddress() : null,
@@ -762,29 +1089,31 @@ public class BackendRegistry implements ConfigurationChangeListener {
      * @param authDomain
      * @return null if user cannot b authenticated
      */
-    private User checkExistsAndAuthz(final Cache<String, User> cache, final User user, final AuthenticationBackend authenticationBackend,
+    private User checkExistsAndAuthz(final RefreshAheadCache<String, User> cache, final User user, final AuthDomain authDomain,
                                      final Set<AuthorizationBackend> authorizers) {
         if (user == null) {
             return null;
         }
 
+        final AuthenticationBackend authenticationBackend = authDomain.getBackend();
+
         try {
-            return cache.get(user.getName(), new Callable<User>() { //no cache miss in case of noop
+            return cache.get(user.getName(), authDomain.getName(), new RefreshAheadCache.Loader<User>() { //no cache miss in case of noop
                 @Override
                 public User call() throws Exception {
                     if (log.isTraceEnabled()) {
                         log.trace("Credentials for user " + user.getName() + " not cached, return from " + authenticationBackend.getType()
                                 + " backend directly");
                     }
-                    if (authenticationBackend.exists(user)) {
-                        authz(user, null, authorizers); //no role cache because no miss here in case of noop
-                        return user;
-                    }
+                    return existsAndAuthz(user, authenticationBackend, authorizers);
+                }
 
-                    if (log.isDebugEnabled()) {
-                        log.debug("User " + user.getName() + " does not exist in " + authenticationBackend.getType());
-                    }
-                    return null;
+                @Override
+                public Callable<User> forRefresh() {
+                    //the user of the request is returned to the caller, so refresh a copy
+                    final User copy = new User(user.getName(), user.getRoles(), null);
+                    copy.addAttributes(user.getCustomAttributesMap());
+                    return () -> existsAndAuthz(copy, authenticationBackend, authorizers);
                 }
             });
         } catch (Exception e) {
@@ -795,13 +1124,30 @@ public class BackendRegistry implements ConfigurationChangeListener {
         }
     }
 
-    private void authz(User authenticatedUser, Cache<User, Set<String>> roleCache, final Set<AuthorizationBackend> authorizers) {
+    private User existsAndAuthz(final User user, final AuthenticationBackend authenticationBackend, final Set<AuthorizationBackend> authorizers) {
+        if (authenticationBackend.exists(user)) {
+            authz(user, null, authorizers, true); //no role cache because no miss here in case of noop
+            return user;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("User " + user.getName() + " does not exist in " + authenticationBackend.getType());
+        }
+        return null;
+    }
+
+    /**
+     * @param useCachedRoles false if the roles should be loaded from the authorizers also if they are cached,
+     * for example to refresh a stale cache entry
+     */
+    private void authz(User authenticatedUser, RefreshAheadCache<User, Set<String>> roleCache, final Set<AuthorizationBackend> authorizers,
+                       final boolean useCachedRoles) {
 
         if (authenticatedUser == null) {
             return;
         }
 
-        if (roleCache != null) {
+        if (roleCache != null && useCachedRoles) {
 
             final Set<String> cachedBackendRoles = roleCache.getIfPresent(authenticatedUser);
 
@@ -839,33 +1185,21 @@ public class BackendRegistry implements ConfigurationChangeListener {
      * @param authDomain
      * @return null if user cannot b authenticated
      */
-    private User authcz(final Cache<AuthCredentials, User> cache, Cache<User, Set<String>> roleCache, final AuthCredentials ac,
-                        final AuthenticationBackend authBackend, final Set<AuthorizationBackend> authorizers) {
+    private User authcz(final RefreshAheadCache<AuthCredentials, User> cache, RefreshAheadCache<User, Set<String>> roleCache, final AuthCredentials ac,
+                        final AuthDomain authDomain, final Set<AuthorizationBackend> authorizers) {
         if (ac == null) {
             return null;
         }
+
+        final AuthenticationBackend authBackend = authDomain.getBackend();
         try {
 
-            //noop backend configured and no authorizers
-            //that mean authc and authz was completely done via HTTP (like JWT or PKI)
-            if (authBackend.getClass() == NoOpAuthenticationBackend.class && authorizers.isEmpty()) {
+            if (isUncached(authDomain, authorizers)) {
                 //no cache
                 return authBackend.authenticate(ac);
             }
 
-            return cache.get(ac, new Callable<User>() {
-                @Override
-                public User call() throws Exception {
-                    if (log.isTraceEnabled()) {
-                        log.trace("Credentials for user " + ac.getUsername() + " not cached, return from " + authBackend.getType()
-                                + " backend directly");
-                    }
-                    final User authenticatedUser = authBackend.authenticate(ac);
-                    authz(authenticatedUser, roleCache, authorizers);
-
-                    return authenticatedUser;
-                }
-            });
+            return cache.get(ac, authDomain.getName(), authczLoader(roleCache, ac, authDomain, authorizers));
         } catch (Exception e) {
             if (log.isDebugEnabled()) {
                 log.debug("Can not authenticate " + ac.getUsername() + " due to " + e.toString(), e);
@@ -876,6 +1210,55 @@ public class BackendRegistry implements ConfigurationChangeListener {
         }
     }
 
+    /**
+     * noop backend configured and no authorizers
+     * that mean authc and authz was completely done via HTTP (like JWT or PKI)
+     */
+    private static boolean isUncached(final AuthDomain authDomain, final Set<AuthorizationBackend> authorizers) {
+        return authDomain.getBackend().getClass() == NoOpAuthenticationBackend.class && authorizers.isEmpty();
+    }
+
+    /**
+     * @return loader which authenticates the credentials with the auth domain and adds the roles of the authorizers
+     */
+    private RefreshAheadCache.Loader<User> authczLoader(final RefreshAheadCache<User, Set<String>> roleCache, final AuthCredentials ac,
+                                                        final AuthDomain authDomain, final Set<AuthorizationBackend> authorizers) {
+        final AuthenticationBackend authBackend = authDomain.getBackend();
+
+        if (isUncached(authDomain, authorizers)) {
+            return () -> authBackend.authenticate(ac);
+        }
+
+        return new RefreshAheadCache.Loader<User>() {
+            @Override
+            public User call() throws Exception {
+                if (log.isTraceEnabled()) {
+                    log.trace("Credentials for user " + ac.getUsername() + " not cached, return from " + authBackend.getType()
+                            + " backend directly");
+                }
+                final User authenticatedUser = authBackend.authenticate(ac);
+                authz(authenticatedUser, roleCache, authorizers, true);
+
+                return authenticatedUser;
+            }
+
+            @Override
+            public Callable<User> forRefresh() {
+                //the secrets of the request are cleared before the refresh runs
+                final AuthCredentials copy = ac.copy();
+                return () -> {
+                    try {
+                        final User authenticatedUser = authBackend.authenticate(copy);
+                        authz(authenticatedUser, roleCache, authorizers, false);
+                        return authenticatedUser;
+                    } finally {
+                        copy.clearSecrets();
+                    }
+                };
+            }
+        };
+    }
+
     private User impersonate(final TransportRequest tr, final User origPKIuser) throws ElasticsearchSecurityException {
 
         final String impersonatedUser = threadPool.getThreadContext().getHeader("opendistro_security_impersonate_as");
@@ -908,7 +1291,7 @@ public class BackendRegistry implements ConfigurationChangeListener {
                 for (final AuthDomain authDomain : transportAuthDomains) {
                     final AuthenticationBackend authenticationBackend = authDomain.getBackend();
                     final User impersonatedUserObject = checkExistsAndAuthz(transportImpersonationCache, new User(impersonatedUser),
-                            authenticationBackend, transportAuthorizers);
+                            authDomain, transportAuthorizers);
 
                     if (impersonatedUserObject == null) {
                         log.debug(
@@ -958,7 +1341,7 @@ public class BackendRegistry implements ConfigurationChangeListener {
             //loop over all http/rest auth domains
             for (final AuthDomain authDomain : restAuthDomains) {
                 final AuthenticationBackend authenticationBackend = authDomain.getBackend();
-                final User impersonatedUser = checkExistsAndAuthz(restImpersonationCache, new User(impersonatedUserHeader), authenticationBackend,
+                final User impersonatedUser = checkExistsAndAuthz(restImpersonationCache, new User(impersonatedUserHeader), authDomain,
                         restAuthorizers);
 
                 if (impersonatedUser == null) {
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ElasticsearchSecurityException;
+
+import com.amazon.opendistroforelasticsearch.security.user.AuthCredentials;
+import com.amazon.opendistroforelasticsearch.security.user.User;
+
+/**
+ * Authenticates the credentials of several auth domains concurrently. The result of the domain with the
+ * lowest order wins, so domains with a higher order are only used if all domains before failed or timed out.
+ * All domains start at the same time and each one is waited for until its own timeout has passed since then,
+ * so a slow domain delays the domains after it by its timeout at most.
+ * <p>
+ * Domains often extract equal credentials, like a username and password for LDAP and the internal users,
+ * but the user cache is keyed by the credentials only. So the domains load their users outside of the cache,
+ * otherwise they would wait for each other and share their failures. Only the winning user is cached.
+ * Each authentication gets its own copy of the credentials, the secrets of the request's credentials are
+ * only cleared after the winning user was cached, because the key in the shared cache tier is derived from them.
+ */
+final class ParallelAuthentication {
+
+    private static final Logger log = LogManager.getLogger(ParallelAuthentication.class);
+
+    private final Executor executor;
+    private final long defaultTimeoutMillis;
+    private final RefreshAheadCache<AuthCredentials, User> cache;
+    private final List<AuthDomain> authDomains = new ArrayList<>();
+    private final List<AuthCredentials> credentials = new ArrayList<>();
+    private final List<Function<AuthCredentials, RefreshAheadCache.Loader<User>>> loaders = new ArrayList<>();
+    private final List<Boolean> cacheable = new ArrayList<>();
+
+    /**
+     * @param executor runs the authentications, they run on the calling thread if it rejects them
+     * @param defaultTimeoutMillis time to wait for a domain which has no timeout of its own
+     * @param cache cache for the authenticated users
+     */
+    ParallelAuthentication(final Executor executor, final long defaultTimeoutMillis, final RefreshAheadCache<AuthCredentials, User> cache) {
+        this.executor = executor;
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.cache = cache;
+    }
+
+    /**
+     * Adds the credentials of the next auth domain, domains must be added in their order
+     *
+     * @param loader creates the loader which authenticates and authorizes the given credentials with the domain,
+     *               it returns null or throws an {@link ElasticsearchSecurityException} if the domain rejects them
+     * @param cached false if the authenticated user must not be cached
+     */
+    void add(final AuthDomain authDomain, final AuthCredentials ac, final Function<AuthCredentials, RefreshAheadCache.Loader<User>> loader,
+             final boolean cached) {
+        authDomains.add(authDomain);
+        credentials.add(ac);
+        loaders.add(loader);
+        cacheable.add(cached);
+    }
+
+    boolean isEmpty() {
+        return authDomains.isEmpty();
+    }
+
+    /**
+     * Authenticates all added credentials, clears their secrets and removes them.
+     * A cached user of any of the domains is returned without authenticating again.
+     *
+     * @param onFailure called for each domain which rejected its credentials before the winning domain,
+     *                  but not for domains which timed out or failed with an unexpected error
+     * @return null if user cannot be authenticated by any of the domains
+     */
+    User authenticate(final BiConsumer<AuthDomain, AuthCredentials> onFailure) {
+
+        try {
+            if (authDomains.size() == 1) {
+                final User authenticatedUser = authenticateSingle(authDomains.get(0), credentials.get(0),
+                        loaders.get(0).apply(credentials.get(0)), cacheable.get(0));
+
+                if (authenticatedUser == null) {
+                    onFailure.accept(authDomains.get(0), credentials.get(0));
+                }
+
+                return authenticatedUser;
+            }
+
+            for (int i = 0; i < authDomains.size(); i++) {
+                final AuthCredentials ac = credentials.get(i);
+                final User cachedUser = cacheable.get(i) ? cache.getIfPresent(ac, loaders.get(i).apply(ac)) : null;
+
+                if (cachedUser != null) {
+                    return cachedUser;
+                }
+            }
+
+            return authenticateParallel(onFailure);
+        } finally {
+            //after the user was cached, the shared cache key is derived from the secrets
+            credentials.forEach(AuthCredentials::clearSecrets);
+            authDomains.clear();
+            credentials.clear();
+            loaders.clear();
+            cacheable.clear();
+        }
+    }
+
+    private User authenticateParallel(final BiConsumer<AuthDomain, AuthCredentials> onFailure) {
+
+        final long start = System.nanoTime();
+        final List<CompletableFuture<User>> results = new ArrayList<>(authDomains.size());
+        //each authentication uses its own copy of the credentials, it may outlive the request
+        final List<AuthCredentials> copies = new ArrayList<>(authDomains.size());
+        final boolean[] timedOut = new boolean[authDomains.size()];
+
+        try {
+            for (int i = 0; i < authDomains.size(); i++) {
+                final AuthCredentials copy = credentials.get(i).copy();
+                final RefreshAheadCache.Loader<User> loader = loaders.get(i).apply(copy);
+                final CompletableFuture<User> result = new CompletableFuture<>();
+                final Runnable authentication = () -> {
+                    try {
+                        result.complete(loader.call());
+                    } catch (Throwable e) {
+                        result.completeExceptionally(e);
+                    }
+                };
+
+                results.add(result);
+                copies.add(copy);
+
+                try {
+                    executor.execute(authentication);
+                } catch (RejectedExecutionException e) {
+                    authentication.run();
+                }
+            }
+
+            for (int i = 0; i < authDomains.size(); i++) {
+                final AuthDomain authDomain = authDomains.get(i);
+                final AuthCredentials ac = credentials.get(i);
+                final boolean cached = cacheable.get(i);
+                final long timeoutMillis = authDomain.getTimeoutMillis() > 0 ? authDomain.getTimeoutMillis() : defaultTimeoutMillis;
+
+                try {
+                    final long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis) - (System.nanoTime() - start);
+                    final User authenticatedUser = results.get(i).get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+
+                    if (authenticatedUser != null) {
+                        if (cached) {
+                            cache.put(ac, authDomain.getName(), authenticatedUser);
+                        }
+                        return authenticatedUser;
+                    }
+
+                    onFailure.accept(authDomain, ac);
+                } catch (TimeoutException e) {
+                    //the authentication keeps running and fills the cache, it wins over domains with a higher order
+                    final AuthCredentials copy = copies.get(i);
+                    timedOut[i] = true;
+                    results.get(i).whenComplete((authenticatedUser, failure) -> {
+                        try {
+                            if (cached && authenticatedUser != null) {
+                                cache.put(copy, authDomain.getName(), authenticatedUser);
+                            }
+                        } finally {
+                            copy.clearSecrets();
+                        }
+                    });
+                    log.warn("Authentication of {} with authdomain {}/{} timed out after {} ms, try next", ac.getUsername(),
+                            authDomain.getBackend().getType(), authDomain.getOrder(), timeoutMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof ElasticsearchSecurityException) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Can not authenticate " + ac.getUsername() + " due to " + e.getCause().toString(), e.getCause());
+                        }
+                        onFailure.accept(authDomain, ac);
+                    } else {
+                        log.error("Unable to authenticate {} with authdomain {}/{} due to {}", ac.getUsername(),
+                                authDomain.getBackend().getType(), authDomain.getOrder(), e.getCause().toString(), e.getCause());
+                    }
+                }
+            }
+
+            return null;
+        } finally {
+            for (int i = 0; i < copies.size(); i++) {
+                if (!timedOut[i]) {
+                    final AuthCredentials copy = copies.get(i);
+                    results.get(i).whenComplete((authenticatedUser, failure) -> copy.clearSecrets());
+                }
+            }
+        }
+    }
+
+    private User authenticateSingle(final AuthDomain authDomain, final AuthCredentials ac, final RefreshAheadCache.Loader<User> loader,
+                                    final boolean cached) {
+        try {
+            return cached ? cache.get(ac, authDomain.getName(), loader) : loader.call();
+        } catch (Exception e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Can not authenticate " + ac.getUsername() + " due to " + e.toString(), e);
+            }
+            return null;
+        } finally {
+            ac.clearSecrets();
+        }
+    }
+}
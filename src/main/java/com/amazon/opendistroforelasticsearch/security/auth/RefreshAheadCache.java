@@ -0,0 +1,440 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auth;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ElasticsearchSecurityException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+
+/**
+ * Cache for authenticated users and their roles with refresh-ahead semantics.
+ * <p>
+ * Entries older than the hard ttl are expired, requests for them block until the value is loaded again.
+ * Entries older than the soft ttl are still returned, but the first request which sees them schedules a reload
+ * on the refresh executor. A reload which fails with an {@link ElasticsearchSecurityException}, like a backend
+ * rejecting the credentials, or which returns no value removes the entry. Any other failure, like a backend
+ * which is not available, keeps the stale entry until the hard ttl. Without a refresh executor or with a soft ttl which is not smaller than the hard ttl
+ * this behaves like a cache which expires entries after the hard ttl.
+ * <p>
+ * Entries can be tagged with the source they were loaded from, for example the auth domain,
+ * so that they can be invalidated selectively.
+ * <p>
+ * An optional shared tier is consulted before a value is loaded, values loaded by this cache are stored there.
+ * Values from the shared tier keep their age, so they are refreshed and expired like values loaded by this cache.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class RefreshAheadCache<K, V> {
+
+    /**
+     * Loads a value on a cache miss or, in the background, when an entry should be refreshed
+     */
+    interface Loader<V> extends Callable<V> {
+
+        /**
+         * Called on the requesting thread when a refresh is scheduled. Loaders which depend on
+         * state of the request, which is not available anymore when the refresh runs, have to copy it here.
+         *
+         * @return the loader used for the refresh
+         */
+        default Callable<V> forRefresh() {
+            return this;
+        }
+    }
+
+    /**
+     * Second cache tier, for example one shared by all nodes of a cluster
+     */
+    interface SharedTier<K, V> {
+
+        /**
+         * Called on the requesting thread
+         *
+         * @return the key in the shared tier or null if the value of this key must not be shared
+         */
+        String sharedKey(K key);
+
+        /**
+         * @return the value or null if there is none which was loaded in the last maxAgeMillis
+         */
+        SharedValue<V> get(String sharedKey, long maxAgeMillis);
+
+        void put(String sharedKey, K key, Object source, V value);
+    }
+
+    static final class SharedValue<V> {
+
+        private final V value;
+        private final Object source;
+        private final long ageMillis;
+
+        SharedValue(final V value, final Object source, final long ageMillis) {
+            this.value = value;
+            this.source = source;
+            this.ageMillis = Math.max(0, ageMillis);
+        }
+    }
+
+    private static final Logger log = LogManager.getLogger(RefreshAheadCache.class);
+
+    private final String name;
+    private final Function<K, Object> logKey;
+    private final Cache<K, Entry<V>> cache;
+    private final long hardTtlNanos;
+    private final long softTtlNanos;
+    private final Executor refreshExecutor;
+    private final SharedTier<K, V> sharedTier;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder sharedHits = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    //entries which expired or were invalidated, replaced entries are not counted
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAccumulator maxLoadNanos = new LongAccumulator(Long::max, 0);
+
+    /**
+     * @param name name of the cache, used for logging and statistics
+     * @param hardTtl entries are expired after this time
+     * @param softTtl entries are refreshed in the background after this time, a value &lt;= 0 disables refresh-ahead
+     * @param refreshExecutor runs the background refreshes, null disables refresh-ahead
+     * @param logKey describes a key in log messages
+     */
+    RefreshAheadCache(final String name, final long hardTtl, final long softTtl, final TimeUnit unit,
+                      final Executor refreshExecutor, final Function<K, Object> logKey) {
+        this(name, hardTtl, softTtl, unit, refreshExecutor, logKey, null);
+    }
+
+    /**
+     * @param sharedTier second cache tier, may be null
+     */
+    RefreshAheadCache(final String name, final long hardTtl, final long softTtl, final TimeUnit unit,
+                      final Executor refreshExecutor, final Function<K, Object> logKey, final SharedTier<K, V> sharedTier) {
+        this.name = name;
+        this.logKey = logKey;
+        this.sharedTier = sharedTier;
+        this.hardTtlNanos = unit.toNanos(hardTtl);
+        this.cache = CacheBuilder.newBuilder().expireAfterWrite(hardTtl, unit)
+                .<K, Entry<V>>removalListener(notification -> {
+                    if (notification.getCause() != RemovalCause.REPLACED) {
+                        evictions.increment();
+                    }
+                    if (log.isDebugEnabled()) {
+                        log.debug("Clear {} for {} due to {}", name, logKey.apply(notification.getKey()), notification.getCause());
+                    }
+                }).build();
+
+        final boolean refreshAhead = refreshExecutor != null && softTtl > 0 && softTtl < hardTtl;
+        this.softTtlNanos = refreshAhead ? unit.toNanos(softTtl) : Long.MAX_VALUE;
+        this.refreshExecutor = refreshAhead ? refreshExecutor : null;
+    }
+
+    /**
+     * Returns the cached value or loads it on the calling thread if there is none or if it is expired
+     *
+     * @throws ExecutionException if the loader threw a checked exception
+     * @throws com.google.common.cache.CacheLoader.InvalidCacheLoadException if the loader returned null
+     */
+    V get(final K key, final Loader<? extends V> loader) throws ExecutionException {
+        return get(key, null, loader);
+    }
+
+    /**
+     * Like {@link #get(Object, Loader)}, a loaded value is tagged with the given source
+     */
+    V get(final K key, final Object source, final Loader<? extends V> loader) throws ExecutionException {
+
+        final AtomicBoolean loaded = new AtomicBoolean();
+
+        final Entry<V> entry = cache.get(key, () -> {
+            loaded.set(true);
+            return loadEntry(key, source, loader);
+        });
+
+        if (loaded.get()) {
+            misses.increment();
+            return entry.value;
+        }
+
+        if (System.nanoTime() - entry.loadedAt >= hardTtlNanos) {
+            //taken from the shared tier with some age, so it expires earlier than the local cache expires it
+            cache.asMap().remove(key, entry);
+            return get(key, source, loader);
+        }
+
+        hits.increment();
+        refreshIfStale(key, entry, loader);
+        return entry.value;
+    }
+
+    /**
+     * Returns the cached value or null without loading it if there is none or if it is expired.
+     * A stale value is refreshed in the background with the given loader.
+     */
+    V getIfPresent(final K key, final Loader<? extends V> loader) {
+
+        Entry<V> entry = cache.getIfPresent(key);
+
+        if (entry == null) {
+            misses.increment();
+            entry = getShared(sharedTier == null ? null : sharedTier.sharedKey(key));
+
+            if (entry == null) {
+                return null;
+            }
+
+            final Entry<V> previous = cache.asMap().putIfAbsent(key, entry);
+            return previous == null ? entry.value : previous.value;
+        }
+
+        if (System.nanoTime() - entry.loadedAt >= hardTtlNanos) {
+            cache.asMap().remove(key, entry);
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        refreshIfStale(key, entry, loader);
+        return entry.value;
+    }
+
+    /**
+     * Returns the cached value without refreshing it, also if it is stale
+     */
+    V getIfPresent(final K key) {
+        final Entry<V> entry = cache.getIfPresent(key);
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.value;
+    }
+
+    void put(final K key, final V value) {
+        cache.put(key, new Entry<>(value, null, System.nanoTime()));
+    }
+
+    /**
+     * Stores a value which was loaded outside of this cache, tagged with the given source, also in the shared tier
+     */
+    void put(final K key, final Object source, final V value) {
+        final String sharedKey = sharedTier == null ? null : sharedTier.sharedKey(key);
+
+        if (sharedKey != null) {
+            sharedTier.put(sharedKey, key, source, value);
+        }
+
+        cache.put(key, new Entry<>(value, source, System.nanoTime()));
+    }
+
+    void invalidate(final K key) {
+        cache.invalidate(key);
+    }
+
+    void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Invalidates all entries whose key and source match the predicate, the source is null for untagged entries
+     *
+     * @return the number of invalidated entries
+     */
+    int invalidateIf(final BiPredicate<? super K, Object> predicate) {
+        int count = 0;
+        for (Map.Entry<K, Entry<V>> entry : cache.asMap().entrySet()) {
+            if (predicate.test(entry.getKey(), entry.getValue().source) && cache.asMap().remove(entry.getKey(), entry.getValue())) {
+                count++;
+            }
+        }
+        invalidations.add(count);
+        return count;
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+    Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<>();
+        final long loadCount = loads.sum();
+        stats.put("size", cache.size());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("stale_hits", staleHits.sum());
+        stats.put("shared_hits", sharedHits.sum());
+        stats.put("refreshes", refreshes.sum());
+        stats.put("refresh_failures", refreshFailures.sum());
+        stats.put("selective_invalidations", invalidations.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("loads", loadCount);
+        stats.put("load_avg_ms", loadCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(loadNanos.sum() / loadCount));
+        stats.put("load_max_ms", TimeUnit.NANOSECONDS.toMillis(maxLoadNanos.get()));
+        return stats;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    private Entry<V> getShared(final String sharedKey) {
+
+        if (sharedKey == null) {
+            return null;
+        }
+
+        final SharedValue<V> shared = sharedTier.get(sharedKey, TimeUnit.NANOSECONDS.toMillis(hardTtlNanos));
+
+        if (shared == null) {
+            return null;
+        }
+
+        sharedHits.increment();
+        return new Entry<>(shared.value, shared.source, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(shared.ageMillis));
+    }
+
+    private Entry<V> loadEntry(final K key, final Object source, final Callable<? extends V> loader) throws Exception {
+        final String sharedKey = sharedTier == null ? null : sharedTier.sharedKey(key);
+        final Entry<V> shared = getShared(sharedKey);
+
+        if (shared != null) {
+            return shared;
+        }
+
+        final V value = load(loader);
+
+        if (value == null) {
+            return null;
+        }
+
+        if (sharedKey != null) {
+            sharedTier.put(sharedKey, key, source, value);
+        }
+
+        return new Entry<>(value, source, System.nanoTime());
+    }
+
+    private void refreshIfStale(final K key, final Entry<V> entry, final Loader<? extends V> loader) {
+        if (refreshExecutor != null && System.nanoTime() - entry.loadedAt >= softTtlNanos) {
+            staleHits.increment();
+            if (entry.refreshing.compareAndSet(false, true)) {
+                refresh(key, entry, loader.forRefresh());
+            }
+        }
+    }
+
+    private void refresh(final K key, final Entry<V> entry, final Callable<? extends V> loader) {
+        final String sharedKey = sharedTier == null ? null : sharedTier.sharedKey(key);
+
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    // another node may have refreshed it already
+                    final SharedValue<V> shared = sharedKey == null ? null
+                            : sharedTier.get(sharedKey, TimeUnit.NANOSECONDS.toMillis(softTtlNanos));
+
+                    if (shared != null) {
+                        sharedHits.increment();
+                        cache.asMap().replace(key, entry,
+                                new Entry<>(shared.value, entry.source, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(shared.ageMillis)));
+                        return;
+                    }
+
+                    final V value = load(loader);
+                    refreshes.increment();
+
+                    // don't overwrite an entry which was invalidated or replaced meanwhile
+                    if (value != null) {
+                        if (sharedKey != null) {
+                            sharedTier.put(sharedKey, key, entry.source, value);
+                        }
+                        cache.asMap().replace(key, entry, new Entry<>(value, entry.source, System.nanoTime()));
+                    } else {
+                        cache.asMap().remove(key, entry);
+                    }
+                } catch (ElasticsearchSecurityException e) {
+                    // the backend rejected the credentials, like a changed password or a removed user
+                    refreshFailures.increment();
+                    cache.asMap().remove(key, entry);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Refresh of {} for {} was rejected due to {}, remove entry", name, logKey.apply(key), e.toString());
+                    }
+                } catch (Exception e) {
+                    refreshFailures.increment();
+                    entry.refreshing.set(false);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Unable to refresh {} for {} due to {}, keep stale entry", name, logKey.apply(key), e.toString(), e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // try again with the next request
+            entry.refreshing.set(false);
+        }
+    }
+
+    private V load(final Callable<? extends V> loader) throws Exception {
+        final long start = System.nanoTime();
+        try {
+            return loader.call();
+        } finally {
+            final long took = System.nanoTime() - start;
+            loads.increment();
+            loadNanos.add(took);
+            maxLoadNanos.accumulate(took);
+        }
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        //where the value was loaded from, may be null
+        private final Object source;
+        private final long loadedAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(final V value, final Object source, final long loadedAt) {
+            this.value = value;
+            this.source = source;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
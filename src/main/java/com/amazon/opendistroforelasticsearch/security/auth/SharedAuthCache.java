@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auth;
+
+import java.util.function.BiPredicate;
+
+import com.amazon.opendistroforelasticsearch.security.user.User;
+
+/**
+ * Second tier for the user and role caches of the {@link BackendRegistry} which is shared by all nodes of a cluster.
+ * A node consults it before it asks the authentication and authorization backends, and stores what it loaded from them.
+ * <p>
+ * Only principals, the user with its backend roles and attributes, are stored, never credentials.
+ * Keys of caches which are looked up by credentials are a keyed hash of the credentials.
+ * <p>
+ * Implementations are configured with {@code opendistro_security.cache.shared.type}, the class name of the implementation,
+ * and need a public constructor with the arguments {@link org.elasticsearch.common.settings.Settings}
+ * and {@link java.nio.file.Path}, like the other auth modules.
+ * <p>
+ * This plugin does not ship an implementation yet, without one the caches are local to each node.
+ */
+public interface SharedAuthCache {
+
+    /**
+     * @param cacheName name of the local cache
+     * @param maxAgeMillis principals stored before are ignored
+     * @return the principal or null if there is none
+     */
+    CachedUser get(String cacheName, String key, long maxAgeMillis);
+
+    void put(String cacheName, String key, CachedUser user);
+
+    /**
+     * Removes the principals for which the predicate returns true
+     *
+     * @param usernameAndDomain tests the username and the name of the auth domain, which may be null
+     */
+    void invalidate(String cacheName, BiPredicate<String, String> usernameAndDomain);
+
+    /**
+     * A principal in the shared cache, the user is copied so that it can not be modified by requests
+     */
+    final class CachedUser {
+
+        private final String username;
+        private final User user;
+        private final String domain;
+        private final long createdMillis;
+
+        /**
+         * @param username name under which the user was looked up, used for invalidation
+         * @param domain auth domain the user was loaded from, may be null
+         */
+        public CachedUser(final String username, final User user, final String domain) {
+            this(username, user, domain, System.currentTimeMillis());
+        }
+
+        public CachedUser(final String username, final User user, final String domain, final long createdMillis) {
+            this.username = username;
+            this.user = copy(user);
+            this.domain = domain;
+            this.createdMillis = createdMillis;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * @return a copy of the user
+         */
+        public User getUser() {
+            return copy(user);
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        public long getCreatedMillis() {
+            return createdMillis;
+        }
+
+        private static User copy(final User user) {
+            final User copy = new User(user.getName(), user.getRoles(), null);
+            copy.addAttributes(user.getCustomAttributesMap());
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auth;
+
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.amazon.opendistroforelasticsearch.security.auth.SharedAuthCache.CachedUser;
+import com.amazon.opendistroforelasticsearch.security.user.User;
+
+/**
+ * Connects a {@link RefreshAheadCache} to a {@link SharedAuthCache}. Errors of the shared cache are logged
+ * and handled like a miss, so that authentication does not depend on it.
+ *
+ * @param <K> the key type of the local cache
+ * @param <V> the value type of the local cache
+ */
+final class SharedCacheTier<K, V> implements RefreshAheadCache.SharedTier<K, V> {
+
+    private static final Logger log = LogManager.getLogger(SharedCacheTier.class);
+
+    private final SharedAuthCache sharedCache;
+    private final String cacheName;
+    private final Function<K, String> sharedKey;
+    private final Function<K, String> username;
+    private final BiFunction<K, V, User> toUser;
+    private final Function<User, V> fromUser;
+
+    /**
+     * @param sharedKey the key in the shared cache, returns null if a key must not be shared
+     * @param username the username of a key, used for invalidation
+     * @param toUser converts a key and its value into the principal which is shared
+     * @param fromUser converts a shared principal back
+     */
+    SharedCacheTier(final SharedAuthCache sharedCache, final String cacheName, final Function<K, String> sharedKey,
+                    final Function<K, String> username, final BiFunction<K, V, User> toUser, final Function<User, V> fromUser) {
+        this.sharedCache = sharedCache;
+        this.cacheName = cacheName;
+        this.sharedKey = sharedKey;
+        this.username = username;
+        this.toUser = toUser;
+        this.fromUser = fromUser;
+    }
+
+    @Override
+    public String sharedKey(final K key) {
+        return sharedKey.apply(key);
+    }
+
+    @Override
+    public RefreshAheadCache.SharedValue<V> get(final String sharedKey, final long maxAgeMillis) {
+        try {
+            final CachedUser user = sharedCache.get(cacheName, sharedKey, maxAgeMillis);
+
+            if (user == null) {
+                return null;
+            }
+
+            return new RefreshAheadCache.SharedValue<>(fromUser.apply(user.getUser()), user.getDomain(),
+                    System.currentTimeMillis() - user.getCreatedMillis());
+        } catch (Exception e) {
+            log.warn("Unable to get {} from shared cache due to {}", cacheName, e.toString(), e);
+            return null;
+        }
+    }
+
+    @Override
+    public void put(final String sharedKey, final K key, final Object source, final V value) {
+        try {
+            sharedCache.put(cacheName, sharedKey, new CachedUser(username.apply(key), toUser.apply(key, value), (String) source));
+        } catch (Exception e) {
+            log.warn("Unable to put {} into shared cache due to {}", cacheName, e.toString(), e);
+        }
+    }
+}
@@ -33,11 +33,20 @@ package com.amazon.opendistroforelasticsearch.security.auth.internal;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.bouncycastle.crypto.generators.OpenBSDBCrypt;
 import org.elasticsearch.ElasticsearchSecurityException;
 import org.elasticsearch.common.settings.Settings;
@@ -48,14 +57,30 @@ import com.amazon.opendistroforelasticsearch.security.configuration.Configuratio
 import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
 import com.amazon.opendistroforelasticsearch.security.user.AuthCredentials;
 import com.amazon.opendistroforelasticsearch.security.user.User;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 public class InternalAuthenticationBackend implements AuthenticationBackend, AuthorizationBackend {
 
+    private static final int MAX_VERIFIED_CREDENTIALS = 10000;
+    private static final String VERIFIER_ALGORITHM = "HmacSHA256";
+
+    protected final Logger log = LogManager.getLogger(this.getClass());
     private final ConfigurationRepository configurationRepository;
+    //keyed hashes of username, stored hash and password which passed the bcrypt check
+    private final Cache<String, Boolean> verifiedCredentials = CacheBuilder.newBuilder().maximumSize(MAX_VERIFIED_CREDENTIALS).build();
+    private final SecretKeySpec verifierKey;
+    private volatile UsernameIndex usernameIndex;
 
     public InternalAuthenticationBackend(final ConfigurationRepository configurationRepository) {
         super();
         this.configurationRepository = configurationRepository;
+
+        //random per node, so the keyed hashes are useless outside of this node and after a restart
+        final byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.verifierKey = new SecretKeySpec(key, VERIFIER_ALGORITHM);
     }
 
     @Override
@@ -66,21 +91,10 @@ public class InternalAuthenticationBackend implements AuthenticationBackend, Aut
             return false;
         }
         
-        String hashed = cfg.get(user.getName() + ".hash");
+        final String hashed = getHash(cfg, user.getName());
 
         if (hashed == null) {
-            
-            for(String username:cfg.names()) {
-                String u = cfg.get(username + ".username");
-                if(user.getName().equals(u)) {
-                    hashed = cfg.get(username+ ".hash");
-                    break;
-                }
-            }
-            
-            if(hashed == null) {
-                return false;
-            }
+            return false;
         }
         
         final List<String> roles = cfg.getAsList(user.getName() + ".roles", Collections.emptyList());
@@ -112,21 +126,10 @@ public class InternalAuthenticationBackend implements AuthenticationBackend, Aut
 
         }
 
-        String hashed = cfg.get(credentials.getUsername() + ".hash");
+        final String hashed = getHash(cfg, credentials.getUsername());
 
         if (hashed == null) {
-            
-            for(String username:cfg.names()) {
-                String u = cfg.get(username + ".username");
-                if(credentials.getUsername().equals(u)) {
-                    hashed = cfg.get(username+ ".hash");
-                    break;
-                }
-            }
-            
-            if(hashed == null) {
-                throw new ElasticsearchSecurityException(credentials.getUsername() + " not found");
-            }
+            throw new ElasticsearchSecurityException(credentials.getUsername() + " not found");
         }
         
         final byte[] password = credentials.getPassword();
@@ -135,15 +138,8 @@ public class InternalAuthenticationBackend implements AuthenticationBackend, Aut
             throw new ElasticsearchSecurityException("empty passwords not supported");
         }
 
-        ByteBuffer wrap = ByteBuffer.wrap(password);
-        CharBuffer buf = StandardCharsets.UTF_8.decode(wrap);
-        char[] array = new char[buf.limit()];
-        buf.get(array);
-        
-        Arrays.fill(password, (byte)0);
-       
         try {
-            if (OpenBSDBCrypt.checkPassword(hashed, array)) {
+            if (verify(credentials.getUsername(), hashed, password)) {
                 final List<String> roles = cfg.getAsList(credentials.getUsername() + ".roles", Collections.emptyList());
                 final Settings customAttributes = cfg.getAsSettings(credentials.getUsername() + ".attributes");
 
@@ -157,6 +153,65 @@ public class InternalAuthenticationBackend implements AuthenticationBackend, Aut
             } else {
                 throw new ElasticsearchSecurityException("password does not match");
             }
+        } finally {
+            Arrays.fill(password, (byte)0);
+        }
+    }
+
+    /**
+     * Credentials which passed the bcrypt check are remembered by a keyed hash of the username, the stored hash
+     * and the password, so they are verified again without bcrypt until the stored hash changes.
+     * Concurrent verifications of the same credentials wait for a single bcrypt check.
+     */
+    private boolean verify(final String username, final String hashed, final byte[] password) {
+
+        final String key = getVerifierKey(username, hashed, password);
+
+        if (key == null) {
+            return checkPassword(hashed, password);
+        }
+
+        try {
+            //a mismatch is not cached, it is thrown so that only concurrent verifications share it
+            return verifiedCredentials.get(key, () -> {
+                if (checkPassword(hashed, password)) {
+                    return Boolean.TRUE;
+                }
+                throw new PasswordMismatchException();
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof PasswordMismatchException) {
+                return false;
+            }
+            throw new ElasticsearchSecurityException("Unable to verify password of " + username, e.getCause());
+        }
+    }
+
+    private String getVerifierKey(final String username, final String hashed, final byte[] password) {
+        try {
+            final Mac mac = Mac.getInstance(VERIFIER_ALGORITHM);
+            mac.init(verifierKey);
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(hashed.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(password);
+            return Base64.getEncoder().encodeToString(mac.doFinal());
+        } catch (Exception e) {
+            log.warn("Unable to compute verifier key, check password without cache due to {}", e.toString());
+            return null;
+        }
+    }
+
+    //the bcrypt check, package private so that tests can count it
+    boolean checkPassword(final String hashed, final byte[] password) {
+        ByteBuffer wrap = ByteBuffer.wrap(Arrays.copyOf(password, password.length));
+        CharBuffer buf = StandardCharsets.UTF_8.decode(wrap);
+        char[] array = new char[buf.limit()];
+        buf.get(array);
+
+        try {
+            return OpenBSDBCrypt.checkPassword(hashed, array);
         } finally {
             Arrays.fill(wrap.array(), (byte)0);
             Arrays.fill(buf.array(), '\0');
@@ -164,6 +219,55 @@ public class InternalAuthenticationBackend implements AuthenticationBackend, Aut
         }
     }
 
+    /**
+     * @return the stored hash of the user, which may also be found by its username attribute, or null
+     */
+    private String getHash(final Settings cfg, final String username) {
+        final String hashed = cfg.get(username + ".hash");
+
+        if (hashed != null) {
+            return hashed;
+        }
+
+        UsernameIndex index = usernameIndex;
+
+        //the config is replaced on reload, so the index is rebuilt for a new config
+        if (index == null || index.cfg != cfg) {
+            index = new UsernameIndex(cfg);
+            usernameIndex = index;
+        }
+
+        final String name = index.names.get(username);
+        return name == null ? null : cfg.get(name + ".hash");
+    }
+
+    private static final class UsernameIndex {
+
+        private final Settings cfg;
+        private final Map<String, String> names = new HashMap<>();
+
+        private UsernameIndex(final Settings cfg) {
+            this.cfg = cfg;
+
+            for (String name : cfg.names()) {
+                final String username = cfg.get(name + ".username");
+                //the first match wins, like with a scan over the names
+                if (username != null && !names.containsKey(username)) {
+                    names.put(username, name);
+                }
+            }
+        }
+    }
+
+    private static final class PasswordMismatchException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private PasswordMismatchException() {
+            super(null, null, false, false);
+        }
+    }
+
     @Override
     public String getType() {
         return "internal";
@@ -44,8 +44,11 @@ import java.util.concurrent.ExecutionException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterStateListener;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.Index;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
@@ -54,6 +57,7 @@ import org.joda.time.format.DateTimeFormatter;
 import com.amazon.opendistroforelasticsearch.security.auditlog.AuditLog;
 import com.amazon.opendistroforelasticsearch.security.resolver.IndexResolverReplacer;
 import com.amazon.opendistroforelasticsearch.security.resolver.IndexResolverReplacer.Resolved;
+import com.amazon.opendistroforelasticsearch.security.support.CompiledWildcardMatcher;
 import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
 import com.amazon.opendistroforelasticsearch.security.support.WildcardMatcher;
 import com.google.common.cache.CacheBuilder;
@@ -61,12 +65,12 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 
 
-public class ComplianceConfig {
+public class ComplianceConfig implements ClusterStateListener {
 
     private final Logger log = LogManager.getLogger(getClass());
     private final Settings settings;
 	private final Map<String, Set<String>> readEnabledFields = new HashMap<>(100);
-    private final List<String> watchedWriteIndices;
+    private final CompiledWildcardMatcher watchedWriteIndices;
     private DateTimeFormatter auditLogPattern = null;
     private String auditLogIndex = null;
     private final boolean logDiffsForWrite;
@@ -74,8 +78,11 @@ public class ComplianceConfig {
     private final boolean logReadMetadataOnly;
     private final boolean logExternalConfig;
     private final boolean logInternalConfig;
-    private final LoadingCache<String, Set<String>> cache;
-    private final Set<String> immutableIndicesPatterns;
+    //both keyed by concrete index name, invalidated when an index of that name is created or deleted
+    private final LoadingCache<String, CompiledWildcardMatcher> cache;
+    private final LoadingCache<String, Boolean> writeCache;
+    private static final CompiledWildcardMatcher MATCH_ALL = CompiledWildcardMatcher.compile(Collections.singleton("*"), false);
+    private final CompiledWildcardMatcher immutableIndicesPatterns;
     private final byte[] salt16;
     private final String opendistrosecurityIndex;
     private final IndexResolverReplacer irr;
@@ -93,13 +100,13 @@ public class ComplianceConfig {
         final List<String> watchedReadFields = this.settings.getAsList(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_READ_WATCHED_FIELDS,
                 Collections.emptyList(), false);
 
-        watchedWriteIndices = settings.getAsList(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_WATCHED_INDICES, Collections.emptyList());
+        watchedWriteIndices = CompiledWildcardMatcher.compile(settings.getAsList(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_WATCHED_INDICES, Collections.emptyList()), false);
         logDiffsForWrite = settings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_LOG_DIFFS, false);
         logWriteMetadataOnly = settings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_METADATA_ONLY, false);
         logReadMetadataOnly = settings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_READ_METADATA_ONLY, false);
         logExternalConfig = settings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_EXTERNAL_CONFIG_ENABLED, false);
         logInternalConfig = settings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_INTERNAL_CONFIG_ENABLED, false);
-        immutableIndicesPatterns = new HashSet<String>(settings.getAsList(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_IMMUTABLE_INDICES, Collections.emptyList()));
+        immutableIndicesPatterns = CompiledWildcardMatcher.compile(settings.getAsList(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_IMMUTABLE_INDICES, Collections.emptyList()), false);
         final String saltAsString = settings.get(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_SALT, ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_SALT_DEFAULT);
         final byte[] saltAsBytes = saltAsString.getBytes(StandardCharsets.UTF_8);
 
@@ -150,12 +157,38 @@ public class ComplianceConfig {
 
         cache = CacheBuilder.newBuilder()
                 .maximumSize(1000)
-                .build(new CacheLoader<String, Set<String>>() {
+                .build(new CacheLoader<String, CompiledWildcardMatcher>() {
                     @Override
-                    public Set<String> load(String index) throws Exception {
-                        return getFieldsForIndex0(index);
+                    public CompiledWildcardMatcher load(String index) throws Exception {
+                        return CompiledWildcardMatcher.compile(getFieldsForIndex0(index), false);
                     }
                 });
+
+        writeCache = CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .build(new CacheLoader<String, Boolean>() {
+                    @Override
+                    public Boolean load(String index) throws Exception {
+                        return writeHistoryEnabledForIndex0(index);
+                    }
+                });
+    }
+
+    @Override
+    public void clusterChanged(ClusterChangedEvent event) {
+        //an index of the same name might be the audit log index of another day now
+        for(String index: event.indicesCreated()) {
+            invalidate(index);
+        }
+
+        for(Index index: event.indicesDeleted()) {
+            invalidate(index.getName());
+        }
+    }
+
+    private void invalidate(String index) {
+        cache.invalidate(index);
+        writeCache.invalidate(index);
     }
 
     public boolean isLogExternalConfig() {
@@ -219,6 +252,17 @@ public class ComplianceConfig {
             return logInternalConfig;
         }
 
+        try {
+            return writeCache.get(index);
+        } catch (ExecutionException e) {
+            log.error(e);
+            return writeHistoryEnabledForIndex0(index);
+        }
+    }
+
+    //cached
+    private boolean writeHistoryEnabledForIndex0(String index) {
+
         if(auditLogIndex != null && auditLogIndex.equalsIgnoreCase(index)) {
             return false;
         }
@@ -229,7 +273,7 @@ public class ComplianceConfig {
             }
         }
 
-        return WildcardMatcher.matchAny(watchedWriteIndices, index);
+        return watchedWriteIndices.test(index);
     }
 
     //no patterns here as parameters
@@ -255,25 +299,29 @@ public class ComplianceConfig {
     //no patterns here as parameters
     //check for isEnabled
     public boolean readHistoryEnabledForField(String index, String field) {
-        
+        return getReadHistoryFieldsMatcher(index).test(field);
+    }
+
+    /**
+     * returns the watched fields of the index compiled into one matcher, NONE if read history is disabled for the index
+     */
+    //no patterns here as parameters
+    //check for isEnabled
+    public CompiledWildcardMatcher getReadHistoryFieldsMatcher(String index) {
+
         if(!this.enabled) {
-            return false;
+            return CompiledWildcardMatcher.NONE;
         }
-        
+
         if(opendistrosecurityIndex.equals(index)) {
-            return logInternalConfig;
+            return logInternalConfig?MATCH_ALL:CompiledWildcardMatcher.NONE;
         }
-        
-        try {
-            final Set<String> fields = cache.get(index);
-            if(fields.isEmpty()) {
-                return false;
-            }
 
-            return WildcardMatcher.matchAny(fields, field);
+        try {
+            return cache.get(index);
         } catch (ExecutionException e) {
             log.error(e);
-            return true;
+            return MATCH_ALL;
         }
     }
 
@@ -317,7 +365,7 @@ public class ComplianceConfig {
         //assert allIndices.contains("*"):"no * in "+allIndices;
         //assert allIndices.contains(""):"no EMPTY in "+allIndices;
 
-        return WildcardMatcher.matchAny(immutableIndicesPatterns, allIndices);
+        return immutableIndicesPatterns.matchAny(allIndices);
     }
 
     public byte[] getSalt16() {
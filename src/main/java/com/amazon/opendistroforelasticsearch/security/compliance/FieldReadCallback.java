@@ -15,13 +15,14 @@
 
 package com.amazon.opendistroforelasticsearch.security.compliance;
 
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
@@ -33,8 +34,12 @@ import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.util.concurrent.ThreadContext;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.IndexService;
@@ -43,10 +48,10 @@ import org.elasticsearch.index.shard.ShardId;
 
 import com.amazon.opendistroforelasticsearch.security.auditlog.AuditLog;
 import com.amazon.opendistroforelasticsearch.security.compliance.ComplianceConfig;
+import com.amazon.opendistroforelasticsearch.security.support.CompiledWildcardMatcher;
 import com.amazon.opendistroforelasticsearch.security.support.HeaderHelper;
+import com.amazon.opendistroforelasticsearch.security.support.OpenDistroSecurityDeprecationHandler;
 import com.amazon.opendistroforelasticsearch.security.support.SourceFieldsContext;
-import com.amazon.opendistroforelasticsearch.security.support.WildcardMatcher;
-import com.github.wnameless.json.flattener.JsonFlattener;
 
 //TODO  We need to deal with caching!!
 //Currently we disable caching (and realtime requests) when FLS or DLS is applied
@@ -61,7 +66,8 @@ public final class FieldReadCallback {
     //private final ClusterService clusterService;
     private final Index index;
     private final ComplianceConfig complianceConfig;
-    private final Set<String> maskedFields;
+    private final CompiledWildcardMatcher maskedFieldsMatcher;
+    private final CompiledWildcardMatcher watchedFieldsMatcher;
     private final AuditLog auditLog;
     private Function<Map<String, ?>, Map<String, Object>> filterFunction;
     private SourceFieldsContext sfc;
@@ -70,14 +76,16 @@ public final class FieldReadCallback {
 
     public FieldReadCallback(final ThreadContext threadContext, final IndexService indexService,
             final ClusterService clusterService, final ComplianceConfig complianceConfig, final AuditLog auditLog,
-            final Set<String> maskedFields, ShardId shardId) {
+            final CompiledWildcardMatcher maskedFieldsMatcher, ShardId shardId) {
         super();
         //this.threadContext = Objects.requireNonNull(threadContext);
         //this.clusterService = Objects.requireNonNull(clusterService);
         this.index = Objects.requireNonNull(indexService).index();
         this.complianceConfig = complianceConfig;
         this.auditLog = auditLog;
-        this.maskedFields = maskedFields;
+        //compiled once per reader, a callback is created for every document
+        this.maskedFieldsMatcher = maskedFieldsMatcher == null ? CompiledWildcardMatcher.NONE : maskedFieldsMatcher;
+        this.watchedFieldsMatcher = complianceConfig.getReadHistoryFieldsMatcher(index.getName());
         this.shardId = shardId;
         try {
             sfc = (SourceFieldsContext) HeaderHelper.deserializeSafeFromHeader(threadContext, "_opendistro_security_source_field_context");
@@ -96,11 +104,93 @@ public final class FieldReadCallback {
     }
 
     private boolean recordField(final String fieldName, boolean isStringField) {
-        boolean masked = false;
-        if(isStringField && maskedFields != null && maskedFields.size() > 0) {
-            masked = WildcardMatcher.matchAny(maskedFields, fieldName);
+        if(isStringField && maskedFieldsMatcher.test(fieldName)) {
+            return false;
+        }
+        return watchedFieldsMatcher.test(fieldName);
+    }
+
+    /**
+     * Walks the tokens of an object and records the watched fields, keys are the ones JsonFlattener would produce
+     * ("a.b", "a[0].b", "a[\"b.c\"]"). Values are only materialized for watched fields and subtrees which can
+     * not contain a watched field are skipped.
+     *
+     * @return true if the object has no fields
+     */
+    private boolean readObject(final XContentParser parser, final StringBuilder path) throws IOException {
+        boolean empty = true;
+        while (parser.nextToken() != Token.END_OBJECT) {
+            empty = false;
+            final String key = parser.currentName();
+            final int mark = path.length();
+            if (key.indexOf('.') != -1) {
+                path.append("[\\\"").append(key).append("\\\"]");
+            } else {
+                if (mark > 0) {
+                    path.append('.');
+                }
+                path.append(key);
+            }
+            parser.nextToken();
+            readValue(parser, path);
+            path.setLength(mark);
+        }
+        return empty;
+    }
+
+    /**
+     * @return true if the array has no values
+     */
+    private boolean readArray(final XContentParser parser, final StringBuilder path) throws IOException {
+        int i = 0;
+        while (parser.nextToken() != Token.END_ARRAY) {
+            final int mark = path.length();
+            path.append('[').append(i++).append(']');
+            readValue(parser, path);
+            path.setLength(mark);
+        }
+        return i == 0;
+    }
+
+    private void readValue(final XContentParser parser, final StringBuilder path) throws IOException {
+        final Token token = parser.currentToken();
+
+        if (token == Token.START_OBJECT || token == Token.START_ARRAY) {
+            final String fieldName = path.toString();
+
+            if (!watchedFieldsMatcher.matchesPrefix(fieldName)) {
+                parser.skipChildren();
+                return;
+            }
+
+            final boolean object = token == Token.START_OBJECT;
+            final boolean empty = object ? readObject(parser, path) : readArray(parser, path);
+
+            //empty objects and arrays are leaves, recorded as empty map and list like JsonFlattener did
+            if (empty && recordField(fieldName, false)) {
+                fieldRead0(fieldName, object ? new HashMap<String, Object>() : new ArrayList<Object>());
+            }
+            return;
+        }
+
+        final String fieldName = path.toString();
+        final boolean isString = token == Token.VALUE_STRING;
+
+        if (!recordField(fieldName, isString)) {
+            return;
+        }
+
+        if (isString) {
+            fieldRead0(fieldName, parser.text());
+        } else if (token == Token.VALUE_NUMBER) {
+            fieldRead0(fieldName, new BigDecimal(parser.text()));
+        } else if (token == Token.VALUE_BOOLEAN) {
+            fieldRead0(fieldName, parser.booleanValue());
+        } else if (token == Token.VALUE_NULL) {
+            fieldRead0(fieldName, null);
+        } else {
+            fieldRead0(fieldName, parser.text());
         }
-        return !masked && complianceConfig.readHistoryEnabledForField(index.getName(), fieldName);
     }
 
     public void binaryFieldRead(final FieldInfo fieldInfo, byte[] fieldValue) {
@@ -130,12 +220,13 @@ public final class FieldReadCallback {
                     fieldValue = BytesReference.toBytes(BytesReference.bytes(xBuilder));
                 }
 
-                Map<String, Object> filteredSource = new JsonFlattener(new String(fieldValue, StandardCharsets.UTF_8)).flattenAsMap();
-                for(String k: filteredSource.keySet()) {
-                    if(!recordField(k, filteredSource.get(k) instanceof String)) {
-                        continue;
+                if(!watchedFieldsMatcher.isEmpty()) {
+                    try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                            OpenDistroSecurityDeprecationHandler.INSTANCE, fieldValue)) {
+                        if(parser.nextToken() == Token.START_OBJECT) {
+                            readObject(parser, new StringBuilder());
+                        }
                     }
-                    fieldRead0(k, filteredSource.get(k));
                 }
             } else if (fieldInfo.name.equals("_id")) {
                 fieldRead0(fieldInfo.name, Uid.decodeId(fieldValue));
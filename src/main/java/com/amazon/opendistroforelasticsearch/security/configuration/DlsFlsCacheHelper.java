@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.configuration;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.FilterWeight;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.ScorerSupplier;
+import org.apache.lucene.search.Weight;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Query cache support for readers restricted by FLS/field masking.
+ * <p>
+ * Restricted readers share the core cache key of the reader they wrap, because Lucene cache keys can not be
+ * created outside of Lucene. Cache entries are separated by the query instead: the cached query of a restricted
+ * reader is wrapped together with a sha256 over the restrictions, see {@link #restrictionsKey(Collection...)}.
+ * Readers with identical restrictions share cache entries, but never with unrestricted readers.
+ * DLS only changes the live docs, which are applied after the query cache, so it is not part of the key
+ * and DLS readers use the query cache like unrestricted readers.
+ * <p>
+ * Restricted leaf readers can not have a reader cache key of their own, because {@code IndexReader.CacheKey}
+ * can only be created by Lucene. The shard request cache is separated by the shard request instead,
+ * see {@link DlsFlsRestrictionsSearchExt}.
+ */
+public final class DlsFlsCacheHelper {
+
+    private DlsFlsCacheHelper() {
+    }
+
+    /**
+     * Content hash of the given restrictions, independent of the iteration order of the collections.
+     * null entries (no restriction of that kind) are distinguished from empty ones.
+     */
+    @SafeVarargs
+    public static String restrictionsKey(final Collection<String>... restrictions) {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        for (Collection<String> restriction : restrictions) {
+            if (restriction == null) {
+                hasher.putInt(-1);
+                continue;
+            }
+            final List<String> sorted = new ArrayList<>(restriction);
+            Collections.sort(sorted);
+            hasher.putInt(sorted.size());
+            for (String s : sorted) {
+                hasher.putInt(s.length());
+                hasher.putString(s, StandardCharsets.UTF_8);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @return a weight which behaves like the given one, but whose query is only equal to queries with the same restrictions
+     */
+    public static Weight restrict(final Weight weight, final String restrictionsKey) {
+        return new RestrictedWeight(weight, restrictionsKey);
+    }
+
+    /**
+     * @return a policy which decides about restricted queries like the given policy about the unrestricted ones
+     */
+    public static QueryCachingPolicy restrict(final QueryCachingPolicy policy) {
+        return new QueryCachingPolicy() {
+
+            @Override
+            public void onUse(final Query query) {
+                policy.onUse(unwrap(query));
+            }
+
+            @Override
+            public boolean shouldCache(final Query query) throws IOException {
+                return policy.shouldCache(unwrap(query));
+            }
+        };
+    }
+
+    private static Query unwrap(final Query query) {
+        return query instanceof RestrictedQuery ? ((RestrictedQuery) query).query : query;
+    }
+
+    private static final class RestrictedWeight extends FilterWeight {
+
+        private RestrictedWeight(final Weight weight, final String restrictionsKey) {
+            super(new RestrictedQuery(weight.getQuery(), restrictionsKey), weight);
+        }
+
+        @Override
+        public ScorerSupplier scorerSupplier(final LeafReaderContext context) throws IOException {
+            return in.scorerSupplier(context);
+        }
+
+        @Override
+        public BulkScorer bulkScorer(final LeafReaderContext context) throws IOException {
+            return in.bulkScorer(context);
+        }
+    }
+
+    /**
+     * Only used as a cache key, it is never executed
+     */
+    static final class RestrictedQuery extends Query {
+
+        private final Query query;
+        private final String restrictionsKey;
+
+        RestrictedQuery(final Query query, final String restrictionsKey) {
+            this.query = query;
+            this.restrictionsKey = restrictionsKey;
+        }
+
+        @Override
+        public String toString(final String field) {
+            return query.toString(field) + " [restrictions " + restrictionsKey + "]";
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return sameClassAs(other) && query.equals(((RestrictedQuery) other).query)
+                    && restrictionsKey.equals(((RestrictedQuery) other).restrictionsKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * classHash() + query.hashCode()) + restrictionsKey.hashCode();
+        }
+    }
+}
@@ -21,15 +21,10 @@ package com.amazon.opendistroforelasticsearch.security.configuration;
 //https://github.com/salyh/elasticsearch-security-plugin/blob/4b53974a43b270ae77ebe79d635e2484230c9d01/src/main/java/org/elasticsearch/plugins/security/filter/DlsWriteFilter.java
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.function.Function;
 
 import com.amazon.opendistroforelasticsearch.security.dlic.rest.support.Utils;
 import org.apache.lucene.index.BinaryDocValues;
@@ -57,157 +52,66 @@ import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.automaton.CompiledAutomaton;
 import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.cluster.service.ClusterService;
-import org.elasticsearch.common.bytes.BytesArray;
-import org.elasticsearch.common.bytes.BytesReference;
-import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.util.concurrent.ThreadContext;
-import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.elasticsearch.common.xcontent.XContentHelper;
-import org.elasticsearch.common.xcontent.XContentType;
-import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.index.IndexService;
 import org.elasticsearch.index.shard.ShardId;
 
 import com.amazon.opendistroforelasticsearch.security.auditlog.AuditLog;
 import com.amazon.opendistroforelasticsearch.security.compliance.ComplianceConfig;
 import com.amazon.opendistroforelasticsearch.security.compliance.FieldReadCallback;
+import com.amazon.opendistroforelasticsearch.security.support.CompiledWildcardMatcher;
 import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
 import com.amazon.opendistroforelasticsearch.security.support.HeaderHelper;
-import com.amazon.opendistroforelasticsearch.security.support.MapUtils;
 import com.amazon.opendistroforelasticsearch.security.support.OpenDistroSecurityUtils;
-import com.amazon.opendistroforelasticsearch.security.support.WildcardMatcher;
-import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterators;
 
 class DlsFlsFilterLeafReader extends FilterLeafReader {
 
     private static final String KEYWORD = ".keyword";
-    private static final String[] EMPTY_STRING_ARRAY = new String[0];
-    private final Set<String> includesSet;
-    private final Set<String> excludesSet;
     private final FieldInfos flsFieldInfos;
     private volatile int numDocs = -1;
     private final boolean flsEnabled;
     private final boolean dlsEnabled;
-    private String[] includes;
-    private String[] excludes;
-    private boolean canOptimize = true;
-    private Function<Map<String, ?>, Map<String, Object>> filterFunction;
+    private final FlsSourceFilter sourceFilter;
     private final IndexService indexService;
     private final ThreadContext threadContext;
     private final ClusterService clusterService;
     private final ComplianceConfig complianceConfig;
     private final AuditLog auditlog;
     private final Map<String, MaskedField> maskedFieldsMap;
-    private final Set<String> maskedFieldsKeySet;
+    private final CompiledWildcardMatcher maskedFieldsMatcher;
+    private final Map<String, MaskedField> rtMask;
+    private final CompiledWildcardMatcher rtMaskMatcher;
     private final ShardId shardId;
     private BitSet bs;
     private final boolean maskFields;
 
 
-    DlsFlsFilterLeafReader(final LeafReader delegate, final Set<String> includesExcludes,
+    DlsFlsFilterLeafReader(final LeafReader delegate, final FlsRules flsRules,
                            final BitSetProducer bsp, final IndexService indexService, final ThreadContext threadContext,
                            final ClusterService clusterService, final ComplianceConfig complianceConfig,
-                           final AuditLog auditlog, final Set<String> maskedFields, final ShardId shardId) {
+                           final AuditLog auditlog, final ShardId shardId) {
         super(delegate);
 
-        maskFields = (complianceConfig.isEnabled() && maskedFields != null && maskedFields.size() > 0);
-
         this.indexService = indexService;
         this.threadContext = threadContext;
         this.clusterService = clusterService;
         this.complianceConfig = complianceConfig;
         this.auditlog = auditlog;
-        this.maskedFieldsMap = maskFields?extractMaskedFields(maskedFields):null;
-
-        if(maskedFieldsMap != null) {
-            maskedFieldsKeySet = maskedFieldsMap.keySet();
-        } else {
-            maskedFieldsKeySet = null;
-        }
-
         this.shardId = shardId;
-        flsEnabled = includesExcludes != null && !includesExcludes.isEmpty();
-        dlsEnabled = bsp != null;
-
-        if (flsEnabled) {
-
-            final FieldInfos infos = delegate.getFieldInfos();
-            this.includesSet = new HashSet<>(includesExcludes.size());
-            this.excludesSet = new HashSet<>(includesExcludes.size());
-
-            for (final String incExc : includesExcludes) {
-                if (canOptimize && (incExc.indexOf('.') > -1 || incExc.indexOf('*') > -1)) {
-                    canOptimize = false;
-                }
-
-                final char firstChar = incExc.charAt(0);
-
-                if (firstChar == '!' || firstChar == '~') {
-                    excludesSet.add(incExc.substring(1));
-                } else {
-                    includesSet.add(incExc);
-                }
-            }
-
-            int i = 0;
-            final FieldInfo[] fa = new FieldInfo[infos.size()];
-
-            if (canOptimize) {
-                if (!excludesSet.isEmpty()) {
-                    for (final FieldInfo info : infos) {
-                        if (!excludesSet.contains(info.name)) {
-                            fa[i++] = info;
-                        }
-                    }
-                } else {
-                    for (final String inc : includesSet) {
-                        FieldInfo f;
-                        if ((f = infos.fieldInfo(inc)) != null) {
-                            fa[i++] = f;
-                        }
-                    }
-                }
-            } else {
-                if (!excludesSet.isEmpty()) {
-                    for (final FieldInfo info : infos) {
-                        if (!WildcardMatcher.matchAny(excludesSet, info.name)) {
-                            fa[i++] = info;
-                        }
-                    }
-
-                    this.excludes = excludesSet.toArray(EMPTY_STRING_ARRAY);
-
-                } else {
-                    for (final FieldInfo info : infos) {
-                        if (WildcardMatcher.matchAny(includesSet, info.name)) {
-                            fa[i++] = info;
-                        }
-                    }
-
-                    this.includes = includesSet.toArray(EMPTY_STRING_ARRAY);
-                }
-
-                if (!excludesSet.isEmpty()) {
-                    filterFunction = XContentMapValues.filter(null, excludes);
-                } else {
-                    filterFunction = XContentMapValues.filter(includes, null);
-                }
-            }
-
-            final FieldInfo[] tmp = new FieldInfo[i];
-            System.arraycopy(fa, 0, tmp, 0, i);
-            this.flsFieldInfos = new FieldInfos(tmp);
-
 
+        maskFields = flsRules.maskFields;
+        maskedFieldsMap = flsRules.maskedFieldsMap;
+        maskedFieldsMatcher = flsRules.maskedFieldsMatcher;
+        flsEnabled = flsRules.flsEnabled;
+        flsFieldInfos = flsRules.fieldInfos(delegate);
+        sourceFilter = flsRules.sourceFilter;
+        dlsEnabled = bsp != null;
 
-        } else {
-            this.includesSet = null;
-            this.excludesSet = null;
-            this.flsFieldInfos = null;
-        }
-
+        final FlsRules rtMaskRules = getRuntimeMaskedFieldRules();
+        rtMask = rtMaskRules == null ? null : rtMaskRules.maskedFieldsMap;
+        rtMaskMatcher = rtMaskRules == null ? null : rtMaskRules.maskedFieldsMatcher;
 
         if(dlsEnabled) {
             try {
@@ -218,15 +122,6 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
         }
     }
 
-    private Map<String, MaskedField> extractMaskedFields(Set<String> maskedFields) {
-        Map<String, MaskedField> retVal = new HashMap<>(maskedFields.size());
-        for(String mfs: maskedFields) {
-            MaskedField mf = new MaskedField(mfs, complianceConfig.getSalt16());
-            retVal.put(mf.getName(), mf);
-        }
-        return retVal;
-    }
-
     private static class DlsFlsSubReaderWrapper extends FilterDirectoryReader.SubReaderWrapper {
 
         private final Set<String> includes;
@@ -238,6 +133,7 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
         private final AuditLog auditlog;
         private final Set<String> maskedFields;
         private final ShardId shardId;
+        private final FlsRules flsRules;
 
         public DlsFlsSubReaderWrapper(final Set<String> includes, final BitSetProducer bsp,
                                       final IndexService indexService, final ThreadContext threadContext,
@@ -252,11 +148,16 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
             this.auditlog = auditlog;
             this.maskedFields = maskedFields;
             this.shardId = shardId;
+
+            //computed once per directory reader instead of once per segment
+            final boolean flsOrMasked = (includes != null && !includes.isEmpty()) || (maskedFields != null && !maskedFields.isEmpty());
+            final String fieldsCacheKey = flsOrMasked ? DlsFlsCacheHelper.restrictionsKey(includes, maskedFields) : null;
+            this.flsRules = FlsRules.get(fieldsCacheKey, includes, maskedFields, complianceConfig);
         }
 
         @Override
         public LeafReader wrap(final LeafReader reader) {
-            return new DlsFlsFilterLeafReader(reader, includes, bsp, indexService, threadContext, clusterService, complianceConfig, auditlog, maskedFields, shardId);
+            return new DlsFlsFilterLeafReader(reader, flsRules, bsp, indexService, threadContext, clusterService, complianceConfig, auditlog, shardId);
         }
 
     }
@@ -346,7 +247,7 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
 
         private final StoredFieldVisitor delegate;
         private FieldReadCallback fieldReadCallback =
-                new FieldReadCallback(threadContext, indexService, clusterService, complianceConfig, auditlog, maskedFieldsKeySet, shardId);
+                new FieldReadCallback(threadContext, indexService, clusterService, complianceConfig, auditlog, maskedFieldsMatcher, shardId);
 
         public ComplianceAwareStoredFieldVisitor(final StoredFieldVisitor delegate) {
             super();
@@ -430,22 +331,8 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
         public void binaryField(final FieldInfo fieldInfo, final byte[] value) throws IOException {
 
             if (fieldInfo.name.equals("_source")) {
-                final BytesReference bytesRef = new BytesArray(value);
-                final Tuple<XContentType, Map<String, Object>> bytesRefTuple = XContentHelper.convertToMap(bytesRef, false, XContentType.JSON);
-                Map<String, Object> filteredSource = bytesRefTuple.v2();
-
-                if (!canOptimize) {
-                    filteredSource = filterFunction.apply(bytesRefTuple.v2());
-                } else {
-                    if (!excludesSet.isEmpty()) {
-                        filteredSource.keySet().removeAll(excludesSet);
-                    } else {
-                        filteredSource.keySet().retainAll(includesSet);
-                    }
-                }
-
-                final XContentBuilder xBuilder = XContentBuilder.builder(bytesRefTuple.v1().xContent()).map(filteredSource);
-                delegate.binaryField(fieldInfo, BytesReference.toBytes(BytesReference.bytes(xBuilder)));
+                //also applies field masking, if any
+                delegate.binaryField(fieldInfo, sourceFilter.apply(value));
             } else {
                 delegate.binaryField(fieldInfo, value);
             }
@@ -510,13 +397,9 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
         @Override
         public void binaryField(final FieldInfo fieldInfo, final byte[] value) throws IOException {
 
-            if (fieldInfo.name.equals("_source")) {
-                final BytesReference bytesRef = new BytesArray(value);
-                final Tuple<XContentType, Map<String, Object>> bytesRefTuple = XContentHelper.convertToMap(bytesRef, false, XContentType.JSON);
-                Map<String, Object> filteredSource = bytesRefTuple.v2();
-                MapUtils.deepTraverseMap(filteredSource, HASH_CB);
-                final XContentBuilder xBuilder = XContentBuilder.builder(bytesRefTuple.v1().xContent()).map(filteredSource);
-                delegate.binaryField(fieldInfo, BytesReference.toBytes(BytesReference.bytes(xBuilder)));
+            //with FLS the source was already masked by FlsStoredFieldVisitor
+            if (!flsEnabled && fieldInfo.name.equals("_source")) {
+                delegate.binaryField(fieldInfo, sourceFilter.apply(value));
             } else {
                 delegate.binaryField(fieldInfo, value);
             }
@@ -536,7 +419,7 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
         @Override
         public void stringField(final FieldInfo fieldInfo, final byte[] value) throws IOException {
 
-            final Optional<String> matchedPattern = WildcardMatcher.getFirstMatchingPattern(maskedFieldsKeySet, fieldInfo.name);
+            final Optional<String> matchedPattern = maskedFieldsMatcher.getFirstMatchingPattern(fieldInfo.name);
 
             if(matchedPattern.isPresent()) {
                 delegate.stringField(fieldInfo, maskedFieldsMap.get(matchedPattern.get()).mask(value));
@@ -576,49 +459,6 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
         }
     }
 
-    private final MapUtils.Callback HASH_CB = new HashingCallback();
-
-    private class HashingCallback implements MapUtils.Callback {
-        @SuppressWarnings({ "rawtypes", "unchecked" })
-        @Override
-        public void call(String key, Map<String, Object> map, List<String> stack) {
-            Object v = map.get(key);
-
-            if (v != null && (v instanceof List)) {
-                final String field = stack.isEmpty() ? key : Joiner.on('.').join(stack) + "." + key;
-                final Optional<String> matchedPattern = WildcardMatcher.getFirstMatchingPattern(maskedFieldsKeySet,
-                        field);
-                if (matchedPattern.isPresent()) {
-                    final List listField = (List) v;
-                    for (ListIterator iterator = listField.listIterator(); iterator.hasNext();) {
-                        final Object listFieldItem = iterator.next();
-
-                        if (listFieldItem instanceof String) {
-                            iterator.set(maskedFieldsMap.get(matchedPattern.get()).mask(((String) listFieldItem)));
-                        } else if (listFieldItem instanceof byte[]) {
-                            iterator.set(maskedFieldsMap.get(matchedPattern.get()).mask(((byte[]) listFieldItem)));
-                        }
-                    }
-                }
-            }
-
-            if (v != null && (v instanceof String || v instanceof byte[])) {
-
-                final String field = stack.isEmpty() ? key : Joiner.on('.').join(stack) + "." + key;
-                final Optional<String> matchedPattern = WildcardMatcher.getFirstMatchingPattern(maskedFieldsKeySet,
-                        field);
-                if (matchedPattern.isPresent()) {
-                    if (v instanceof String) {
-                        map.replace(key, maskedFieldsMap.get(matchedPattern.get()).mask(((String) v)));
-                    } else {
-                        map.replace(key, maskedFieldsMap.get(matchedPattern.get()).mask(((byte[]) v)));
-                    }
-                }
-            }
-        }
-
-    }
-
     @Override
     public Fields getTermVectors(final int docID) throws IOException {
         final Fields fields = in.getTermVectors(docID);
@@ -671,11 +511,10 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
 
     private BinaryDocValues wrapBinaryDocValues(final String field, final BinaryDocValues binaryDocValues) {
 
-        final Map<String, MaskedField> rtMask;
         final String matchedPattern;
 
-        if (binaryDocValues != null && (rtMask=getRuntimeMaskedFieldInfo())!=null
-                && (matchedPattern = WildcardMatcher.getFirstMatchingPattern(rtMask.keySet(), handleKeyword(field)).orElse(null)) != null) {
+        if (binaryDocValues != null && rtMask != null
+                && (matchedPattern = rtMaskMatcher.getFirstMatchingPattern(handleKeyword(field)).orElse(null)) != null) {
 
             final MaskedField mf = rtMask.get(matchedPattern);
 
@@ -728,11 +567,10 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
 
     private SortedDocValues wrapSortedDocValues(final String field, final SortedDocValues sortedDocValues) {
 
-        final Map<String, MaskedField> rtMask;
         final String matchedPattern;
 
-        if (sortedDocValues != null && (rtMask=getRuntimeMaskedFieldInfo())!=null
-                && (matchedPattern = WildcardMatcher.getFirstMatchingPattern(rtMask.keySet(), handleKeyword(field)).orElse(null)) != null) {
+        if (sortedDocValues != null && rtMask != null
+                && (matchedPattern = rtMaskMatcher.getFirstMatchingPattern(handleKeyword(field)).orElse(null)) != null) {
 
             final MaskedField mf = rtMask.get(matchedPattern);
 
@@ -820,11 +658,10 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
 
     private SortedSetDocValues wrapSortedSetDocValues(final String field, final SortedSetDocValues sortedSetDocValues) {
 
-        final Map<String, MaskedField> rtMask;
         final String matchedPattern;
 
-        if (sortedSetDocValues != null && (rtMask=getRuntimeMaskedFieldInfo()) !=null
-                && (matchedPattern = WildcardMatcher.getFirstMatchingPattern(rtMask.keySet(), handleKeyword(field)).orElse(null)) != null) {
+        if (sortedSetDocValues != null && rtMask != null
+                && (matchedPattern = rtMaskMatcher.getFirstMatchingPattern(handleKeyword(field)).orElse(null)) != null) {
 
             final MaskedField mf = rtMask.get(matchedPattern);
 
@@ -910,8 +747,7 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
     }
 
     private Terms wrapTerms(final String field, Terms terms) {
-        Map<String, MaskedField> rtMask = getRuntimeMaskedFieldInfo();
-        if(rtMask != null && WildcardMatcher.matchAny(rtMask.keySet(), handleKeyword(field))) {
+        if(rtMask != null && rtMaskMatcher.test(handleKeyword(field))) {
             return null;
         } else {
             return terms;
@@ -1010,6 +846,8 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
         return in.getCoreCacheHelper();
     }
 
+    //the live docs differ from the wrapped reader, but a cache key of its own can only be created by lucene,
+    //the query cache uses the core cache helper and the request cache is separated by DlsFlsRestrictionsSearchExt
     @Override
     public CacheHelper getReaderCacheHelper() {
         return dlsEnabled?null:in.getReaderCacheHelper();
@@ -1020,8 +858,9 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
         return dlsEnabled?true:in.hasDeletions();
     }
 
+    //resolved once per reader, the header does not change during the request
     @SuppressWarnings("unchecked")
-    private Map<String, MaskedField> getRuntimeMaskedFieldInfo() {
+    private FlsRules getRuntimeMaskedFieldRules() {
 
         if(!complianceConfig.isEnabled()) {
             return null;
@@ -1034,7 +873,7 @@ class DlsFlsFilterLeafReader extends FilterLeafReader {
         if(maskedEval != null) {
             final Set<String> mf = maskedFieldsMap.get(maskedEval);
             if(mf != null && !mf.isEmpty()) {
-                return extractMaskedFields(mf);
+                return FlsRules.get(DlsFlsCacheHelper.restrictionsKey(null, mf), null, mf, complianceConfig);
             }
 
         }
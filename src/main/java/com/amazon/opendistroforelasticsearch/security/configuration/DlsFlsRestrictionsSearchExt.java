@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.configuration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.SearchExtBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.internal.ShardSearchRequest;
+
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+import com.amazon.opendistroforelasticsearch.security.support.HeaderHelper;
+import com.amazon.opendistroforelasticsearch.security.support.OpenDistroSecurityUtils;
+
+/**
+ * Makes the shard request cache aware of DLS/FLS and field masking.
+ * <p>
+ * The request cache is keyed by the reader cache key of the shard and the serialized shard request.
+ * Restricted readers must delegate the reader cache key of the unrestricted reader, so the restrictions of the
+ * user are added to the request instead. This search extension only carries the content hash of the restrictions
+ * and does not change how the request is executed.
+ * <p>
+ * It is added on the shard, right before the query phase, to a copy of the source of the shard request. It is never
+ * sent to other nodes and never rendered, so it is not registered as a search extension: nodes without it,
+ * clients and remote clusters never see it, and a client can not pick the cache entries of other restrictions.
+ */
+public final class DlsFlsRestrictionsSearchExt extends SearchExtBuilder {
+
+    public static final String NAME = "opendistro_security_restrictions";
+
+    private final String restrictionsKey;
+
+    public DlsFlsRestrictionsSearchExt(final String restrictionsKey) {
+        this.restrictionsKey = restrictionsKey;
+    }
+
+    /**
+     * Adds the DLS/FLS and field masking restrictions of the current request on the given index to the shard request.
+     * Does nothing if the index is not restricted.
+     */
+    @SuppressWarnings("unchecked")
+    public static void addRestrictions(final ShardSearchRequest request, final ThreadContext threadContext, final String index) {
+        final Map<String, Set<String>> allowedFlsFields = (Map<String, Set<String>>) HeaderHelper.deserializeSafeFromHeader(threadContext,
+                ConfigConstants.OPENDISTRO_SECURITY_FLS_FIELDS_HEADER);
+        final Map<String, Set<String>> maskedFieldsMap = (Map<String, Set<String>>) HeaderHelper.deserializeSafeFromHeader(threadContext,
+                ConfigConstants.OPENDISTRO_SECURITY_MASKED_FIELD_HEADER);
+        final Map<String, Set<String>> queries = (Map<String, Set<String>>) HeaderHelper.deserializeSafeFromHeader(threadContext,
+                ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER);
+
+        final String flsEval = OpenDistroSecurityUtils.evalMap(allowedFlsFields, index);
+        final String maskedEval = OpenDistroSecurityUtils.evalMap(maskedFieldsMap, index);
+        final String dlsEval = OpenDistroSecurityUtils.evalMap(queries, index);
+
+        if (flsEval == null && maskedEval == null && dlsEval == null) {
+            return;
+        }
+
+        request.source(withRestrictions(request.source(), DlsFlsCacheHelper.restrictionsKey(
+                flsEval == null ? null : allowedFlsFields.get(flsEval),
+                maskedEval == null ? null : maskedFieldsMap.get(maskedEval),
+                dlsEval == null ? null : queries.get(dlsEval))));
+    }
+
+    /**
+     * @return a shallow copy of the given source (which may be shared with the requests of other shards)
+     *         with the given restrictions
+     */
+    static SearchSourceBuilder withRestrictions(final SearchSourceBuilder source, final String restrictionsKey) {
+        final SearchSourceBuilder copy = source == null ? new SearchSourceBuilder() : source.copyWithNewSlice(source.slice());
+        final List<SearchExtBuilder> ext = new ArrayList<>(copy.ext());
+        ext.removeIf(e -> e instanceof DlsFlsRestrictionsSearchExt);
+        ext.add(new DlsFlsRestrictionsSearchExt(restrictionsKey));
+        return copy.ext(ext);
+    }
+
+    @Override
+    public String getWriteableName() {
+        return NAME;
+    }
+
+    @Override
+    public void writeTo(final StreamOutput out) throws IOException {
+        out.writeString(restrictionsKey);
+    }
+
+    @Override
+    public XContentBuilder toXContent(final XContentBuilder builder, final Params params) throws IOException {
+        //only part of the request cache key, a rendered source (like in the slow log) must stay parseable
+        return builder;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof DlsFlsRestrictionsSearchExt && restrictionsKey.equals(((DlsFlsRestrictionsSearchExt) other).restrictionsKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return restrictionsKey.hashCode();
+    }
+}
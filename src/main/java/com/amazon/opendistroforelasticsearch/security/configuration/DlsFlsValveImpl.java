@@ -29,12 +29,26 @@ import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkShardRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.transport.RemoteClusterService;
 
 import com.amazon.opendistroforelasticsearch.security.configuration.DlsFlsRequestValve;
+import com.amazon.opendistroforelasticsearch.security.support.Base64Helper;
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
 
 public class DlsFlsValveImpl implements DlsFlsRequestValve {
 
+    private final boolean allowNowInDlsQueries;
+    private final ClusterService clusterService;
+
+    public DlsFlsValveImpl(final Settings settings, final ClusterService clusterService) {
+        this.allowNowInDlsQueries = settings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_UNSUPPORTED_ALLOW_NOW_IN_DLS, false);
+        this.clusterService = clusterService;
+    }
+
     /**
      *
      * @param request
@@ -56,8 +70,9 @@ public class DlsFlsValveImpl implements DlsFlsRequestValve {
                 ((RealtimeRequest) request).realtime(Boolean.FALSE);
             }
 
-            if(request instanceof SearchRequest) {
-                ((SearchRequest)request).requestCache(Boolean.FALSE);
+            if(request instanceof SearchRequest && ((dls && allowNowInDlsQueries) || !restrictedRequestCacheSupported((SearchRequest) request))) {
+                //the result of a DLS query with 'now' changes over time, other restrictions are added to the request cache key on the shard
+                ((SearchRequest) request).requestCache(Boolean.FALSE);
             }
 
             if(request instanceof UpdateRequest) {
@@ -122,4 +137,25 @@ public class DlsFlsValveImpl implements DlsFlsRequestValve {
         return true;
     }
 
+    /**
+     * Shards add the restrictions to the request cache key (see {@link DlsFlsRestrictionsSearchExt}) only on nodes which
+     * advertise it, older nodes in a mixed cluster and remote clusters might share the cache with unrestricted requests
+     */
+    private boolean restrictedRequestCacheSupported(final SearchRequest request) {
+
+        for(String index: request.indices()) {
+            if(index.indexOf(RemoteClusterService.REMOTE_CLUSTER_INDEX_SEPARATOR) != -1) {
+                return false;
+            }
+        }
+
+        for(DiscoveryNode node: clusterService.state().nodes()) {
+            if(Base64Helper.headerFormatVersion(node) < Base64Helper.RESTRICTED_REQUEST_CACHE_VERSION) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
 }
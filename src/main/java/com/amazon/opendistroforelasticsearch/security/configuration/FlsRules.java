@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.configuration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexReader.CacheHelper;
+import org.apache.lucene.index.IndexReader.CacheKey;
+import org.apache.lucene.index.LeafReader;
+import org.elasticsearch.ExceptionsHelper;
+
+import com.amazon.opendistroforelasticsearch.security.compliance.ComplianceConfig;
+import com.amazon.opendistroforelasticsearch.security.support.CompiledWildcardMatcher;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Compiled FLS and field masking rules of a {@link DlsFlsFilterLeafReader}.
+ * <p>
+ * Rules are shared by all readers with the same restrictions (identified by
+ * {@link DlsFlsCacheHelper#restrictionsKey(java.util.Collection...)}), the FLS filtered {@link FieldInfos}
+ * are additionally cached per segment core and dropped when the segment core is closed.
+ */
+final class FlsRules {
+
+    static final FlsRules NONE = new FlsRules(null, null, null);
+
+    private static final Cache<String, FlsRules> RULES = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build();
+    //visible for testing
+    static final ConcurrentMap<CacheKey, ConcurrentMap<String, FieldInfos>> FIELD_INFOS = new ConcurrentHashMap<>();
+
+    final boolean flsEnabled;
+    final boolean maskFields;
+    final Set<String> includesSet;
+    final Set<String> excludesSet;
+    final Map<String, MaskedField> maskedFieldsMap;
+    final Set<String> maskedFieldsKeySet;
+    final CompiledWildcardMatcher maskedFieldsMatcher;
+    final FlsSourceFilter sourceFilter;
+
+    private final String key;
+    private final boolean canOptimize;
+    private final CompiledWildcardMatcher includesMatcher;
+    private final CompiledWildcardMatcher excludesMatcher;
+
+    private FlsRules(final String key, final Set<String> includesExcludes, final Map<String, MaskedField> maskedFieldsMap) {
+
+        this.key = key;
+        this.maskFields = maskedFieldsMap != null;
+        this.maskedFieldsMap = maskedFieldsMap;
+        this.maskedFieldsKeySet = maskFields ? maskedFieldsMap.keySet() : null;
+        this.maskedFieldsMatcher = maskFields ? CompiledWildcardMatcher.of(maskedFieldsKeySet) : null;
+        this.flsEnabled = includesExcludes != null && !includesExcludes.isEmpty();
+
+        if (flsEnabled) {
+            boolean canOptimize = true;
+            this.includesSet = new HashSet<>(includesExcludes.size());
+            this.excludesSet = new HashSet<>(includesExcludes.size());
+
+            for (final String incExc : includesExcludes) {
+                if (canOptimize && (incExc.indexOf('.') > -1 || incExc.indexOf('*') > -1)) {
+                    canOptimize = false;
+                }
+
+                final char firstChar = incExc.charAt(0);
+
+                if (firstChar == '!' || firstChar == '~') {
+                    excludesSet.add(incExc.substring(1));
+                } else {
+                    includesSet.add(incExc);
+                }
+            }
+
+            this.canOptimize = canOptimize;
+            this.includesMatcher = canOptimize || !excludesSet.isEmpty() ? null : CompiledWildcardMatcher.of(includesSet);
+            this.excludesMatcher = canOptimize || excludesSet.isEmpty() ? null : CompiledWildcardMatcher.of(excludesSet);
+            //excludes take precedence over includes
+            this.sourceFilter = FlsSourceFilter.create(excludesSet.isEmpty() ? includesSet : null, excludesSet, maskedFieldsMatcher, maskedFieldsMap);
+        } else {
+            this.includesSet = null;
+            this.excludesSet = null;
+            this.canOptimize = true;
+            this.includesMatcher = null;
+            this.excludesMatcher = null;
+            this.sourceFilter = maskFields ? FlsSourceFilter.masking(maskedFieldsMatcher, maskedFieldsMap) : null;
+        }
+    }
+
+    /**
+     * @param key identifies includesExcludes and maskedFields, null if there are neither
+     */
+    static FlsRules get(final String key, final Set<String> includesExcludes, final Set<String> maskedFields,
+                        final ComplianceConfig complianceConfig) {
+
+        if (key == null) {
+            return NONE;
+        }
+
+        try {
+            return RULES.get(key, () -> {
+                final boolean maskFields = maskedFields != null && maskedFields.size() > 0 && complianceConfig.isEnabled();
+                return new FlsRules(key, includesExcludes, maskFields ? extractMaskedFields(maskedFields, complianceConfig) : null);
+            });
+        } catch (ExecutionException e) {
+            throw ExceptionsHelper.convertToElastic((Exception) e.getCause());
+        }
+    }
+
+    private static Map<String, MaskedField> extractMaskedFields(final Set<String> maskedFields, final ComplianceConfig complianceConfig) {
+        final Map<String, MaskedField> retVal = new HashMap<>(maskedFields.size());
+        for (String mfs : maskedFields) {
+            final MaskedField mf = new MaskedField(mfs, complianceConfig.getSalt16());
+            retVal.put(mf.getName(), mf);
+        }
+        return Collections.unmodifiableMap(retVal);
+    }
+
+    /**
+     * @return the FLS filtered field infos of the segment, null if FLS is not enabled
+     */
+    FieldInfos fieldInfos(final LeafReader reader) {
+
+        if (!flsEnabled) {
+            return null;
+        }
+
+        final CacheHelper cacheHelper = reader.getCoreCacheHelper();
+
+        if (cacheHelper == null) {
+            return filter(reader.getFieldInfos());
+        }
+
+        final CacheKey coreKey = cacheHelper.getKey();
+        ConcurrentMap<String, FieldInfos> segmentInfos = FIELD_INFOS.get(coreKey);
+
+        if (segmentInfos == null) {
+            final ConcurrentMap<String, FieldInfos> newSegmentInfos = new ConcurrentHashMap<>();
+            segmentInfos = FIELD_INFOS.putIfAbsent(coreKey, newSegmentInfos);
+            if (segmentInfos == null) {
+                segmentInfos = newSegmentInfos;
+                cacheHelper.addClosedListener(FIELD_INFOS::remove);
+            }
+        }
+
+        return segmentInfos.computeIfAbsent(key, k -> filter(reader.getFieldInfos()));
+    }
+
+    private FieldInfos filter(final FieldInfos infos) {
+
+        int i = 0;
+        final FieldInfo[] fa = new FieldInfo[infos.size()];
+
+        if (canOptimize) {
+            if (!excludesSet.isEmpty()) {
+                for (final FieldInfo info : infos) {
+                    if (!excludesSet.contains(info.name)) {
+                        fa[i++] = info;
+                    }
+                }
+            } else {
+                for (final String inc : includesSet) {
+                    FieldInfo f;
+                    if ((f = infos.fieldInfo(inc)) != null) {
+                        fa[i++] = f;
+                    }
+                }
+            }
+        } else {
+            if (!excludesSet.isEmpty()) {
+                for (final FieldInfo info : infos) {
+                    if (!excludesMatcher.test(info.name)) {
+                        fa[i++] = info;
+                    }
+                }
+            } else {
+                for (final FieldInfo info : infos) {
+                    if (includesMatcher.test(info.name)) {
+                        fa[i++] = info;
+                    }
+                }
+            }
+        }
+
+        final FieldInfo[] tmp = new FieldInfo[i];
+        System.arraycopy(fa, 0, tmp, 0, i);
+        return new FieldInfos(tmp);
+    }
+}
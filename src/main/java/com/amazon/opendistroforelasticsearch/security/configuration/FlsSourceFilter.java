@@ -0,0 +1,351 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.configuration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.lucene.util.automaton.Automata;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.Operations;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentGenerator;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import com.amazon.opendistroforelasticsearch.security.support.CompiledWildcardMatcher;
+
+/**
+ * Applies FLS includes/excludes and field masking to a JSON <code>_source</code> in a single streaming pass.
+ * <p>
+ * Tokens are copied from an {@link XContentParser} straight into a per thread output buffer, no intermediate
+ * map is built. Include/exclude semantics are the ones of
+ * {@link org.elasticsearch.common.xcontent.support.XContentMapValues#filter(String[], String[])}:
+ * objects and arrays which end up empty are dropped, unless the field itself is included. Masked fields are
+ * matched against the dotted path of string values (array levels do not contribute to the path).
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+final class FlsSourceFilter {
+
+    private static final ThreadLocal<BytesStreamOutput> BUFFER = ThreadLocal.withInitial(BytesStreamOutput::new);
+    private static final CharacterRunAutomaton MATCH_ALL = new CharacterRunAutomaton(Automata.makeAnyString());
+
+    //null if there is no FLS restriction
+    private final CharacterRunAutomaton include;
+    private final CharacterRunAutomaton exclude;
+    //null if there are no masked fields
+    private final CompiledWildcardMatcher maskedFieldsMatcher;
+    private final Map<String, MaskedField> maskedFieldsMap;
+
+    private FlsSourceFilter(final CharacterRunAutomaton include, final CharacterRunAutomaton exclude,
+                            final CompiledWildcardMatcher maskedFieldsMatcher, final Map<String, MaskedField> maskedFieldsMap) {
+        this.include = include;
+        this.exclude = exclude;
+        this.maskedFieldsMatcher = maskedFieldsMatcher;
+        this.maskedFieldsMap = maskedFieldsMap;
+    }
+
+    /**
+     * @param includes field patterns to keep, null or empty if all fields are kept (unless excluded)
+     * @param excludes field patterns to remove, may be null
+     * @param maskedFieldsMatcher null if no fields are masked
+     */
+    static FlsSourceFilter create(final Collection<String> includes, final Collection<String> excludes,
+                                  final CompiledWildcardMatcher maskedFieldsMatcher, final Map<String, MaskedField> maskedFieldsMap) {
+
+        final boolean hasIncludes = includes != null && !includes.isEmpty();
+        final boolean hasExcludes = excludes != null && !excludes.isEmpty();
+
+        if (!hasIncludes && !hasExcludes) {
+            return new FlsSourceFilter(null, null, maskedFieldsMatcher, maskedFieldsMap);
+        }
+
+        final CharacterRunAutomaton include = hasIncludes ? compile(includes) : MATCH_ALL;
+        final CharacterRunAutomaton exclude = compile(hasExcludes ? excludes : null);
+        return new FlsSourceFilter(include, exclude, maskedFieldsMatcher, maskedFieldsMap);
+    }
+
+    static FlsSourceFilter masking(final CompiledWildcardMatcher maskedFieldsMatcher, final Map<String, MaskedField> maskedFieldsMap) {
+        return new FlsSourceFilter(null, null, maskedFieldsMatcher, maskedFieldsMap);
+    }
+
+    private static CharacterRunAutomaton compile(final Collection<String> patterns) {
+        Automaton automaton = patterns == null ? Automata.makeEmpty() : Regex.simpleMatchToAutomaton(patterns.toArray(new String[0]));
+        //"a.b" must also match "a" in {"a": {"b": ...}}
+        automaton = Operations.union(automaton, Operations.concatenate(Arrays.asList(automaton, Automata.makeChar('.'), Automata.makeAnyString())));
+        return new CharacterRunAutomaton(automaton, Operations.DEFAULT_MAX_DETERMINIZED_STATES);
+    }
+
+    /**
+     * @return the filtered and masked source
+     */
+    byte[] apply(final byte[] source) throws IOException {
+
+        final BytesStreamOutput out = BUFFER.get();
+        out.reset();
+
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, source);
+             XContentGenerator generator = JsonXContent.jsonXContent.createGenerator(out)) {
+
+            if (parser.nextToken() != Token.START_OBJECT) {
+                throw new ElasticsearchParseException("_source is not a json object");
+            }
+
+            final Writer writer = new Writer(generator);
+
+            if (include == null) {
+                copy(parser, writer);
+            } else {
+                writer.open(null, false);
+                writer.flush();
+                filterObject(parser, writer, include, 0, 0);
+                writer.close();
+            }
+        }
+
+        return BytesReference.toBytes(out.bytes());
+    }
+
+    private void filterObject(final XContentParser parser, final Writer writer, final CharacterRunAutomaton include,
+                              final int includeState, final int excludeState) throws IOException {
+
+        Token token;
+        while ((token = parser.nextToken()) != Token.END_OBJECT) {
+            final String key = parser.currentName();
+            token = parser.nextToken();
+
+            final int keyIncludeState = step(include, key, includeState);
+
+            if (keyIncludeState == -1) {
+                parser.skipChildren();
+                continue;
+            }
+
+            final int keyExcludeState = step(exclude, key, excludeState);
+
+            if (keyExcludeState != -1 && exclude.isAccept(keyExcludeState)) {
+                parser.skipChildren();
+                continue;
+            }
+
+            final boolean included = include.isAccept(keyIncludeState);
+            CharacterRunAutomaton subInclude = include;
+            int subIncludeState = keyIncludeState;
+
+            if (included) {
+                if (keyExcludeState == -1 || exclude.step(keyExcludeState, '.') == -1) {
+                    //no exclude can match within this value
+                    final int mark = writer.enter(key);
+                    writer.flush();
+                    writer.generator.writeFieldName(key);
+                    copy(parser, writer);
+                    writer.leave(mark);
+                    continue;
+                }
+                //only excludes matter from here on
+                subInclude = MATCH_ALL;
+                subIncludeState = 0;
+            }
+
+            final int mark = writer.enter(key);
+
+            if (token == Token.START_OBJECT) {
+                subIncludeState = subInclude.step(subIncludeState, '.');
+                if (subIncludeState == -1) {
+                    parser.skipChildren();
+                } else {
+                    writer.open(key, false);
+                    if (included) {
+                        writer.flush();
+                    }
+                    filterObject(parser, writer, subInclude, subIncludeState, keyExcludeState == -1 ? -1 : exclude.step(keyExcludeState, '.'));
+                    writer.close();
+                }
+            } else if (token == Token.START_ARRAY) {
+                writer.open(key, true);
+                if (included) {
+                    writer.flush();
+                }
+                filterArray(parser, writer, subInclude, subIncludeState, keyExcludeState);
+                writer.close();
+            } else if (included) {
+                writer.flush();
+                writer.generator.writeFieldName(key);
+                copyValue(parser, writer);
+            }
+
+            writer.leave(mark);
+        }
+    }
+
+    private void filterArray(final XContentParser parser, final Writer writer, final CharacterRunAutomaton include,
+                             final int includeState, final int excludeState) throws IOException {
+
+        final boolean included = include.isAccept(includeState);
+
+        Token token;
+        while ((token = parser.nextToken()) != Token.END_ARRAY) {
+            if (token == Token.START_OBJECT) {
+                final int subIncludeState = include.step(includeState, '.');
+                if (subIncludeState == -1) {
+                    parser.skipChildren();
+                } else {
+                    writer.open(null, false);
+                    filterObject(parser, writer, include, subIncludeState, excludeState == -1 ? -1 : exclude.step(excludeState, '.'));
+                    writer.close();
+                }
+            } else if (token == Token.START_ARRAY) {
+                writer.open(null, true);
+                filterArray(parser, writer, include, includeState, excludeState);
+                writer.close();
+            } else if (included) {
+                writer.flush();
+                copyValue(parser, writer);
+            }
+        }
+    }
+
+    /**
+     * Copies the current value (including all children) and masks it where necessary
+     */
+    private void copy(final XContentParser parser, final Writer writer) throws IOException {
+
+        if (maskedFieldsMatcher == null) {
+            writer.generator.copyCurrentStructure(parser);
+            return;
+        }
+
+        final Token token = parser.currentToken();
+
+        if (token == Token.START_OBJECT) {
+            writer.generator.writeStartObject();
+            while (parser.nextToken() != Token.END_OBJECT) {
+                final String key = parser.currentName();
+                writer.generator.writeFieldName(key);
+                parser.nextToken();
+                final int mark = writer.enter(key);
+                copy(parser, writer);
+                writer.leave(mark);
+            }
+            writer.generator.writeEndObject();
+        } else if (token == Token.START_ARRAY) {
+            writer.generator.writeStartArray();
+            while (parser.nextToken() != Token.END_ARRAY) {
+                copy(parser, writer);
+            }
+            writer.generator.writeEndArray();
+        } else {
+            copyValue(parser, writer);
+        }
+    }
+
+    private void copyValue(final XContentParser parser, final Writer writer) throws IOException {
+
+        if (maskedFieldsMatcher != null && parser.currentToken() == Token.VALUE_STRING) {
+            final Optional<String> matchedPattern = maskedFieldsMatcher.getFirstMatchingPattern(writer.path.toString());
+            if (matchedPattern.isPresent()) {
+                writer.generator.writeString(maskedFieldsMap.get(matchedPattern.get()).mask(parser.text()));
+                return;
+            }
+        }
+
+        writer.generator.copyCurrentEvent(parser);
+    }
+
+    private static int step(final CharacterRunAutomaton automaton, final String key, int state) {
+        for (int i = 0; state != -1 && i < key.length(); ++i) {
+            state = automaton.step(state, key.charAt(i));
+        }
+        return state;
+    }
+
+    /**
+     * Defers writing the start of objects and arrays until their first value is written,
+     * so that containers which end up empty can be dropped
+     */
+    private static final class Writer {
+
+        private final XContentGenerator generator;
+        private final List<String> names = new ArrayList<>();
+        private final List<Boolean> arrays = new ArrayList<>();
+        private final StringBuilder path = new StringBuilder();
+        private int written;
+
+        private Writer(final XContentGenerator generator) {
+            this.generator = generator;
+        }
+
+        void open(final String name, final boolean array) {
+            names.add(name);
+            arrays.add(array);
+        }
+
+        void flush() throws IOException {
+            for (int i = written; i < names.size(); i++) {
+                if (names.get(i) != null) {
+                    generator.writeFieldName(names.get(i));
+                }
+                if (arrays.get(i)) {
+                    generator.writeStartArray();
+                } else {
+                    generator.writeStartObject();
+                }
+            }
+            written = names.size();
+        }
+
+        void close() throws IOException {
+            final int last = names.size() - 1;
+            if (last < written) {
+                if (arrays.get(last)) {
+                    generator.writeEndArray();
+                } else {
+                    generator.writeEndObject();
+                }
+                written--;
+            }
+            names.remove(last);
+            arrays.remove(last);
+        }
+
+        int enter(final String key) {
+            final int mark = path.length();
+            if (mark > 0) {
+                path.append('.');
+            }
+            path.append(key);
+            return mark;
+        }
+
+        void leave(final int mark) {
+            path.setLength(mark);
+        }
+    }
+}
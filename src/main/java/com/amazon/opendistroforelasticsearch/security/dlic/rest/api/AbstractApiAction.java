@@ -329,24 +329,27 @@ public abstract class AbstractApiAction extends BaseRestHandler {
 						.setRefreshPolicy(RefreshPolicy.IMMEDIATE)
 						.version(version)
 						.source(config, bytesRef),
-				new ConfigUpdatingActionListener<IndexResponse>(client, actionListener));
+				new ConfigUpdatingActionListener<IndexResponse>(client, config, actionListener));
 	}
 
 	private static class ConfigUpdatingActionListener<Response> implements ActionListener<Response>{
 
 		private final Client client;
+		private final String config;
 		private final ActionListener<Response> delegate;
 
-		public ConfigUpdatingActionListener(Client client, ActionListener<Response> delegate) {
+		public ConfigUpdatingActionListener(Client client, String config, ActionListener<Response> delegate) {
 			super();
 			this.client = client;
+			this.config = config;
 			this.delegate = delegate;
 		}
 
 		@Override
 		public void onResponse(Response response) {
 
-			final ConfigUpdateRequest cur = new ConfigUpdateRequest(new String[] { "config", "roles", "rolesmapping", "internalusers", "actiongroups" });
+			//reload only the changed config, a reload of all configs would also flush the auth caches
+			final ConfigUpdateRequest cur = new ConfigUpdateRequest(new String[] { config });
 
 			client.execute(ConfigUpdateAction.INSTANCE, cur, new ActionListener<ConfigUpdateResponse>() {
 				@Override
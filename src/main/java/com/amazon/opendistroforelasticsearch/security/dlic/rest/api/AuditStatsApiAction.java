@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.dlic.rest.api;
+
+import com.amazon.opendistroforelasticsearch.security.action.auditstats.AuditStatsAction;
+import com.amazon.opendistroforelasticsearch.security.action.auditstats.AuditStatsRequest;
+import com.amazon.opendistroforelasticsearch.security.action.auditstats.AuditStatsResponse;
+import com.amazon.opendistroforelasticsearch.security.auditlog.AuditLog;
+import com.amazon.opendistroforelasticsearch.security.configuration.AdminDNs;
+import com.amazon.opendistroforelasticsearch.security.configuration.IndexBaseConfigurationRepository;
+import com.amazon.opendistroforelasticsearch.security.dlic.rest.validation.AbstractConfigurationValidator;
+import com.amazon.opendistroforelasticsearch.security.dlic.rest.validation.NoOpValidator;
+import com.amazon.opendistroforelasticsearch.security.privileges.PrivilegesEvaluator;
+import com.amazon.opendistroforelasticsearch.security.ssl.transport.PrincipalExtractor;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestRequest.Method;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Per node health of the audit log: store counters and latency percentiles of every sink,
+ * queue depth and drops of the async storage pool, sampling, aggregation and compliance diff counters.
+ * Counters are cumulative since node start.
+ */
+public class AuditStatsApiAction extends AbstractApiAction {
+
+	@Inject
+	public AuditStatsApiAction(final Settings settings, final Path configPath, final RestController controller, final Client client,
+			final AdminDNs adminDNs, final IndexBaseConfigurationRepository cl, final ClusterService cs,
+            final PrincipalExtractor principalExtractor, final PrivilegesEvaluator evaluator, ThreadPool threadPool, AuditLog auditLog) {
+		super(settings, configPath, controller, client, adminDNs, cl, cs, principalExtractor, evaluator, threadPool, auditLog);
+	}
+
+	@Override
+	protected void registerHandlers(RestController controller, Settings settings) {
+		controller.registerHandler(Method.GET, "/_opendistro/_security/api/audit/stats", this);
+		controller.registerHandler(Method.GET, "/_opendistro/_security/api/audit/stats/{nodeId}", this);
+	}
+
+	@Override
+	protected Endpoint getEndpoint() {
+		return Endpoint.AUDITSTATS;
+	}
+
+	@Override
+	protected void handleGet(RestChannel channel, final RestRequest request, final Client client,
+							 final Settings.Builder additionalSettings) {
+
+		final String[] nodeIds = request.paramAsStringArray("nodeId", new String[0]);
+
+		client.execute(
+				AuditStatsAction.INSTANCE,
+				new AuditStatsRequest(nodeIds),
+				new ActionListener<AuditStatsResponse>() {
+
+					@Override
+					public void onResponse(AuditStatsResponse response) {
+						try {
+							final XContentBuilder builder = channel.newBuilder();
+							response.toXContent(builder, ToXContent.EMPTY_PARAMS);
+							channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+						} catch (IOException e) {
+							throw ExceptionsHelper.convertToElastic(e);
+						}
+					}
+
+					@Override
+					public void onFailure(Exception e) {
+						logger.error("Cannot retrieve audit stats due to", e);
+						internalErrorResponse(channel, "Cannot retrieve audit stats due to "+ e.getMessage()+".");
+					}
+
+				}
+		);
+	}
+
+	@Override
+	protected void handleDelete(RestChannel channel, final RestRequest request, final Client client,
+								final Settings.Builder additionalSettings) {
+		notImplemented(channel, Method.DELETE);
+	}
+
+	@Override
+	protected void handlePost(RestChannel channel, final RestRequest request, final Client client,
+							  final Settings.Builder additionalSettings) {
+		notImplemented(channel, Method.POST);
+	}
+
+	@Override
+	protected void handlePut(RestChannel channel, final RestRequest request, final Client client,
+							 final Settings.Builder additionalSettings) {
+		notImplemented(channel, Method.PUT);
+	}
+
+	@Override
+	protected AbstractConfigurationValidator getValidator(RestRequest request, BytesReference ref, Object... param) {
+		return new NoOpValidator(request, ref, this.settings, param);
+	}
+
+	@Override
+	protected String getResourceName() {
+		// not needed
+		return null;
+	}
+
+	@Override
+	protected String getConfigName() {
+		// not needed
+		return null;
+	}
+
+	@Override
+	protected void consumeParameters(final RestRequest request) {
+		request.param("nodeId");
+	}
+
+}
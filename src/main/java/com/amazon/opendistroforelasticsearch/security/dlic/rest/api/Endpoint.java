@@ -26,5 +26,6 @@ public enum Endpoint {
 	INTERNALUSERS,
 	SYSTEMINFO,
 	PERMISSIONSINFO,
-	AUTHTOKEN;
+	AUTHTOKEN,
+	AUDITSTATS;
 }
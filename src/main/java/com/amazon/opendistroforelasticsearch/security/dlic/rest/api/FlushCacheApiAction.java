@@ -15,6 +15,9 @@
 
 package com.amazon.opendistroforelasticsearch.security.dlic.rest.api;
 
+import com.amazon.opendistroforelasticsearch.security.action.authcachestats.AuthCacheStatsAction;
+import com.amazon.opendistroforelasticsearch.security.action.authcachestats.AuthCacheStatsRequest;
+import com.amazon.opendistroforelasticsearch.security.action.authcachestats.AuthCacheStatsResponse;
 import com.amazon.opendistroforelasticsearch.security.action.configupdate.ConfigUpdateAction;
 import com.amazon.opendistroforelasticsearch.security.action.configupdate.ConfigUpdateRequest;
 import com.amazon.opendistroforelasticsearch.security.action.configupdate.ConfigUpdateResponse;
@@ -25,6 +28,7 @@ import com.amazon.opendistroforelasticsearch.security.dlic.rest.validation.Abstr
 import com.amazon.opendistroforelasticsearch.security.dlic.rest.validation.NoOpValidator;
 import com.amazon.opendistroforelasticsearch.security.privileges.PrivilegesEvaluator;
 import com.amazon.opendistroforelasticsearch.security.ssl.transport.PrincipalExtractor;
+import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.service.ClusterService;
@@ -32,12 +36,17 @@ import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.Settings.Builder;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.rest.RestRequest.Method;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.threadpool.ThreadPool;
 
+import java.io.IOException;
 import java.nio.file.Path;
 
 public class FlushCacheApiAction extends AbstractApiAction {
@@ -104,7 +113,31 @@ public class FlushCacheApiAction extends AbstractApiAction {
 	@Override
 	protected void handleGet(RestChannel channel, final RestRequest request, final Client client,
 							 final Settings.Builder additionalSettings) {
-		notImplemented(channel, Method.GET);
+
+		client.execute(
+				AuthCacheStatsAction.INSTANCE,
+				new AuthCacheStatsRequest(),
+				new ActionListener<AuthCacheStatsResponse>() {
+
+					@Override
+					public void onResponse(AuthCacheStatsResponse response) {
+						try {
+							final XContentBuilder builder = channel.newBuilder();
+							response.toXContent(builder, ToXContent.EMPTY_PARAMS);
+							channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+						} catch (IOException e) {
+							throw ExceptionsHelper.convertToElastic(e);
+						}
+					}
+
+					@Override
+					public void onFailure(Exception e) {
+						logger.error("Cannot retrieve cache stats due to", e);
+						internalErrorResponse(channel, "Cannot retrieve cache stats due to "+ e.getMessage()+".");
+					}
+
+				}
+		);
 	}
 
 	@Override
@@ -48,6 +48,9 @@ import org.apache.http.ssl.SSLContextBuilder;
 import org.apache.http.ssl.SSLContexts;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
@@ -55,6 +58,8 @@ import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.xcontent.XContentType;
 
 import com.google.common.collect.Lists;
@@ -187,6 +192,10 @@ public class HttpClient implements Closeable {
     }
 
     public boolean index(final String content, final String index, final String type, final boolean refresh) {
+        return index(new BytesArray(content), index, type, refresh);
+    }
+
+    public boolean index(final BytesReference content, final String index, final String type, final boolean refresh) {
 
             try {
 
@@ -202,6 +211,13 @@ public class HttpClient implements Closeable {
             }
     }
 
+    /**
+     * Sends the bulk request asynchronously, the listener is called on a client thread
+     */
+    public void bulk(final BulkRequest request, final ActionListener<BulkResponse> listener) {
+        rclient.bulkAsync(request, RequestOptions.DEFAULT, listener);
+    }
+
     private final HttpAsyncClientBuilder asyncClientBuilder(HttpAsyncClientBuilder httpClientBuilder)
             throws NoSuchAlgorithmException, KeyStoreException, UnrecoverableKeyException, KeyManagementException {
 
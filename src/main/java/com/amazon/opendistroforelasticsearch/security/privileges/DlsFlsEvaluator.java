@@ -54,6 +54,7 @@ import com.amazon.opendistroforelasticsearch.security.resolver.IndexResolverRepl
 import com.amazon.opendistroforelasticsearch.security.securityconf.ConfigModel.SecurityRoles;
 import com.amazon.opendistroforelasticsearch.security.support.Base64Helper;
 import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+import com.amazon.opendistroforelasticsearch.security.support.DlsFlsPolicyCache;
 import com.amazon.opendistroforelasticsearch.security.support.WildcardMatcher;
 import com.amazon.opendistroforelasticsearch.security.support.HeaderHelper;
 import com.amazon.opendistroforelasticsearch.security.user.User;
@@ -63,15 +64,18 @@ public class DlsFlsEvaluator {
     protected final Logger log = LogManager.getLogger(this.getClass());
 
     private final ThreadPool threadPool;
+    private final DlsFlsPolicyCache dlsFlsPolicyCache;
 
-    public DlsFlsEvaluator(Settings settings, ThreadPool threadPool) {
+    public DlsFlsEvaluator(Settings settings, ThreadPool threadPool, DlsFlsPolicyCache dlsFlsPolicyCache) {
         this.threadPool = threadPool;
+        this.dlsFlsPolicyCache = dlsFlsPolicyCache;
     }
 
     public PrivilegesEvaluatorResponse evaluate(final ActionRequest request, final ClusterService clusterService, final IndexNameExpressionResolver resolver, final Resolved requestedResolved, final User user,
                                                 final SecurityRoles securityRoles, final PrivilegesEvaluatorResponse presponse) {
 
         ThreadContext threadContext = threadPool.getThreadContext();
+        final String localNodeId = clusterService.localNode().getId();
 
         // maskedFields
         final Map<String, Set<String>> maskedFieldsMap = securityRoles.getMaskedFields(user, resolver, clusterService);
@@ -86,7 +90,7 @@ public class DlsFlsEvaluator {
                 }
             } else {
                 if (threadContext.getHeader(ConfigConstants.OPENDISTRO_SECURITY_MASKED_FIELD_HEADER) != null) {
-                    if (!maskedFieldsMap.equals(Base64Helper.deserializeObject(threadContext.getHeader(ConfigConstants.OPENDISTRO_SECURITY_MASKED_FIELD_HEADER)))) {
+                    if (!DlsFlsPolicyCache.matches(threadContext, threadContext.getHeader(ConfigConstants.OPENDISTRO_SECURITY_MASKED_FIELD_HEADER), (Serializable) maskedFieldsMap)) {
                         throw new ElasticsearchSecurityException(ConfigConstants.OPENDISTRO_SECURITY_MASKED_FIELD_HEADER + " does not match  ");
                     } else {
                         if (log.isDebugEnabled()) {
@@ -94,7 +98,7 @@ public class DlsFlsEvaluator {
                         }
                     }
                 } else {
-                    threadContext.putHeader(ConfigConstants.OPENDISTRO_SECURITY_MASKED_FIELD_HEADER, Base64Helper.serializeObject((Serializable) maskedFieldsMap));
+                    threadContext.putHeader(ConfigConstants.OPENDISTRO_SECURITY_MASKED_FIELD_HEADER, dlsFlsPolicyCache.toReference(threadContext, localNodeId, Base64Helper.serializeObject((Serializable) maskedFieldsMap, true)));
                     if (log.isDebugEnabled()) {
                         log.debug("attach masked fields info: {}", maskedFieldsMap);
                     }
@@ -129,11 +133,11 @@ public class DlsFlsEvaluator {
                 }
             } else {
                 if (threadContext.getHeader(ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER) != null) {
-                    if (!dlsQueries.equals(Base64Helper.deserializeObject(threadContext.getHeader(ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER)))) {
+                    if (!DlsFlsPolicyCache.matches(threadContext, threadContext.getHeader(ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER), (Serializable) dlsQueries)) {
                         throw new ElasticsearchSecurityException(ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER + " does not match (SG 900D)");
                     }
                 } else {
-                    threadContext.putHeader(ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER, Base64Helper.serializeObject((Serializable) dlsQueries));
+                    threadContext.putHeader(ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER, dlsFlsPolicyCache.toReference(threadContext, localNodeId, Base64Helper.serializeObject((Serializable) dlsQueries, true)));
                     if (log.isDebugEnabled()) {
                         log.debug("attach DLS info: {}", dlsQueries);
                     }
@@ -162,7 +166,7 @@ public class DlsFlsEvaluator {
                 }
             } else {
                 if (threadContext.getHeader(ConfigConstants.OPENDISTRO_SECURITY_FLS_FIELDS_HEADER) != null) {
-                    if (!flsFields.equals(Base64Helper.deserializeObject(threadContext.getHeader(ConfigConstants.OPENDISTRO_SECURITY_FLS_FIELDS_HEADER)))) {
+                    if (!DlsFlsPolicyCache.matches(threadContext, threadContext.getHeader(ConfigConstants.OPENDISTRO_SECURITY_FLS_FIELDS_HEADER), (Serializable) flsFields)) {
                         throw new ElasticsearchSecurityException(ConfigConstants.OPENDISTRO_SECURITY_FLS_FIELDS_HEADER + " does not match  ");
                     } else {
                         if (log.isDebugEnabled()) {
@@ -170,7 +174,7 @@ public class DlsFlsEvaluator {
                         }
                     }
                 } else {
-                    threadContext.putHeader(ConfigConstants.OPENDISTRO_SECURITY_FLS_FIELDS_HEADER, Base64Helper.serializeObject((Serializable) flsFields));
+                    threadContext.putHeader(ConfigConstants.OPENDISTRO_SECURITY_FLS_FIELDS_HEADER, dlsFlsPolicyCache.toReference(threadContext, localNodeId, Base64Helper.serializeObject((Serializable) flsFields, true)));
                     if (log.isDebugEnabled()) {
                         log.debug("attach FLS info: {}", flsFields);
                     }
@@ -95,7 +95,9 @@ import com.amazon.opendistroforelasticsearch.security.resolver.IndexResolverRepl
 import com.amazon.opendistroforelasticsearch.security.resolver.IndexResolverReplacer.Resolved;
 import com.amazon.opendistroforelasticsearch.security.securityconf.ConfigModel;
 import com.amazon.opendistroforelasticsearch.security.securityconf.ConfigModel.SecurityRoles;
+import com.amazon.opendistroforelasticsearch.security.support.CompiledWildcardMatcher;
 import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+import com.amazon.opendistroforelasticsearch.security.support.DlsFlsPolicyCache;
 import com.amazon.opendistroforelasticsearch.security.support.WildcardMatcher;
 import com.amazon.opendistroforelasticsearch.security.user.User;
 
@@ -141,7 +143,7 @@ public class PrivilegesEvaluator implements ConfigurationChangeListener {
     public PrivilegesEvaluator(final ClusterService clusterService, final ThreadPool threadPool,
                                final ConfigurationRepository configurationRepository, final ActionGroupHolder ah, final IndexNameExpressionResolver resolver,
                                AuditLog auditLog, final Settings settings, final PrivilegesInterceptor privilegesInterceptor, final ClusterInfoHolder clusterInfoHolder,
-                               final IndexResolverReplacer irr, boolean advancedModulesEnabled) {
+                               final IndexResolverReplacer irr, final DlsFlsPolicyCache dlsFlsPolicyCache, boolean advancedModulesEnabled) {
 
         super();
         this.configurationRepository = configurationRepository;
@@ -164,14 +166,15 @@ public class PrivilegesEvaluator implements ConfigurationChangeListener {
 
         this.clusterInfoHolder = clusterInfoHolder;
         //this.typeSecurityDisabled = settings.getAsBoolean(ConfigConstants.OPENDISTRO_SECURITY_DISABLE_TYPE_SECURITY, false);
-        configModel = new ConfigModel(ah);
+        configModel = new ConfigModel(ah, threadPool.generic());
         configurationRepository.subscribeOnChange("roles", configModel);
+        configurationRepository.subscribeOnChange("actiongroups", configModel.getActionGroupsChangeListener());
         configurationRepository.subscribeOnChange("rolesmapping", this);
         this.irr = irr;
         snapshotRestoreEvaluator = new SnapshotRestoreEvaluator(settings, auditLog);
         securityIndexAccessEvaluator = new OpenDistroSecurityIndexAccessEvaluator(settings, auditLog);
         protectedIndexAccessEvaluator = new OpenDistroProtectedIndexAccessEvaluator(settings, auditLog);
-        dlsFlsEvaluator = new DlsFlsEvaluator(settings, threadPool);
+        dlsFlsEvaluator = new DlsFlsEvaluator(settings, threadPool, dlsFlsPolicyCache);
         termsAggregationEvaluator = new TermsAggregationEvaluator();
         tenantHolder = new TenantHolder();
         configurationRepository.subscribeOnChange("roles", tenantHolder);
@@ -276,6 +279,9 @@ public class PrivilegesEvaluator implements ConfigurationChangeListener {
         private ListMultimap<Set<String>, String> abars;
         private ListMultimap<String, String> bars;
         private ListMultimap<String, String> hosts;
+        private CompiledWildcardMatcher usersMatcher;
+        private CompiledWildcardMatcher barsMatcher;
+        private CompiledWildcardMatcher hostsMatcher;
 
         private RoleMappingHolder(Settings rolesMapping) {
 
@@ -313,6 +319,9 @@ public class PrivilegesEvaluator implements ConfigurationChangeListener {
                 abars = abars_;
                 bars = bars_;
                 hosts = hosts_;
+                usersMatcher = CompiledWildcardMatcher.compile(users_.keySet(), false);
+                barsMatcher = CompiledWildcardMatcher.compile(bars_.keySet(), false);
+                hostsMatcher = CompiledWildcardMatcher.compile(hosts_.keySet(), false);
             }
         }
 
@@ -335,11 +344,11 @@ public class PrivilegesEvaluator implements ConfigurationChangeListener {
             if (((rolesMappingResolution == ConfigConstants.RolesMappingResolution.BOTH
                     || rolesMappingResolution == ConfigConstants.RolesMappingResolution.MAPPING_ONLY))) {
 
-                for (String p : WildcardMatcher.getAllMatchingPatterns(users.keySet(), user.getName())) {
+                for (String p : usersMatcher.getAllMatchingPatterns(user.getName())) {
                     securityRoles.addAll(users.get(p));
                 }
 
-                for (String p : WildcardMatcher.getAllMatchingPatterns(bars.keySet(), user.getRoles())) {
+                for (String p : barsMatcher.getAllMatchingPatterns(user.getRoles())) {
                     securityRoles.addAll(bars.get(p));
                 }
 
@@ -353,7 +362,7 @@ public class PrivilegesEvaluator implements ConfigurationChangeListener {
                     //IPV4 or IPv6 (compressed and without scope identifiers)
                     final String ipAddress = caller.getAddress();
 
-                    for (String p : WildcardMatcher.getAllMatchingPatterns(hosts.keySet(), ipAddress)) {
+                    for (String p : hostsMatcher.getAllMatchingPatterns(ipAddress)) {
                         securityRoles.addAll(hosts.get(p));
                     }
 
@@ -363,7 +372,7 @@ public class PrivilegesEvaluator implements ConfigurationChangeListener {
                             && (hostResolverMode.equalsIgnoreCase("ip-hostname") || hostResolverMode.equalsIgnoreCase("ip-hostname-lookup"))) {
                         final String hostName = caller.address().getHostString();
 
-                        for (String p : WildcardMatcher.getAllMatchingPatterns(hosts.keySet(), hostName)) {
+                        for (String p : hostsMatcher.getAllMatchingPatterns(hostName)) {
                             securityRoles.addAll(hosts.get(p));
                         }
                     }
@@ -372,7 +381,7 @@ public class PrivilegesEvaluator implements ConfigurationChangeListener {
 
                         final String resolvedHostName = caller.address().getHostName();
 
-                        for (String p : WildcardMatcher.getAllMatchingPatterns(hosts.keySet(), resolvedHostName)) {
+                        for (String p : hostsMatcher.getAllMatchingPatterns(resolvedHostName)) {
                             securityRoles.addAll(hosts.get(p));
                         }
                     }
@@ -102,6 +102,7 @@ import org.elasticsearch.transport.TransportRequest;
 import com.amazon.opendistroforelasticsearch.security.OpenDistroSecurityPlugin;
 import com.amazon.opendistroforelasticsearch.security.configuration.ClusterInfoHolder;
 import com.amazon.opendistroforelasticsearch.security.configuration.ConfigurationChangeListener;
+import com.amazon.opendistroforelasticsearch.security.support.CompiledWildcardMatcher;
 import com.amazon.opendistroforelasticsearch.security.support.SnapshotRestoreHelper;
 import com.amazon.opendistroforelasticsearch.security.support.WildcardMatcher;
 
@@ -286,7 +287,8 @@ public final class IndexResolverReplacer implements ConfigurationChangeListener
 
                 }
 
-                final List<String> _aliases = WildcardMatcher.getMatchAny(localRequestedPatterns.toArray(new String[0]), aliases);
+                //patterns of the request are not cached, they would evict the matchers of the roles
+                final List<String> _aliases = CompiledWildcardMatcher.compile(localRequestedPatterns, false).getMatchAny(aliases);
 
                 matchingAllIndices.addAll(_indices);
 
@@ -30,7 +30,9 @@
 
 package com.amazon.opendistroforelasticsearch.security.securityconf;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -40,18 +42,21 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.ExceptionsHelper;
 import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.collect.Tuple;
@@ -60,140 +65,264 @@ import org.elasticsearch.common.settings.Settings;
 import com.amazon.opendistroforelasticsearch.security.configuration.ActionGroupHolder;
 import com.amazon.opendistroforelasticsearch.security.configuration.ConfigurationChangeListener;
 import com.amazon.opendistroforelasticsearch.security.resolver.IndexResolverReplacer.Resolved;
+import com.amazon.opendistroforelasticsearch.security.support.CompiledWildcardMatcher;
 import com.amazon.opendistroforelasticsearch.security.support.WildcardMatcher;
 import com.amazon.opendistroforelasticsearch.security.user.User;
 import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 public class ConfigModel implements ConfigurationChangeListener {
 
     protected final Logger log = LogManager.getLogger(this.getClass());
     private static final Set<String> IGNORED_TYPES = ImmutableSet.of("_dls_", "_fls_", "_masked_fields_");
+    //changed roles are built in at most this many tasks
+    private static final int RELOAD_THREADS = 10;
+    private static final long RELOAD_TIMEOUT_SECONDS = 30;
     private final ActionGroupHolder ah;
-    private SecurityRoles securityRoles = null;
-
-    public ConfigModel(final ActionGroupHolder ah) {
+    private final ExecutorService reloadExecutor;
+    private volatile SecurityRoles securityRoles = null;
+    //roles built by the last successful reload, only changed roles are rebuilt on the next one
+    private Settings lastRolesSettings = null;
+    private Map<String, BuiltRole> builtRoles = Collections.emptyMap();
+
+    /**
+     * @param reloadExecutor builds changed roles, must not be bounded by the threads which deliver config changes
+     */
+    public ConfigModel(final ActionGroupHolder ah, final ExecutorService reloadExecutor) {
         this.ah = ah;
+        this.reloadExecutor = reloadExecutor;
     }
 
     @Override
-    public void onChange(Settings rolesSettings) {
-        final SecurityRoles tmp = reload(rolesSettings);
+    public synchronized void onChange(Settings rolesSettings) {
+        securityRoles = reload(rolesSettings);
+    }
 
-        if (tmp != null) {
-            securityRoles = tmp;
-        }
+    /**
+     * Roles embed their resolved action groups, so they need to be revisited whenever the action groups change.
+     * Only roles referring to a changed action group are rebuilt.
+     */
+    public ConfigurationChangeListener getActionGroupsChangeListener() {
+        return actionGroups -> {
+            synchronized (ConfigModel.this) {
+                if (lastRolesSettings != null) {
+                    securityRoles = reload(lastRolesSettings);
+                }
+            }
+        };
     }
 
     public SecurityRoles getSecurityRoles() {
         return securityRoles;
     }
 
-    private SecurityRoles reload(Settings rolesSettings) {
+    private SecurityRoles reload(final Settings rolesSettings) {
 
-        final Set<Future<SecurityRole>> futures = new HashSet<>(5000);
-        final ExecutorService execs = Executors.newFixedThreadPool(10);
+        final Map<String, BuiltRole> previous = builtRoles;
+        final Map<String, BuiltRole> current = new HashMap<>(rolesSettings.names().size());
+        final List<String> changedRoles = new ArrayList<>();
+        //action groups are resolved at most once per reload, no matter how many roles refer to them
+        final ConcurrentMap<String, Set<String>> groupMembers = new ConcurrentHashMap<>();
+        final ConcurrentMap<Set<String>, CompiledWildcardMatcher> actionMatchers = new ConcurrentHashMap<>();
 
         for (String securityRole : rolesSettings.names()) {
 
-            Future<SecurityRole> future = execs.submit(new Callable<SecurityRole>() {
+            final Settings securityRoleSettings = rolesSettings.getByPrefix(securityRole + ".");
+            final BuiltRole builtRole = previous.get(securityRole);
 
-                @Override
-                public SecurityRole call() throws Exception {
-                    SecurityRole _securityRole = new SecurityRole(securityRole);
+            if (builtRole != null && builtRole.isUpToDate(securityRoleSettings, groupMembers)) {
+                current.put(securityRole, builtRole);
+            } else {
+                changedRoles.add(securityRole);
+            }
+        }
 
-                    final Settings securityRoleSettings = rolesSettings.getByPrefix(securityRole);
-                    if (!securityRoleSettings.names().isEmpty()) {
-                        final Set<String> permittedClusterActions = ah.resolvedActions(securityRoleSettings.getAsList(".cluster", Collections.emptyList()));
-                        _securityRole.addClusterPerms(permittedClusterActions);
+        final List<Future<Map<String, BuiltRole>>> futures = new ArrayList<>(RELOAD_THREADS);
 
-                        Settings tenants = rolesSettings.getByPrefix(securityRole + ".tenants.");
+        if (!changedRoles.isEmpty()) {
+            for (List<String> partition : Lists.partition(changedRoles, (changedRoles.size() + RELOAD_THREADS - 1) / RELOAD_THREADS)) {
+                futures.add(reloadExecutor.submit(() -> {
+                    final Map<String, BuiltRole> built = new HashMap<>(partition.size());
+                    for (String securityRole : partition) {
+                        built.put(securityRole, buildRole(securityRole, rolesSettings, rolesSettings.getByPrefix(securityRole + "."),
+                                groupMembers, actionMatchers));
+                    }
+                    return built;
+                }));
+            }
+        }
 
-                        if (tenants != null) {
-                            for (String tenant : tenants.names()) {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(RELOAD_TIMEOUT_SECONDS);
 
-                                //if(tenant.equals(user.getName())) {
-                                //    continue;
-                                //}
+        try {
+            for (Future<Map<String, BuiltRole>> future : futures) {
+                current.putAll(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            }
+        } catch (TimeoutException e) {
+            cancel(futures);
+            log.error("Building {} changed roles took longer than {} seconds, keeping the previous roles", changedRoles.size(), RELOAD_TIMEOUT_SECONDS);
+            throw new ElasticsearchException("Timeout while loading roles", e);
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            log.error("Thread interrupted while loading roles, keeping the previous roles");
+            throw new ElasticsearchException("Interrupted while loading roles", e);
+        } catch (ExecutionException e) {
+            cancel(futures);
+            log.error("Error while updating roles: {}", e.getCause(), e.getCause());
+            throw ExceptionsHelper.convertToElastic(e);
+        }
 
-                                if ("RW".equalsIgnoreCase(tenants.get(tenant, "RO"))) {
-                                    _securityRole.addTenant(new Tenant(tenant, true));
-                                } else {
-                                    _securityRole.addTenant(new Tenant(tenant, false));
-                                    //if(_securityRole.tenants.stream().filter(t->t.tenant.equals(tenant)).count() > 0) { //RW outperforms RO
-                                    //    _securityRole.addTenant(new Tenant(tenant, false));
-                                    //}
-                                }
-                            }
-                        }
+        final List<SecurityRole> _roles = new ArrayList<>(current.size());
+        for (BuiltRole builtRole : current.values()) {
+            if (builtRole.role != null) {
+                _roles.add(builtRole.role);
+            }
+        }
 
-                        final Map<String, Settings> permittedAliasesIndices = securityRoleSettings.getGroups(".indices");
+        if (log.isDebugEnabled()) {
+            log.debug("Rebuilt {} of {} roles", changedRoles.size(), current.size());
+        }
 
-                        for (final String permittedAliasesIndex : permittedAliasesIndices.keySet()) {
+        lastRolesSettings = rolesSettings;
+        builtRoles = current;
+        return new SecurityRoles(new RoleIndex(_roles));
+    }
 
-                            final String resolvedRole = securityRole;
-                            final String indexPattern = permittedAliasesIndex;
+    private BuiltRole buildRole(final String securityRole, final Settings rolesSettings, final Settings securityRoleSettings,
+                                final ConcurrentMap<String, Set<String>> groupMembers,
+                                final ConcurrentMap<Set<String>, CompiledWildcardMatcher> actionMatchers) {
 
-                            final String dls = rolesSettings.get(resolvedRole + ".indices." + indexPattern + "._dls_");
-                            final List<String> fls = rolesSettings.getAsList(resolvedRole + ".indices." + indexPattern + "._fls_");
-                            final List<String> maskedFields = rolesSettings.getAsList(resolvedRole + ".indices." + indexPattern + "._masked_fields_");
+        final Map<String, Set<String>> referencedGroups = new HashMap<>();
 
-                            IndexPattern _indexPattern = new IndexPattern(indexPattern);
-                            _indexPattern.setDlsQuery(dls);
-                            _indexPattern.addFlsFields(fls);
-                            _indexPattern.addMaskedFields(maskedFields);
+        if (securityRoleSettings.names().isEmpty()) {
+            return new BuiltRole(securityRoleSettings, referencedGroups, null);
+        }
 
-                            for (String type : permittedAliasesIndices.get(indexPattern).names()) {
+        SecurityRole _securityRole = new SecurityRole(securityRole);
 
-                                if (IGNORED_TYPES.contains(type)) {
-                                    continue;
-                                }
+        final Set<String> permittedClusterActions = resolveActions(securityRoleSettings.getAsList("cluster", Collections.emptyList()), groupMembers, referencedGroups);
+        _securityRole.addClusterPerms(permittedClusterActions);
+        _securityRole.clusterPermsMatcher = compileActions(_securityRole.clusterPerms, actionMatchers);
 
-                                TypePerm typePerm = new TypePerm(type);
-                                final List<String> perms = rolesSettings.getAsList(resolvedRole + ".indices." + indexPattern + "." + type);
-                                typePerm.addPerms(ah.resolvedActions(perms));
-                                _indexPattern.addTypePerms(typePerm);
-                            }
+        Settings tenants = rolesSettings.getByPrefix(securityRole + ".tenants.");
 
-                            _securityRole.addIndexPattern(_indexPattern);
+        if (tenants != null) {
+            for (String tenant : tenants.names()) {
 
-                        }
-                        return _securityRole;
-                    }
+                //if(tenant.equals(user.getName())) {
+                //    continue;
+                //}
+
+                if ("RW".equalsIgnoreCase(tenants.get(tenant, "RO"))) {
+                    _securityRole.addTenant(new Tenant(tenant, true));
+                } else {
+                    _securityRole.addTenant(new Tenant(tenant, false));
+                    //if(_securityRole.tenants.stream().filter(t->t.tenant.equals(tenant)).count() > 0) { //RW outperforms RO
+                    //    _securityRole.addTenant(new Tenant(tenant, false));
+                    //}
+                }
+            }
+        }
 
-                    return null;
+        final Map<String, Settings> permittedAliasesIndices = securityRoleSettings.getGroups("indices");
+
+        for (final String permittedAliasesIndex : permittedAliasesIndices.keySet()) {
+
+            final String resolvedRole = securityRole;
+            final String indexPattern = permittedAliasesIndex;
+
+            final String dls = rolesSettings.get(resolvedRole + ".indices." + indexPattern + "._dls_");
+            final List<String> fls = rolesSettings.getAsList(resolvedRole + ".indices." + indexPattern + "._fls_");
+            final List<String> maskedFields = rolesSettings.getAsList(resolvedRole + ".indices." + indexPattern + "._masked_fields_");
+
+            IndexPattern _indexPattern = new IndexPattern(indexPattern);
+            _indexPattern.setDlsQuery(dls);
+            _indexPattern.addFlsFields(fls);
+            _indexPattern.addMaskedFields(maskedFields);
+
+            for (String type : permittedAliasesIndices.get(indexPattern).names()) {
+
+                if (IGNORED_TYPES.contains(type)) {
+                    continue;
                 }
-            });
 
-            futures.add(future);
+                TypePerm typePerm = new TypePerm(type);
+                final List<String> perms = rolesSettings.getAsList(resolvedRole + ".indices." + indexPattern + "." + type);
+                typePerm.addPerms(resolveActions(perms, groupMembers, referencedGroups));
+                typePerm.permsMatcher = compileActions(typePerm.perms, actionMatchers);
+                _indexPattern.addTypePerms(typePerm);
+            }
+
+            _securityRole.addIndexPattern(_indexPattern);
+
         }
 
-        execs.shutdown();
-        try {
-            execs.awaitTermination(30, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("Thread interrupted (1) while loading roles");
-            return null;
+        return new BuiltRole(securityRoleSettings, referencedGroups, _securityRole);
+    }
+
+    //same semantics as ActionGroupHolder.resolvedActions() but remembers which entries were looked up as action groups
+    private Set<String> resolveActions(final List<String> actions, final ConcurrentMap<String, Set<String>> groupMembers,
+                                       final Map<String, Set<String>> referencedGroups) {
+        final Set<String> resolvedActions = new HashSet<>();
+        for (String action : actions) {
+            final Set<String> members = groupMembers.computeIfAbsent(action, ah::getGroupMembers);
+            referencedGroups.put(action, members);
+            if (members.isEmpty()) {
+                resolvedActions.add(action);
+            } else {
+                resolvedActions.addAll(members);
+            }
         }
+        return resolvedActions;
+    }
 
-        try {
-            SecurityRoles _securityRoles = new SecurityRoles(futures.size());
-            for (Future<SecurityRole> future : futures) {
-                _securityRoles.addSecurityRole(future.get());
+    private static void cancel(final Collection<Future<Map<String, BuiltRole>>> futures) {
+        for (Future<Map<String, BuiltRole>> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * A role together with everything it was built from: its own settings and the
+     * members of every action group (or plain action) it referred to at build time.
+     */
+    private final class BuiltRole {
+        private final Settings settings;
+        private final Map<String, Set<String>> referencedGroups;
+        private final SecurityRole role;
+
+        private BuiltRole(final Settings settings, final Map<String, Set<String>> referencedGroups, final SecurityRole role) {
+            this.settings = settings;
+            this.referencedGroups = referencedGroups;
+            this.role = role;
+        }
+
+        private boolean isUpToDate(final Settings currentSettings, final ConcurrentMap<String, Set<String>> groupMembers) {
+            if (!settings.equals(currentSettings)) {
+                return false;
             }
+            for (Entry<String, Set<String>> group : referencedGroups.entrySet()) {
+                if (!group.getValue().equals(groupMembers.computeIfAbsent(group.getKey(), ah::getGroupMembers))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 
-            return _securityRoles;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("Thread interrupted (2) while loading roles");
-            return null;
-        } catch (ExecutionException e) {
-            log.error("Error while updating roles: {}", e.getCause(), e.getCause());
-            throw ExceptionsHelper.convertToElastic(e);
+    //identical (action group resolved) permission sets share one compiled matcher per reload
+    private static CompiledWildcardMatcher compileActions(final Set<String> perms,
+                                                          final ConcurrentMap<Set<String>, CompiledWildcardMatcher> compiled) {
+        if (perms.isEmpty()) {
+            return CompiledWildcardMatcher.NONE;
         }
+        return compiled.computeIfAbsent(ImmutableSet.copyOf(perms), p -> CompiledWildcardMatcher.compile(p, false));
     }
 
     //beans
@@ -203,16 +332,17 @@ public class ConfigModel implements ConfigurationChangeListener {
         protected final Logger log = LogManager.getLogger(this.getClass());
 
         final Set<SecurityRole> roles;
+        private final RoleIndex index;
+        private final BitSet members;
 
-        private SecurityRoles(int roleCount) {
-            roles = new HashSet<>(roleCount);
+        private SecurityRoles(RoleIndex index) {
+            this(index, index.allOrdinals());
         }
 
-        private SecurityRoles addSecurityRole(SecurityRole securityRole) {
-            if (securityRole != null) {
-                this.roles.add(securityRole);
-            }
-            return this;
+        private SecurityRoles(RoleIndex index, BitSet members) {
+            this.index = index;
+            this.members = members;
+            this.roles = index.rolesOf(members);
         }
 
         @Override
@@ -250,13 +380,9 @@ public class ConfigModel implements ConfigurationChangeListener {
         }
 
         public SecurityRoles filter(Set<String> keep) {
-            final SecurityRoles retVal = new SecurityRoles(roles.size());
-            for (SecurityRole sr : roles) {
-                if (keep.contains(sr.getName())) {
-                    retVal.addSecurityRole(sr);
-                }
-            }
-            return retVal;
+            final BitSet kept = index.ordinalsOf(keep);
+            kept.and(members);
+            return new SecurityRoles(index, kept);
         }
 
         public Map<String, Set<String>> getMaskedFields(User user, IndexNameExpressionResolver resolver, ClusterService cs) {
@@ -269,7 +395,7 @@ public class ConfigModel implements ConfigurationChangeListener {
                     String[] concreteIndices = new String[0];
 
                     if ((maskedFields != null && maskedFields.size() > 0)) {
-                        concreteIndices = ip.getResolvedIndexPattern(user, resolver, cs);
+                        concreteIndices = index.resolveIndexPattern(ip, user, resolver, cs).concreteIndices;
                     }
 
                     if (maskedFields != null && maskedFields.size() > 0) {
@@ -310,7 +436,7 @@ public class ConfigModel implements ConfigurationChangeListener {
                     String[] concreteIndices = new String[0];
 
                     if ((dls != null && dls.length() > 0) || (fls != null && fls.size() > 0)) {
-                        concreteIndices = ip.getResolvedIndexPattern(user, resolver, cs);
+                        concreteIndices = index.resolveIndexPattern(ip, user, resolver, cs).concreteIndices;
                     }
 
                     if (dls != null && dls.length() > 0) {
@@ -364,7 +490,7 @@ public class ConfigModel implements ConfigurationChangeListener {
         public Set<String> getAllPermittedIndicesForKibana(Resolved resolved, User user, String[] actions, IndexNameExpressionResolver resolver, ClusterService cs) {
             Set<String> retVal = new HashSet<>();
             for (SecurityRole sr : roles) {
-                retVal.addAll(sr.getAllResolvedPermittedIndices(Resolved._LOCAL_ALL, user, actions, resolver, cs));
+                retVal.addAll(sr.getAllResolvedPermittedIndices(index, Resolved._LOCAL_ALL, user, actions, resolver, cs));
                 retVal.addAll(resolved.getRemoteIndices());
             }
             return Collections.unmodifiableSet(retVal);
@@ -374,7 +500,7 @@ public class ConfigModel implements ConfigurationChangeListener {
         public Set<String> reduce(Resolved resolved, User user, String[] actions, IndexNameExpressionResolver resolver, ClusterService cs) {
             Set<String> retVal = new HashSet<>();
             for (SecurityRole sr : roles) {
-                retVal.addAll(sr.getAllResolvedPermittedIndices(resolved, user, actions, resolver, cs));
+                retVal.addAll(sr.getAllResolvedPermittedIndices(index, resolved, user, actions, resolver, cs));
             }
             if (log.isDebugEnabled()) {
                 log.debug("Reduced requested resolved indices {} to permitted indices {}.", resolved, retVal.toString());
@@ -385,7 +511,7 @@ public class ConfigModel implements ConfigurationChangeListener {
         //return true on success
         public boolean get(Resolved resolved, User user, String[] actions, IndexNameExpressionResolver resolver, ClusterService cs) {
             for (SecurityRole sr : roles) {
-                if (ConfigModel.impliesTypePerm(sr.getIpatterns(), resolved, user, actions, resolver, cs)) {
+                if (ConfigModel.impliesTypePerm(index, sr.ipatterns, resolved, user, actions, resolver, cs)) {
                     return true;
                 }
             }
@@ -393,7 +519,7 @@ public class ConfigModel implements ConfigurationChangeListener {
         }
 
         public boolean impliesClusterPermissionPermission(String action) {
-            return roles.stream().filter(r -> r.impliesClusterPermission(action)).count() > 0;
+            return index.rolesWithClusterPermission(action).intersects(members);
         }
 
         //rolespan
@@ -401,7 +527,7 @@ public class ConfigModel implements ConfigurationChangeListener {
                                              ClusterService cs) {
             Set<IndexPattern> ipatterns = new HashSet<ConfigModel.IndexPattern>();
             roles.stream().forEach(p -> ipatterns.addAll(p.getIpatterns()));
-            return ConfigModel.impliesTypePerm(ipatterns, resolved, user, actions, resolver, cs);
+            return ConfigModel.impliesTypePerm(index, ipatterns, resolved, user, actions, resolver, cs);
         }
     }
 
@@ -411,6 +537,7 @@ public class ConfigModel implements ConfigurationChangeListener {
         private final Set<Tenant> tenants = new HashSet<>();
         private final Set<IndexPattern> ipatterns = new HashSet<>();
         private final Set<String> clusterPerms = new HashSet<>();
+        private CompiledWildcardMatcher clusterPermsMatcher = CompiledWildcardMatcher.NONE;
 
         private SecurityRole(String name) {
             super();
@@ -418,32 +545,31 @@ public class ConfigModel implements ConfigurationChangeListener {
         }
 
         private boolean impliesClusterPermission(String action) {
-            return WildcardMatcher.matchAny(clusterPerms, action);
+            return clusterPermsMatcher.test(action);
         }
 
         //get indices which are permitted for the given types and actions
         //dnfof + kibana special only
-        private Set<String> getAllResolvedPermittedIndices(Resolved resolved, User user, String[] actions, IndexNameExpressionResolver resolver,
-                                                           ClusterService cs) {
+        private Set<String> getAllResolvedPermittedIndices(RoleIndex index, Resolved resolved, User user, String[] actions,
+                                                           IndexNameExpressionResolver resolver, ClusterService cs) {
 
             final Set<String> retVal = new HashSet<>();
             for (IndexPattern p : ipatterns) {
                 //what if we cannot resolve one (for create purposes)
                 boolean patternMatch = false;
-                final Set<TypePerm> tperms = p.getTypePerms();
-                for (TypePerm tp : tperms) {
-                    if (WildcardMatcher.matchAny(tp.typePattern, resolved.getTypes().toArray(new String[0]))) {
-                        patternMatch = WildcardMatcher.matchAll(tp.perms.toArray(new String[0]), actions);
+                for (TypePerm tp : p.typePerms) {
+                    if (WildcardMatcher.matchAny(tp.typePattern, resolved.getTypes())) {
+                        patternMatch = tp.permsMatcher.matchAll(actions);
                     }
                 }
                 if (patternMatch) {
                     //resolved but can contain patterns for nonexistent indices
-                    final String[] permitted = p.getResolvedIndexPattern(user, resolver, cs); //maybe they do not exist
+                    final ResolvedIndexPattern permitted = index.resolveIndexPattern(p, user, resolver, cs); //maybe they do not exist
                     final Set<String> res = new HashSet<>();
                     if (!resolved.isLocalAll() && !resolved.getAllIndices().contains("*") && !resolved.getAllIndices().contains("_all")) {
                         final Set<String> wanted = new HashSet<>(resolved.getAllIndices());
                         //resolved but can contain patterns for nonexistent indices
-                        WildcardMatcher.wildcardRetainInSet(wanted, permitted);
+                        wanted.removeIf(i -> !permitted.matcher.test(i));
                         res.addAll(wanted);
                     } else {
                         //we want all indices so just return what's permitted
@@ -452,7 +578,7 @@ public class ConfigModel implements ConfigurationChangeListener {
                         //final String[] allIndices = resolver.concreteIndexNames(cs.state(), IndicesOptions.lenientExpandOpen(), "*");
                         final String[] allIndices = cs.state().metaData().getConcreteAllOpenIndices();
                         final Set<String> wanted = new HashSet<>(Arrays.asList(allIndices));
-                        WildcardMatcher.wildcardRetainInSet(wanted, permitted);
+                        wanted.removeIf(i -> !permitted.matcher.test(i));
                         res.addAll(wanted);
                     }
                     retVal.addAll(res);
@@ -652,21 +778,20 @@ public class ConfigModel implements ConfigurationChangeListener {
             return replaceProperties(indexPattern, user);
         }
 
-        private String[] getResolvedIndexPattern(User user, IndexNameExpressionResolver resolver, ClusterService cs) {
-            String unresolved = getUnresolvedIndexPattern(user);
+        private static String[] resolveIndexPattern(final String unresolved, IndexNameExpressionResolver resolver, ClusterState state) {
             String[] resolved = null;
             if (WildcardMatcher.containsWildcard(unresolved)) {
-                final String[] aliasesForPermittedPattern = cs.state().getMetaData().getAliasAndIndexLookup().entrySet().stream()
+                final String[] aliasesForPermittedPattern = state.getMetaData().getAliasAndIndexLookup().entrySet().stream()
                         .filter(e -> e.getValue().isAlias()).filter(e -> WildcardMatcher.match(unresolved, e.getKey())).map(e -> e.getKey())
                         .toArray(String[]::new);
 
                 if (aliasesForPermittedPattern != null && aliasesForPermittedPattern.length > 0) {
-                    resolved = resolver.concreteIndexNames(cs.state(), IndicesOptions.lenientExpandOpen(), aliasesForPermittedPattern);
+                    resolved = resolver.concreteIndexNames(state, IndicesOptions.lenientExpandOpen(), aliasesForPermittedPattern);
                 }
             }
 
             if (resolved == null && !unresolved.isEmpty()) {
-                resolved = resolver.concreteIndexNames(cs.state(), IndicesOptions.lenientExpandOpen(), unresolved);
+                resolved = resolver.concreteIndexNames(state, IndicesOptions.lenientExpandOpen(), unresolved);
             }
             if (resolved == null || resolved.length == 0) {
                 return new String[] { unresolved };
@@ -699,6 +824,7 @@ public class ConfigModel implements ConfigurationChangeListener {
     public static class TypePerm {
         private final String typePattern;
         private final Set<String> perms = new HashSet<>();
+        private CompiledWildcardMatcher permsMatcher = CompiledWildcardMatcher.NONE;
 
         private TypePerm(String typePattern) {
             super();
@@ -813,6 +939,132 @@ public class ConfigModel implements ConfigurationChangeListener {
         }
     }
 
+    /**
+     * Immutable per-reload index over all configured roles. Every role gets a dense ordinal so that
+     * the roles of a user can be represented as a {@link BitSet}. For every cluster action which
+     * was ever evaluated the set of roles granting it is kept as a bitset as well, so that the
+     * per-request check is a single {@link BitSet#intersects(BitSet)} instead of a wildcard scan
+     * over all roles.
+     */
+    private static final class RoleIndex {
+
+        //action names are bounded by the registered transport actions, this is only a safety net
+        private static final int MAX_INDEXED_ACTIONS = 8192;
+        //sum of resolved index names over all cached patterns
+        private static final long MAX_CACHED_RESOLVED_INDICES = 1_000_000;
+
+        private final SecurityRole[] roles;
+        private final Map<String, Integer> ordinals;
+        private final ConcurrentMap<String, BitSet> clusterPermissions = new ConcurrentHashMap<>();
+        //(metadata version, index pattern with user attributes substituted) -> resolved pattern
+        private final Cache<Tuple<Long, String>, ResolvedIndexPattern> resolvedIndexPatterns = CacheBuilder.newBuilder()
+                .maximumWeight(MAX_CACHED_RESOLVED_INDICES)
+                .weigher((Tuple<Long, String> k, ResolvedIndexPattern v) -> v.concreteIndices.length)
+                .build();
+        private volatile long resolvedMetaDataVersion = -1;
+
+        private RoleIndex(final List<SecurityRole> roles) {
+            this.roles = roles.toArray(new SecurityRole[0]);
+            this.ordinals = new HashMap<>(roles.size());
+            for (int i = 0; i < this.roles.length; i++) {
+                this.ordinals.put(this.roles[i].getName(), i);
+            }
+        }
+
+        private BitSet allOrdinals() {
+            final BitSet all = new BitSet(roles.length);
+            all.set(0, roles.length);
+            return all;
+        }
+
+        private BitSet ordinalsOf(final Set<String> roleNames) {
+            final BitSet bits = new BitSet(roles.length);
+            for (String roleName : roleNames) {
+                final Integer ordinal = ordinals.get(roleName);
+                if (ordinal != null) {
+                    bits.set(ordinal);
+                }
+            }
+            return bits;
+        }
+
+        private Set<SecurityRole> rolesOf(final BitSet bits) {
+            final Set<SecurityRole> retVal = new HashSet<>(bits.cardinality());
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                retVal.add(roles[i]);
+            }
+            return retVal;
+        }
+
+        private BitSet rolesWithClusterPermission(final String action) {
+            BitSet bits = clusterPermissions.get(action);
+
+            if (bits == null) {
+                bits = new BitSet(roles.length);
+                for (int i = 0; i < roles.length; i++) {
+                    if (roles[i].impliesClusterPermission(action)) {
+                        bits.set(i);
+                    }
+                }
+
+                if (clusterPermissions.size() < MAX_INDEXED_ACTIONS) {
+                    clusterPermissions.putIfAbsent(action, bits);
+                }
+            }
+
+            return bits;
+        }
+
+        /**
+         * Resolves the index pattern (after user attribute substitution) to concrete indices. Results are cached
+         * per cluster metadata version, so repeated requests of users sharing the same roles (or the same
+         * substituted patterns) do not resolve the same pattern against the cluster state again. The cache is
+         * part of the roles snapshot and thus discarded on every roles reload, entries of older metadata versions
+         * are dropped as soon as a newer version is seen.
+         */
+        private ResolvedIndexPattern resolveIndexPattern(final IndexPattern indexPattern, final User user,
+                                                         final IndexNameExpressionResolver resolver, final ClusterService cs) {
+            final ClusterState state = cs.state();
+            final long version = state.metaData().version();
+            final String unresolved = indexPattern.getUnresolvedIndexPattern(user);
+
+            if (version > resolvedMetaDataVersion) {
+                synchronized (this) {
+                    if (version > resolvedMetaDataVersion) {
+                        resolvedIndexPatterns.invalidateAll();
+                        resolvedMetaDataVersion = version;
+                    }
+                }
+            }
+
+            final Tuple<Long, String> key = new Tuple<>(version, unresolved);
+            ResolvedIndexPattern resolved = resolvedIndexPatterns.getIfPresent(key);
+
+            if (resolved == null) {
+                resolved = new ResolvedIndexPattern(IndexPattern.resolveIndexPattern(unresolved, resolver, state));
+                if (version == resolvedMetaDataVersion) {
+                    resolvedIndexPatterns.put(key, resolved);
+                }
+            }
+
+            return resolved;
+        }
+    }
+
+    /**
+     * Concrete indices an index pattern resolved to (plus the pattern itself for pattern matching)
+     * together with a compiled matcher over them.
+     */
+    private static final class ResolvedIndexPattern {
+        private final String[] concreteIndices;
+        private final CompiledWildcardMatcher matcher;
+
+        private ResolvedIndexPattern(final String[] concreteIndices) {
+            this.concreteIndices = concreteIndices;
+            this.matcher = CompiledWildcardMatcher.compile(Arrays.asList(concreteIndices), false);
+        }
+    }
+
     private static String replaceProperties(String orig, User user) {
 
         if (user == null || orig == null) {
@@ -846,7 +1098,7 @@ public class ConfigModel implements ConfigurationChangeListener {
         }));
     }
 
-    private static boolean impliesTypePerm(Set<IndexPattern> ipatterns, Resolved resolved, User user, String[] actions,
+    private static boolean impliesTypePerm(RoleIndex index, Set<IndexPattern> ipatterns, Resolved resolved, User user, String[] actions,
                                            IndexNameExpressionResolver resolver, ClusterService cs) {
         Set<String> matchingIndex = new HashSet<>(resolved.getAllIndices());
 
@@ -855,14 +1107,14 @@ public class ConfigModel implements ConfigurationChangeListener {
             Set<String> matchingActions = new HashSet<>(Arrays.asList(actions));
             Set<String> matchingTypes = new HashSet<>(resolved.getTypes());
             for (IndexPattern p : ipatterns) {
-                if (WildcardMatcher.matchAny(p.getResolvedIndexPattern(user, resolver, cs), in)) {
+                if (index.resolveIndexPattern(p, user, resolver, cs).matcher.test(in)) {
                     //per resolved index per pattern
                     for (String t : resolved.getTypes()) {
                         for (TypePerm tp : p.typePerms) {
                             if (WildcardMatcher.match(tp.typePattern, t)) {
                                 matchingTypes.remove(t);
-                                for (String a : Arrays.asList(actions)) {
-                                    if (WildcardMatcher.matchAny(tp.perms, a)) {
+                                for (String a : actions) {
+                                    if (tp.permsMatcher.test(a)) {
                                         matchingActions.remove(a);
                                     }
                                 }
@@ -44,17 +44,52 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
 
 import com.amazon.opendistroforelasticsearch.security.resolver.IndexResolverReplacer;
 import com.amazon.opendistroforelasticsearch.security.user.User;
 import com.google.common.io.BaseEncoding;
 
+/**
+ * Encodes objects which travel in thread context headers.
+ * <p>
+ * Two formats exist: plain java serialization (which every node understands) and a compact binary format
+ * for the few types which are sent with (nearly) every transport request. The binary format starts with
+ * a format version byte, java serialization with the stream magic 0xACED, so decoding needs no hint.
+ * Nodes advertise the highest header format version they can decode as node attribute
+ * {@link ConfigConstants#OPENDISTRO_SECURITY_HEADER_FORMAT_NODE_ATTR}, see {@link #supportsBinaryFormat(DiscoveryNode)}.
+ */
 public class Base64Helper {
 
+    public static final int BINARY_FORMAT_VERSION = 1;
+    //the node adds DLS/FLS restrictions to the shard request cache key (see DlsFlsRestrictionsSearchExt)
+    public static final int RESTRICTED_REQUEST_CACHE_VERSION = 3;
+    //advertised to other nodes, 1: binary format, 2: also DLS/FLS policy references (see DlsFlsPolicyCache), 3: see above
+    public static final int HEADER_FORMAT_VERSION = RESTRICTED_REQUEST_CACHE_VERSION;
+
+    private static final byte TYPE_USER = 1;
+    private static final byte TYPE_INET_SOCKET_ADDRESS = 2;
+    private static final byte TYPE_STRING_SET_MAP = 3;
+    private static final byte TYPE_SOURCE_FIELDS_CONTEXT = 4;
+
+    //base64 of the java serialization stream magic 0xACED
+    private static final String JAVA_SERIALIZATION_PREFIX = "rO0";
+
+    /**
+     * Java serialization, readable by every node
+     */
     public static String serializeObject(final Serializable object) {
 
         if (object == null) {
@@ -72,17 +107,52 @@ public class Base64Helper {
         }
     }
 
+    /**
+     * Uses the binary format if requested and available for the type of object, java serialization otherwise
+     */
+    public static String serializeObject(final Serializable object, final boolean binary) {
+
+        if (object == null) {
+            throw new IllegalArgumentException("object must not be null");
+        }
+
+        if (!binary) {
+            return serializeObject(object);
+        }
+
+        try (BytesStreamOutput out = new BytesStreamOutput()) {
+            out.writeByte((byte) BINARY_FORMAT_VERSION);
+            if (!writeBinary(object, out)) {
+                return serializeObject(object);
+            }
+            return BaseEncoding.base64().encode(BytesReference.toBytes(out.bytes()));
+        } catch (final IOException e) {
+            throw new ElasticsearchException(e.toString());
+        }
+    }
+
     public static Serializable deserializeObject(final String string) {
 
         if (string == null) {
             throw new IllegalArgumentException("string must not be null");
         }
 
+        final byte[] bytes;
+
+        try {
+            bytes = BaseEncoding.base64().decode(string);
+        } catch (final Exception e) {
+            throw new ElasticsearchException(e);
+        }
+
+        if (isBinary(bytes)) {
+            return readBinary(bytes);
+        }
+
         SafeObjectInputStream in = null;
 
         try {
-            final byte[] userr = BaseEncoding.base64().decode(string);
-            final ByteArrayInputStream bis = new ByteArrayInputStream(userr); //NOSONAR
+            final ByteArrayInputStream bis = new ByteArrayInputStream(bytes); //NOSONAR
             in = new SafeObjectInputStream(bis); //NOSONAR
             return (Serializable) in.readObject();
         } catch (final Exception e) {
@@ -98,6 +168,155 @@ public class Base64Helper {
         }
     }
 
+    /**
+     * Re-encodes a header value in the binary format as java serialization, for nodes which do not
+     * understand the binary format. Values which are already java serialized are returned as they are.
+     */
+    public static String ensureJavaSerialized(final String string) {
+        if (string == null || string.isEmpty() || string.startsWith(JAVA_SERIALIZATION_PREFIX)) {
+            return string;
+        }
+        return serializeObject(deserializeObject(string));
+    }
+
+    /**
+     * Whether the node is able to decode headers in our binary format
+     */
+    public static boolean supportsBinaryFormat(final DiscoveryNode node) {
+        return headerFormatVersion(node) >= BINARY_FORMAT_VERSION;
+    }
+
+    /**
+     * The header format version advertised by the node, 0 if it only understands java serialization
+     */
+    public static int headerFormatVersion(final DiscoveryNode node) {
+        if (node == null) {
+            return 0;
+        }
+
+        final String version = node.getAttributes().get(ConfigConstants.OPENDISTRO_SECURITY_HEADER_FORMAT_NODE_ATTR);
+
+        if (version == null) {
+            return 0;
+        }
+
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static boolean isBinary(final byte[] bytes) {
+        return bytes.length > 0 && bytes[0] != (byte) 0xAC;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean writeBinary(final Serializable object, final StreamOutput out) throws IOException {
+
+        //subclasses like LdapUser carry more state and stay with java serialization
+        if (object.getClass() == User.class) {
+            final User user = (User) object;
+            out.writeByte(TYPE_USER);
+            out.writeString(user.getName());
+            out.writeStringCollection(user.getRoles());
+            out.writeOptionalString(user.getRequestedTenant());
+            out.writeMap(user.getCustomAttributesMap(), StreamOutput::writeString, StreamOutput::writeString);
+            out.writeBoolean(user.isInjected());
+            return true;
+        }
+
+        if (object instanceof InetSocketAddress) {
+            final InetSocketAddress address = (InetSocketAddress) object;
+            out.writeByte(TYPE_INET_SOCKET_ADDRESS);
+            out.writeString(address.getHostString());
+            out.writeBoolean(!address.isUnresolved());
+            if (!address.isUnresolved()) {
+                out.writeByteArray(address.getAddress().getAddress());
+            }
+            out.writeInt(address.getPort());
+            return true;
+        }
+
+        if (object instanceof SourceFieldsContext) {
+            final SourceFieldsContext sourceFieldsContext = (SourceFieldsContext) object;
+            out.writeByte(TYPE_SOURCE_FIELDS_CONTEXT);
+            out.writeOptionalStringArray(sourceFieldsContext.getIncludes());
+            out.writeOptionalStringArray(sourceFieldsContext.getExcludes());
+            out.writeBoolean(sourceFieldsContext.isFetchSource());
+            return true;
+        }
+
+        if (object instanceof Map && isStringSetMap((Map<?, ?>) object)) {
+            final Map<String, Set<String>> map = (Map<String, Set<String>>) object;
+            out.writeByte(TYPE_STRING_SET_MAP);
+            out.writeVInt(map.size());
+            for (Entry<String, Set<String>> entry : map.entrySet()) {
+                out.writeString(entry.getKey());
+                out.writeStringCollection(entry.getValue());
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    private static Serializable readBinary(final byte[] bytes) {
+
+        try (StreamInput in = StreamInput.wrap(bytes)) {
+
+            final int version = in.readByte();
+
+            if (version > BINARY_FORMAT_VERSION) {
+                throw new ElasticsearchException("Unsupported header format version " + version);
+            }
+
+            final byte type = in.readByte();
+
+            switch (type) {
+            case TYPE_USER:
+                final User user = new User(in.readString(), in.readList(StreamInput::readString), null);
+                user.setRequestedTenant(in.readOptionalString());
+                user.addAttributes(in.readMap(StreamInput::readString, StreamInput::readString));
+                user.setInjected(in.readBoolean());
+                return user;
+            case TYPE_INET_SOCKET_ADDRESS:
+                final String host = in.readString();
+                final byte[] address = in.readBoolean() ? in.readByteArray() : null;
+                final int port = in.readInt();
+                return address == null ? InetSocketAddress.createUnresolved(host, port)
+                        : new InetSocketAddress(InetAddress.getByAddress(host, address), port);
+            case TYPE_SOURCE_FIELDS_CONTEXT:
+                return new SourceFieldsContext(in.readOptionalStringArray(), in.readOptionalStringArray(), in.readBoolean());
+            case TYPE_STRING_SET_MAP:
+                final int size = in.readVInt();
+                final HashMap<String, Set<String>> map = new HashMap<>(size);
+                for (int i = 0; i < size; i++) {
+                    map.put(in.readString(), new HashSet<>(in.readList(StreamInput::readString)));
+                }
+                return map;
+            default:
+                throw new ElasticsearchException("Unknown header type " + type);
+            }
+        } catch (final IOException e) {
+            throw new ElasticsearchException(e);
+        }
+    }
+
+    private static boolean isStringSetMap(final Map<?, ?> map) {
+        for (Entry<?, ?> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof Set)) {
+                return false;
+            }
+            for (Object value : (Set<?>) entry.getValue()) {
+                if (!(value instanceof String)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     private final static class SafeObjectInputStream extends ObjectInputStream {
 
         private static final List<String> SAFE_CLASSES = new ArrayList<>();
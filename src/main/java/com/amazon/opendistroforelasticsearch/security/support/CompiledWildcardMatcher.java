@@ -0,0 +1,478 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.util.automaton.Automata;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.Operations;
+import org.apache.lucene.util.automaton.TooComplexToDeterminizeException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A set of patterns (same syntax as {@link WildcardMatcher}) compiled once for repeated matching.
+ * <p>
+ * Literal patterns are kept in a hash set, all '*' and '?' patterns are unified into one deterministic
+ * automaton and only /regex/ patterns remain as a (precompiled) residual list. Matching a candidate
+ * therefore costs a hash lookup plus a single automaton run, independent of the number of patterns.
+ * <p>
+ * Matching patterns are reported in the order of the given pattern collection, like {@link WildcardMatcher} does,
+ * because callers like field masking use the first matching pattern.
+ * <p>
+ * Instances are immutable and thread safe. Use {@link #of(Collection)} for pattern sets which are
+ * matched over and over again (the compiled form is cached by the patterns and their order) and
+ * {@link #compile(Collection, boolean)} if the caller holds on to the result anyway. Patterns which come from
+ * requests must not be cached, they are arbitrary and would evict the cached patterns of the configuration.
+ */
+public final class CompiledWildcardMatcher {
+
+    private static final int MAX_CACHED_MATCHERS = 4096;
+
+    private static final Cache<List<String>, CompiledWildcardMatcher> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_MATCHERS).build();
+    private static final Cache<List<String>, CompiledWildcardMatcher> CACHE_IGNORE_CASE = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_MATCHERS).build();
+
+    public static final CompiledWildcardMatcher NONE = new CompiledWildcardMatcher(ImmutableSet.of(), false);
+
+    //distinct patterns in their original order
+    private final ImmutableSet<String> patterns;
+    private final boolean ignoreCase;
+    private final boolean matchAll;
+    //(lower cased) literal to the indices of the patterns which are equal to it
+    private final Map<String, int[]> literals = new HashMap<>();
+    private final List<String> globs = new ArrayList<>();
+    private final List<Integer> globIndices = new ArrayList<>();
+    private final List<Pattern> regexes = new ArrayList<>();
+    private final List<Integer> regexIndices = new ArrayList<>();
+    private final CharacterRunAutomaton globAutomaton;
+    //only needed to tell which pattern matched, so build on demand
+    private volatile CharacterRunAutomaton[] globAutomata;
+    //only needed by callers which prune a tree of candidates, so build on demand
+    private volatile Optional<CharacterRunAutomaton> prefixAutomaton;
+
+    private CompiledWildcardMatcher(final ImmutableSet<String> patterns, final boolean ignoreCase) {
+        this.patterns = patterns;
+        this.ignoreCase = ignoreCase;
+
+        boolean matchAll = false;
+        final List<Automaton> automata = new ArrayList<>();
+        int index = 0;
+
+        for (String pattern : patterns) {
+            final String p = ignoreCase ? pattern.toLowerCase(Locale.ROOT) : pattern;
+
+            if (p.startsWith("/") && p.endsWith("/")) {
+                regexes.add(Pattern.compile("^" + p.substring(1, p.length() - 1) + "$"));
+                regexIndices.add(index);
+            } else if (p.length() == 1 && p.charAt(0) == '*') {
+                matchAll = true;
+                globs.add(pattern);
+                globIndices.add(index);
+                automata.add(Automata.makeAnyString());
+            } else if (p.indexOf('?') == -1 && p.indexOf('*') == -1) {
+                final int[] indices = literals.get(p);
+                final int[] newIndices = indices == null ? new int[1] : Arrays.copyOf(indices, indices.length + 1);
+                newIndices[newIndices.length - 1] = index;
+                literals.put(p, newIndices);
+            } else {
+                globs.add(pattern);
+                globIndices.add(index);
+                automata.add(toAutomaton(p));
+            }
+
+            index++;
+        }
+
+        this.matchAll = matchAll;
+        this.globAutomaton = automata.isEmpty() || matchAll ? null : unionOf(automata);
+    }
+
+    /**
+     * Returns the compiled form of the given patterns, cached by the distinct patterns in the order of the collection.
+     */
+    public static CompiledWildcardMatcher of(final Collection<String> patterns) {
+        return of(patterns, false);
+    }
+
+    public static CompiledWildcardMatcher of(final Collection<String> patterns, final boolean ignoreCase) {
+        if (patterns == null || patterns.isEmpty()) {
+            return NONE;
+        }
+
+        final ImmutableSet<String> distinct = distinct(patterns);
+
+        try {
+            return (ignoreCase ? CACHE_IGNORE_CASE : CACHE).get(distinct.asList(), () -> new CompiledWildcardMatcher(distinct, ignoreCase));
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("Unable to compile patterns " + patterns, e.getCause());
+        }
+    }
+
+    /**
+     * Compiles the given patterns without consulting the cache.
+     */
+    public static CompiledWildcardMatcher compile(final Collection<String> patterns, final boolean ignoreCase) {
+        if (patterns == null || patterns.isEmpty()) {
+            return NONE;
+        }
+        return new CompiledWildcardMatcher(distinct(patterns), ignoreCase);
+    }
+
+    private static ImmutableSet<String> distinct(final Collection<String> patterns) {
+        final ImmutableSet.Builder<String> distinct = ImmutableSet.builder();
+        for (String pattern : patterns) {
+            if (pattern != null) {
+                distinct.add(pattern);
+            }
+        }
+        return distinct.build();
+    }
+
+    /**
+     * returns true if the candidate matches at least one pattern
+     */
+    public boolean test(String candidate) {
+
+        if (candidate == null) {
+            return false;
+        }
+
+        if (matchAll) {
+            return true;
+        }
+
+        if (ignoreCase) {
+            candidate = candidate.toLowerCase(Locale.ROOT);
+        }
+
+        if (literals.containsKey(candidate)) {
+            return true;
+        }
+
+        if (globAutomaton != null && globAutomaton.run(candidate)) {
+            return true;
+        }
+
+        if (globAutomaton == null && !globs.isEmpty()) {
+            //union was too complex to determinize
+            for (CharacterRunAutomaton a : globAutomata()) {
+                if (a.run(candidate)) {
+                    return true;
+                }
+            }
+        }
+
+        for (int i = 0; i < regexes.size(); i++) {
+            if (regexes.get(i).matcher(candidate).matches()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * returns false only if no candidate which starts with the given prefix can match a pattern.
+     * /regex/ patterns are not analyzed and allow every prefix.
+     */
+    public boolean matchesPrefix(String prefix) {
+
+        if (prefix == null) {
+            return false;
+        }
+
+        if (matchAll || !regexes.isEmpty()) {
+            return true;
+        }
+
+        if (patterns.isEmpty()) {
+            return false;
+        }
+
+        if (ignoreCase) {
+            prefix = prefix.toLowerCase(Locale.ROOT);
+        }
+
+        final Optional<CharacterRunAutomaton> automaton = prefixAutomaton();
+
+        if (!automaton.isPresent()) {
+            //too complex to determinize
+            return true;
+        }
+
+        final CharacterRunAutomaton a = automaton.get();
+        int state = 0;
+
+        for (int i = 0; i < prefix.length();) {
+            final int c = prefix.codePointAt(i);
+            state = a.step(state, c);
+            if (state == -1) {
+                return false;
+            }
+            i += Character.charCount(c);
+        }
+
+        return true;
+    }
+
+    /**
+     * returns true if at least one candidate matches at least one pattern
+     */
+    public boolean matchAny(final Collection<String> candidates) {
+        for (String candidate : candidates) {
+            if (test(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * returns true if at least one candidate matches at least one pattern
+     */
+    public boolean matchAny(final String[] candidates) {
+        for (int i = 0; i < candidates.length; i++) {
+            if (test(candidates[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * return true if all candidates find a matching pattern
+     */
+    public boolean matchAll(final String[] candidates) {
+        for (int i = 0; i < candidates.length; i++) {
+            if (!test(candidates[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * returns all candidates which match at least one pattern
+     */
+    public List<String> getMatchAny(final Collection<String> candidates) {
+        final List<String> matches = new ArrayList<>(candidates.size());
+        for (String candidate : candidates) {
+            if (test(candidate)) {
+                matches.add(candidate);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * returns all (original) patterns which match the candidate, in the order of the patterns
+     */
+    public List<String> getAllMatchingPatterns(final String candidate) {
+
+        if (candidate == null || patterns.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final BitSet matches = new BitSet(patterns.size());
+        addMatchingPatterns(candidate, matches);
+        return toPatterns(matches);
+    }
+
+    /**
+     * returns all (original) patterns which match at least one of the candidates, in the order of the patterns
+     */
+    public List<String> getAllMatchingPatterns(final Collection<String> candidates) {
+
+        if (patterns.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final BitSet matches = new BitSet(patterns.size());
+        for (String candidate : candidates) {
+            if (candidate != null) {
+                addMatchingPatterns(candidate, matches);
+            }
+        }
+        return toPatterns(matches);
+    }
+
+    public Optional<String> getFirstMatchingPattern(final String candidate) {
+        if (!test(candidate)) {
+            return Optional.empty();
+        }
+        final List<String> matches = getAllMatchingPatterns(candidate);
+        return matches.isEmpty() ? Optional.empty() : Optional.of(matches.get(0));
+    }
+
+    public Set<String> getPatterns() {
+        return patterns;
+    }
+
+    public boolean isEmpty() {
+        return patterns.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledWildcardMatcher [patterns=" + patterns + ", ignoreCase=" + ignoreCase + "]";
+    }
+
+    private void addMatchingPatterns(String candidate, final BitSet matches) {
+
+        if (ignoreCase) {
+            candidate = candidate.toLowerCase(Locale.ROOT);
+        }
+
+        final int[] literalIndices = literals.get(candidate);
+
+        if (literalIndices != null) {
+            for (int index : literalIndices) {
+                matches.set(index);
+            }
+        }
+
+        if (!globs.isEmpty() && (matchAll || globAutomaton == null || globAutomaton.run(candidate))) {
+            final CharacterRunAutomaton[] automata = globAutomata();
+            for (int i = 0; i < automata.length; i++) {
+                if (automata[i].run(candidate)) {
+                    matches.set(globIndices.get(i));
+                }
+            }
+        }
+
+        for (int i = 0; i < regexes.size(); i++) {
+            if (regexes.get(i).matcher(candidate).matches()) {
+                matches.set(regexIndices.get(i));
+            }
+        }
+    }
+
+    private List<String> toPatterns(final BitSet matches) {
+
+        if (matches.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<String> patternList = patterns.asList();
+        final List<String> result = new ArrayList<>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            result.add(patternList.get(i));
+        }
+        return result;
+    }
+
+    private CharacterRunAutomaton[] globAutomata() {
+        CharacterRunAutomaton[] automata = globAutomata;
+        if (automata == null) {
+            automata = new CharacterRunAutomaton[globs.size()];
+            for (int i = 0; i < automata.length; i++) {
+                final String glob = ignoreCase ? globs.get(i).toLowerCase(Locale.ROOT) : globs.get(i);
+                automata[i] = new CharacterRunAutomaton(toAutomaton(glob));
+            }
+            globAutomata = automata;
+        }
+        return automata;
+    }
+
+    private Optional<CharacterRunAutomaton> prefixAutomaton() {
+        Optional<CharacterRunAutomaton> automaton = prefixAutomaton;
+        if (automaton == null) {
+            final List<Automaton> automata = new ArrayList<>(literals.size() + globs.size());
+            for (String literal : literals.keySet()) {
+                automata.add(Automata.makeString(literal));
+            }
+            for (String glob : globs) {
+                automata.add(toAutomaton(ignoreCase ? glob.toLowerCase(Locale.ROOT) : glob));
+            }
+            try {
+                //without dead states every state reached by a prefix can still lead to a match
+                final Automaton deterministic = Operations.removeDeadStates(
+                        Operations.determinize(Operations.union(automata), Operations.DEFAULT_MAX_DETERMINIZED_STATES));
+                automaton = Optional.of(new CharacterRunAutomaton(deterministic));
+            } catch (TooComplexToDeterminizeException e) {
+                automaton = Optional.empty();
+            }
+            prefixAutomaton = automaton;
+        }
+        return automaton;
+    }
+
+    private static CharacterRunAutomaton unionOf(final List<Automaton> automata) {
+        try {
+            return new CharacterRunAutomaton(Operations.union(automata), Operations.DEFAULT_MAX_DETERMINIZED_STATES);
+        } catch (TooComplexToDeterminizeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * '*' matches any (also empty) sequence of characters, '?' matches exactly one character.
+     * There is no escape character.
+     * <p>
+     * Like {@link WildcardMatcher}, which does not support "*?", a '*' directly followed by a '?' is ignored,
+     * so "a*?" matches "ab", but not "abb".
+     */
+    private static Automaton toAutomaton(final String glob) {
+        final List<Automaton> parts = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder();
+
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    parts.add(Automata.makeString(literal.toString()));
+                    literal.setLength(0);
+                }
+                if (c == '?') {
+                    parts.add(Automata.makeAnyChar());
+                } else {
+                    while (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        i++;
+                    }
+                    if (i + 1 == glob.length() || glob.charAt(i + 1) != '?') {
+                        parts.add(Automata.makeAnyString());
+                    }
+                }
+            } else {
+                literal.append(c);
+            }
+        }
+
+        if (literal.length() > 0) {
+            parts.add(Automata.makeString(literal.toString()));
+        }
+
+        return Operations.concatenate(parts);
+    }
+}
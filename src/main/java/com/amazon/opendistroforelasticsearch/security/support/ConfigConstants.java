@@ -58,6 +58,12 @@ public class ConfigConstants {
 
     public static final String OPENDISTRO_SECURITY_MASKED_FIELD_CCS = OPENDISTRO_SECURITY_CONFIG_PREFIX+"masked_fields_ccs";
 
+    //transient: DLS/FLS policies referenced by the headers of a request, see DlsFlsPolicyCache
+    public static final String OPENDISTRO_SECURITY_DLS_FLS_POLICIES = OPENDISTRO_SECURITY_CONFIG_PREFIX+"dls_fls_policies";
+
+    //highest binary header format version (see Base64Helper) a node is able to decode
+    public static final String OPENDISTRO_SECURITY_HEADER_FORMAT_NODE_ATTR = "opendistro_security_header_format";
+
     public static final String OPENDISTRO_SECURITY_CONF_REQUEST_HEADER = OPENDISTRO_SECURITY_CONFIG_PREFIX+"conf_request";
 
     public static final String OPENDISTRO_SECURITY_REMOTE_ADDRESS = OPENDISTRO_SECURITY_CONFIG_PREFIX+"remote_address";
@@ -139,6 +145,8 @@ public class ConfigConstants {
     public static final String OPENDISTRO_SECURITY_AUDIT_CONFIG_ENDPOINTS = "opendistro_security.audit.endpoints";
     public static final String OPENDISTRO_SECURITY_AUDIT_THREADPOOL_SIZE = "opendistro_security.audit.threadpool.size";
     public static final String OPENDISTRO_SECURITY_AUDIT_THREADPOOL_MAX_QUEUE_LEN = "opendistro_security.audit.threadpool.max_queue_len";
+    public static final String OPENDISTRO_SECURITY_AUDIT_THREADPOOL_BACKPRESSURE = "opendistro_security.audit.threadpool.backpressure";
+    public static final String OPENDISTRO_SECURITY_AUDIT_THREADPOOL_BLOCK_TIMEOUT_MS = "opendistro_security.audit.threadpool.block_timeout_ms";
     public static final String OPENDISTRO_SECURITY_AUDIT_LOG_REQUEST_BODY = "opendistro_security.audit.log_request_body";
     public static final String OPENDISTRO_SECURITY_AUDIT_RESOLVE_INDICES = "opendistro_security.audit.resolve_indices";
     public static final String OPENDISTRO_SECURITY_AUDIT_ENABLE_REST = "opendistro_security.audit.enable_rest";
@@ -151,6 +159,10 @@ public class ConfigConstants {
     public static final boolean OPENDISTRO_SECURITY_AUDIT_SSL_VERIFY_HOSTNAMES_DEFAULT = true;
     public static final boolean OPENDISTRO_SECURITY_AUDIT_SSL_ENABLE_SSL_CLIENT_AUTH_DEFAULT = false;
     public static final String OPENDISTRO_SECURITY_AUDIT_EXCLUDE_SENSITIVE_HEADERS = "opendistro_security.audit.exclude_sensitive_headers";
+    public static final String OPENDISTRO_SECURITY_AUDIT_SAMPLING = "opendistro_security.audit.sampling";
+    public static final String OPENDISTRO_SECURITY_AUDIT_AGGREGATION_CATEGORIES = "opendistro_security.audit.aggregation.categories";
+    public static final String OPENDISTRO_SECURITY_AUDIT_AGGREGATION_WINDOW_MS = "opendistro_security.audit.aggregation.window_ms";
+    public static final String OPENDISTRO_SECURITY_AUDIT_AGGREGATION_MAX_KEYS = "opendistro_security.audit.aggregation.max_keys";
     
     public static final String OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT_PREFIX = "opendistro_security.audit.config.";
 
@@ -182,6 +194,17 @@ public class ConfigConstants {
     public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_SSL_VERIFY = "webhook.ssl.verify";
     public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_PEMTRUSTEDCAS_FILEPATH = "webhook.ssl.pemtrustedcas_filepath";
     public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_PEMTRUSTEDCAS_CONTENT = "webhook.ssl.pemtrustedcas_content";
+    public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_ENABLED = "webhook.batch.enabled";
+    public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_FORMAT = "webhook.batch.format";
+    public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_MAX_ACTIONS = "webhook.batch.max_actions";
+    public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_MAX_BYTES = "webhook.batch.max_bytes";
+    public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_LINGER_MS = "webhook.batch.linger_ms";
+    public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_BATCH_QUEUE_SIZE = "webhook.batch.queue_size";
+    public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_MAX_IN_FLIGHT = "webhook.max_in_flight";
+    public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_RETRY_MAX_RETRIES = "webhook.retry.max_retries";
+    public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_RETRY_BACKOFF_MS = "webhook.retry.backoff_ms";
+    public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_RETRY_MAX_BACKOFF_MS = "webhook.retry.max_backoff_ms";
+    public static final String OPENDISTRO_SECURITY_AUDIT_WEBHOOK_GZIP = "webhook.gzip";
     
     // Log4j
     public static final String OPENDISTRO_SECURITY_AUDIT_LOG4J_LOGGER_NAME = "log4j.logger_name";
@@ -190,6 +213,22 @@ public class ConfigConstants {
     //retry
     public static final String OPENDISTRO_SECURITY_AUDIT_RETRY_COUNT = "opendistro_security.audit.config.retry_count";
     public static final String OPENDISTRO_SECURITY_AUDIT_RETRY_DELAY_MS = "opendistro_security.audit.config.retry_delay_ms";
+    public static final String OPENDISTRO_SECURITY_AUDIT_RETRY_MAX_DELAY_MS = "opendistro_security.audit.config.retry_max_delay_ms";
+    public static final String OPENDISTRO_SECURITY_AUDIT_RETRY_MAX_PENDING = "opendistro_security.audit.config.retry_max_pending";
+    public static final String OPENDISTRO_SECURITY_AUDIT_RETRY_THREADPOOL_SIZE = "opendistro_security.audit.config.retry_threadpool_size";
+
+    // Internal / External ES bulk mode
+    public static final String OPENDISTRO_SECURITY_AUDIT_BULK_ENABLED = "bulk.enabled";
+    public static final String OPENDISTRO_SECURITY_AUDIT_BULK_MAX_ACTIONS = "bulk.max_actions";
+    public static final String OPENDISTRO_SECURITY_AUDIT_BULK_MAX_BYTES = "bulk.max_bytes";
+    public static final String OPENDISTRO_SECURITY_AUDIT_BULK_LINGER_MS = "bulk.linger_ms";
+    public static final String OPENDISTRO_SECURITY_AUDIT_BULK_MAX_IN_FLIGHT = "bulk.max_in_flight";
+    public static final String OPENDISTRO_SECURITY_AUDIT_BULK_QUEUE_SIZE = "bulk.queue_size";
+    public static final String OPENDISTRO_SECURITY_AUDIT_BULK_SPOOL_PATH = "bulk.spool.path";
+    public static final String OPENDISTRO_SECURITY_AUDIT_BULK_SPOOL_SIZE = "bulk.spool.size";
+    public static final String OPENDISTRO_SECURITY_AUDIT_BULK_RETRY_MAX_RETRIES = "bulk.retry.max_retries";
+    public static final String OPENDISTRO_SECURITY_AUDIT_BULK_RETRY_BACKOFF_MS = "bulk.retry.backoff_ms";
+    public static final String OPENDISTRO_SECURITY_AUDIT_BULK_RETRY_MAX_BACKOFF_MS = "bulk.retry.max_backoff_ms";
 
         
     public static final String OPENDISTRO_SECURITY_KERBEROS_KRB5_FILEPATH = "opendistro_security.kerberos.krb5_filepath";
@@ -201,6 +240,17 @@ public class ConfigConstants {
     public static final String OPENDISTRO_SECURITY_NODES_DN = "opendistro_security.nodes_dn";
     public static final String OPENDISTRO_SECURITY_DISABLED = "opendistro_security.disabled";
     public static final String OPENDISTRO_SECURITY_CACHE_TTL_MINUTES = "opendistro_security.cache.ttl_minutes";
+    public static final String OPENDISTRO_SECURITY_CACHE_SOFT_TTL_MINUTES = "opendistro_security.cache.soft_ttl_minutes";
+    public static final String OPENDISTRO_SECURITY_CACHE_REFRESH_THREADS = "opendistro_security.cache.refresh_threads";
+    public static final String OPENDISTRO_SECURITY_CACHE_REFRESH_QUEUE_SIZE = "opendistro_security.cache.refresh_queue_size";
+    public static final String OPENDISTRO_SECURITY_CACHE_SHARED_TYPE = "opendistro_security.cache.shared.type";
+    public static final String OPENDISTRO_SECURITY_CACHE_SHARED_CREDENTIALS_KEY = "opendistro_security.cache.shared.credentials_key";
+    //passes the credentials of a request to all rest auth domains at once, so a password is also sent to the backends of
+    //domains with a higher order, which would not have seen it if a domain before authenticated the user
+    public static final String OPENDISTRO_SECURITY_AUTHC_PARALLEL_DOMAINS_ENABLED = "opendistro_security.authc.parallel_domains.enabled";
+    public static final String OPENDISTRO_SECURITY_AUTHC_PARALLEL_DOMAINS_TIMEOUT_MS = "opendistro_security.authc.parallel_domains.timeout_ms";
+    public static final String OPENDISTRO_SECURITY_AUTHC_PARALLEL_DOMAINS_THREADS = "opendistro_security.authc.parallel_domains.threads";
+    public static final String OPENDISTRO_SECURITY_AUTHC_PARALLEL_DOMAINS_QUEUE_SIZE = "opendistro_security.authc.parallel_domains.queue_size";
     public static final String OPENDISTRO_SECURITY_ALLOW_UNSAFE_DEMOCERTIFICATES = "opendistro_security.allow_unsafe_democertificates";
     public static final String OPENDISTRO_SECURITY_ALLOW_DEFAULT_INIT_SECURITYINDEX = "opendistro_security.allow_default_init_securityindex";
     public static final String OPENDISTRO_SECURITY_BACKGROUND_INIT_IF_SECURITYINDEX_NOT_EXIST = "opendistro_security.background_init_if_securityindex_not_exist";
@@ -212,6 +262,8 @@ public class ConfigConstants {
     public static final String OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_READ_WATCHED_FIELDS = "opendistro_security.compliance.history.read.watched_fields";
     public static final String OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_WATCHED_INDICES = "opendistro_security.compliance.history.write.watched_indices";
     public static final String OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_LOG_DIFFS = "opendistro_security.compliance.history.write.log_diffs";
+    public static final String OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_DIFF_THREADPOOL_SIZE = "opendistro_security.compliance.history.write.diff.threadpool.size";
+    public static final String OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_DIFF_THREADPOOL_MAX_QUEUE_LEN = "opendistro_security.compliance.history.write.diff.threadpool.max_queue_len";
     public static final String OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_READ_IGNORE_USERS = "opendistro_security.compliance.history.read.ignore_users";
     public static final String OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_IGNORE_USERS = "opendistro_security.compliance.history.write.ignore_users";
     public static final String OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_EXTERNAL_CONFIG_ENABLED  = "opendistro_security.compliance.history.external_config_enabled";
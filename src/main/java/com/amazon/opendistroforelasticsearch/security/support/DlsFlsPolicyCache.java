@@ -0,0 +1,378 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.support;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportRequest;
+import org.elasticsearch.transport.TransportRequestOptions;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportResponseHandler;
+import org.elasticsearch.transport.TransportService;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+
+/**
+ * Node local cache of serialized DLS/FLS/masked fields policies, keyed by content hash.
+ * <p>
+ * Instead of the full (potentially multi kilobyte) policy the coordinating node only sends a reference
+ * <code>@&lt;version&gt;:&lt;node id&gt;:&lt;sha256&gt;</code> with every shard request. A node which sees a
+ * reference for the first time fetches the policy once from the referenced node, asynchronously before the
+ * request is dispatched to its handler (see {@link #resolveReferences(ThreadContext, ActionListener)}), and keeps it here.
+ * Nodes which do not advertise {@link #REFERENCE_FORMAT_VERSION} (see {@link Base64Helper#headerFormatVersion(DiscoveryNode)})
+ * get the full policy, see {@link #resolve(ThreadContext, String)}.
+ * <p>
+ * The policies referenced by a request are pinned in its thread context, so they are neither evicted nor
+ * fetched again while the request is processed.
+ */
+public final class DlsFlsPolicyCache {
+
+    public static final int REFERENCE_FORMAT_VERSION = 2;
+    public static final String FETCH_ACTION_NAME = "internal:opendistro/security/dlsfls/policy";
+    public static final List<String> POLICY_HEADERS = ImmutableList.of(
+            ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER,
+            ConfigConstants.OPENDISTRO_SECURITY_FLS_FIELDS_HEADER,
+            ConfigConstants.OPENDISTRO_SECURITY_MASKED_FIELD_HEADER);
+
+    /**
+     * Fetches a policy from the node which created the reference
+     */
+    public interface PolicyFetcher {
+
+        /**
+         * @param listener gets the serialized policy or null if the node does not know it
+         */
+        void fetch(String nodeId, String hash, ActionListener<String> listener);
+    }
+
+    private static final Logger log = LogManager.getLogger(DlsFlsPolicyCache.class);
+    //'@' is not part of the base64 alphabet, so references can not be confused with serialized values
+    private static final String REFERENCE_PREFIX = "@" + REFERENCE_FORMAT_VERSION + ":";
+    private static final long MAX_CACHED_CHARS = 32 * 1024 * 1024;
+    private static final TimeValue FETCH_TIMEOUT = TimeValue.timeValueSeconds(10);
+
+    private final Cache<String, String> policies = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHED_CHARS)
+            .weigher((String hash, String policy) -> policy.length())
+            .build();
+
+    //policies pinned by requests stay here as long as a thread context references them
+    private final Cache<String, String> pinnedPolicies = CacheBuilder.newBuilder().weakValues().build();
+
+    private volatile PolicyFetcher fetcher;
+
+    public DlsFlsPolicyCache() {
+        this(null);
+    }
+
+    public DlsFlsPolicyCache(final PolicyFetcher fetcher) {
+        super();
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Serves the policies of this node to other nodes and fetches policies from them
+     */
+    public void init(final TransportService transportService, final ClusterService clusterService) {
+        transportService.registerRequestHandler(FETCH_ACTION_NAME, FetchRequest::new, ThreadPool.Names.SAME,
+                (request, channel) -> channel.sendResponse(new FetchResponse(lookup(request.hash))));
+        this.fetcher = (nodeId, hash, listener) -> fetch(transportService, clusterService, nodeId, hash, listener);
+    }
+
+    /**
+     * Caches the serialized policy, pins it for the current request and returns a reference to it which other nodes can resolve
+     */
+    public String toReference(final ThreadContext threadContext, final String localNodeId, final String serializedPolicy) {
+        final String hash = hash(serializedPolicy);
+        pinned(threadContext).put(hash, cache(hash, serializedPolicy));
+        return REFERENCE_PREFIX + localNodeId + ":" + hash;
+    }
+
+    /**
+     * Pins the policies referenced by the headers of the current request. Policies which are not cached are fetched
+     * from the referenced node without blocking the calling thread.
+     *
+     * @param listener called with the restored thread context once all policies are pinned, only if some had to be fetched
+     * @return true if all referenced policies were pinned right away
+     */
+    public boolean resolveReferences(final ThreadContext threadContext, final ActionListener<Void> listener) {
+
+        Map<String, String> missing = null;
+
+        for (String header : POLICY_HEADERS) {
+            final String headerValue = threadContext.getHeader(header);
+
+            if (!isReference(headerValue)) {
+                continue;
+            }
+
+            final String hash = hashOf(headerValue);
+            final String policy = lookup(hash);
+
+            if (policy != null) {
+                pinned(threadContext).put(hash, policy);
+            } else {
+                if (missing == null) {
+                    missing = new HashMap<>();
+                }
+                missing.put(hash, nodeIdOf(headerValue));
+            }
+        }
+
+        if (missing == null) {
+            return true;
+        }
+
+        final PolicyFetcher fetcher = this.fetcher;
+
+        if (fetcher == null) {
+            throw new ElasticsearchSecurityException("Unable to resolve DLS/FLS policies " + missing.keySet() + " because this node can not fetch them");
+        }
+
+        final Map<String, String> pinned = pinned(threadContext);
+        final Supplier<ThreadContext.StoredContext> requestContext = threadContext.newRestorableContext(false);
+        final AtomicInteger pending = new AtomicInteger(missing.size());
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        //must not carry the headers of the request we are about to serve
+        try (ThreadContext.StoredContext ctx = threadContext.stashContext()) {
+            for (Map.Entry<String, String> entry : missing.entrySet()) {
+                final String hash = entry.getKey();
+                final String nodeId = entry.getValue();
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Fetch DLS/FLS policy {} from {}", hash, nodeId);
+                }
+
+                fetcher.fetch(nodeId, hash, new ActionListener<String>() {
+
+                    @Override
+                    public void onResponse(final String policy) {
+
+                        if (policy == null || !hash.equals(hash(policy))) {
+                            onFailure(new ElasticsearchSecurityException("DLS/FLS policy " + hash + " is not available on node " + nodeId));
+                            return;
+                        }
+
+                        pinned.put(hash, cache(hash, policy));
+
+                        if (pending.decrementAndGet() == 0 && !failed.get()) {
+                            try (ThreadContext.StoredContext ctx = requestContext.get()) {
+                                listener.onResponse(null);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(final Exception e) {
+                        if (failed.compareAndSet(false, true)) {
+                            try (ThreadContext.StoredContext ctx = requestContext.get()) {
+                                listener.onFailure(e);
+                            }
+                        }
+                    }
+                });
+            }
+        }
+
+        return false;
+    }
+
+    public static boolean isReference(final String headerValue) {
+        return headerValue != null && headerValue.startsWith(REFERENCE_PREFIX);
+    }
+
+    /**
+     * Returns the serialized policy for a reference which is pinned for the current request,
+     * other values are returned as they are
+     */
+    public static String resolve(final ThreadContext threadContext, final String headerValue) {
+        return resolve(threadContext.<Map<String, String>>getTransient(ConfigConstants.OPENDISTRO_SECURITY_DLS_FLS_POLICIES), headerValue);
+    }
+
+    /**
+     * @param pinnedPolicies the policies pinned for a request, may be null
+     */
+    public static String resolve(final Map<String, String> pinnedPolicies, final String headerValue) {
+
+        if (!isReference(headerValue)) {
+            return headerValue;
+        }
+
+        final String policy = pinnedPolicies == null ? null : pinnedPolicies.get(hashOf(headerValue));
+
+        if (policy == null) {
+            throw new ElasticsearchSecurityException("DLS/FLS policy " + headerValue + " is not resolved for this request");
+        }
+
+        return policy;
+    }
+
+    /**
+     * Whether the header value (reference or serialized policy) describes the given policy
+     */
+    public static boolean matches(final ThreadContext threadContext, final String headerValue, final Serializable policy) {
+        if (isReference(headerValue) && headerValue.endsWith(":" + hash(Base64Helper.serializeObject(policy, true)))) {
+            return true;
+        }
+        return policy.equals(Base64Helper.deserializeObject(resolve(threadContext, headerValue)));
+    }
+
+    private String lookup(final String hash) {
+        final String policy = policies.getIfPresent(hash);
+        return policy != null ? policy : pinnedPolicies.getIfPresent(hash);
+    }
+
+    /**
+     * @return the instance of the policy which is pinned, so that it is kept as long as a request references it
+     */
+    private String cache(final String hash, final String policy) {
+        String cached = pinnedPolicies.asMap().putIfAbsent(hash, policy);
+        if (cached == null) {
+            cached = policy;
+        }
+        policies.put(hash, cached);
+        return cached;
+    }
+
+    private static Map<String, String> pinned(final ThreadContext threadContext) {
+        Map<String, String> pinned = threadContext.getTransient(ConfigConstants.OPENDISTRO_SECURITY_DLS_FLS_POLICIES);
+        if (pinned == null) {
+            pinned = new ConcurrentHashMap<>(4);
+            threadContext.putTransient(ConfigConstants.OPENDISTRO_SECURITY_DLS_FLS_POLICIES, pinned);
+        }
+        return pinned;
+    }
+
+    private static void fetch(final TransportService transportService, final ClusterService clusterService, final String nodeId,
+                              final String hash, final ActionListener<String> listener) {
+
+        final DiscoveryNode node = clusterService.state().nodes().get(nodeId);
+
+        if (node == null) {
+            listener.onFailure(new ElasticsearchSecurityException("Unable to resolve DLS/FLS policy " + hash + " because node " + nodeId + " is not known"));
+            return;
+        }
+
+        transportService.sendRequest(node, FETCH_ACTION_NAME, new FetchRequest(hash),
+                TransportRequestOptions.builder().withTimeout(FETCH_TIMEOUT).build(),
+                new TransportResponseHandler<FetchResponse>() {
+
+                    @Override
+                    public FetchResponse read(StreamInput in) throws IOException {
+                        return new FetchResponse(in);
+                    }
+
+                    @Override
+                    public void handleResponse(FetchResponse response) {
+                        listener.onResponse(response.policy);
+                    }
+
+                    @Override
+                    public void handleException(TransportException exp) {
+                        listener.onFailure(exp);
+                    }
+
+                    @Override
+                    public String executor() {
+                        return ThreadPool.Names.SAME;
+                    }
+                });
+    }
+
+    private static String nodeIdOf(final String reference) {
+        return reference.substring(REFERENCE_PREFIX.length(), reference.lastIndexOf(':'));
+    }
+
+    private static String hashOf(final String reference) {
+        return reference.substring(reference.lastIndexOf(':') + 1);
+    }
+
+    private static String hash(final String serializedPolicy) {
+        return Hashing.sha256().hashString(serializedPolicy, StandardCharsets.UTF_8).toString();
+    }
+
+    public static class FetchRequest extends TransportRequest {
+
+        private String hash;
+
+        public FetchRequest() {
+            super();
+        }
+
+        public FetchRequest(final String hash) {
+            super();
+            this.hash = hash;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            super.readFrom(in);
+            hash = in.readString();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeString(hash);
+        }
+    }
+
+    public static class FetchResponse extends TransportResponse {
+
+        private final String policy;
+
+        public FetchResponse(final String policy) {
+            super();
+            this.policy = policy;
+        }
+
+        public FetchResponse(final StreamInput in) throws IOException {
+            super(in);
+            policy = in.readOptionalString();
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            super.writeTo(out);
+            out.writeOptionalString(policy);
+        }
+    }
+}
@@ -75,7 +75,7 @@ public class HeaderHelper {
         final String objectAsBase64 = getSafeFromHeader(context, headerName);
 
         if (!Strings.isNullOrEmpty(objectAsBase64)) {
-            return Base64Helper.deserializeObject(objectAsBase64);
+            return Base64Helper.deserializeObject(DlsFlsPolicyCache.resolve(context, objectAsBase64));
         }
 
         return null;
@@ -152,7 +152,7 @@ public class ReflectionHelper {
         }
     }
 
-    public static DlsFlsRequestValve instantiateDlsFlsValve() {
+    public static DlsFlsRequestValve instantiateDlsFlsValve(final Settings settings, final ClusterService clusterService) {
 
         if (advancedModulesDisabled()) {
             return new DlsFlsRequestValve.NoopDlsFlsRequestValve();
@@ -160,7 +160,7 @@ public class ReflectionHelper {
 
         try {
             final Class<?> clazz = Class.forName("com.amazon.opendistroforelasticsearch.security.configuration.DlsFlsValveImpl");
-            final DlsFlsRequestValve ret = (DlsFlsRequestValve) clazz.newInstance();
+            final DlsFlsRequestValve ret = (DlsFlsRequestValve) clazz.getConstructor(Settings.class, ClusterService.class).newInstance(settings, clusterService);
             return ret;
         } catch (final Throwable e) {
             log.warn("Unable to enable DLS/FLS Valve Module due to {}", e.toString());
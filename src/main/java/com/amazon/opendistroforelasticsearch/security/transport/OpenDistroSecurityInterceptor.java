@@ -68,11 +68,21 @@ import com.amazon.opendistroforelasticsearch.security.ssl.SslExceptionHandler;
 import com.amazon.opendistroforelasticsearch.security.ssl.transport.PrincipalExtractor;
 import com.amazon.opendistroforelasticsearch.security.support.Base64Helper;
 import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+import com.amazon.opendistroforelasticsearch.security.support.DlsFlsPolicyCache;
 import com.amazon.opendistroforelasticsearch.security.user.User;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 
 public class OpenDistroSecurityInterceptor {
 
+    private static final List<String> SERIALIZED_HEADERS = ImmutableList.of(
+            ConfigConstants.OPENDISTRO_SECURITY_REMOTE_ADDRESS_HEADER,
+            ConfigConstants.OPENDISTRO_SECURITY_USER_HEADER,
+            ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER,
+            ConfigConstants.OPENDISTRO_SECURITY_FLS_FIELDS_HEADER,
+            ConfigConstants.OPENDISTRO_SECURITY_MASKED_FIELD_HEADER,
+            "_opendistro_security_source_field_context");
+
     protected final Logger actionTrace = LogManager.getLogger("opendistro_security_action_trace");
     protected final Logger log = LogManager.getLogger(getClass());
     private BackendRegistry backendRegistry;
@@ -84,6 +94,7 @@ public class OpenDistroSecurityInterceptor {
     private final Settings settings;
     private final SslExceptionHandler sslExceptionHandler;
     private final ClusterInfoHolder clusterInfoHolder;
+    private final DlsFlsPolicyCache dlsFlsPolicyCache;
 
     public OpenDistroSecurityInterceptor(final Settings settings,
             final ThreadPool threadPool, final BackendRegistry backendRegistry,
@@ -91,7 +102,8 @@ public class OpenDistroSecurityInterceptor {
             final InterClusterRequestEvaluator requestEvalProvider,
             final ClusterService cs,
             final SslExceptionHandler sslExceptionHandler,
-            final ClusterInfoHolder clusterInfoHolder) {
+            final ClusterInfoHolder clusterInfoHolder,
+            final DlsFlsPolicyCache dlsFlsPolicyCache) {
         this.backendRegistry = backendRegistry;
         this.auditLog = auditLog;
         this.threadPool = threadPool;
@@ -101,12 +113,13 @@ public class OpenDistroSecurityInterceptor {
         this.settings = settings;
         this.sslExceptionHandler = sslExceptionHandler;
         this.clusterInfoHolder = clusterInfoHolder;
+        this.dlsFlsPolicyCache = dlsFlsPolicyCache;
     }
 
-    public <T extends TransportRequest> OpenDistroSecurityRequestHandler<T> getHandler(String action,
-            TransportRequestHandler<T> actualHandler) {
-        return new OpenDistroSecurityRequestHandler<T>(action, actualHandler, threadPool, backendRegistry, auditLog,
-                principalExtractor, requestEvalProvider, cs, sslExceptionHandler);
+    public <T extends TransportRequest> OpenDistroSecurityRequestHandler<T> getHandler(String action, String executor,
+            boolean forceExecution, TransportRequestHandler<T> actualHandler) {
+        return new OpenDistroSecurityRequestHandler<T>(action, executor, forceExecution, actualHandler, threadPool, backendRegistry, auditLog,
+                principalExtractor, requestEvalProvider, cs, sslExceptionHandler, dlsFlsPolicyCache);
     }
 
 
@@ -120,6 +133,7 @@ public class OpenDistroSecurityInterceptor {
         final String origCCSTransientDls = getThreadContext().getTransient(ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_CCS);
         final String origCCSTransientFls = getThreadContext().getTransient(ConfigConstants.OPENDISTRO_SECURITY_FLS_FIELDS_CCS);
         final String origCCSTransientMf = getThreadContext().getTransient(ConfigConstants.OPENDISTRO_SECURITY_MASKED_FIELD_CCS);
+        final Map<String, String> dlsFlsPolicies0 = getThreadContext().getTransient(ConfigConstants.OPENDISTRO_SECURITY_DLS_FLS_POLICIES);
 
         try (ThreadContext.StoredContext stashedContext = getThreadContext().stashContext()) {
             final TransportResponseHandler<T> restoringHandler = new RestoringTransportResponseHandler<T>(handler, stashedContext);
@@ -177,9 +191,33 @@ public class OpenDistroSecurityInterceptor {
                 }
             }
 
+            final int headerFormatVersion = Base64Helper.headerFormatVersion(connection.getNode());
+            final boolean binaryHeaders = headerFormatVersion >= Base64Helper.BINARY_FORMAT_VERSION;
+
+            //policy references can only be resolved by nodes of our own cluster which know how to fetch them
+            if (headerFormatVersion < DlsFlsPolicyCache.REFERENCE_FORMAT_VERSION
+                    || !Boolean.TRUE.equals(clusterInfoHolder.hasNode(connection.getNode()))) {
+                for (String header : DlsFlsPolicyCache.POLICY_HEADERS) {
+                    final String value = headerMap.get(header);
+                    if (DlsFlsPolicyCache.isReference(value)) {
+                        headerMap.put(header, DlsFlsPolicyCache.resolve(dlsFlsPolicies0, value));
+                    }
+                }
+            }
+
+            if (!binaryHeaders) {
+                //the target node does not understand the binary header format (mixed cluster or remote cluster)
+                for (String header : SERIALIZED_HEADERS) {
+                    final String value = headerMap.get(header);
+                    if (value != null) {
+                        headerMap.put(header, Base64Helper.ensureJavaSerialized(value));
+                    }
+                }
+            }
+
             getThreadContext().putHeader(headerMap);
 
-            ensureCorrectHeaders(remoteAddress0, user0, origin0);
+            ensureCorrectHeaders(remoteAddress0, user0, origin0, binaryHeaders);
 
             if(actionTrace.isTraceEnabled()) {
                 getThreadContext().putHeader("_opendistro_security_trace"+System.currentTimeMillis()+"#"+UUID.randomUUID().toString(), Thread.currentThread().getName()+" IC -> "+action+" "+getThreadContext().getHeaders().entrySet().stream().filter(p->!p.getKey().startsWith("_opendistro_security_trace")).collect(Collectors.toMap(p -> p.getKey(), p -> p.getValue())));
@@ -189,7 +227,7 @@ public class OpenDistroSecurityInterceptor {
         }
     }
 
-    private void ensureCorrectHeaders(final Object remoteAdr, final User origUser, final String origin) {
+    private void ensureCorrectHeaders(final Object remoteAdr, final User origUser, final String origin, final boolean binaryHeaders) {
         // keep original address
 
         if(origin != null && !origin.isEmpty() /*&& !Origin.LOCAL.toString().equalsIgnoreCase(origin)*/ && getThreadContext().getHeader(ConfigConstants.OPENDISTRO_SECURITY_ORIGIN_HEADER) == null) {
@@ -205,7 +243,7 @@ public class OpenDistroSecurityInterceptor {
             String remoteAddressHeader = getThreadContext().getHeader(ConfigConstants.OPENDISTRO_SECURITY_REMOTE_ADDRESS_HEADER);
 
             if(remoteAddressHeader == null) {
-                getThreadContext().putHeader(ConfigConstants.OPENDISTRO_SECURITY_REMOTE_ADDRESS_HEADER, Base64Helper.serializeObject(((TransportAddress) remoteAdr).address()));
+                getThreadContext().putHeader(ConfigConstants.OPENDISTRO_SECURITY_REMOTE_ADDRESS_HEADER, Base64Helper.serializeObject(((TransportAddress) remoteAdr).address(), binaryHeaders));
             }
         }
 
@@ -213,7 +251,7 @@ public class OpenDistroSecurityInterceptor {
             String userHeader = getThreadContext().getHeader(ConfigConstants.OPENDISTRO_SECURITY_USER_HEADER);
 
             if(userHeader == null) {
-                getThreadContext().putHeader(ConfigConstants.OPENDISTRO_SECURITY_USER_HEADER, Base64Helper.serializeObject(origUser));
+                getThreadContext().putHeader(ConfigConstants.OPENDISTRO_SECURITY_USER_HEADER, Base64Helper.serializeObject(origUser, binaryHeaders));
             }
         }
     }
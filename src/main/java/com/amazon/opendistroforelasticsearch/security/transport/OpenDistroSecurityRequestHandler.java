@@ -41,10 +41,12 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.bulk.BulkShardRequest;
 import org.elasticsearch.action.support.replication.TransportReplicationAction.ConcreteShardRequest;
 import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
 import org.elasticsearch.common.util.concurrent.ThreadContext;
 import org.elasticsearch.tasks.Task;
 import org.elasticsearch.threadpool.ThreadPool;
@@ -63,6 +65,7 @@ import com.amazon.opendistroforelasticsearch.security.ssl.util.ExceptionUtils;
 import com.amazon.opendistroforelasticsearch.security.ssl.util.SSLRequestHelper;
 import com.amazon.opendistroforelasticsearch.security.support.Base64Helper;
 import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+import com.amazon.opendistroforelasticsearch.security.support.DlsFlsPolicyCache;
 import com.amazon.opendistroforelasticsearch.security.support.HeaderHelper;
 import com.amazon.opendistroforelasticsearch.security.user.User;
 import com.google.common.base.Strings;
@@ -73,9 +76,15 @@ public class OpenDistroSecurityRequestHandler<T extends TransportRequest> extend
     private final BackendRegistry backendRegistry;
     private final AuditLog auditLog;
     private final InterClusterRequestEvaluator requestEvalProvider;
+    private final ThreadPool threadPool;
     private final ClusterService cs;
+    private final String executor;
+    private final boolean forceExecution;
+    private final DlsFlsPolicyCache dlsFlsPolicyCache;
 
     OpenDistroSecurityRequestHandler(String action,
+            final String executor,
+            final boolean forceExecution,
             final TransportRequestHandler<T> actualHandler,
             final ThreadPool threadPool,
             final BackendRegistry backendRegistry,
@@ -83,12 +92,17 @@ public class OpenDistroSecurityRequestHandler<T extends TransportRequest> extend
             final PrincipalExtractor principalExtractor,
             final InterClusterRequestEvaluator requestEvalProvider,
             final ClusterService cs,
-            final SslExceptionHandler sslExceptionHandler) {
+            final SslExceptionHandler sslExceptionHandler,
+            final DlsFlsPolicyCache dlsFlsPolicyCache) {
         super(action, actualHandler, threadPool, principalExtractor, sslExceptionHandler);
         this.backendRegistry = backendRegistry;
         this.auditLog = auditLog;
         this.requestEvalProvider = requestEvalProvider;
         this.cs = cs;
+        this.executor = executor;
+        this.forceExecution = forceExecution;
+        this.threadPool = threadPool;
+        this.dlsFlsPolicyCache = dlsFlsPolicyCache;
     }
 
     @Override
@@ -160,7 +174,7 @@ public class OpenDistroSecurityRequestHandler<T extends TransportRequest> extend
 
                 putInitialActionClassHeader(initialActionClassValue, resolvedActionClass);
 
-                super.messageReceivedDecorate(request, handler, transportChannel, task);
+                dispatch(request, handler, transportChannel, task);
                 return;
             }
 
@@ -281,7 +295,7 @@ public class OpenDistroSecurityRequestHandler<T extends TransportRequest> extend
 
                 putInitialActionClassHeader(initialActionClassValue, resolvedActionClass);
 
-                super.messageReceivedDecorate(request, handler, transportChannel, task);
+                dispatch(request, handler, transportChannel, task);
             }
         } finally {
 
@@ -295,6 +309,57 @@ public class OpenDistroSecurityRequestHandler<T extends TransportRequest> extend
         }
     }
     
+    /**
+     * Passes the request to its handler once the DLS/FLS policies it references are available on this node.
+     * If a policy has to be fetched from another node the request is handed over to its executor afterwards,
+     * so that neither this thread nor the handler block on the fetch.
+     */
+    private void dispatch(final T request, final TransportRequestHandler<T> handler,
+            final TransportChannel transportChannel, final Task task) throws Exception {
+
+        final boolean resolved = dlsFlsPolicyCache == null || dlsFlsPolicyCache.resolveReferences(getThreadContext(), new ActionListener<Void>() {
+
+            @Override
+            public void onResponse(final Void unused) {
+                threadPool.executor(executor).execute(new AbstractRunnable() {
+
+                    @Override
+                    public boolean isForceExecution() {
+                        return forceExecution;
+                    }
+
+                    @Override
+                    protected void doRun() throws Exception {
+                        OpenDistroSecurityRequestHandler.super.messageReceivedDecorate(request, handler, transportChannel, task);
+                    }
+
+                    @Override
+                    public void onFailure(final Exception e) {
+                        sendFailure(transportChannel, task, e);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final Exception e) {
+                sendFailure(transportChannel, task, e);
+            }
+        });
+
+        if (resolved) {
+            super.messageReceivedDecorate(request, handler, transportChannel, task);
+        }
+    }
+
+    private void sendFailure(final TransportChannel transportChannel, final Task task, final Exception e) {
+        log.error("Unable to process {} due to {}", task.getAction(), e.toString(), e);
+        try {
+            transportChannel.sendResponse(e);
+        } catch (Exception e1) {
+            log.warn("Unable to send failure response for {}", task.getAction(), e1);
+        }
+    }
+
     private void putInitialActionClassHeader(String initialActionClassValue, String resolvedActionClass) {
         if(initialActionClassValue == null) {
             if(getThreadContext().getHeader(ConfigConstants.OPENDISTRO_SECURITY_INITIAL_ACTION_CLASS_HEADER) == null) {
@@ -145,6 +145,19 @@ public final class AuthCredentials {
         nativeCredentials = null;
     }
 
+    /**
+     * Create a copy with its own secrets, which stays usable after {@link #clearSecrets()} was called on this instance
+     *
+     * @return a copy of this credentials
+     */
+    public AuthCredentials copy() {
+        final AuthCredentials copy = new AuthCredentials(username, getPassword(), nativeCredentials,
+                backendRoles.toArray(new String[0]));
+        copy.attributes.putAll(attributes);
+        copy.complete = complete;
+        return copy;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -21,16 +21,21 @@ import org.junit.runners.Suite;
 import com.amazon.opendistroforelasticsearch.security.auditlog.compliance.ComplianceAuditlogTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.compliance.RestApiComplianceAuditlogTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditlogTest;
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.ComplianceDiffExecutorTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.impl.DelegateTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.impl.DisabledCategoriesTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.impl.IgnoreAuditUsersTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.impl.TracingTests;
 import com.amazon.opendistroforelasticsearch.security.auditlog.integration.BasicAuditlogTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.integration.SSLAuditlogTest;
+import com.amazon.opendistroforelasticsearch.security.auditlog.routing.AsyncStoragePoolTest;
+import com.amazon.opendistroforelasticsearch.security.auditlog.routing.AuditRollupTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.routing.FallbackTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.routing.RouterTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.routing.RoutingConfigurationTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.routing.ThreadPoolSettingsTest;
+import com.amazon.opendistroforelasticsearch.security.auditlog.sink.AuditRetrySchedulerTest;
+import com.amazon.opendistroforelasticsearch.security.auditlog.sink.AuditSinkStatsTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.sink.KafkaSinkTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.sink.SinkProviderTLSTest;
 import com.amazon.opendistroforelasticsearch.security.auditlog.sink.SinkProviderTest;
@@ -42,16 +47,21 @@ import com.amazon.opendistroforelasticsearch.security.auditlog.sink.WebhookAudit
 	ComplianceAuditlogTest.class,
 	RestApiComplianceAuditlogTest.class,
 	AuditlogTest.class,
+	ComplianceDiffExecutorTest.class,
 	DelegateTest.class,
 	DisabledCategoriesTest.class,
 	IgnoreAuditUsersTest.class,
 	TracingTests.class,
 	BasicAuditlogTest.class,
 	SSLAuditlogTest.class,
+	AsyncStoragePoolTest.class,
+	AuditRollupTest.class,
 	FallbackTest.class,
 	RouterTest.class,
 	RoutingConfigurationTest.class,
 	ThreadPoolSettingsTest.class,
+	AuditRetrySchedulerTest.class,
+	AuditSinkStatsTest.class,
 	SinkProviderTest.class,
 	SinkProviderTLSTest.class,
 	WebhookAuditLogTest.class,
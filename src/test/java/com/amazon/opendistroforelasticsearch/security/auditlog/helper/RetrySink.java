@@ -23,7 +23,7 @@ import com.amazon.opendistroforelasticsearch.security.auditlog.sink.AuditLogSink
 public class RetrySink extends AuditLogSink{
 
     private static int failCount = 0;
-    private static AuditMessage msg = null;
+    private static volatile AuditMessage msg = null;
 
     public RetrySink(String name, Settings settings, String sinkPrefix, AuditLogSink fallbackSink) {
         super(name, settings, null, new FailingSink("", settings, "", null));
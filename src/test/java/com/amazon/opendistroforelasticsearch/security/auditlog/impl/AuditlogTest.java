@@ -18,16 +18,23 @@ package com.amazon.opendistroforelasticsearch.security.auditlog.impl;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.cluster.ClusterName;
 import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.amazon.opendistroforelasticsearch.security.auditlog.AuditLog;
 import com.amazon.opendistroforelasticsearch.security.auditlog.helper.RetrySink;
 import com.amazon.opendistroforelasticsearch.security.auditlog.integration.TestAuditlogImpl;
 import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
@@ -97,7 +104,7 @@ public class AuditlogTest {
     }
 
     @Test
-    public void testRetry() {
+    public void testRetry() throws Exception {
 
         RetrySink.init();
 
@@ -107,11 +114,17 @@ public class AuditlogTest {
                 .put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_ENABLE_REST, true)
                 .put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RESOLVE_BULK_REQUESTS, true)
                 .put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_COUNT, 10)
-                .put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_DELAY_MS, 500)
+                .put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_DELAY_MS, 10)
                 .put("opendistro_security.audit.threadpool.size", 0)
                 .build();
         AbstractAuditLog al = new AuditLogImpl(settings, null,  null, AbstractSecurityUnitTest.MOCK_POOL, null, cs);
         al.logSSLException(null, new Exception("test retry"));
+        // retries are scheduled asynchronously
+        Assert.assertNull(RetrySink.getMsg());
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (RetrySink.getMsg() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
         Assert.assertNotNull(RetrySink.getMsg());
         Assert.assertTrue(RetrySink.getMsg().toJson().contains("test retry"));
     }
@@ -134,4 +147,24 @@ public class AuditlogTest {
         al.logSSLException(null, new Exception("test retry"));
         Assert.assertNull(RetrySink.getMsg());
     }
+
+    @Test
+    public void testMessageEncoding() throws Exception {
+        AuditMessage msg = new AuditMessage(AuditMessage.Category.MISSING_PRIVILEGES, cs, AuditLog.Origin.TRANSPORT, AuditLog.Origin.TRANSPORT);
+        msg.addIndices(new String[] {"index1", "index\"2"});
+        msg.addPrivilege("indices:data/read/search");
+
+        BytesReference bytes = msg.toBytes();
+        Assert.assertSame(bytes, msg.toBytes());
+        Assert.assertEquals(msg.getAsMap().keySet(), XContentHelper.convertToMap(bytes, false, XContentType.JSON).v2().keySet());
+        Assert.assertEquals(Arrays.asList("index1", "index\"2"), XContentHelper.convertToMap(bytes, false, XContentType.JSON).v2().get(AuditMessage.INDICES));
+        Assert.assertEquals(bytes.utf8ToString(), msg.toJson());
+
+        // modifications are reflected
+        msg.addEffectiveUser("John Doe");
+        Assert.assertNotSame(bytes, msg.toBytes());
+        Assert.assertEquals("John Doe", XContentHelper.convertToMap(msg.toBytes(), false, XContentType.JSON).v2().get(AuditMessage.REQUEST_EFFECTIVE_USER));
+        Assert.assertEquals(XContentHelper.convertToMap(msg.toBytes(), false, XContentType.JSON).v2(),
+                XContentHelper.convertToMap(new BytesArray(msg.toPrettyString()), false, XContentType.JSON).v2());
+    }
 }
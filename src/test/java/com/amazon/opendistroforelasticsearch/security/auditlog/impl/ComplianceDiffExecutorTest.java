@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ComplianceDiffExecutorTest {
+
+    @Test
+    public void testOffIndexingThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger offThread = new AtomicInteger();
+        final ComplianceDiffExecutor executor = new ComplianceDiffExecutor(2, 1000);
+
+        for (int i = 0; i < 500; i++) {
+            executor.submit(() -> {
+                if (Thread.currentThread() != caller) {
+                    offThread.incrementAndGet();
+                }
+            });
+        }
+        executor.close();
+
+        Assert.assertEquals(500, offThread.get() + executor.callerRuns.sum());
+        Assert.assertEquals(500, executor.submitted.sum());
+        Assert.assertEquals(0, executor.queued());
+    }
+
+    @Test
+    public void testCallerRunsWhenFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger done = new AtomicInteger();
+        final ComplianceDiffExecutor executor = new ComplianceDiffExecutor(1, 4);
+
+        executor.submit(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.incrementAndGet();
+        });
+
+        while (executor.queued() > 0) {
+            Thread.yield();
+        }
+
+        //the worker is busy, 4 tasks fit into the queue
+        for (int i = 0; i < 20; i++) {
+            executor.submit(done::incrementAndGet);
+        }
+
+        Assert.assertEquals(16, executor.callerRuns.sum());
+
+        release.countDown();
+        executor.close();
+        Assert.assertEquals(21, done.get());
+    }
+
+    @Test
+    public void testSubmitAfterClose() throws Exception {
+        final AtomicInteger done = new AtomicInteger();
+        final ComplianceDiffExecutor executor = new ComplianceDiffExecutor(1, 4);
+        executor.close();
+
+        executor.submit(done::incrementAndGet);
+        Assert.assertEquals(1, done.get());
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.routing;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.auditlog.helper.LoggingSink;
+import com.amazon.opendistroforelasticsearch.security.auditlog.helper.MockAuditMessageFactory;
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage;
+import com.amazon.opendistroforelasticsearch.security.auditlog.sink.AuditLogSink;
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+
+public class AsyncStoragePoolTest {
+
+	@Test
+	public void testRingBuffer() throws Exception {
+		final AuditRingBuffer<Integer> buffer = new AuditRingBuffer<>(5);
+		Assert.assertEquals(8, buffer.capacity());
+		Assert.assertNull(buffer.poll());
+
+		for (int i = 0; i < 8; i++) {
+			Assert.assertTrue(buffer.offer(i));
+		}
+		Assert.assertFalse(buffer.offer(8));
+		Assert.assertEquals(8, buffer.size());
+		Assert.assertEquals(Integer.valueOf(0), buffer.poll());
+		Assert.assertTrue(buffer.offer(8));
+
+		final Integer[] batch = new Integer[5];
+		Assert.assertEquals(5, buffer.drain(batch));
+		Assert.assertEquals(Integer.valueOf(1), batch[0]);
+		Assert.assertEquals(3, buffer.drain(batch));
+		Assert.assertEquals(Integer.valueOf(8), batch[2]);
+		Assert.assertEquals(0, buffer.size());
+	}
+
+	@Test
+	public void testRingBufferConcurrentProducers() throws Exception {
+		final AuditRingBuffer<Integer> buffer = new AuditRingBuffer<>(64);
+		final int producers = 4;
+		final int perProducer = 10000;
+		final Thread[] threads = new Thread[producers];
+
+		for (int p = 0; p < producers; p++) {
+			final int offset = p * perProducer;
+			threads[p] = new Thread(() -> {
+				for (int i = 0; i < perProducer; i++) {
+					while (!buffer.offer(offset + i)) {
+						Thread.yield();
+					}
+				}
+			});
+			threads[p].start();
+		}
+
+		final Set<Integer> seen = new HashSet<>();
+		while (seen.size() < producers * perProducer) {
+			final Integer i = buffer.poll();
+			if (i != null) {
+				Assert.assertTrue(seen.add(i));
+			}
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertNull(buffer.poll());
+	}
+
+	@Test
+	public void testDelivery() throws Exception {
+		final CountingSink sink = new CountingSink(null, null);
+		final AsyncStoragePool pool = new AsyncStoragePool(Settings.builder()
+				.put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_SIZE, 2).build());
+
+		for (int i = 0; i < 1000; i++) {
+			pool.submit(MockAuditMessageFactory.validAuditMessage(), sink);
+		}
+		pool.close();
+
+		Assert.assertEquals(1000, sink.count.get());
+		final Map<String, Long> stats = pool.stats().get("counting");
+		Assert.assertEquals(1000L, stats.get("submitted").longValue());
+		Assert.assertEquals(1000L, stats.get("stored").longValue());
+		Assert.assertEquals(0L, stats.get("depth").longValue());
+	}
+
+	@Test
+	public void testIdleConsumersAreWokenUp() throws Exception {
+		final CountingSink sink = new CountingSink(null, null);
+		final AsyncStoragePool pool = new AsyncStoragePool(Settings.builder()
+				.put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_SIZE, 10).build());
+
+		pool.submit(MockAuditMessageFactory.validAuditMessage(), sink);
+		Assert.assertEquals(AsyncStoragePool.MAX_CONSUMERS_PER_SINK, Thread.getAllStackTraces().keySet().stream()
+				.filter(t -> t.getName().startsWith("opendistro_security_audit_counting[")).count());
+
+		// consumers park while the buffer is empty and are unparked by the next message
+		for (int i = 1; i <= 3; i++) {
+			TimeUnit.MILLISECONDS.sleep(100);
+			pool.submit(MockAuditMessageFactory.validAuditMessage(), sink);
+			for (int j = 0; j < 100 && sink.count.get() <= i; j++) {
+				TimeUnit.MILLISECONDS.sleep(10);
+			}
+			Assert.assertEquals(i + 1, sink.count.get());
+		}
+		pool.close();
+	}
+
+	@Test
+	public void testQueueBudgetIsSplitBetweenSinks() throws Exception {
+		final CountingSink sink = new CountingSink(null, null);
+		final AsyncStoragePool pool = new AsyncStoragePool(Settings.builder()
+				.put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_MAX_QUEUE_LEN, 1000).build(), 3);
+
+		pool.submit(MockAuditMessageFactory.validAuditMessage(), sink);
+		pool.close();
+
+		Assert.assertEquals(256, pool.queueLenPerSink);
+		Assert.assertEquals(256L, pool.stats().get("counting").get("capacity").longValue());
+	}
+
+	@Test
+	public void testSubmitAfterClose() throws Exception {
+		final LoggingSink fallback = new LoggingSink("fallback", Settings.EMPTY, null, null);
+		final CountingSink sink = new CountingSink(null, fallback);
+		final AsyncStoragePool pool = new AsyncStoragePool(Settings.EMPTY);
+		pool.close();
+
+		pool.submit(MockAuditMessageFactory.validAuditMessage(), sink);
+
+		Assert.assertTrue(pool.queues.isEmpty());
+		Assert.assertEquals(0, sink.count.get());
+		Assert.assertEquals(1, fallback.messages.size());
+	}
+
+	@Test
+	public void testDropOldest() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final LoggingSink fallback = new LoggingSink("fallback", Settings.EMPTY, null, null);
+		final CountingSink sink = new CountingSink(release, fallback);
+		final AsyncStoragePool pool = new AsyncStoragePool(settings("drop_oldest"));
+
+		for (int i = 0; i < 100; i++) {
+			pool.submit(MockAuditMessageFactory.validAuditMessage(), sink);
+		}
+
+		final Map<String, Long> stats = pool.stats().get("counting");
+		Assert.assertTrue(stats.get("dropped") > 0);
+		Assert.assertEquals(0L, stats.get("diverted_to_fallback").longValue());
+		Assert.assertEquals(0, fallback.messages.size());
+
+		release.countDown();
+		pool.close();
+		Assert.assertEquals(100L, sink.count.get() + pool.stats().get("counting").get("dropped"));
+	}
+
+	@Test
+	public void testFallback() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final LoggingSink fallback = new LoggingSink("fallback", Settings.EMPTY, null, null);
+		final CountingSink sink = new CountingSink(release, fallback);
+		final AsyncStoragePool pool = new AsyncStoragePool(settings("fallback"));
+
+		for (int i = 0; i < 100; i++) {
+			pool.submit(MockAuditMessageFactory.validAuditMessage(), sink);
+		}
+
+		final Map<String, Long> stats = pool.stats().get("counting");
+		Assert.assertTrue(stats.get("diverted_to_fallback") > 0);
+		Assert.assertEquals(stats.get("diverted_to_fallback").longValue(), fallback.messages.size());
+		Assert.assertEquals(0L, stats.get("dropped").longValue());
+
+		release.countDown();
+		pool.close();
+		Assert.assertEquals(100, sink.count.get() + fallback.messages.size());
+	}
+
+	@Test
+	public void testBlock() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final LoggingSink fallback = new LoggingSink("fallback", Settings.EMPTY, null, null);
+		final CountingSink sink = new CountingSink(release, fallback);
+		final AsyncStoragePool pool = new AsyncStoragePool(Settings.builder().put(settings("block"))
+				.put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_BLOCK_TIMEOUT_MS, 5000).build());
+
+		final Thread releaser = new Thread(() -> {
+			try {
+				TimeUnit.MILLISECONDS.sleep(200);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			release.countDown();
+		});
+		releaser.start();
+
+		for (int i = 0; i < 100; i++) {
+			pool.submit(MockAuditMessageFactory.validAuditMessage(), sink);
+		}
+		pool.close();
+		releaser.join();
+
+		Assert.assertEquals(100, sink.count.get());
+		Assert.assertEquals(0, fallback.messages.size());
+	}
+
+	private static Settings settings(String backpressure) {
+		return Settings.builder()
+				.put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_SIZE, 1)
+				.put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_MAX_QUEUE_LEN, 4)
+				.put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_THREADPOOL_BACKPRESSURE, backpressure)
+				.build();
+	}
+
+	private static class CountingSink extends AuditLogSink {
+
+		final AtomicInteger count = new AtomicInteger();
+		final CountDownLatch release;
+
+		CountingSink(CountDownLatch release, AuditLogSink fallbackSink) {
+			super("counting", Settings.EMPTY, null, fallbackSink);
+			this.release = release;
+		}
+
+		@Override
+		protected boolean doStore(AuditMessage msg) {
+			try {
+				if (release != null) {
+					release.await();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			count.incrementAndGet();
+			return true;
+		}
+	}
+}
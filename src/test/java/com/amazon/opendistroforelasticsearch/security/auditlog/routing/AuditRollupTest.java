@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.routing;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.auditlog.helper.MockAuditMessageFactory;
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage;
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage.Category;
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+
+public class AuditRollupTest {
+
+	@Test
+	public void testAggregation() throws Exception {
+		final List<AuditMessage> emitted = new CopyOnWriteArrayList<>();
+		final Settings settings = Settings.builder()
+				.putList(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_AGGREGATION_CATEGORIES, "granted_privileges", "FAILED_LOGIN")
+				.put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_AGGREGATION_WINDOW_MS, 3600000)
+				.build();
+		final AuditRollup rollup = new AuditRollup(settings, emitted::add);
+		Assert.assertTrue(rollup.isEnabled());
+
+		for (int i = 0; i < 10; i++) {
+			Assert.assertTrue(rollup.offer(message(Category.GRANTED_PRIVILEGES, "John Doe", "index1")));
+		}
+		Assert.assertTrue(rollup.offer(message(Category.GRANTED_PRIVILEGES, "John Doe", "index2")));
+		Assert.assertTrue(rollup.offer(message(Category.GRANTED_PRIVILEGES, "Jane Doe", "index1")));
+
+		// always exact
+		Assert.assertFalse(rollup.offer(message(Category.FAILED_LOGIN, "John Doe", "index1")));
+		Assert.assertFalse(rollup.offer(message(Category.MISSING_PRIVILEGES, "John Doe", "index1")));
+		Assert.assertTrue(emitted.isEmpty());
+
+		rollup.flush();
+		Assert.assertEquals(3, emitted.size());
+
+		long total = 0;
+		for (AuditMessage msg : emitted) {
+			final Map<String, Object> fields = msg.getAsMap();
+			total += (Long) fields.get(AuditMessage.ROLLUP_COUNT);
+			Assert.assertNotNull(fields.get(AuditMessage.ROLLUP_FIRST_TIMESTAMP));
+			Assert.assertNotNull(fields.get(AuditMessage.ROLLUP_LAST_TIMESTAMP));
+			if ("John Doe".equals(msg.getEffectiveUser()) && "index1".equals(msg.getIndices()[0])) {
+				Assert.assertEquals(10L, fields.get(AuditMessage.ROLLUP_COUNT));
+			}
+		}
+		Assert.assertEquals(12, total);
+		Assert.assertEquals(12, rollup.aggregated.sum());
+
+		// next window starts empty
+		emitted.clear();
+		rollup.flush();
+		Assert.assertTrue(emitted.isEmpty());
+		rollup.close();
+	}
+
+	@Test
+	public void testMaxKeys() throws Exception {
+		final List<AuditMessage> emitted = new CopyOnWriteArrayList<>();
+		final Settings settings = Settings.builder()
+				.putList(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_AGGREGATION_CATEGORIES, "COMPLIANCE_DOC_READ")
+				.put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_AGGREGATION_MAX_KEYS, 2)
+				.build();
+		final AuditRollup rollup = new AuditRollup(settings, emitted::add);
+
+		Assert.assertTrue(rollup.offer(message(Category.COMPLIANCE_DOC_READ, "a", "index1")));
+		Assert.assertTrue(rollup.offer(message(Category.COMPLIANCE_DOC_READ, "b", "index1")));
+		Assert.assertFalse(rollup.offer(message(Category.COMPLIANCE_DOC_READ, "c", "index1")));
+		Assert.assertTrue(rollup.offer(message(Category.COMPLIANCE_DOC_READ, "a", "index1")));
+
+		rollup.close();
+		Assert.assertEquals(2, emitted.size());
+	}
+
+	@Test
+	public void testSampling() throws Exception {
+		final Settings settings = Settings.builder()
+				.put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_SAMPLING + ".AUTHENTICATED", 0.1)
+				.put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_SAMPLING + ".GRANTED_PRIVILEGES", 0)
+				.put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_SAMPLING + ".MISSING_PRIVILEGES", 0)
+				.build();
+		final AuditRollup rollup = new AuditRollup(settings, msg -> Assert.fail());
+
+		int passed = 0;
+		for (int i = 0; i < 10000; i++) {
+			final AuditMessage msg = message(Category.AUTHENTICATED, "John Doe", "index1");
+			if (!rollup.offer(msg)) {
+				passed++;
+				Assert.assertEquals(0.1, msg.getAsMap().get(AuditMessage.SAMPLING_RATE));
+			}
+		}
+		Assert.assertTrue(passed > 500 && passed < 1500);
+		Assert.assertEquals(10000 - passed, rollup.sampledOut.sum());
+
+		Assert.assertTrue(rollup.offer(message(Category.GRANTED_PRIVILEGES, "John Doe", "index1")));
+		Assert.assertFalse(rollup.offer(message(Category.MISSING_PRIVILEGES, "John Doe", "index1")));
+		Assert.assertFalse(rollup.offer(message(Category.FAILED_LOGIN, "John Doe", "index1")));
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		final AuditRollup rollup = new AuditRollup(Settings.EMPTY, msg -> Assert.fail());
+		Assert.assertFalse(rollup.isEnabled());
+		Assert.assertFalse(rollup.offer(message(Category.GRANTED_PRIVILEGES, "John Doe", "index1")));
+		rollup.close();
+	}
+
+	private static AuditMessage message(Category category, String user, String index) {
+		final AuditMessage msg = MockAuditMessageFactory.validAuditMessage(category);
+		msg.addEffectiveUser(user);
+		msg.addPrivilege("indices:data/read/search");
+		msg.addIndices(new String[] { index });
+		return msg;
+	}
+}
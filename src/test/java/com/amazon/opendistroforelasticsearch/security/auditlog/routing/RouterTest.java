@@ -79,6 +79,7 @@ public class RouterTest extends AbstractAuditlogiUnitTest{
         AuditMessage msg = MockAuditMessageFactory.validAuditMessage(Category.MISSING_PRIVILEGES);
         router.route(msg);
         testMessageDeliveredForCategory(router, msg, Category.MISSING_PRIVILEGES, "endpoint1", "endpoint2", "default");
+        testStoredOnSinks(router, "endpoint1", "endpoint2", "default");
 
         router = createMessageRouterComplianceEnabled(settings);
         msg = MockAuditMessageFactory.validAuditMessage(Category.COMPLIANCE_DOC_READ);
@@ -102,6 +103,17 @@ public class RouterTest extends AbstractAuditlogiUnitTest{
 
     }
 
+    @SuppressWarnings("unchecked")
+    private void testStoredOnSinks(AuditMessageRouter router, String ... sinkNames) {
+        final Map<String, Object> sinks = (Map<String, Object>) router.stats().get("sinks");
+        for (String sinkName : sinkNames) {
+            final Map<String, Object> sinkStats = (Map<String, Object>) sinks.get(sinkName);
+            Assert.assertEquals(1L, sinkStats.get("stored"));
+            Assert.assertEquals(0L, sinkStats.get("lost"));
+        }
+        Assert.assertEquals(0L, ((Map<String, Object>) sinks.get("endpoint3")).get("stored"));
+    }
+
     private void testMessageDeliveredForCategory(AuditMessageRouter router, AuditMessage msg, Category categoryToCheck, String ... sinkNames) {
     	Map<Category, List<AuditLogSink>> sinksForCategory = router.categorySinks;
     	for(Category category : Category.values()) {
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.auditlog.helper.MockAuditMessageFactory;
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage;
+
+public class AuditBulkProcessorTest {
+
+    private final ThreadPool threadPool = new ThreadPool(Settings.builder().put("node.name", "auditbulk").build());
+
+    @After
+    public void tearDown() {
+        ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        final List<BulkRequest> requests = new CopyOnWriteArrayList<>();
+        final Settings settings = Settings.builder().put("bulk.max_actions", 10).put("bulk.linger_ms", 100).build();
+
+        final AuditBulkProcessor processor = new AuditBulkProcessor("test", settings, Settings.EMPTY, null, threadPool, "auditlog",
+                (request, listener) -> {
+                    requests.add(request);
+                    listener.onResponse(new BulkResponse(new BulkItemResponse[0], 1));
+                }, msg -> Assert.fail());
+
+        for (int i = 0; i < 25; i++) {
+            Assert.assertTrue(processor.add(MockAuditMessageFactory.validAuditMessage(), "index"));
+        }
+
+        awaitQueued(processor, 0);
+        processor.close();
+
+        Assert.assertEquals(25, requests.stream().mapToInt(BulkRequest::numberOfActions).sum());
+        Assert.assertEquals(10, requests.get(0).numberOfActions());
+        Assert.assertEquals("index", ((IndexRequest) requests.get(0).requests().get(0)).index());
+        Assert.assertEquals("auditlog", ((IndexRequest) requests.get(0).requests().get(0)).type());
+    }
+
+    @Test
+    public void testBackpressureAndSpool() throws Exception {
+        final Path dir = Files.createTempDirectory("auditspool");
+        final List<ActionListener<BulkResponse>> pending = new CopyOnWriteArrayList<>();
+        final List<BulkRequest> requests = new CopyOnWriteArrayList<>();
+        final List<AuditMessage> rejected = new CopyOnWriteArrayList<>();
+        final Settings settings = Settings.builder().put("bulk.max_actions", 10).put("bulk.queue_size", 10)
+                .put("bulk.max_in_flight", 1).put("bulk.linger_ms", 100000).put("bulk.spool.path", "audit.spool")
+                .put("bulk.spool.size", "8kb").put("bulk.retry.backoff_ms", 100000).build();
+        final Settings nodeSettings = Settings.builder().put("path.home", dir.toString()).build();
+
+        final AuditBulkProcessor processor = new AuditBulkProcessor("test", settings, nodeSettings, null, threadPool, "auditlog",
+                (request, listener) -> {
+                    requests.add(request);
+                    pending.add(listener);
+                }, rejected::add);
+
+        int accepted = 0;
+        while (processor.add(MockAuditMessageFactory.validAuditMessage(), "index")) {
+            accepted++;
+        }
+
+        //one request in flight, the queue is full and the spool is full
+        Assert.assertTrue(accepted > 20);
+        for (int i = 0; i < 100 && pending.isEmpty(); i++) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        Assert.assertEquals(1, pending.size());
+
+        //messages of failed requests wait for their retry, nothing is sent meanwhile
+        pending.get(0).onFailure(new Exception("unavailable"));
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(accepted, processor.queued() + rejected.size());
+        processor.close();
+
+        Assert.assertTrue(Files.size(dir.resolve("data").resolve("audit.spool")) > 0);
+    }
+
+    @Test
+    public void testRetryBackoff() throws Exception {
+        final List<Long> sent = new CopyOnWriteArrayList<>();
+        final List<AuditMessage> rejected = new CopyOnWriteArrayList<>();
+        final Settings settings = Settings.builder().put("bulk.max_actions", 1).put("bulk.retry.max_retries", 2)
+                .put("bulk.retry.backoff_ms", 50).put("bulk.retry.max_backoff_ms", 80).build();
+
+        final AuditBulkProcessor processor = new AuditBulkProcessor("test", settings, Settings.EMPTY, null, threadPool, "auditlog",
+                (request, listener) -> {
+                    sent.add(System.nanoTime());
+                    listener.onFailure(new Exception("unavailable"));
+                }, rejected::add);
+
+        final AuditMessage msg = MockAuditMessageFactory.validAuditMessage();
+        Assert.assertTrue(processor.add(msg, "index"));
+
+        //sent once and retried twice, then passed to the fallback
+        for (int i = 0; i < 100 && rejected.isEmpty(); i++) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        processor.close();
+
+        Assert.assertEquals(3, sent.size());
+        Assert.assertEquals(1, rejected.size());
+        Assert.assertSame(msg, rejected.get(0));
+        Assert.assertTrue(sent.get(1) - sent.get(0) >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertTrue(sent.get(2) - sent.get(1) >= TimeUnit.MILLISECONDS.toNanos(80));
+    }
+
+    @Test
+    public void testRejectedSpooledMessagesArePassedToFallback() throws Exception {
+        final Path dir = Files.createTempDirectory("auditspool");
+        final List<ActionListener<BulkResponse>> pending = new CopyOnWriteArrayList<>();
+        final List<AuditMessage> rejected = new CopyOnWriteArrayList<>();
+        final Settings settings = Settings.builder().put("bulk.max_actions", 1).put("bulk.queue_size", 1)
+                .put("bulk.max_in_flight", 1).put("bulk.linger_ms", 100000).put("bulk.spool.path", "audit.spool").build();
+        final Settings nodeSettings = Settings.builder().put("path.home", dir.toString()).build();
+
+        final AuditBulkProcessor processor = new AuditBulkProcessor("test", settings, nodeSettings, null, threadPool, "auditlog",
+                (request, listener) -> pending.add(listener), rejected::add);
+
+        final AuditMessage first = MockAuditMessageFactory.validAuditMessage();
+        Assert.assertTrue(processor.add(first, "index"));
+        awaitPending(pending, 1);
+
+        //one message is queued, the other one is spooled
+        final AuditMessage queued = MockAuditMessageFactory.validAuditMessage();
+        final AuditMessage spooled = MockAuditMessageFactory.validAuditMessage();
+        Assert.assertTrue(processor.add(queued, "index"));
+        Assert.assertTrue(processor.add(spooled, "index"));
+
+        for (int i = 1; i <= 3; i++) {
+            awaitPending(pending, i);
+            pending.get(i - 1).onResponse(new BulkResponse(new BulkItemResponse[] { new BulkItemResponse(0, DocWriteRequest.OpType.INDEX,
+                    new BulkItemResponse.Failure("index", "auditlog", null, new Exception("mapping"), RestStatus.BAD_REQUEST)) }, 1));
+        }
+        processor.close();
+
+        Assert.assertEquals(3, rejected.size());
+        Assert.assertSame(first, rejected.get(0));
+        Assert.assertSame(queued, rejected.get(1));
+        Assert.assertEquals(spooled.getCategory(), rejected.get(2).getCategory());
+        Assert.assertEquals(spooled.toString(), rejected.get(2).toString());
+    }
+
+    @Test
+    public void testSpool() throws Exception {
+        final Path file = Files.createTempDirectory("auditspool").resolve("spool");
+
+        try (AuditSpool spool = new AuditSpool(file, 64)) {
+            Assert.assertTrue(spool.offer(bytes("aaaaaaaaaaaaaaaaaaaa")));
+            Assert.assertTrue(spool.offer(bytes("bbbbbbbbbbbbbbbbbbbb")));
+            Assert.assertFalse(spool.offer(bytes("cccccccccccccccccccc")));
+            Assert.assertEquals("aaaaaaaaaaaaaaaaaaaa", string(spool.poll()));
+            //wraps around
+            Assert.assertTrue(spool.offer(bytes("cccccccccccccccccccc")));
+        }
+
+        try (AuditSpool spool = new AuditSpool(file, 64)) {
+            Assert.assertEquals(2, spool.size());
+            Assert.assertEquals("bbbbbbbbbbbbbbbbbbbb", string(spool.poll()));
+            Assert.assertEquals("cccccccccccccccccccc", string(spool.poll()));
+            Assert.assertNull(spool.poll());
+        }
+
+        //wraps around if the last record ends exactly at the end of the spool
+        try (AuditSpool spool = new AuditSpool(file.resolveSibling("spool2"), 24)) {
+            Assert.assertTrue(spool.offer(bytes("aaaaaaaa")));
+            Assert.assertTrue(spool.offer(bytes("bbbbbbbb")));
+            Assert.assertEquals("aaaaaaaa", string(spool.poll()));
+            Assert.assertTrue(spool.offer(bytes("cccc")));
+            Assert.assertEquals("bbbbbbbb", string(spool.poll()));
+            Assert.assertEquals("cccc", string(spool.poll()));
+            Assert.assertNull(spool.poll());
+        }
+    }
+
+    private static void awaitQueued(final AuditBulkProcessor processor, final int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && processor.queued() != expected; i++) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        Assert.assertEquals(expected, processor.queued());
+    }
+
+    private static void awaitPending(final List<?> pending, final int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && pending.size() < expected; i++) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        Assert.assertEquals(expected, pending.size());
+    }
+
+    private static byte[] bytes(final String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(final byte[] b) {
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
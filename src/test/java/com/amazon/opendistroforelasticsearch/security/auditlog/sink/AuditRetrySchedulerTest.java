@@ -0,0 +1,146 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.auditlog.helper.FailingSink;
+import com.amazon.opendistroforelasticsearch.security.auditlog.helper.LoggingSink;
+import com.amazon.opendistroforelasticsearch.security.auditlog.helper.MockAuditMessageFactory;
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage;
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage.Category;
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+
+public class AuditRetrySchedulerTest {
+
+    @Test
+    public void testDelays() throws Exception {
+        final AuditRetryScheduler scheduler = new AuditRetryScheduler(2);
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(3);
+        final long start = System.nanoTime();
+
+        scheduler.schedule(() -> { order.add(300); done.countDown(); }, 300);
+        scheduler.schedule(() -> { order.add(0); done.countDown(); }, 0);
+        // more than one turn of the wheel
+        scheduler.schedule(() -> { order.add(6000); done.countDown(); }, 6000);
+
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 6000);
+        Assert.assertEquals(0, (int) order.get(0));
+        Assert.assertEquals(300, (int) order.get(1));
+        Assert.assertEquals(6000, (int) order.get(2));
+        scheduler.close();
+    }
+
+    @Test
+    public void testTimerParksWhileIdle() throws Exception {
+        final AuditRetryScheduler scheduler = new AuditRetryScheduler(1);
+        awaitState(scheduler.timer, Thread.State.WAITING);
+
+        // parks until the deadline once an attempt is scheduled
+        final CountDownLatch done = new CountDownLatch(1);
+        scheduler.schedule(done::countDown, 500);
+        awaitState(scheduler.timer, Thread.State.TIMED_WAITING);
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        awaitState(scheduler.timer, Thread.State.WAITING);
+        scheduler.close();
+    }
+
+    @Test
+    public void testCloseRunsPending() throws Exception {
+        final AuditRetryScheduler scheduler = new AuditRetryScheduler(1);
+        final AtomicInteger runs = new AtomicInteger();
+
+        for (int i = 0; i < 100; i++) {
+            scheduler.schedule(runs::incrementAndGet, 3600000);
+        }
+        scheduler.close();
+        Assert.assertEquals(100, runs.get());
+        Assert.assertTrue(scheduler.isClosed());
+
+        scheduler.schedule(runs::incrementAndGet, 3600000);
+        Assert.assertEquals(101, runs.get());
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        final Settings settings = Settings.builder().put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_COUNT, 5)
+                .put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_DELAY_MS, 100)
+                .put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_MAX_DELAY_MS, 1000).build();
+        final AuditLogSink sink = new FailingSink("failing", settings, null, null);
+
+        for (int i = 0; i < 100; i++) {
+            assertBetween(50, 100, sink.backoffMs(1));
+            assertBetween(100, 200, sink.backoffMs(2));
+            assertBetween(400, 800, sink.backoffMs(4));
+            assertBetween(500, 1000, sink.backoffMs(5));
+            assertBetween(500, 1000, sink.backoffMs(100));
+        }
+    }
+
+    @Test
+    public void testFailingSinkDoesNotDelayOthers() throws Exception {
+        final Settings settings = Settings.builder().put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_COUNT, 3)
+                .put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_DELAY_MS, 60000)
+                .put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_MAX_PENDING, 10).build();
+        final AuditRetryScheduler scheduler = new AuditRetryScheduler(2);
+        final LoggingSink fallback = new LoggingSink("fallback", settings, null, null);
+        final AuditLogSink failing = new FailingSink("failing", settings, null, fallback);
+        final LoggingSink healthy = new LoggingSink("healthy", settings, null, null);
+        failing.setRetryScheduler(scheduler);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            final AuditMessage msg = MockAuditMessageFactory.validAuditMessage(Category.FAILED_LOGIN);
+            failing.store(msg);
+            healthy.store(msg);
+        }
+        // nothing waits for the retry delay
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 30000);
+        Assert.assertEquals(20, healthy.messages.size());
+
+        // the retry budget is exhausted, the remaining messages go to the fallback right away
+        Assert.assertEquals(10L, failing.getStatsAsMap().get("retries_pending"));
+        Assert.assertEquals(10, fallback.messages.size());
+
+        // pending retries get a last attempt on close
+        scheduler.close();
+        Assert.assertEquals(0L, failing.getStatsAsMap().get("retries_pending"));
+        Assert.assertEquals(20, fallback.messages.size());
+        Assert.assertEquals(10, failing.getStats().getRetries());
+    }
+
+    private static void awaitState(final Thread thread, final Thread.State state) throws InterruptedException {
+        for (int i = 0; i < 200 && thread.getState() != state; i++) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        Assert.assertEquals(state, thread.getState());
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        Assert.assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+}
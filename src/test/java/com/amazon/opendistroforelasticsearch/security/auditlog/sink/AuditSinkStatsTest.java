@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
+
+import java.util.Map;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.auditlog.helper.FailingSink;
+import com.amazon.opendistroforelasticsearch.security.auditlog.helper.LoggingSink;
+import com.amazon.opendistroforelasticsearch.security.auditlog.helper.MockAuditMessageFactory;
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage.Category;
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+
+public class AuditSinkStatsTest {
+
+    @Test
+    public void testPercentiles() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Map<String, Long> snapshot = histogram.snapshot();
+        Assert.assertEquals(0L, (long) snapshot.get("count"));
+        Assert.assertEquals(0L, (long) snapshot.get("p99"));
+
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        snapshot = histogram.snapshot();
+        Assert.assertEquals(1000L, (long) snapshot.get("count"));
+        Assert.assertEquals(1000L, (long) snapshot.get("max"));
+        assertWithin(500, snapshot.get("p50"));
+        assertWithin(990, snapshot.get("p99"));
+        assertWithin(999, snapshot.get("p999"));
+    }
+
+    @Test
+    public void testSmallAndLargeValues() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        histogram.record(3);
+        histogram.record(Long.MAX_VALUE);
+        final Map<String, Long> snapshot = histogram.snapshot();
+        Assert.assertEquals(3L, (long) snapshot.get("count"));
+        Assert.assertEquals(3L, (long) snapshot.get("p50"));
+        Assert.assertEquals(Long.MAX_VALUE, (long) snapshot.get("p999"));
+    }
+
+    @Test
+    public void testSinkCounters() throws Exception {
+        final Settings settings = Settings.builder().put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_COUNT, 2)
+                .put(ConfigConstants.OPENDISTRO_SECURITY_AUDIT_RETRY_DELAY_MS, 1).build();
+        final LoggingSink fallback = new LoggingSink("fallback", settings, null, null);
+        final AuditLogSink failing = new FailingSink("failing", settings, null, fallback);
+        final AuditLogSink lost = new FailingSink("lost", settings, null, null);
+        final AuditRetryScheduler scheduler = new AuditRetryScheduler(2);
+        failing.setRetryScheduler(scheduler);
+        lost.setRetryScheduler(scheduler);
+
+        failing.store(MockAuditMessageFactory.validAuditMessage(Category.FAILED_LOGIN));
+        lost.store(MockAuditMessageFactory.validAuditMessage(Category.FAILED_LOGIN));
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while ((failing.getStats().getFallback() == 0 || lost.getStats().getLost() == 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        scheduler.close();
+
+        Assert.assertEquals(0, failing.getStats().getStored());
+        Assert.assertEquals(3, failing.getStats().getFailed());
+        Assert.assertEquals(2, failing.getStats().getRetries());
+        Assert.assertEquals(1, failing.getStats().getFallback());
+        Assert.assertEquals(0, failing.getStats().getLost());
+        Assert.assertEquals(1, fallback.getStats().getStored());
+        Assert.assertEquals(1, lost.getStats().getLost());
+
+        final Map<String, Object> stats = failing.getStatsAsMap();
+        Assert.assertEquals(1L, stats.get("stored_on_fallback"));
+        Assert.assertEquals(3L, ((Map<?, ?>) stats.get("store_latency_micros")).get("count"));
+        Assert.assertEquals(0L, stats.get("retries_pending"));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue(actual + " is not within 25% of " + expected, actual >= expected && actual <= expected * 1.25);
+    }
+}
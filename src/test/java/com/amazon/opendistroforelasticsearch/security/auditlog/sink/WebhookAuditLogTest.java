@@ -15,20 +15,28 @@
 
 package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
 
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.entity.ContentType;
 import org.apache.http.impl.bootstrap.HttpServer;
 import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.common.io.Streams;
 import org.elasticsearch.common.settings.Settings;
 import org.junit.After;
 import org.junit.Assert;
@@ -695,6 +703,148 @@ public class WebhookAuditLogTest {
         server.shutdown(3l, TimeUnit.SECONDS);
 	}
 
+	@Test
+	public void batchedJsonTest() throws Exception {
+		final List<String> bodies = new CopyOnWriteArrayList<>();
+		final List<String> contentTypes = new CopyOnWriteArrayList<>();
+
+		server = ServerBootstrap.bootstrap()
+				.setListenerPort(8087)
+				.setServerInfo("Test/1.1")
+				.registerHandler("*", (request, response, context) -> {
+					contentTypes.add(request.getFirstHeader("Content-Type").getValue());
+					bodies.add(EntityUtils.toString(((HttpEntityEnclosingRequest) request).getEntity(), StandardCharsets.UTF_8));
+				})
+				.create();
+
+		server.start();
+
+		// NDJSON
+		Settings settings = Settings.builder()
+				.put("opendistro_security.audit.config.webhook.url", "http://localhost:8087/endpoint")
+				.put("opendistro_security.audit.config.webhook.format", "json")
+				.put("opendistro_security.audit.config.webhook.batch.enabled", true)
+				.put("opendistro_security.audit.config.webhook.batch.max_actions", 3)
+				.put("opendistro_security.audit.config.webhook.batch.linger_ms", 60000)
+				.put("path.home", ".")
+				.build();
+
+		LoggingSink fallback = new LoggingSink("test", Settings.EMPTY, null, null);
+		WebhookSink auditlog = new WebhookSink("name", settings, ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT, null, fallback);
+		Assert.assertTrue(auditlog.isHandlingBackpressure());
+
+		for (int i = 0; i < 3; i++) {
+			auditlog.store(MockAuditMessageFactory.validAuditMessage());
+		}
+
+		waitForRequests(bodies, 1);
+		Assert.assertEquals(1, bodies.size());
+		Assert.assertTrue(contentTypes.get(0), contentTypes.get(0).startsWith("application/x-ndjson"));
+		String[] lines = bodies.get(0).split("\n");
+		Assert.assertEquals(3, lines.length);
+		for (String line : lines) {
+			Assert.assertTrue(line, line.startsWith("{") && line.endsWith("}"));
+			assertStringContainsAllKeysAndValues(line);
+		}
+		auditlog.close();
+		Assert.assertEquals(0, fallback.messages.size());
+		bodies.clear();
+		contentTypes.clear();
+
+		// JSON array, flushed on close
+		settings = Settings.builder()
+				.put(settings)
+				.put("opendistro_security.audit.config.webhook.batch.format", "json_array")
+				.build();
+
+		auditlog = new WebhookSink("name", settings, ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT, null, fallback);
+		auditlog.store(MockAuditMessageFactory.validAuditMessage());
+		auditlog.store(MockAuditMessageFactory.validAuditMessage());
+		auditlog.close();
+
+		Assert.assertEquals(1, bodies.size());
+		Assert.assertTrue(contentTypes.get(0), contentTypes.get(0).startsWith("application/json"));
+		Assert.assertTrue(bodies.get(0), bodies.get(0).startsWith("[{") && bodies.get(0).endsWith("}]"));
+		Assert.assertTrue(bodies.get(0), bodies.get(0).contains("},{"));
+		assertStringContainsAllKeysAndValues(bodies.get(0));
+		Assert.assertEquals(0, fallback.messages.size());
+	}
+
+	@Test
+	public void batchedGzipTest() throws Exception {
+		final List<String> bodies = new CopyOnWriteArrayList<>();
+
+		server = ServerBootstrap.bootstrap()
+				.setListenerPort(8088)
+				.setServerInfo("Test/1.1")
+				.registerHandler("*", (request, response, context) -> {
+					Assert.assertEquals("gzip", request.getFirstHeader("Content-Encoding").getValue());
+					byte[] compressed = EntityUtils.toByteArray(((HttpEntityEnclosingRequest) request).getEntity());
+					try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+						bodies.add(Streams.copyToString(new InputStreamReader(in, StandardCharsets.UTF_8)));
+					}
+				})
+				.create();
+
+		server.start();
+
+		Settings settings = Settings.builder()
+				.put("opendistro_security.audit.config.webhook.url", "http://localhost:8088/endpoint")
+				.put("opendistro_security.audit.config.webhook.format", "json")
+				.put("opendistro_security.audit.config.webhook.batch.enabled", true)
+				.put("opendistro_security.audit.config.webhook.batch.linger_ms", 50)
+				.put("opendistro_security.audit.config.webhook.gzip", true)
+				.put("path.home", ".")
+				.build();
+
+		LoggingSink fallback = new LoggingSink("test", Settings.EMPTY, null, null);
+		WebhookSink auditlog = new WebhookSink("name", settings, ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT, null, fallback);
+		auditlog.store(MockAuditMessageFactory.validAuditMessage());
+		auditlog.store(MockAuditMessageFactory.validAuditMessage());
+
+		waitForRequests(bodies, 1);
+		auditlog.close();
+
+		String all = String.join("\n", bodies);
+		Assert.assertEquals(2, all.split("\n").length);
+		assertStringContainsAllKeysAndValues(all);
+		Assert.assertEquals(0, fallback.messages.size());
+	}
+
+	@Test
+	public void batchedServerErrorTest() throws Exception {
+		server = ServerBootstrap.bootstrap()
+				.setListenerPort(8089)
+				.setServerInfo("Test/1.1")
+				.registerHandler("*", (request, response, context) -> response.setStatusCode(400))
+				.create();
+
+		server.start();
+
+		Settings settings = Settings.builder()
+				.put("opendistro_security.audit.config.webhook.url", "http://localhost:8089/endpoint")
+				.put("opendistro_security.audit.config.webhook.format", "json")
+				.put("opendistro_security.audit.config.webhook.batch.enabled", true)
+				.put("opendistro_security.audit.config.webhook.batch.max_actions", 2)
+				.put("path.home", ".")
+				.build();
+
+		LoggingSink fallback = new LoggingSink("test", Settings.EMPTY, null, null);
+		WebhookSink auditlog = new WebhookSink("name", settings, ConfigConstants.OPENDISTRO_SECURITY_AUDIT_CONFIG_DEFAULT, null, fallback);
+		auditlog.store(MockAuditMessageFactory.validAuditMessage());
+		auditlog.store(MockAuditMessageFactory.validAuditMessage());
+		auditlog.close();
+
+		// refused batches are not retried but stored on the fallback
+		Assert.assertEquals(2, fallback.messages.size());
+	}
+
+	private static void waitForRequests(List<String> bodies, int count) throws InterruptedException {
+		for (int i = 0; i < 100 && bodies.size() < count; i++) {
+			Thread.sleep(100);
+		}
+	}
+
 	// for TLS support on our in-memory server
 	private SSLContext createSSLContext() throws Exception {
 			final TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory
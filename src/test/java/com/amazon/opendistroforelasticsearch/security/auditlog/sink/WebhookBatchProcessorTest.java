@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auditlog.sink;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.auditlog.helper.MockAuditMessageFactory;
+import com.amazon.opendistroforelasticsearch.security.auditlog.impl.AuditMessage;
+
+public class WebhookBatchProcessorTest {
+
+    @Test
+    public void testFailedBatchIsRetriedWithBackoffAndDropped() throws Exception {
+        final List<Long> attempts = new CopyOnWriteArrayList<>();
+        final List<AuditMessage> rejected = new CopyOnWriteArrayList<>();
+        final Settings settings = Settings.builder().put("webhook.batch.linger_ms", 100000).put("webhook.retry.max_retries", 3)
+                .put("webhook.retry.backoff_ms", 50).put("webhook.retry.max_backoff_ms", 100).build();
+
+        final WebhookBatchProcessor processor = new WebhookBatchProcessor("test", settings, 1,
+                (payloads, listener) -> {
+                    attempts.add(System.nanoTime());
+                    listener.onResponse(503);
+                }, rejected::add);
+
+        Assert.assertTrue(processor.add(MockAuditMessageFactory.validAuditMessage(), "msg".getBytes(StandardCharsets.UTF_8)));
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (processor.droppedBatches() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(1, processor.droppedBatches());
+        Assert.assertEquals(1, rejected.size());
+        Assert.assertEquals(0, processor.queued());
+        // the first attempt and 3 retries, which wait 50, 100 and 100 ms
+        Assert.assertEquals(4, attempts.size());
+        Assert.assertTrue(attempts.get(1) - attempts.get(0) >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertTrue(attempts.get(3) - attempts.get(2) >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        processor.close();
+    }
+
+    @Test
+    public void testSuccessResetsBackoff() throws Exception {
+        final List<Integer> statuses = new CopyOnWriteArrayList<>();
+        final Settings settings = Settings.builder().put("webhook.batch.linger_ms", 100000).put("webhook.retry.max_retries", 1)
+                .put("webhook.retry.backoff_ms", 10).build();
+
+        final WebhookBatchProcessor processor = new WebhookBatchProcessor("test", settings, 1,
+                (payloads, listener) -> {
+                    // every message fails once
+                    final int status = statuses.size() % 2 == 0 ? 429 : 200;
+                    statuses.add(status);
+                    listener.onResponse(status);
+                }, msg -> Assert.fail());
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(processor.add(MockAuditMessageFactory.validAuditMessage(), "msg".getBytes(StandardCharsets.UTF_8)));
+        }
+
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (statuses.size() < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assert.assertEquals(6, statuses.size());
+        Assert.assertEquals(0, processor.droppedBatches());
+        processor.close();
+    }
+}
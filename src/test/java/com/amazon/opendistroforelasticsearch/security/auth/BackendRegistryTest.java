@@ -0,0 +1,195 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auth;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.settings.SecureSettings;
+import org.elasticsearch.common.settings.SecureString;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.auth.internal.LocalSharedAuthCache;
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+
+public class BackendRegistryTest {
+
+    @Test
+    public void testSharedCacheNeedsCredentialsKey() throws Exception {
+        final Settings settings = Settings.builder().put("cluster.name", "backend_registry_test")
+                .put(ConfigConstants.OPENDISTRO_SECURITY_CACHE_SHARED_TYPE, LocalSharedAuthCache.class.getName()).build();
+
+        assertInvalid(settings);
+        assertInvalid(Settings.builder().put(settings).setSecureSettings(keystore("too short")).build());
+
+        new BackendRegistry(Settings.builder().put(settings).setSecureSettings(keystore("0123456789abcdef0123456789abcdef")).build(),
+                null, null, null, null, null, null);
+    }
+
+    @Test
+    public void testSharedCacheTypeIsClassName() throws Exception {
+        try {
+            new BackendRegistry(Settings.builder().put(ConfigConstants.OPENDISTRO_SECURITY_CACHE_SHARED_TYPE, "local")
+                    .setSecureSettings(keystore("0123456789abcdef0123456789abcdef")).build(), null, null, null, null, null, null);
+            Assert.fail();
+        } catch (ElasticsearchException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("ClassNotFoundException"));
+        }
+    }
+
+    @Test
+    public void testChangedAuthDomains() throws Exception {
+        final Settings config = Settings.builder()
+                .put("opendistro_security.dynamic.authz.roles_from_ldap.enabled", true)
+                .put("opendistro_security.dynamic.authc.internal.order", 0)
+                .put("opendistro_security.dynamic.authc.ldap.order", 1)
+                .put("opendistro_security.dynamic.authc.ldap.authentication_backend.config.hosts", "ldap1")
+                .put("opendistro_security.dynamic.authc.jwt.order", 2)
+                .put("opendistro_security.dynamic.authc.saml.order", 2).build();
+
+        Assert.assertEquals(Collections.emptySet(), BackendRegistry.getAffectedAuthDomains(config, Settings.builder().put(config).build()));
+
+        // a changed domain affects itself and all domains tried after it
+        Assert.assertEquals(set("ldap", "jwt", "saml"), BackendRegistry.getAffectedAuthDomains(config, Settings.builder().put(config)
+                .put("opendistro_security.dynamic.authc.ldap.authentication_backend.config.hosts", "ldap2").build()));
+        Assert.assertEquals(set("jwt", "saml"), BackendRegistry.getAffectedAuthDomains(config, Settings.builder().put(config)
+                .put("opendistro_security.dynamic.authc.jwt.enabled", false).build()));
+        Assert.assertEquals(Collections.emptySet(), BackendRegistry.getAffectedAuthDomains(config, Settings.builder().put(config)
+                .put("opendistro_security.dynamic.authc.ldap.timeout_ms", 500).build()));
+
+        // a removed domain and a domain which moves to the front
+        Assert.assertEquals(set("internal", "ldap", "jwt", "saml"), BackendRegistry.getAffectedAuthDomains(config,
+                config.filter(key -> !key.startsWith("opendistro_security.dynamic.authc.internal."))));
+        Assert.assertEquals(set("internal", "ldap", "jwt", "saml"), BackendRegistry.getAffectedAuthDomains(config, Settings.builder().put(config)
+                .put("opendistro_security.dynamic.authc.saml.order", 0).build()));
+
+        // everything else affects all cached users and roles
+        Assert.assertNull(BackendRegistry.getAffectedAuthDomains(config, Settings.builder().put(config)
+                .put("opendistro_security.dynamic.authz.roles_from_ldap.enabled", false).build()));
+    }
+
+    @Test
+    public void testChangedInternalUsers() throws Exception {
+        final Settings users = Settings.builder()
+                .put("admin.hash", "hash1").putList("admin.roles", "admin")
+                .put("kibanaserver.hash", "hash2")
+                .put("alias.hash", "hash3").put("alias.username", "user1")
+                .put("john.doe.hash", "hash4").build();
+
+        Assert.assertEquals(Collections.emptySet(), BackendRegistry.getChangedInternalUsers(users, Settings.builder().put(users).build()));
+        Assert.assertEquals(set("admin"), BackendRegistry.getChangedInternalUsers(users, Settings.builder().put(users)
+                .put("admin.hash", "changed").build()));
+        Assert.assertEquals(set("kibanaserver"), BackendRegistry.getChangedInternalUsers(users,
+                users.filter(key -> !key.startsWith("kibanaserver."))));
+        Assert.assertEquals(set("alias", "user1", "user2"), BackendRegistry.getChangedInternalUsers(users, Settings.builder().put(users)
+                .put("alias.username", "user2").build()));
+
+        // settings names end at the first dot, the full username is matched by its first part
+        final Set<String> changedUsers = BackendRegistry.getChangedInternalUsers(users, Settings.builder().put(users)
+                .put("john.doe.hash", "changed").build());
+        Assert.assertEquals(set("john"), changedUsers);
+        Assert.assertTrue(BackendRegistry.isChangedUser(changedUsers, "john.doe"));
+        Assert.assertFalse(BackendRegistry.isChangedUser(changedUsers, "johnny"));
+        Assert.assertFalse(BackendRegistry.isChangedUser(changedUsers, ".john"));
+    }
+
+    @Test
+    public void testInvalidateCachedUsers() throws Exception {
+        final BackendRegistry registry = new BackendRegistry(Settings.builder().put("cluster.name", "backend_registry_test").build(),
+                null, null, null, null, null, null);
+        final Settings users = Settings.builder().put("admin.hash", "hash1").put("john.doe.hash", "hash2").build();
+        registry.getInternalUsersChangeListener().onChange(users);
+
+        fillCaches(registry);
+        registry.getInternalUsersChangeListener().onChange(Settings.builder().put(users).put("john.doe.hash", "changed").build());
+
+        for (final RefreshAheadCache<Object, Object> cache : getCaches(registry)) {
+            Assert.assertNotNull(cache.getName(), cache.getIfPresent("admin"));
+            Assert.assertNull(cache.getName(), cache.getIfPresent("john.doe"));
+        }
+
+        // a reload of all configs flushes everything
+        fillCaches(registry);
+        registry.invalidateCache();
+
+        for (final RefreshAheadCache<Object, Object> cache : getCaches(registry)) {
+            Assert.assertEquals(cache.getName(), 0, cache.size());
+        }
+    }
+
+    private static void fillCaches(final BackendRegistry registry) throws Exception {
+        for (final RefreshAheadCache<Object, Object> cache : getCaches(registry)) {
+            cache.get("admin", "internal", () -> "admin");
+            cache.get("john.doe", "internal", () -> "john.doe");
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Iterable<RefreshAheadCache<Object, Object>> getCaches(final BackendRegistry registry) {
+        return (Iterable) registry.getCaches();
+    }
+
+    private static Set<String> set(final String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+    private static void assertInvalid(final Settings settings) {
+        try {
+            new BackendRegistry(settings, null, null, null, null, null, null);
+            Assert.fail();
+        } catch (ElasticsearchException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(ConfigConstants.OPENDISTRO_SECURITY_CACHE_SHARED_CREDENTIALS_KEY));
+        }
+    }
+
+    private static SecureSettings keystore(final String credentialsKey) {
+        final Map<String, String> values = Collections.singletonMap(ConfigConstants.OPENDISTRO_SECURITY_CACHE_SHARED_CREDENTIALS_KEY, credentialsKey);
+
+        return new SecureSettings() {
+
+            @Override
+            public boolean isLoaded() {
+                return true;
+            }
+
+            @Override
+            public Set<String> getSettingNames() {
+                return values.keySet();
+            }
+
+            @Override
+            public SecureString getString(String setting) {
+                return new SecureString(values.get(setting).toCharArray());
+            }
+
+            @Override
+            public InputStream getFile(String setting) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
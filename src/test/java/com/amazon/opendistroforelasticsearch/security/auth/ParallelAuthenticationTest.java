@@ -0,0 +1,293 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.user.AuthCredentials;
+import com.amazon.opendistroforelasticsearch.security.user.User;
+
+public class ParallelAuthenticationTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+    private final RefreshAheadCache<AuthCredentials, User> cache = new RefreshAheadCache<>("user cache", 60, -1, TimeUnit.MINUTES,
+            null, AuthCredentials::getUsername);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLowestOrderWins() throws Exception {
+        final CountDownLatch slow = new CountDownLatch(1);
+        final ParallelAuthentication authentication = new ParallelAuthentication(executor, 10000, cache);
+        add(authentication, domain("ldap", 0, ac -> {
+            await(slow);
+            return new User("from_ldap");
+        }), "user1");
+        add(authentication, domain("internal", 1, ac -> {
+            slow.countDown();
+            return new User("from_internal");
+        }), "user1");
+
+        // the faster domain with the higher order does not win
+        Assert.assertEquals("from_ldap", authenticate(authentication).getName());
+        Assert.assertTrue(failures.isEmpty());
+        Assert.assertTrue(authentication.isEmpty());
+    }
+
+    @Test
+    public void testFailedDomainsAreNotified() throws Exception {
+        final ParallelAuthentication authentication = new ParallelAuthentication(executor, 10000, cache);
+        add(authentication, domain("ldap", 0, ac -> null), "user1");
+        add(authentication, domain("internal", 1, ac -> new User("from_internal")), "user1");
+        add(authentication, domain("jwt", 2, ac -> null), "user1");
+
+        Assert.assertEquals("from_internal", authenticate(authentication).getName());
+        Assert.assertEquals(Arrays.asList("ldap"), failures);
+
+        add(authentication, domain("ldap", 0, ac -> null), "user2");
+        Assert.assertNull(authenticate(authentication));
+        Assert.assertEquals(Arrays.asList("ldap", "ldap"), failures);
+    }
+
+    @Test
+    public void testTimedOutAndBrokenDomainsAreNotNotified() throws Exception {
+        final CountDownLatch never = new CountDownLatch(1);
+        final ParallelAuthentication authentication = new ParallelAuthentication(executor, 100, cache);
+        add(authentication, domain("ldap", 0, ac -> {
+            await(never);
+            return new User("from_ldap");
+        }), "user1");
+        add(authentication, domain("kerberos", 1, ac -> {
+            throw new IllegalStateException("broken");
+        }), "user1");
+        add(authentication, domain("internal", 2, ac -> new User("from_internal")), "user1");
+
+        Assert.assertEquals("from_internal", authenticate(authentication).getName());
+        Assert.assertTrue(failures.isEmpty());
+        never.countDown();
+    }
+
+    @Test
+    public void testDomainsAreWaitedForUntilTheirOwnTimeout() throws Exception {
+        final CountDownLatch never = new CountDownLatch(1);
+        final ParallelAuthentication authentication = new ParallelAuthentication(executor, 10000, cache);
+        add(authentication, domain("ldap", 0, 100, ac -> {
+            await(never);
+            return new User("from_ldap");
+        }), "user1");
+        add(authentication, domain("internal", 1, ac -> new User("from_internal")), "user1");
+
+        final long start = System.nanoTime();
+        Assert.assertEquals("from_internal", authenticate(authentication).getName());
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        never.countDown();
+    }
+
+    @Test
+    public void testRejectedAuthenticationsRunOnCallingThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger calls = new AtomicInteger();
+        final ParallelAuthentication authentication = new ParallelAuthentication(r -> {
+            throw new RejectedExecutionException();
+        }, 10000, cache);
+        add(authentication, domain("ldap", 0, ac -> {
+            Assert.assertSame(caller, Thread.currentThread());
+            calls.incrementAndGet();
+            return null;
+        }), "user1");
+        add(authentication, domain("internal", 1, ac -> {
+            calls.incrementAndGet();
+            return new User("from_internal");
+        }), "user1");
+
+        Assert.assertEquals("from_internal", authenticate(authentication).getName());
+        Assert.assertEquals(2, calls.get());
+        Assert.assertEquals(Arrays.asList("ldap"), failures);
+    }
+
+    @Test
+    public void testHangingDomainDoesNotBlockDomainWithEqualCredentials() throws Exception {
+        final CountDownLatch hanging = new CountDownLatch(1);
+        final ParallelAuthentication authentication = new ParallelAuthentication(executor, 200, cache);
+        add(authentication, domain("ldap", 0, ac -> {
+            await(hanging);
+            return null;
+        }), "user1");
+        add(authentication, domain("internal", 1, ac -> new User("from_internal")), "user1");
+
+        final long start = System.nanoTime();
+        Assert.assertEquals("from_internal", authenticate(authentication).getName());
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        Assert.assertEquals("from_internal", cache.getIfPresent(credentials("user1")).getName());
+        hanging.countDown();
+    }
+
+    @Test
+    public void testRejectingDomainDoesNotFailDomainWithEqualCredentials() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final ParallelAuthentication authentication = new ParallelAuthentication(executor, 10000, cache);
+        add(authentication, domain("ldap", 0, ac -> {
+            calls.incrementAndGet();
+            throw new ElasticsearchSecurityException("invalid credentials");
+        }), "user1");
+        add(authentication, domain("internal", 1, ac -> {
+            calls.incrementAndGet();
+            return new User("from_internal");
+        }), "user1");
+
+        Assert.assertEquals("from_internal", authenticate(authentication).getName());
+        Assert.assertEquals(Arrays.asList("ldap"), failures);
+        Assert.assertEquals(2, calls.get());
+
+        // only the winner is cached and returned without authenticating again
+        add(authentication, domain("ldap", 0, ac -> {
+            throw new AssertionError("cached");
+        }), "user1");
+        add(authentication, domain("internal", 1, ac -> {
+            throw new AssertionError("cached");
+        }), "user1");
+
+        Assert.assertEquals("from_internal", authenticate(authentication).getName());
+        Assert.assertEquals(Arrays.asList("ldap"), failures);
+        Assert.assertEquals(1, cache.invalidateIf((ac, domain) -> "internal".equals(domain)));
+    }
+
+    @Test
+    public void testWinnerIsPutIntoSharedTier() throws Exception {
+        final Map<String, Object> shared = new ConcurrentHashMap<>();
+        final RefreshAheadCache<AuthCredentials, User> sharedCache = new RefreshAheadCache<>("user cache", 60, -1, TimeUnit.MINUTES,
+                null, AuthCredentials::getUsername, new RefreshAheadCache.SharedTier<AuthCredentials, User>() {
+
+                    @Override
+                    public String sharedKey(final AuthCredentials key) {
+                        //like the keyed hash of BackendRegistry, derived from the secrets
+                        final byte[] password = key.getPassword();
+                        return password == null ? null : key.getUsername() + ":" + new String(password, StandardCharsets.UTF_8);
+                    }
+
+                    @Override
+                    public RefreshAheadCache.SharedValue<User> get(final String sharedKey, final long maxAgeMillis) {
+                        return null;
+                    }
+
+                    @Override
+                    public void put(final String sharedKey, final AuthCredentials key, final Object source, final User value) {
+                        shared.put(sharedKey, source);
+                    }
+                });
+
+        final CountDownLatch slow = new CountDownLatch(1);
+        final ParallelAuthentication authentication = new ParallelAuthentication(executor, 10000, sharedCache);
+        final AuthCredentials ldapCredentials = add(authentication, domain("ldap", 0, ac -> new User("from_ldap")), "user1");
+        add(authentication, domain("internal", 1, ac -> {
+            await(slow);
+            return new User("from_internal");
+        }), "user1");
+
+        // the loaders clear the secrets of their own credentials only
+        Assert.assertEquals("from_ldap", authenticate(authentication).getName());
+        Assert.assertEquals(Collections.singletonMap("user1:secret", "ldap"), shared);
+        Assert.assertNull(ldapCredentials.getPassword());
+        slow.countDown();
+
+        // a timed out domain which succeeds later is shared as well
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        final ParallelAuthentication later = new ParallelAuthentication(executor, 100, sharedCache);
+        add(later, domain("ldap", 0, ac -> {
+            await(timedOut);
+            return new User("from_ldap");
+        }), "user2");
+        add(later, domain("internal", 1, ac -> null), "user2");
+
+        Assert.assertNull(authenticate(later));
+        timedOut.countDown();
+        for (int i = 0; i < 100 && !shared.containsKey("user2:secret"); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals("ldap", shared.get("user2:secret"));
+    }
+
+    private User authenticate(final ParallelAuthentication authentication) {
+        return authentication.authenticate((authDomain, ac) -> failures.add(authDomain.getBackend().getType()));
+    }
+
+    private static AuthCredentials add(final ParallelAuthentication authentication, final AuthDomain authDomain, final String username) {
+        final AuthCredentials ac = credentials(username);
+        authentication.add(authDomain, ac, c -> () -> authDomain.getBackend().authenticate(c), true);
+        return ac;
+    }
+
+    private static AuthCredentials credentials(final String username) {
+        return new AuthCredentials(username, "secret".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static AuthDomain domain(final String type, final int order, final StubBackend backend) {
+        return domain(type, order, -1, backend);
+    }
+
+    private static AuthDomain domain(final String type, final int order, final long timeoutMillis, final StubBackend backend) {
+        return new AuthDomain(type, new AuthenticationBackend() {
+
+            @Override
+            public String getType() {
+                return type;
+            }
+
+            @Override
+            public User authenticate(final AuthCredentials credentials) throws ElasticsearchSecurityException {
+                return backend.authenticate(credentials);
+            }
+
+            @Override
+            public boolean exists(final User user) {
+                return false;
+            }
+        }, null, false, order, timeoutMillis);
+    }
+
+    private interface StubBackend {
+        User authenticate(AuthCredentials credentials);
+    }
+}
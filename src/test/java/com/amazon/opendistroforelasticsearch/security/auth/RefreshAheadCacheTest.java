@@ -0,0 +1,296 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.auth.internal.LocalSharedAuthCache;
+import com.amazon.opendistroforelasticsearch.security.user.User;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+
+public class RefreshAheadCacheTest {
+
+    private final List<Runnable> scheduled = new ArrayList<>();
+
+    @Test
+    public void testServeStaleAndRefresh() throws Exception {
+        final RefreshAheadCache<String, String> cache = newCache(10000, 50);
+        final AtomicInteger loads = new AtomicInteger();
+        final RefreshAheadCache.Loader<String> loader = () -> "v" + loads.incrementAndGet();
+
+        Assert.assertEquals("v1", cache.get("k", loader));
+        Assert.assertEquals("v1", cache.get("k", loader));
+        Assert.assertTrue(scheduled.isEmpty());
+
+        Thread.sleep(60);
+
+        // stale value is returned, only one refresh is scheduled
+        Assert.assertEquals("v1", cache.get("k", loader));
+        Assert.assertEquals("v1", cache.get("k", loader));
+        Assert.assertEquals(1, scheduled.size());
+        Assert.assertEquals(1, loads.get());
+
+        runScheduled();
+        Assert.assertEquals("v2", cache.get("k", loader));
+        Assert.assertTrue(scheduled.isEmpty());
+
+        Assert.assertEquals(1L, cache.getStats().get("misses"));
+        Assert.assertEquals(4L, cache.getStats().get("hits"));
+        Assert.assertEquals(2L, cache.getStats().get("stale_hits"));
+        Assert.assertEquals(1L, cache.getStats().get("refreshes"));
+        Assert.assertEquals(2L, cache.getStats().get("loads"));
+    }
+
+    @Test
+    public void testHardExpiryBlocks() throws Exception {
+        final RefreshAheadCache<String, String> cache = newCache(50, 20);
+        final AtomicInteger loads = new AtomicInteger();
+        final RefreshAheadCache.Loader<String> loader = () -> "v" + loads.incrementAndGet();
+
+        Assert.assertEquals("v1", cache.get("k", loader));
+        Thread.sleep(60);
+        Assert.assertEquals("v2", cache.get("k", loader));
+        Assert.assertTrue(scheduled.isEmpty());
+    }
+
+    @Test
+    public void testFailedRefreshKeepsStaleEntry() throws Exception {
+        final RefreshAheadCache<String, String> cache = newCache(10000, 20);
+        final AtomicInteger loads = new AtomicInteger();
+        final RefreshAheadCache.Loader<String> loader = () -> {
+            if (loads.incrementAndGet() > 1) {
+                throw new Exception("backend not available");
+            }
+            return "v1";
+        };
+
+        Assert.assertEquals("v1", cache.get("k", loader));
+        Thread.sleep(30);
+        Assert.assertEquals("v1", cache.get("k", loader));
+        runScheduled();
+
+        // stale entry is kept and refreshed again with the next request
+        Assert.assertEquals("v1", cache.get("k", loader));
+        Assert.assertEquals(1, scheduled.size());
+        Assert.assertEquals(1L, cache.getStats().get("refresh_failures"));
+    }
+
+    @Test
+    public void testRejectedRefreshRemovesEntry() throws Exception {
+        final RefreshAheadCache<String, String> cache = newCache(10000, 20);
+        final AtomicInteger loads = new AtomicInteger();
+        final RefreshAheadCache.Loader<String> loader = () -> {
+            if (loads.incrementAndGet() > 1) {
+                throw new ElasticsearchSecurityException("password does not match");
+            }
+            return "v1";
+        };
+
+        Assert.assertEquals("v1", cache.get("k", loader));
+        Thread.sleep(30);
+        Assert.assertEquals("v1", cache.get("k", loader));
+        runScheduled();
+
+        // the revoked user is not served from the stale entry anymore
+        Assert.assertNull(cache.getIfPresent("k"));
+        Assert.assertEquals(1L, cache.getStats().get("refresh_failures"));
+    }
+
+    @Test
+    public void testRefreshWithoutValueRemovesEntry() throws Exception {
+        final RefreshAheadCache<String, String> cache = newCache(10000, 20);
+        final AtomicInteger loads = new AtomicInteger();
+        final RefreshAheadCache.Loader<String> loader = () -> loads.incrementAndGet() == 1 ? "v1" : null;
+
+        Assert.assertEquals("v1", cache.get("k", loader));
+        Thread.sleep(30);
+        Assert.assertEquals("v1", cache.get("k", loader));
+        runScheduled();
+
+        Assert.assertNull(cache.getIfPresent("k"));
+
+        try {
+            cache.get("k", loader);
+            Assert.fail();
+        } catch (InvalidCacheLoadException e) {
+            // expected, same as for a guava cache
+        }
+    }
+
+    @Test
+    public void testRefreshDoesNotOverwriteInvalidatedEntry() throws Exception {
+        final RefreshAheadCache<String, String> cache = newCache(10000, 20);
+        final AtomicInteger loads = new AtomicInteger();
+        final RefreshAheadCache.Loader<String> loader = () -> "v" + loads.incrementAndGet();
+
+        cache.get("k", loader);
+        Thread.sleep(30);
+        cache.get("k", loader);
+        cache.invalidateAll();
+        runScheduled();
+
+        Assert.assertNull(cache.getIfPresent("k"));
+    }
+
+    @Test
+    public void testRefreshLoaderIsCreatedOnCallingThread() throws Exception {
+        final RefreshAheadCache<String, String> cache = newCache(10000, 20);
+        final Thread caller = Thread.currentThread();
+        final CountDownLatch refreshed = new CountDownLatch(1);
+
+        final RefreshAheadCache.Loader<String> loader = new RefreshAheadCache.Loader<String>() {
+
+            @Override
+            public String call() {
+                return "v1";
+            }
+
+            @Override
+            public Callable<String> forRefresh() {
+                Assert.assertSame(caller, Thread.currentThread());
+                return () -> {
+                    refreshed.countDown();
+                    return "v2";
+                };
+            }
+        };
+
+        cache.get("k", loader);
+        Thread.sleep(30);
+        cache.get("k", loader);
+
+        final Thread refresher = new Thread(this::runScheduled);
+        refresher.start();
+        Assert.assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+        refresher.join();
+        Assert.assertEquals("v2", cache.get("k", loader));
+    }
+
+    @Test
+    public void testDisabledWithoutExecutor() throws Exception {
+        final RefreshAheadCache<String, String> cache = new RefreshAheadCache<>("test", 10000, 20, TimeUnit.MILLISECONDS, null, k -> k);
+        final RefreshAheadCache.Loader<String> loader = () -> "v1";
+
+        cache.get("k", loader);
+        Thread.sleep(30);
+        Assert.assertEquals("v1", cache.get("k", loader));
+        Assert.assertEquals(0L, cache.getStats().get("stale_hits"));
+    }
+
+    @Test
+    public void testInvalidateBySource() throws Exception {
+        final RefreshAheadCache<String, String> cache = newCache(10000, 20);
+        final AtomicInteger loads = new AtomicInteger();
+        final RefreshAheadCache.Loader<String> loader = () -> "v" + loads.incrementAndGet();
+
+        cache.get("a", "ldap", loader);
+        cache.get("b", "internal", loader);
+        cache.get("c", loader);
+
+        // the source is kept when a stale entry is refreshed
+        Thread.sleep(30);
+        cache.get("a", "ldap", loader);
+        runScheduled();
+
+        Assert.assertEquals(1, cache.invalidateIf((key, source) -> "ldap".equals(source)));
+        Assert.assertNull(cache.getIfPresent("a"));
+        Assert.assertEquals("v2", cache.getIfPresent("b"));
+        Assert.assertEquals("v3", cache.getIfPresent("c"));
+
+        Assert.assertEquals(1, cache.invalidateIf((key, source) -> source == null));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(2L, cache.getStats().get("selective_invalidations"));
+        // the refreshed entry was replaced, not evicted
+        Assert.assertEquals(2L, cache.getStats().get("evictions"));
+
+        cache.invalidateAll();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(3L, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    public void testSharedTier() throws Exception {
+        final SharedAuthCache sharedCache = new LocalSharedAuthCache(Settings.builder().put("cluster.name", "shared_tier_test").build(), null);
+        final RefreshAheadCache<String, User> node1 = newSharedCache(sharedCache, 10000);
+        final RefreshAheadCache<String, User> node2 = newSharedCache(sharedCache, 10000);
+        final AtomicInteger loads = new AtomicInteger();
+        final RefreshAheadCache.Loader<User> loader = () -> {
+            loads.incrementAndGet();
+            return new User("user1", Arrays.asList("role1"), null);
+        };
+
+        final User user1 = node1.get("user1", "ldap", loader);
+        final User user2 = node2.get("user1", "ldap", loader);
+
+        // the second node gets a copy of the principal loaded by the first node
+        Assert.assertEquals(1, loads.get());
+        Assert.assertNotSame(user1, user2);
+        Assert.assertEquals(user1.getRoles(), user2.getRoles());
+        Assert.assertEquals(1L, node2.getStats().get("shared_hits"));
+
+        // not shared keys are always loaded
+        node2.get("local_only", loader);
+        Assert.assertEquals(2, loads.get());
+
+        sharedCache.invalidate("test", (username, domain) -> "ldap".equals(domain));
+        node2.invalidateAll();
+        node2.get("user1", "ldap", loader);
+        Assert.assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void testSharedTierValuesKeepTheirAge() throws Exception {
+        final SharedAuthCache sharedCache = new LocalSharedAuthCache(Settings.builder().put("cluster.name", "shared_tier_age_test").build(), null);
+        final RefreshAheadCache<String, User> node1 = newSharedCache(sharedCache, 100);
+        final RefreshAheadCache<String, User> node2 = newSharedCache(sharedCache, 100);
+        final AtomicInteger loads = new AtomicInteger();
+        final RefreshAheadCache.Loader<User> loader = () -> new User("user" + loads.incrementAndGet());
+
+        node1.get("user", loader);
+        Thread.sleep(60);
+        Assert.assertEquals("user1", node2.get("user", loader).getName());
+
+        // expires with the age of the shared value and not 100ms after it was taken from the shared tier
+        Thread.sleep(60);
+        Assert.assertEquals("user2", node2.get("user", loader).getName());
+    }
+
+    private RefreshAheadCache<String, User> newSharedCache(final SharedAuthCache sharedCache, final long ttlMs) {
+        return new RefreshAheadCache<>("test", ttlMs, -1, TimeUnit.MILLISECONDS, null, k -> k,
+                new SharedCacheTier<String, User>(sharedCache, "test", k -> k.equals("local_only") ? null : k, k -> k, (k, v) -> v, u -> u));
+    }
+
+    private RefreshAheadCache<String, String> newCache(final long hardTtlMs, final long softTtlMs) {
+        return new RefreshAheadCache<>("test", hardTtlMs, softTtlMs, TimeUnit.MILLISECONDS, scheduled::add, k -> k);
+    }
+
+    private void runScheduled() {
+        final List<Runnable> tasks = new ArrayList<>(scheduled);
+        scheduled.clear();
+        tasks.forEach(Runnable::run);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auth.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.crypto.generators.OpenBSDBCrypt;
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.configuration.ConfigurationChangeListener;
+import com.amazon.opendistroforelasticsearch.security.configuration.ConfigurationRepository;
+import com.amazon.opendistroforelasticsearch.security.user.AuthCredentials;
+import com.amazon.opendistroforelasticsearch.security.user.User;
+
+public class InternalAuthenticationBackendTest {
+
+    private volatile Settings internalUsers;
+    private final AtomicInteger bcryptChecks = new AtomicInteger();
+    private volatile CountDownLatch bcryptStarted = new CountDownLatch(0);
+    private volatile CountDownLatch bcryptReleased = new CountDownLatch(0);
+
+    private final ConfigurationRepository configurationRepository = new ConfigurationRepository() {
+
+        @Override
+        public Settings getConfiguration(String configurationType) {
+            return internalUsers;
+        }
+
+        @Override
+        public Map<String, Settings> reloadConfiguration(Collection<String> configTypes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void persistConfiguration(String configurationType, Settings settings) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void subscribeOnChange(String configurationType, ConfigurationChangeListener listener) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private final InternalAuthenticationBackend backend = new InternalAuthenticationBackend(configurationRepository) {
+
+        @Override
+        boolean checkPassword(final String hashed, final byte[] password) {
+            bcryptChecks.incrementAndGet();
+            bcryptStarted.countDown();
+            try {
+                bcryptReleased.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.checkPassword(hashed, password);
+        }
+    };
+
+    @Test
+    public void testVerifiedCredentials() throws Exception {
+        internalUsers = Settings.builder().put("admin.hash", hash("secret")).putList("admin.roles", "admin_role").build();
+
+        final User user = backend.authenticate(new AuthCredentials("admin", "secret".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("admin", user.getName());
+        Assert.assertTrue(user.getRoles().contains("admin_role"));
+        Assert.assertEquals(1, bcryptChecks.get());
+
+        // verified again from the cache, mismatches are always checked
+        Assert.assertEquals("admin", backend.authenticate(new AuthCredentials("admin", "secret".getBytes(StandardCharsets.UTF_8))).getName());
+        Assert.assertEquals(1, bcryptChecks.get());
+        assertPasswordMismatch("admin", "wrong");
+        assertPasswordMismatch("admin", "wrong");
+        Assert.assertEquals(3, bcryptChecks.get());
+
+        // a changed hash invalidates the verified password
+        internalUsers = Settings.builder().put("admin.hash", hash("changed")).build();
+        assertPasswordMismatch("admin", "secret");
+        Assert.assertEquals("admin", backend.authenticate(new AuthCredentials("admin", "changed".getBytes(StandardCharsets.UTF_8))).getName());
+        Assert.assertEquals(5, bcryptChecks.get());
+    }
+
+    @Test
+    public void testConcurrentVerificationsShareOneCheck() throws Exception {
+        internalUsers = Settings.builder().put("admin.hash", hash("secret")).build();
+        bcryptStarted = new CountDownLatch(1);
+        bcryptReleased = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<User>> users = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                users.add(executor.submit(() -> backend.authenticate(new AuthCredentials("admin", "secret".getBytes(StandardCharsets.UTF_8)))));
+            }
+
+            // let the other verifications queue up behind the running check
+            Assert.assertTrue(bcryptStarted.await(10, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            bcryptReleased.countDown();
+
+            for (Future<User> user : users) {
+                Assert.assertEquals("admin", user.get(10, TimeUnit.SECONDS).getName());
+            }
+            Assert.assertEquals(1, bcryptChecks.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUsernameAttribute() throws Exception {
+        internalUsers = Settings.builder().put("user1.hash", hash("secret")).put("user1.username", "alias").build();
+
+        Assert.assertEquals("alias", backend.authenticate(new AuthCredentials("alias", "secret".getBytes(StandardCharsets.UTF_8))).getName());
+        Assert.assertTrue(backend.exists(new User("alias")));
+        Assert.assertFalse(backend.exists(new User("unknown")));
+
+        internalUsers = Settings.builder().put("user1.hash", hash("secret")).put("user1.username", "renamed").build();
+        Assert.assertFalse(backend.exists(new User("alias")));
+        Assert.assertTrue(backend.exists(new User("renamed")));
+    }
+
+    private void assertPasswordMismatch(final String username, final String password) {
+        try {
+            backend.authenticate(new AuthCredentials(username, password.getBytes(StandardCharsets.UTF_8)));
+            Assert.fail();
+        } catch (ElasticsearchSecurityException e) {
+            Assert.assertEquals("password does not match", e.getMessage());
+        }
+    }
+
+    private static String hash(final String password) {
+        final byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        return OpenBSDBCrypt.generate(password.toCharArray(), salt, 4);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.auth.internal;
+
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.settings.Settings;
+
+import com.amazon.opendistroforelasticsearch.security.auth.SharedAuthCache;
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+
+/**
+ * Test stand-in for a cluster-shared auth cache which shares the principals between all nodes of a cluster
+ * running in the same JVM, like the nodes of test clusters. Principals are kept in memory until they are older
+ * than {@link ConfigConstants#OPENDISTRO_SECURITY_CACHE_TTL_MINUTES}.
+ */
+public class LocalSharedAuthCache implements SharedAuthCache {
+
+    private static final int PURGE_THRESHOLD = 10000;
+    private static final ConcurrentMap<String, ConcurrentMap<String, CachedUser>> CLUSTERS = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, CachedUser> principals;
+    private final long ttlMillis;
+
+    public LocalSharedAuthCache(final Settings settings, final Path configPath) {
+        super();
+        this.principals = CLUSTERS.computeIfAbsent(ClusterName.CLUSTER_NAME_SETTING.get(settings).value(), c -> new ConcurrentHashMap<>());
+        this.ttlMillis = TimeUnit.MINUTES.toMillis(settings.getAsInt(ConfigConstants.OPENDISTRO_SECURITY_CACHE_TTL_MINUTES, 60));
+    }
+
+    @Override
+    public CachedUser get(final String cacheName, final String key, final long maxAgeMillis) {
+        final CachedUser user = principals.get(cacheName + "/" + key);
+
+        if (user == null || System.currentTimeMillis() - user.getCreatedMillis() >= maxAgeMillis) {
+            return null;
+        }
+
+        return user;
+    }
+
+    @Override
+    public void put(final String cacheName, final String key, final CachedUser user) {
+        if (principals.size() >= PURGE_THRESHOLD) {
+            final long now = System.currentTimeMillis();
+            principals.values().removeIf(u -> now - u.getCreatedMillis() >= ttlMillis);
+        }
+
+        principals.put(cacheName + "/" + key, user);
+    }
+
+    @Override
+    public void invalidate(final String cacheName, final BiPredicate<String, String> usernameAndDomain) {
+        principals.entrySet().removeIf(e -> e.getKey().startsWith(cacheName + "/")
+                && usernameAndDomain.test(e.getValue().getUsername(), e.getValue().getDomain()));
+    }
+}
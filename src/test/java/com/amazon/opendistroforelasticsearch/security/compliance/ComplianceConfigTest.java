@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.compliance;
+
+import java.nio.file.Files;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.support.CompiledWildcardMatcher;
+import com.amazon.opendistroforelasticsearch.security.support.ConfigConstants;
+
+public class ComplianceConfigTest {
+
+    @Test
+    public void testCachedPerIndex() throws Exception {
+        final ComplianceConfig config = complianceConfig();
+
+        Assert.assertTrue(config.writeHistoryEnabledForIndex("finance-1"));
+        Assert.assertTrue(!config.writeHistoryEnabledForIndex("other"));
+        Assert.assertTrue(!config.writeHistoryEnabledForIndex(null));
+
+        final CompiledWildcardMatcher fields = config.getReadHistoryFieldsMatcher("finance-1");
+        Assert.assertTrue(fields.test("salary"));
+        Assert.assertTrue(fields.test("bonus.amount"));
+        Assert.assertTrue(!fields.test("name"));
+        Assert.assertTrue(config.readHistoryEnabledForIndex("finance-1"));
+        Assert.assertTrue(config.readHistoryEnabledForField("finance-1", "salary"));
+        Assert.assertSame(fields, config.getReadHistoryFieldsMatcher("finance-1"));
+
+        Assert.assertSame(CompiledWildcardMatcher.NONE, config.getReadHistoryFieldsMatcher("other"));
+        Assert.assertTrue(!config.readHistoryEnabledForIndex("other"));
+    }
+
+    @Test
+    public void testInvalidatedOnIndexCreationAndDeletion() throws Exception {
+        final ComplianceConfig config = complianceConfig();
+        final CompiledWildcardMatcher fields = config.getReadHistoryFieldsMatcher("finance-1");
+        final CompiledWildcardMatcher otherFields = config.getReadHistoryFieldsMatcher("finance-2");
+
+        final ClusterState empty = ClusterState.builder(new ClusterName("test")).build();
+        final ClusterState withIndex = ClusterState.builder(empty).metaData(MetaData.builder().put(IndexMetaData.builder("finance-1")
+                .settings(Settings.builder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT))
+                .numberOfShards(1).numberOfReplicas(0))).build();
+
+        config.clusterChanged(new ClusterChangedEvent("test", withIndex, empty));
+        final CompiledWildcardMatcher recreated = config.getReadHistoryFieldsMatcher("finance-1");
+        Assert.assertNotSame(fields, recreated);
+        Assert.assertSame(otherFields, config.getReadHistoryFieldsMatcher("finance-2"));
+
+        config.clusterChanged(new ClusterChangedEvent("test", empty, withIndex));
+        Assert.assertNotSame(recreated, config.getReadHistoryFieldsMatcher("finance-1"));
+        Assert.assertTrue(config.getReadHistoryFieldsMatcher("finance-1").test("salary"));
+        Assert.assertTrue(config.writeHistoryEnabledForIndex("finance-1"));
+    }
+
+    private static ComplianceConfig complianceConfig() throws Exception {
+        final Settings settings = Settings.builder()
+                .put("path.home", Files.createTempDirectory("compliance").toString())
+                .putList(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_READ_WATCHED_FIELDS, "finance-*,salary,bonus.*")
+                .putList(ConfigConstants.OPENDISTRO_SECURITY_COMPLIANCE_HISTORY_WRITE_WATCHED_INDICES, "finance-*")
+                .build();
+        return new ComplianceConfig(new Environment(settings, null), null, null);
+    }
+}
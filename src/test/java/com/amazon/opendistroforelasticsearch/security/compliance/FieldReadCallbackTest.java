@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.compliance;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.amazon.opendistroforelasticsearch.security.auditlog.AuditLog;
+import com.amazon.opendistroforelasticsearch.security.support.CompiledWildcardMatcher;
+
+public class FieldReadCallbackTest {
+
+    private static final String SOURCE = "{\"a\":{\"b\":1,\"c\":[1,2.50,{\"d\":\"x\"}],\"e\":{},\"f\":[],\"g\":null,\"h\":true,\"i.j\":3,\"k\":1e5},"
+            + "\"x.y\":{\"z\":1},\"secret\":\"s\",\"other\":{\"deep\":{\"deeper\":[\"not read\"]}}}";
+
+    @Test
+    public void testFlattenedKeys() throws Exception {
+        final Map<String, String> expected = new HashMap<>();
+        expected.put("a.b", "1");
+        expected.put("a.c[0]", "1");
+        expected.put("a.c[1]", "2.50");
+        expected.put("a.c[2].d", "x");
+        expected.put("a.e", "{}");
+        expected.put("a.f", "[]");
+        expected.put("a.g", "null");
+        expected.put("a.h", "true");
+        expected.put("a[\\\"i.j\\\"]", "3");
+        expected.put("a.k", "1E+5");
+        expected.put("[\\\"x.y\\\"].z", "1");
+        expected.put("secret", "s");
+        expected.put("other.deep.deeper[0]", "not read");
+
+        Assert.assertEquals(expected, read(Collections.singleton("*"), null));
+    }
+
+    @Test
+    public void testWatchedFields() throws Exception {
+        final Map<String, String> expected = new HashMap<>();
+        expected.put("a.b", "1");
+        expected.put("a.c[2].d", "x");
+
+        Assert.assertEquals(expected, read(Arrays.asList("a.b", "a.c*.d", "secret"), Collections.singleton("secret")));
+    }
+
+    @Test
+    public void testNoWatchedFields() throws Exception {
+        final AuditLog auditLog = mock(AuditLog.class);
+        final FieldReadCallback callback = callback(CompiledWildcardMatcher.NONE, null, auditLog);
+        callback.binaryFieldRead(sourceField(), SOURCE.getBytes(StandardCharsets.UTF_8));
+        callback.finished();
+        verifyZeroInteractions(auditLog);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> read(final Collection<String> watchedFields, final Set<String> maskedFields) {
+        final AuditLog auditLog = mock(AuditLog.class);
+        final FieldReadCallback callback = callback(CompiledWildcardMatcher.compile(watchedFields, false), maskedFields, auditLog);
+        callback.binaryFieldRead(sourceField(), SOURCE.getBytes(StandardCharsets.UTF_8));
+        callback.finished();
+
+        final ArgumentCaptor<Map<String, String>> fields = ArgumentCaptor.forClass(Map.class);
+        verify(auditLog).logDocumentRead(eq("index"), any(), any(), fields.capture(), any());
+        return fields.getValue();
+    }
+
+    private static FieldReadCallback callback(final CompiledWildcardMatcher watchedFields, final Set<String> maskedFields, final AuditLog auditLog) {
+        final IndexService indexService = mock(IndexService.class);
+        when(indexService.index()).thenReturn(new Index("index", "uuid"));
+        final ComplianceConfig complianceConfig = mock(ComplianceConfig.class);
+        when(complianceConfig.getReadHistoryFieldsMatcher("index")).thenReturn(watchedFields);
+
+        return new FieldReadCallback(new ThreadContext(Settings.EMPTY), indexService, null, complianceConfig, auditLog,
+                CompiledWildcardMatcher.compile(maskedFields, false), new ShardId("index", "uuid", 0));
+    }
+
+    private static FieldInfo sourceField() {
+        return new FieldInfo("_source", 0, false, false, false, IndexOptions.NONE, DocValuesType.NONE, -1,
+                Collections.emptyMap(), 0, 0, 0, false);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.configuration;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DlsFlsCacheHelperTest {
+
+    @Test
+    public void testDlsFlsRestrictionsKey() throws Exception {
+        final String key = DlsFlsCacheHelper.restrictionsKey(Arrays.asList("a", "b*"), null);
+        Assert.assertEquals(key, DlsFlsCacheHelper.restrictionsKey(Arrays.asList("b*", "a"), null));
+        Assert.assertNotEquals(key, DlsFlsCacheHelper.restrictionsKey(Arrays.asList("a", "b*"), Collections.<String>emptySet()));
+        Assert.assertNotEquals(key, DlsFlsCacheHelper.restrictionsKey(null, Arrays.asList("a", "b*")));
+        Assert.assertNotEquals(DlsFlsCacheHelper.restrictionsKey(Arrays.asList("ab", "c")), DlsFlsCacheHelper.restrictionsKey(Arrays.asList("a", "bc")));
+    }
+
+    @Test
+    public void testDlsFlsRestrictionsSearchExt() throws Exception {
+        final SearchSourceBuilder source = new SearchSourceBuilder().size(0);
+        final SearchSourceBuilder restricted = DlsFlsRestrictionsSearchExt.withRestrictions(source, "key1");
+
+        //the source is shared with the requests of other shards and must not be changed
+        Assert.assertTrue(source.ext().isEmpty());
+        Assert.assertEquals(0, restricted.size());
+        Assert.assertEquals(Collections.singletonList(new DlsFlsRestrictionsSearchExt("key1")), restricted.ext());
+        Assert.assertEquals(Collections.singletonList(new DlsFlsRestrictionsSearchExt("key2")),
+                DlsFlsRestrictionsSearchExt.withRestrictions(restricted, "key2").ext());
+        Assert.assertEquals(Collections.singletonList(new DlsFlsRestrictionsSearchExt("key1")),
+                DlsFlsRestrictionsSearchExt.withRestrictions(null, "key1").ext());
+
+        //the restrictions are part of the serialized request (the request cache key), but are never rendered
+        Assert.assertNotEquals(serialize(restricted), serialize(DlsFlsRestrictionsSearchExt.withRestrictions(source, "key2")));
+        Assert.assertEquals(serialize(restricted), serialize(DlsFlsRestrictionsSearchExt.withRestrictions(source, "key1")));
+        Assert.assertFalse(restricted.toString().contains("key1"));
+    }
+
+    private static BytesReference serialize(final SearchSourceBuilder source) throws Exception {
+        final BytesStreamOutput out = new BytesStreamOutput();
+        source.writeTo(out);
+        return out.bytes();
+    }
+
+    @Test
+    public void testDlsFlsRestrictedQueryCache() throws Exception {
+        try (Directory directory = new RAMDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+                final Document document = new Document();
+                document.add(new StringField("field", "value", Field.Store.NO));
+                writer.addDocument(document);
+            }
+
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                final IndexSearcher searcher = new IndexSearcher(reader);
+                final LRUQueryCache cache = new LRUQueryCache(100, 1 << 20, context -> true);
+                final Weight weight = searcher.createWeight(new TermQuery(new Term("field", "value")), false, 1f);
+                final String restrictions = DlsFlsCacheHelper.restrictionsKey(Arrays.asList("field"), null);
+
+                cache.doCache(weight, QueryCachingPolicy.ALWAYS_CACHE).scorer(reader.leaves().get(0));
+                cache.doCache(DlsFlsCacheHelper.restrict(weight, restrictions), DlsFlsCacheHelper.restrict(QueryCachingPolicy.ALWAYS_CACHE))
+                        .scorer(reader.leaves().get(0));
+                Assert.assertEquals(2, cache.getCacheCount());
+                Assert.assertEquals(0, cache.getHitCount());
+
+                // same restrictions share the cache entry
+                Assert.assertNotNull(cache.doCache(DlsFlsCacheHelper.restrict(weight, restrictions), QueryCachingPolicy.ALWAYS_CACHE)
+                        .scorer(reader.leaves().get(0)));
+                Assert.assertEquals(2, cache.getCacheCount());
+                Assert.assertEquals(1, cache.getHitCount());
+            }
+        }
+    }
+}
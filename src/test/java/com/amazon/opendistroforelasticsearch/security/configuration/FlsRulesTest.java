@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.configuration;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FlsRulesTest {
+
+    @Test
+    public void testFieldInfosCachedPerSegment() throws Exception {
+        try (Directory directory = new RAMDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+                final Document doc = new Document();
+                doc.add(new StringField("a", "1", Field.Store.YES));
+                doc.add(new StringField("b.c", "2", Field.Store.YES));
+                doc.add(new StringField("d", "3", Field.Store.YES));
+                writer.addDocument(doc);
+            }
+
+            final Set<String> fls = new HashSet<>(Arrays.asList("a", "b.*"));
+            final String key = DlsFlsCacheHelper.restrictionsKey(fls, null);
+            final FlsRules rules = FlsRules.get(key, fls, null, null);
+            Assert.assertSame(rules, FlsRules.get(key, fls, null, null));
+            Assert.assertSame(FlsRules.NONE, FlsRules.get(null, null, null, null));
+
+            final DirectoryReader reader = DirectoryReader.open(directory);
+            final LeafReader leaf = reader.leaves().get(0).reader();
+            final FieldInfos infos = rules.fieldInfos(leaf);
+
+            Assert.assertEquals(2, infos.size());
+            Assert.assertNotNull(infos.fieldInfo("a"));
+            Assert.assertNotNull(infos.fieldInfo("b.c"));
+            Assert.assertNull(infos.fieldInfo("d"));
+            Assert.assertSame(infos, rules.fieldInfos(leaf));
+            Assert.assertTrue(FlsRules.FIELD_INFOS.containsKey(leaf.getCoreCacheHelper().getKey()));
+
+            reader.close();
+            Assert.assertFalse(FlsRules.FIELD_INFOS.containsKey(leaf.getCoreCacheHelper().getKey()));
+        }
+    }
+}
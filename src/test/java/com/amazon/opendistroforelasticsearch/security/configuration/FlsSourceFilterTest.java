@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.configuration;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.support.CompiledWildcardMatcher;
+
+public class FlsSourceFilterTest {
+
+    private static final String SOURCE = "{\"a\":1,\"b\":{\"c\":\"x\",\"d\":[1,2,{\"e\":\"y\",\"f\":null}],\"g\":{}},"
+            + "\"h\":[{\"i\":\"z\"},{\"j\":true}],\"k\":[[\"l\"],[]],\"m.n\":2.5,\"o\":{\"p\":{\"q\":\"r\"}}}";
+
+    @Test
+    public void testSameResultAsMapFilter() throws Exception {
+        final List<List<String>> patterns = Arrays.asList(
+                Arrays.asList("a"), Arrays.asList("b"), Arrays.asList("b.c"), Arrays.asList("b.d.e"), Arrays.asList("b.*"),
+                Arrays.asList("h.i"), Arrays.asList("k"), Arrays.asList("m"), Arrays.asList("m.n"), Arrays.asList("o.p.q", "a"),
+                Arrays.asList("*"), Arrays.asList("x"), Arrays.asList("*.c"), Arrays.asList("b*", "h"));
+
+        for (List<String> p : patterns) {
+            Assert.assertEquals("includes " + p, mapFilter(p, null), streamFilter(p, null));
+            Assert.assertEquals("excludes " + p, mapFilter(null, p), streamFilter(null, p));
+        }
+    }
+
+    @Test
+    public void testKeepsEmptyIncludedArrays() throws Exception {
+        final String source = "{\"a\":[],\"b\":{\"c\":[],\"d\":[{\"e\":1}]},\"x\":[]}";
+        final List<String> includes = Arrays.asList("a", "b");
+        final List<String> excludes = Arrays.asList("a.y", "b.c.y", "b.d.e");
+
+        final Map<String, Object> result = toMap(FlsSourceFilter.create(includes, excludes, null, null)
+                .apply(source.getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals(toMap("{\"a\":[],\"b\":{\"c\":[],\"d\":[]}}".getBytes(StandardCharsets.UTF_8)), result);
+        Assert.assertEquals(XContentMapValues.filter(includes.toArray(new String[0]), excludes.toArray(new String[0]))
+                .apply(toMap(source.getBytes(StandardCharsets.UTF_8))), result);
+    }
+
+    @Test
+    public void testMasking() throws Exception {
+        final MaskedField masked = new MaskedField("b.c", new byte[16]);
+        final FlsSourceFilter filter = FlsSourceFilter.masking(CompiledWildcardMatcher.of(Collections.singleton("b.c")),
+                Collections.singletonMap("b.c", masked));
+
+        final String source = "{\"b\":{\"c\":\"secret\",\"x\":\"plain\"},\"h\":[{\"b\":{\"c\":\"other\"}}]}";
+        final Map<String, Object> result = toMap(filter.apply(source.getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals(masked.mask("secret"), XContentMapValues.extractValue("b.c", result));
+        Assert.assertEquals("plain", XContentMapValues.extractValue("b.x", result));
+        Assert.assertEquals(toMap(source.getBytes(StandardCharsets.UTF_8)).get("h"), result.get("h"));
+    }
+
+    private static Map<String, Object> mapFilter(List<String> includes, List<String> excludes) {
+        return XContentMapValues.filter(includes == null ? null : includes.toArray(new String[0]),
+                excludes == null ? null : excludes.toArray(new String[0])).apply(toMap(SOURCE.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Map<String, Object> streamFilter(List<String> includes, List<String> excludes) throws Exception {
+        return toMap(FlsSourceFilter.create(includes, excludes, null, null).apply(SOURCE.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Map<String, Object> toMap(byte[] source) {
+        return XContentHelper.convertToMap(new BytesArray(source), false, XContentType.JSON).v2();
+    }
+}
@@ -31,20 +31,31 @@ public class FlushCacheApiTest extends AbstractRestApiUnitTest {
 
 		setup();
 
-		// Only DELETE is allowed for flush cache
+		// Only DELETE is allowed for flush cache, GET returns the cache stats
 		rh.keystore = "restapi/kirk-keystore.jks";
 		rh.sendAdminCertificate = true;
 
 		// GET
-		HttpResponse response = rh.executeGetRequest("/_opendistro/_security/api/cache");
-		Assert.assertEquals(HttpStatus.SC_NOT_IMPLEMENTED, response.getStatusCode());
-		Settings settings = Settings.builder().loadFromSource(response.getBody(), XContentType.JSON).build();
-		Assert.assertEquals(settings.get("message"), "Method GET not supported for this action.");
+		final long hits = userCacheStat("hits");
+		final long misses = userCacheStat("misses");
+		final long evictions = userCacheStat("evictions");
+		final long size = userCacheStat("size");
+
+		// the first login loads the user, the second one is served from the cache
+		rh.sendAdminCertificate = false;
+		Assert.assertEquals(HttpStatus.SC_OK, rh.executeGetRequest("/_opendistro/_security/authinfo", encodeBasicHeader("worf", "worf")).getStatusCode());
+		Assert.assertEquals(HttpStatus.SC_OK, rh.executeGetRequest("/_opendistro/_security/authinfo", encodeBasicHeader("worf", "worf")).getStatusCode());
+		rh.sendAdminCertificate = true;
+
+		Assert.assertEquals(misses + 1, userCacheStat("misses"));
+		Assert.assertEquals(hits + 1, userCacheStat("hits"));
+		Assert.assertEquals(evictions, userCacheStat("evictions"));
+		Assert.assertEquals(size + 1, userCacheStat("size"));
 
 		// PUT
-		response = rh.executePutRequest("/_opendistro/_security/api/cache", "{}", new Header[0]);
+		HttpResponse response = rh.executePutRequest("/_opendistro/_security/api/cache", "{}", new Header[0]);
 		Assert.assertEquals(HttpStatus.SC_NOT_IMPLEMENTED, response.getStatusCode());
-		settings = Settings.builder().loadFromSource(response.getBody(), XContentType.JSON).build();
+		Settings settings = Settings.builder().loadFromSource(response.getBody(), XContentType.JSON).build();
 		Assert.assertEquals(settings.get("message"), "Method PUT not supported for this action.");
 
 		// POST
@@ -59,5 +70,25 @@ public class FlushCacheApiTest extends AbstractRestApiUnitTest {
 		settings = Settings.builder().loadFromSource(response.getBody(), XContentType.JSON).build();
 		Assert.assertEquals(settings.get("message"), "Cache flushed successfully.");
 
+		// all cached users were evicted by the flush
+		Assert.assertEquals(evictions + size + 1, userCacheStat("evictions"));
+		Assert.assertEquals(0L, userCacheStat("size"));
+	}
+
+	/**
+	 * @return the sum of the given user cache statistic of all nodes
+	 */
+	private long userCacheStat(final String stat) throws Exception {
+		final HttpResponse response = rh.executeGetRequest("/_opendistro/_security/api/cache");
+		Assert.assertEquals(HttpStatus.SC_OK, response.getStatusCode());
+
+		final Settings nodes = Settings.builder().loadFromSource(response.getBody(), XContentType.JSON).build().getByPrefix("nodes.");
+		long sum = 0;
+		for (String key : nodes.keySet()) {
+			if (key.endsWith(".auth_cache.user_cache." + stat)) {
+				sum += nodes.getAsLong(key, 0L);
+			}
+		}
+		return sum;
 	}
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.securityconf;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.configuration.ActionGroupHolder;
+import com.amazon.opendistroforelasticsearch.security.configuration.ConfigurationChangeListener;
+import com.amazon.opendistroforelasticsearch.security.configuration.ConfigurationRepository;
+import com.amazon.opendistroforelasticsearch.security.securityconf.ConfigModel.SecurityRole;
+
+public class ConfigModelTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private volatile Settings actionGroups = Settings.builder()
+            .putList("READ_GROUP", "indices:data/read*")
+            .putList("WRITE_GROUP", "indices:data/write*").build();
+
+    private final ActionGroupHolder ah = new ActionGroupHolder(new ConfigurationRepository() {
+
+        @Override
+        public Settings getConfiguration(String configurationType) {
+            return actionGroups;
+        }
+
+        @Override
+        public Map<String, Settings> reloadConfiguration(Collection<String> configTypes) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void persistConfiguration(String configurationType, Settings settings) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void subscribeOnChange(String configurationType, ConfigurationChangeListener listener) {
+            throw new UnsupportedOperationException();
+        }
+    });
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testOnlyChangedRolesAreRebuilt() throws Exception {
+        final Settings roles = Settings.builder()
+                .putList("reader.cluster", "cluster:monitor/*")
+                .putList("reader.indices.logs-*.*", "READ_GROUP")
+                .putList("writer.indices.data.*", "WRITE_GROUP")
+                .putList("admin.cluster", "*")
+                .putList("admin.tenants.admin_tenant", "RW").build();
+
+        final ConfigModel configModel = new ConfigModel(ah, executor);
+        configModel.onChange(roles);
+        final Map<String, SecurityRole> before = byName(configModel);
+        Assert.assertEquals(3, before.size());
+
+        final Settings changedRoles = Settings.builder().put(roles).putList("writer.indices.data.*", "READ_GROUP").build();
+        configModel.onChange(changedRoles);
+        final Map<String, SecurityRole> after = byName(configModel);
+
+        Assert.assertSame(before.get("reader"), after.get("reader"));
+        Assert.assertSame(before.get("admin"), after.get("admin"));
+        Assert.assertNotSame(before.get("writer"), after.get("writer"));
+        Assert.assertEquals(fullRebuild(changedRoles), configModel.getSecurityRoles());
+    }
+
+    @Test
+    public void testChangedActionGroupRebuildsReferringRoles() throws Exception {
+        final Settings roles = Settings.builder()
+                .putList("reader.indices.logs-*.*", "READ_GROUP")
+                .putList("writer.indices.data.*", "WRITE_GROUP").build();
+
+        final ConfigModel configModel = new ConfigModel(ah, executor);
+        configModel.onChange(roles);
+        final Map<String, SecurityRole> before = byName(configModel);
+
+        actionGroups = Settings.builder().put(actionGroups).putList("READ_GROUP", "indices:data/read*", "indices:admin/mappings/get*").build();
+        configModel.getActionGroupsChangeListener().onChange(actionGroups);
+        final Map<String, SecurityRole> after = byName(configModel);
+
+        Assert.assertNotSame(before.get("reader"), after.get("reader"));
+        Assert.assertSame(before.get("writer"), after.get("writer"));
+        Assert.assertEquals(fullRebuild(roles), configModel.getSecurityRoles());
+    }
+
+    private ConfigModel.SecurityRoles fullRebuild(final Settings roles) {
+        final ConfigModel configModel = new ConfigModel(ah, executor);
+        configModel.onChange(roles);
+        return configModel.getSecurityRoles();
+    }
+
+    private static Map<String, SecurityRole> byName(final ConfigModel configModel) {
+        final Map<String, SecurityRole> roles = new HashMap<>();
+        for (SecurityRole role : configModel.getSecurityRoles().getRoles()) {
+            roles.put(role.getName(), role);
+        }
+        return roles;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.support;
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.amazon.opendistroforelasticsearch.security.user.User;
+import com.google.common.collect.ImmutableMap;
+
+public class Base64HelperTest {
+
+    @Test
+    public void testBinaryHeaderFormat() throws Exception {
+        final User user = new User("user", Arrays.asList("br1", "br2"), null);
+        user.setRequestedTenant("tenant");
+        user.addAttributes(ImmutableMap.of("attr.a", "b"));
+
+        final HashMap<String, Set<String>> dls = new HashMap<>();
+        dls.put("index*", new HashSet<>(Arrays.asList("{\"term\":{\"a\":1}}")));
+
+        final InetSocketAddress address = new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 9300);
+
+        for (Serializable object : Arrays.<Serializable>asList(user, dls, address)) {
+            final String binary = Base64Helper.serializeObject(object, true);
+            final String java = Base64Helper.serializeObject(object, false);
+            Assert.assertNotEquals(java, binary);
+            Assert.assertTrue(binary.length() < java.length());
+            Assert.assertEquals(object, Base64Helper.deserializeObject(binary));
+            Assert.assertEquals(object, Base64Helper.deserializeObject(java));
+            Assert.assertTrue(Base64Helper.ensureJavaSerialized(binary).startsWith("rO0"));
+            Assert.assertEquals(object, Base64Helper.deserializeObject(Base64Helper.ensureJavaSerialized(binary)));
+            Assert.assertEquals(java, Base64Helper.ensureJavaSerialized(java));
+        }
+
+        final User decoded = (User) Base64Helper.deserializeObject(Base64Helper.serializeObject(user, true));
+        Assert.assertEquals(user.getRoles(), decoded.getRoles());
+        Assert.assertEquals("tenant", decoded.getRequestedTenant());
+        Assert.assertEquals(user.getCustomAttributesMap(), decoded.getCustomAttributesMap());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledWildcardMatcherTest {
+
+    @Test
+    public void testCompiledWildcards() {
+        Assert.assertTrue(!compiled("a*?").test("a"));
+        Assert.assertTrue(compiled("a*?").test("aa"));
+        Assert.assertTrue(compiled("a*?").test("ab"));
+        Assert.assertTrue(!compiled("a*?").test("abb"));
+        Assert.assertTrue(compiled("*my*index").test("myindex"));
+        Assert.assertTrue(!compiled("*my*index").test("myindex1"));
+        Assert.assertTrue(compiled("*my*index?").test("myindex1"));
+        Assert.assertTrue(compiled("*my*index").test("this_is_my_great_index"));
+        Assert.assertTrue(!compiled("*my*index").test("MYindex"));
+        Assert.assertTrue(!compiled("?kibana").test("kibana"));
+        Assert.assertTrue(compiled("?kibana").test(".kibana"));
+        Assert.assertTrue(!compiled("?kibana").test("kibana."));
+        Assert.assertTrue(compiled("?kibana?").test("?kibana."));
+        Assert.assertTrue(compiled("/(\\d{3}-?\\d{2}-?\\d{4})/").test("123-45-6789"));
+        Assert.assertTrue(!compiled("(\\d{3}-?\\d{2}-?\\d{4})").test("123-45-6789"));
+        Assert.assertTrue(compiled("/\\S*/").test("abc"));
+        Assert.assertTrue(compiled("abc").test("abc"));
+        Assert.assertTrue(!compiled("ABC").test("abc"));
+        Assert.assertTrue(!CompiledWildcardMatcher.NONE.test("abc"));
+        Assert.assertTrue(compiled("*").test(""));
+
+        final CompiledWildcardMatcher matcher = compiled("logs-*", "metrics-20??", "audit", "/sec.+/");
+        Assert.assertTrue(matcher.test("logs-2019"));
+        Assert.assertTrue(matcher.test("metrics-2019"));
+        Assert.assertTrue(!matcher.test("metrics-201"));
+        Assert.assertTrue(matcher.test("audit"));
+        Assert.assertTrue(!matcher.test("audit1"));
+        Assert.assertTrue(matcher.test("security"));
+        Assert.assertTrue(matcher.matchAll(new String[] { "logs-a", "audit" }));
+        Assert.assertTrue(!matcher.matchAll(new String[] { "logs-a", "other" }));
+        Assert.assertEquals(Arrays.asList("logs-a", "audit"), matcher.getMatchAny(Arrays.asList("logs-a", "other", "audit")));
+
+        final CompiledWildcardMatcher overlapping = compiled("a*", "ab*", "abc", "x");
+        Assert.assertEquals(Arrays.asList("a*", "ab*", "abc"), overlapping.getAllMatchingPatterns("abc"));
+        Assert.assertEquals(Arrays.asList("a*"), overlapping.getAllMatchingPatterns("az"));
+        Assert.assertTrue(overlapping.getAllMatchingPatterns("zz").isEmpty());
+        Assert.assertEquals("x", overlapping.getFirstMatchingPattern("x").get());
+        Assert.assertEquals("a*", overlapping.getFirstMatchingPattern("abc").get());
+        Assert.assertEquals("abc", compiled("abc", "ab*", "a*").getFirstMatchingPattern("abc").get());
+        Assert.assertEquals(Arrays.asList("a*", "ab*", "abc"), overlapping.getAllMatchingPatterns(Arrays.asList("abc", "abd", "abc")));
+
+        final CompiledWildcardMatcher ignoreCase = CompiledWildcardMatcher.compile(Arrays.asList("MY*", "Exact"), true);
+        Assert.assertTrue(ignoreCase.test("myindex"));
+        Assert.assertTrue(ignoreCase.test("EXACT"));
+        Assert.assertEquals(Arrays.asList("Exact"), ignoreCase.getAllMatchingPatterns("exact"));
+
+        Assert.assertSame(CompiledWildcardMatcher.of(Arrays.asList("a*", "b")), CompiledWildcardMatcher.of(Arrays.asList("a*", "b", "a*")));
+        Assert.assertNotSame(CompiledWildcardMatcher.of(Arrays.asList("a*", "b")), CompiledWildcardMatcher.of(Arrays.asList("b", "a*")));
+
+        final CompiledWildcardMatcher fields = compiled("a.b", "c.*.d", "e?");
+        Assert.assertTrue(fields.matchesPrefix(""));
+        Assert.assertTrue(fields.matchesPrefix("a"));
+        Assert.assertTrue(fields.matchesPrefix("a.b"));
+        Assert.assertTrue(!fields.matchesPrefix("a.c"));
+        Assert.assertTrue(fields.matchesPrefix("c.x.y"));
+        Assert.assertTrue(fields.matchesPrefix("e1"));
+        Assert.assertTrue(!fields.matchesPrefix("e12"));
+        Assert.assertTrue(!fields.matchesPrefix("f"));
+        Assert.assertTrue(compiled("/a.*/").matchesPrefix("f"));
+        Assert.assertTrue(!CompiledWildcardMatcher.NONE.matchesPrefix(""));
+    }
+
+    @Test
+    public void testCompiledWildcardsMatchWildcardMatcher() {
+        final List<List<String>> patternLists = Arrays.asList(
+                Arrays.asList("a*?", "?*", "*?", "*?b", "a**?", "a*?b", "a?*"),
+                Arrays.asList("ab", "a*", "*b", "/a.?/", "a?", "abc", "a*"),
+                Arrays.asList("/\\S*/", "*", "x"),
+                Arrays.asList("Logs-*", "logs-20??", "/LOGS-.*/", "logs-2019", "*-2019"),
+                Arrays.asList("*my*index", "*my*index?", "?kibana", "?kibana?", "my*?index"));
+        final List<String> candidates = Arrays.asList("", "a", "b", "aa", "ab", "abb", "abc", "ba", "bab", "x", "A", "AB",
+                "logs-2019", "LOGS-2019", "Logs-20x", "metrics-2019", "myindex", "myindex1", "this_is_my_great_index",
+                "MYindex", ".kibana", "kibana", "?kibana.", "my1index");
+
+        for (boolean ignoreCase : new boolean[] { false, true }) {
+            for (List<String> patterns : patternLists) {
+                final CompiledWildcardMatcher matcher = CompiledWildcardMatcher.compile(patterns, ignoreCase);
+                final List<String> distinctPatterns = new ArrayList<>(new LinkedHashSet<>(patterns));
+
+                for (String candidate : candidates) {
+                    final List<String> expected = new ArrayList<>();
+                    for (String pattern : distinctPatterns) {
+                        if (WildcardMatcher.match(pattern, candidate, ignoreCase)) {
+                            expected.add(pattern);
+                        }
+                    }
+                    final String message = patterns + " " + candidate + " ignoreCase=" + ignoreCase;
+                    Assert.assertEquals(message, !expected.isEmpty(), matcher.test(candidate));
+                    Assert.assertEquals(message, expected, matcher.getAllMatchingPatterns(candidate));
+                    Assert.assertEquals(message, expected.isEmpty() ? null : expected.get(0),
+                            matcher.getFirstMatchingPattern(candidate).orElse(null));
+                    if (!ignoreCase) {
+                        Assert.assertEquals(message, expected, WildcardMatcher.getAllMatchingPatterns(distinctPatterns, candidate));
+                        Assert.assertEquals(message, WildcardMatcher.getFirstMatchingPattern(patterns, candidate),
+                                matcher.getFirstMatchingPattern(candidate));
+                    }
+                }
+
+                if (!ignoreCase) {
+                    final List<String> expected = new ArrayList<>();
+                    for (String pattern : distinctPatterns) {
+                        if (WildcardMatcher.getAllMatchingPatterns(Arrays.asList(pattern), candidates).size() > 0) {
+                            expected.add(pattern);
+                        }
+                    }
+                    Assert.assertEquals(patterns.toString(), expected, matcher.getAllMatchingPatterns(candidates));
+                    Assert.assertEquals(patterns.toString(), new HashSet<>(WildcardMatcher.getAllMatchingPatterns(distinctPatterns, candidates)),
+                            new HashSet<>(matcher.getAllMatchingPatterns(candidates)));
+                }
+            }
+        }
+    }
+
+    private static CompiledWildcardMatcher compiled(String... patterns) {
+        return CompiledWildcardMatcher.of(Arrays.asList(patterns));
+    }
+}
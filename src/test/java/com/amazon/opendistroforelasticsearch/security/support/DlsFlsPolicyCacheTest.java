@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License").
+ *  You may not use this file except in compliance with the License.
+ *  A copy of the License is located at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  or in the "license" file accompanying this file. This file is distributed
+ *  on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ *  express or implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.amazon.opendistroforelasticsearch.security.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ThreadContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DlsFlsPolicyCacheTest {
+
+    @Test
+    public void testDlsFlsPolicyReferences() throws Exception {
+        final HashMap<String, Set<String>> dls = new HashMap<>();
+        dls.put("index*", new HashSet<>(Arrays.asList("{\"term\":{\"a\":1}}")));
+        final String serialized = Base64Helper.serializeObject(dls, true);
+        final ThreadContext threadContext = new ThreadContext(Settings.EMPTY);
+
+        final String reference = new DlsFlsPolicyCache().toReference(threadContext, "node1", serialized);
+        Assert.assertTrue(DlsFlsPolicyCache.isReference(reference));
+        Assert.assertFalse(DlsFlsPolicyCache.isReference(serialized));
+        Assert.assertEquals(serialized, DlsFlsPolicyCache.resolve(threadContext, reference));
+        Assert.assertEquals(serialized, DlsFlsPolicyCache.resolve(threadContext, serialized));
+        Assert.assertTrue(DlsFlsPolicyCache.matches(threadContext, reference, dls));
+        Assert.assertTrue(DlsFlsPolicyCache.matches(threadContext, Base64Helper.serializeObject(dls), dls));
+
+        final HashMap<String, Set<String>> other = new HashMap<>(dls);
+        other.put("other", new HashSet<>(Arrays.asList("{}")));
+        Assert.assertFalse(DlsFlsPolicyCache.matches(threadContext, reference, other));
+
+        //references are only resolved for requests which pinned them
+        try {
+            DlsFlsPolicyCache.resolve(new ThreadContext(Settings.EMPTY), reference);
+            Assert.fail();
+        } catch (ElasticsearchSecurityException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testDlsFlsPolicyFetch() throws Exception {
+        final String serialized = Base64Helper.serializeObject(new HashMap<>(Collections.singletonMap("index*", "{}")), true);
+        final String reference = new DlsFlsPolicyCache().toReference(new ThreadContext(Settings.EMPTY), "node1", serialized);
+        final ThreadContext threadContext = new ThreadContext(Settings.EMPTY);
+        final List<ActionListener<String>> fetches = new ArrayList<>();
+
+        final DlsFlsPolicyCache cache = new DlsFlsPolicyCache((nodeId, hash, listener) -> {
+            Assert.assertEquals("node1", nodeId);
+            Assert.assertNull(threadContext.getHeader(ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER));
+            fetches.add(listener);
+        });
+
+        //the policy is fetched without blocking, the listener is called with the context of the request
+        threadContext.putHeader(ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER, reference);
+        final List<String> resolved = new ArrayList<>();
+        Assert.assertFalse(cache.resolveReferences(threadContext, ActionListener.wrap(
+                v -> resolved.add(DlsFlsPolicyCache.resolve(threadContext, reference)), e -> Assert.fail(e.toString()))));
+        Assert.assertEquals(1, fetches.size());
+        Assert.assertTrue(resolved.isEmpty());
+
+        fetches.get(0).onResponse(serialized);
+        Assert.assertEquals(Arrays.asList(serialized), resolved);
+        Assert.assertEquals(serialized, DlsFlsPolicyCache.resolve(threadContext, reference));
+
+        //known policies are pinned right away
+        try (ThreadContext.StoredContext ctx = threadContext.stashContext()) {
+            threadContext.putHeader(ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER, reference);
+            Assert.assertTrue(cache.resolveReferences(threadContext, ActionListener.wrap(v -> Assert.fail(), e -> Assert.fail())));
+            Assert.assertEquals(serialized, DlsFlsPolicyCache.resolve(threadContext, reference));
+            Assert.assertEquals(1, fetches.size());
+        }
+
+        //policies which do not match their reference are rejected
+        final String tampered = new DlsFlsPolicyCache().toReference(new ThreadContext(Settings.EMPTY), "node1", "other");
+        final List<Exception> failures = new ArrayList<>();
+        try (ThreadContext.StoredContext ctx = threadContext.stashContext()) {
+            threadContext.putHeader(ConfigConstants.OPENDISTRO_SECURITY_DLS_QUERY_HEADER, tampered);
+            Assert.assertFalse(cache.resolveReferences(threadContext, ActionListener.wrap(v -> Assert.fail(), failures::add)));
+        }
+        fetches.get(1).onResponse(serialized);
+        Assert.assertEquals(1, failures.size());
+        Assert.assertTrue(failures.get(0) instanceof ElasticsearchSecurityException);
+    }
+}